@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.util.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer of Java class files, used to generate classes at runtime 
+ * without depending on a bytecode library.
+ * 
+ * Classes are written in the Java 5 class file format, so no stack map frames 
+ * are needed. The stack size of each method is given by the caller.
+ */
+public class ClassWriter {
+
+	public static final int ACC_PUBLIC = 0x0001;
+	public static final int ACC_PRIVATE = 0x0002;
+	public static final int ACC_STATIC = 0x0008;
+	public static final int ACC_FINAL = 0x0010;
+	public static final int ACC_SUPER = 0x0020;
+	
+	private static final int VERSION = 49;
+	
+	private static final byte UTF8 = 1;
+	private static final byte INTEGER = 3;
+	private static final byte CLASS = 7;
+	private static final byte STRING = 8;
+	private static final byte FIELD = 9;
+	private static final byte METHOD = 10;
+	private static final byte INTERFACE_METHOD = 11;
+	private static final byte NAME_AND_TYPE = 12;
+	
+	private final ByteArrayOutputStream constantBytes = new ByteArrayOutputStream();
+	private final DataOutputStream constants = new DataOutputStream(constantBytes);
+	private final Map<String, Integer> constantIndex = new HashMap<String, Integer>();
+	private int constantCount = 1;
+	
+	private final int access;
+	private final int thisClass;
+	private final int superClass;
+	private final int[] interfaces;
+	private final List<byte[]> fields = new ArrayList<byte[]>();
+	private final List<MethodWriter> methods = new ArrayList<MethodWriter>();
+	
+	/**
+	 * Class names are internal names, e.g. java/lang/Object
+	 */
+	public ClassWriter(int access, String name, String superName, String[] interfaceNames){
+		this.access = access | ACC_SUPER;
+		this.thisClass = classRef(name);
+		this.superClass = classRef(superName);
+		this.interfaces = new int[interfaceNames.length];
+		for(int i=0;i<interfaceNames.length;i++){
+			interfaces[i] = classRef(interfaceNames[i]);
+		}
+	}
+	
+	/**
+	 * Internal name of a class
+	 */
+	public static String internalName(Class<?> c){
+		return c.getName().replace('.', '/');
+	}
+	
+	/**
+	 * Name to use in a class reference, the descriptor in case of an array
+	 */
+	public static String classRefName(Class<?> c){
+		return c.isArray() ? descriptor(c) : internalName(c);
+	}
+	
+	public void field(int access, String name, String descriptor){
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeShort(access);
+			out.writeShort(utf8(name));
+			out.writeShort(utf8(descriptor));
+			out.writeShort(0);
+		} catch(IOException e){
+			// written to memory
+		}
+		fields.add(bytes.toByteArray());
+	}
+	
+	public MethodWriter method(int access, String name, String descriptor){
+		MethodWriter m = new MethodWriter(access, utf8(name), utf8(descriptor));
+		methods.add(m);
+		return m;
+	}
+	
+	public byte[] toByteArray(){
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			// the Code attribute name must be in the constant pool before it is written
+			int code = utf8("Code");
+			
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(VERSION);
+			out.writeShort(constantCount);
+			constants.flush();
+			constantBytes.writeTo(out);
+			out.writeShort(access);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(interfaces.length);
+			for(int i : interfaces){
+				out.writeShort(i);
+			}
+			out.writeShort(fields.size());
+			for(byte[] f : fields){
+				out.write(f);
+			}
+			out.writeShort(methods.size());
+			for(MethodWriter m : methods){
+				m.write(out, code);
+			}
+			out.writeShort(0);
+		} catch(IOException e){
+			// written to memory
+		}
+		return bytes.toByteArray();
+	}
+	
+	/*
+	 * Constant pool
+	 */
+	
+	public int utf8(String value){
+		return constant("U"+value, UTF8, value, 0, 0);
+	}
+	
+	public int integer(int value){
+		return constant("I"+value, INTEGER, null, value, 0);
+	}
+	
+	public int string(String value){
+		return constant("S"+value, STRING, null, utf8(value), 0);
+	}
+	
+	public int classRef(String name){
+		return constant("C"+name, CLASS, null, utf8(name), 0);
+	}
+	
+	public int fieldRef(String owner, String name, String descriptor){
+		return constant("F"+owner+"."+name+":"+descriptor, FIELD, null, classRef(owner), nameAndType(name, descriptor));
+	}
+	
+	public int methodRef(String owner, String name, String descriptor, boolean isInterface){
+		return constant((isInterface ? "J" : "M")+owner+"."+name+descriptor, isInterface ? INTERFACE_METHOD : METHOD, null, 
+				classRef(owner), nameAndType(name, descriptor));
+	}
+	
+	private int nameAndType(String name, String descriptor){
+		return constant("N"+name+":"+descriptor, NAME_AND_TYPE, null, utf8(name), utf8(descriptor));
+	}
+	
+	private int constant(String key, byte tag, String utf, int a, int b){
+		Integer index = constantIndex.get(key);
+		if(index!=null){
+			return index;
+		}
+		try {
+			constants.writeByte(tag);
+			switch(tag){
+			case UTF8:
+				constants.writeUTF(utf);
+				break;
+			case INTEGER:
+				constants.writeInt(a);
+				break;
+			case CLASS:
+			case STRING:
+				constants.writeShort(a);
+				break;
+			default:
+				constants.writeShort(a);
+				constants.writeShort(b);
+			}
+		} catch(IOException e){
+			// written to memory
+		}
+		index = constantCount++;
+		constantIndex.put(key, index);
+		return index;
+	}
+	
+	/**
+	 * Writes the code of a method
+	 */
+	public class MethodWriter {
+		
+		private final int access;
+		private final int name;
+		private final int descriptor;
+		
+		private byte[] code = new byte[64];
+		private int length = 0;
+		private int maxStack = 0;
+		private int maxLocals = 0;
+		
+		MethodWriter(int access, int name, int descriptor){
+			this.access = access;
+			this.name = name;
+			this.descriptor = descriptor;
+		}
+		
+		public void maxs(int maxStack, int maxLocals){
+			this.maxStack = maxStack;
+			this.maxLocals = maxLocals;
+		}
+		
+		/**
+		 * Current offset in the code
+		 */
+		public int position(){
+			return length;
+		}
+		
+		public MethodWriter op(int opcode){
+			if(length == code.length){
+				byte[] grown = new byte[code.length*2];
+				System.arraycopy(code, 0, grown, 0, length);
+				code = grown;
+			}
+			code[length++] = (byte)opcode;
+			return this;
+		}
+		
+		public MethodWriter op(int opcode, int u1){
+			return op(opcode).op(u1);
+		}
+		
+		/**
+		 * Instruction with a two byte operand, e.g. a constant pool index
+		 */
+		public MethodWriter op2(int opcode, int u2){
+			return op(opcode).u2(u2);
+		}
+		
+		public MethodWriter u2(int u2){
+			return op(u2 >> 8).op(u2);
+		}
+		
+		public MethodWriter u4(int u4){
+			return op(u4 >> 24).op(u4 >> 16).op(u4 >> 8).op(u4);
+		}
+		
+		/**
+		 * Push an int constant
+		 */
+		public MethodWriter push(int value){
+			if(value >= -1 && value <= 5){
+				return op(Opcodes.ICONST_0 + value);
+			} else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE){
+				return op(Opcodes.BIPUSH, value);
+			} else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE){
+				return op2(Opcodes.SIPUSH, value);
+			}
+			return ldc(integer(value));
+		}
+		
+		public MethodWriter ldc(int constant){
+			if(constant < 256){
+				return op(Opcodes.LDC, constant);
+			}
+			return op2(Opcodes.LDC_W, constant);
+		}
+		
+		public MethodWriter invoke(int opcode, String owner, String name, String descriptor){
+			boolean isInterface = opcode==Opcodes.INVOKEINTERFACE;
+			op2(opcode, methodRef(owner, name, descriptor, isInterface));
+			if(isInterface){
+				op(argumentSlots(descriptor) + 1).op(0);
+			}
+			return this;
+		}
+		
+		/**
+		 * Pad the code up to a multiple of four bytes, as needed after the tableswitch opcode
+		 */
+		public MethodWriter align(){
+			while(length % 4 != 0){
+				op(0);
+			}
+			return this;
+		}
+		
+		/**
+		 * Overwrite four bytes written earlier, e.g. a tableswitch offset
+		 */
+		public void patch(int position, int u4){
+			code[position] = (byte)(u4 >> 24);
+			code[position+1] = (byte)(u4 >> 16);
+			code[position+2] = (byte)(u4 >> 8);
+			code[position+3] = (byte)u4;
+		}
+		
+		/**
+		 * Overwrite two bytes written earlier, e.g. a branch offset
+		 */
+		public void patch2(int position, int u2){
+			code[position] = (byte)(u2 >> 8);
+			code[position+1] = (byte)u2;
+		}
+		
+		void write(DataOutputStream out, int codeAttribute) throws IOException {
+			out.writeShort(access);
+			out.writeShort(name);
+			out.writeShort(descriptor);
+			out.writeShort(1);
+			out.writeShort(codeAttribute);
+			out.writeInt(12 + length);
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(length);
+			out.write(code, 0, length);
+			out.writeShort(0); // exception table
+			out.writeShort(0); // attributes
+		}
+	}
+	
+	/**
+	 * The JVM type descriptor of a class, e.g. I or [Ljava/lang/String;
+	 */
+	public static String descriptor(Class<?> c){
+		if(c.isArray()){
+			return "["+descriptor(c.getComponentType());
+		} else if(!c.isPrimitive()){
+			return "L"+internalName(c)+";";
+		} else if(c == int.class){
+			return "I";
+		} else if(c == long.class){
+			return "J";
+		} else if(c == boolean.class){
+			return "Z";
+		} else if(c == double.class){
+			return "D";
+		} else if(c == float.class){
+			return "F";
+		} else if(c == short.class){
+			return "S";
+		} else if(c == byte.class){
+			return "B";
+		} else if(c == char.class){
+			return "C";
+		}
+		return "V";
+	}
+	
+	/**
+	 * The JVM method descriptor of a method, e.g. (ILjava/lang/String;)V
+	 */
+	public static String methodDescriptor(Method m){
+		StringBuilder sb = new StringBuilder("(");
+		for(Class<?> p : m.getParameterTypes()){
+			sb.append(descriptor(p));
+		}
+		sb.append(')').append(descriptor(m.getReturnType()));
+		return sb.toString();
+	}
+	
+	/**
+	 * Number of local variable slots taken by the arguments of a method descriptor
+	 */
+	public static int argumentSlots(String descriptor){
+		int slots = 0;
+		int i = 1;
+		while(descriptor.charAt(i) != ')'){
+			char c = descriptor.charAt(i);
+			if(c == 'J' || c == 'D'){
+				slots += 2;
+				i++;
+			} else {
+				slots++;
+				while(descriptor.charAt(i) == '['){
+					i++;
+				}
+				if(descriptor.charAt(i) == 'L'){
+					i = descriptor.indexOf(';', i);
+				}
+				i++;
+			}
+		}
+		return slots;
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.util.proxy;
+
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link ClassLoader} for classes generated at runtime. 
+ * 
+ * The classes used by the generated code are resolved to the exact classes they are 
+ * generated for, which can come from any bundle. Other classes are loaded by the parent.
+ */
+public class GeneratedClassLoader extends ClassLoader {
+
+	private final Map<String, Class<?>> known = new HashMap<String, Class<?>>();
+	
+	public GeneratedClassLoader(ClassLoader parent){
+		super(parent);
+	}
+	
+	/**
+	 * Make a class used by the generated code visible, for an array its component type
+	 */
+	public synchronized void add(Class<?> c){
+		while(c.isArray()){
+			c = c.getComponentType();
+		}
+		if(!c.isPrimitive()){
+			known.put(c.getName(), c);
+		}
+	}
+	
+	public Class<?> define(String name, byte[] bytes){
+		return defineClass(name, bytes, 0, bytes.length);
+	}
+	
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		Class<?> c;
+		synchronized(this){
+			c = known.get(name);
+		}
+		if(c!=null){
+			return c;
+		}
+		return super.loadClass(name, resolve);
+	}
+	
+	/**
+	 * Whether generated code in another package can use the class, i.e. it is public 
+	 * just like the classes it is nested in
+	 */
+	public static boolean isAccessible(Class<?> c){
+		while(c.isArray()){
+			c = c.getComponentType();
+		}
+		if(c.isPrimitive()){
+			return true;
+		}
+		for(Class<?> e = c; e!=null; e = e.getEnclosingClass()){
+			if(!Modifier.isPublic(e.getModifiers())){
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.util.proxy;
+
+/**
+ * JVM opcodes used by the generated classes
+ */
+public interface Opcodes {
+
+	int ACONST_NULL = 1;
+	int ICONST_0 = 3;
+	int BIPUSH = 16;
+	int SIPUSH = 17;
+	int LDC = 18;
+	int LDC_W = 19;
+	int ILOAD = 21;
+	int LLOAD = 22;
+	int FLOAD = 23;
+	int DLOAD = 24;
+	int ALOAD = 25;
+	int AALOAD = 50;
+	int ASTORE = 58;
+	int AASTORE = 83;
+	int POP = 87;
+	int DUP = 89;
+	int IFEQ = 153;
+	int IFNE = 154;
+	int IF_ICMPNE = 160;
+	int IF_ACMPNE = 166;
+	int GOTO = 167;
+	int TABLESWITCH = 170;
+	int IRETURN = 172;
+	int LRETURN = 173;
+	int FRETURN = 174;
+	int DRETURN = 175;
+	int ARETURN = 176;
+	int RETURN = 177;
+	int GETSTATIC = 178;
+	int PUTSTATIC = 179;
+	int GETFIELD = 180;
+	int PUTFIELD = 181;
+	int INVOKEVIRTUAL = 182;
+	int INVOKESPECIAL = 183;
+	int INVOKESTATIC = 184;
+	int INVOKEINTERFACE = 185;
+	int NEW = 187;
+	int ANEWARRAY = 189;
+	int ARRAYLENGTH = 190;
+	int ATHROW = 191;
+	int CHECKCAST = 192;
+	int INSTANCEOF = 193;
+	int IFNULL = 198;
+	int IFNONNULL = 199;
+	
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.util.proxy;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import be.iminds.aiolos.util.proxy.ClassWriter.MethodWriter;
+
+/**
+ * Generates proxy classes as an alternative to {@link java.lang.reflect.Proxy}. 
+ * 
+ * The generated class implements each interface method with a stub that passes its 
+ * method index and arguments to a {@link ProxyHandler}, so the handler can look up 
+ * what it needs for the method in an array instead of a map keyed by {@link Method}.
+ * Just like for a dynamic proxy, hashCode, equals and toString are passed to the handler 
+ * as well. Checked exceptions that a method does not declare are wrapped in an 
+ * {@link UndeclaredThrowableException}, also like for a dynamic proxy.
+ * 
+ * One class is generated per set of interfaces and reused for all proxies of that set, 
+ * as long as a proxy of the class is in use. The cache does not keep the class loaders 
+ * of the interfaces alive.
+ * 
+ * Generation is not possible for interfaces or types that are not public, 
+ * or on platforms that cannot define classes at runtime (e.g. Android).
+ */
+public class ProxyGenerator implements Opcodes {
+
+	public static final int HASH_CODE = 0;
+	public static final int EQUALS = 1;
+	public static final int TO_STRING = 2;
+	
+	private static final AtomicInteger count = new AtomicInteger();
+	
+	// generated classes by class loader of the first interface and names of the interfaces, 
+	// a class keeps its loader alive, so only weak references to the class loader are kept
+	private static final Map<ClassLoader, Map<String, WeakReference<ProxyClassLoader>>> cache = 
+			new WeakHashMap<ClassLoader, Map<String, WeakReference<ProxyClassLoader>>>();
+	
+	private static final String HANDLER = ClassWriter.internalName(ProxyHandler.class);
+	private static final String HANDLER_INVOKE = "(Ljava/lang/Object;I[Ljava/lang/Object;)Ljava/lang/Object;";
+	
+	/**
+	 * The methods of the proxy, indexed as passed to the handler: hashCode, equals 
+	 * and toString first, followed by the methods of the interfaces
+	 */
+	public static Method[] getMethods(Class<?>[] interfaces){
+		Map<String, Method> methods = new HashMap<String, Method>();
+		List<Method> table = new ArrayList<Method>();
+		try {
+			table.add(Object.class.getMethod("hashCode"));
+			table.add(Object.class.getMethod("equals", Object.class));
+			table.add(Object.class.getMethod("toString"));
+		} catch(NoSuchMethodException e){
+			// always present
+		}
+		for(Method m : table){
+			methods.put(m.getName()+ClassWriter.methodDescriptor(m), m);
+		}
+		for(Class<?> iface : interfaces){
+			for(Method m : iface.getMethods()){
+				if(Modifier.isStatic(m.getModifiers())){
+					continue;
+				}
+				// a method declared by more than one interface gets one stub
+				String key = m.getName()+ClassWriter.methodDescriptor(m);
+				if(!methods.containsKey(key)){
+					methods.put(key, m);
+					table.add(m);
+				}
+			}
+		}
+		return table.toArray(new Method[table.size()]);
+	}
+	
+	/**
+	 * Create a proxy of a generated class that implements the interfaces
+	 * 
+	 * @throws Exception when no class can be generated for these interfaces
+	 */
+	public static Object newProxyInstance(Class<?>[] interfaces, ProxyHandler handler) throws Exception {
+		ProxyClassLoader loader = getLoader(interfaces);
+		return loader.constructor.newInstance(new DeclaredExceptions(handler, loader.exceptions));
+	}
+	
+	/*
+	 * The loader of the class generated for the interfaces, generates the class 
+	 * when there is none for these interfaces yet
+	 */
+	private static ProxyClassLoader getLoader(Class<?>[] interfaces) throws Exception {
+		StringBuilder key = new StringBuilder();
+		for(Class<?> iface : interfaces){
+			key.append(iface.getName()).append(';');
+		}
+		ClassLoader classLoader = interfaces.length > 0 ? interfaces[0].getClassLoader() : null;
+		synchronized(cache){
+			Map<String, WeakReference<ProxyClassLoader>> classes = cache.get(classLoader);
+			if(classes==null){
+				classes = new HashMap<String, WeakReference<ProxyClassLoader>>();
+				cache.put(classLoader, classes);
+			}
+			WeakReference<ProxyClassLoader> ref = classes.get(key.toString());
+			ProxyClassLoader loader = ref!=null ? ref.get() : null;
+			// interfaces with the same names can still come from other class loaders
+			if(loader==null || !Arrays.equals(loader.interfaces, interfaces)){
+				loader = generate(interfaces);
+				classes.put(key.toString(), new WeakReference<ProxyClassLoader>(loader));
+			}
+			return loader;
+		}
+	}
+	
+	private static ProxyClassLoader generate(Class<?>[] interfaces) throws Exception {
+		Method[] methods = getMethods(interfaces);
+		ProxyClassLoader loader = new ProxyClassLoader(interfaces);
+		loader.exceptions = new Class<?>[methods.length][];
+		for(int i=0;i<methods.length;i++){
+			loader.exceptions[i] = methods[i].getExceptionTypes();
+		}
+		
+		String name = "be/iminds/aiolos/util/proxy/generated/Proxy"+count.incrementAndGet();
+		String[] interfaceNames = new String[interfaces.length];
+		for(int i=0;i<interfaces.length;i++){
+			if(!interfaces[i].isInterface() || !GeneratedClassLoader.isAccessible(interfaces[i])){
+				throw new IllegalArgumentException(interfaces[i].getName()+" is not a public interface");
+			}
+			interfaceNames[i] = ClassWriter.internalName(interfaces[i]);
+			loader.add(interfaces[i]);
+		}
+		
+		ClassWriter cw = new ClassWriter(ClassWriter.ACC_PUBLIC | ClassWriter.ACC_FINAL, name, "java/lang/Object", interfaceNames);
+		cw.field(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_FINAL, "handler", "L"+HANDLER+";");
+		
+		MethodWriter init = cw.method(ClassWriter.ACC_PUBLIC, "<init>", "(L"+HANDLER+";)V");
+		init.op(ALOAD, 0).invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V")
+			.op(ALOAD, 0).op(ALOAD, 1).op2(PUTFIELD, cw.fieldRef(name, "handler", "L"+HANDLER+";"))
+			.op(RETURN);
+		init.maxs(2, 2);
+		
+		for(int i=0;i<methods.length;i++){
+			Method m = methods[i];
+			Class<?>[] parameters = m.getParameterTypes();
+			Class<?> returnType = m.getReturnType();
+			if(!GeneratedClassLoader.isAccessible(returnType)){
+				throw new IllegalArgumentException("Return type of "+m.getName()+" is not public");
+			}
+			loader.add(returnType);
+			
+			MethodWriter mw = cw.method(ClassWriter.ACC_PUBLIC, m.getName(), ClassWriter.methodDescriptor(m));
+			mw.op(ALOAD, 0).op2(GETFIELD, cw.fieldRef(name, "handler", "L"+HANDLER+";"))
+				.op(ALOAD, 0).push(i);
+			
+			// the arguments array, local 0 is this
+			int local = 1;
+			if(parameters.length==0){
+				mw.op(ACONST_NULL);
+			} else {
+				mw.push(parameters.length).op2(ANEWARRAY, cw.classRef("java/lang/Object"));
+				for(int p=0;p<parameters.length;p++){
+					if(!GeneratedClassLoader.isAccessible(parameters[p])){
+						throw new IllegalArgumentException("Parameter type of "+m.getName()+" is not public");
+					}
+					loader.add(parameters[p]);
+					mw.op(DUP).push(p);
+					local += load(mw, parameters[p], local);
+					box(mw, parameters[p]);
+					mw.op(AASTORE);
+				}
+			}
+			mw.invoke(INVOKEINTERFACE, HANDLER, "invoke", HANDLER_INVOKE);
+			returnResult(cw, mw, returnType);
+			// handler, proxy, index, array, array, index, and a value of two slots
+			mw.maxs(8, local);
+		}
+		
+		Class<?> c = loader.define(name.replace('/', '.'), cw.toByteArray());
+		loader.constructor = c.getConstructor(ProxyHandler.class);
+		return loader;
+	}
+	
+	/*
+	 * Load a parameter on the stack, returns the number of slots it takes
+	 */
+	private static int load(MethodWriter mw, Class<?> type, int local){
+		if(type==long.class){
+			mw.op(LLOAD, local);
+			return 2;
+		} else if(type==double.class){
+			mw.op(DLOAD, local);
+			return 2;
+		} else if(type==float.class){
+			mw.op(FLOAD, local);
+		} else if(type.isPrimitive()){
+			mw.op(ILOAD, local);
+		} else {
+			mw.op(ALOAD, local);
+		}
+		return 1;
+	}
+	
+	private static void box(MethodWriter mw, Class<?> type){
+		if(type.isPrimitive()){
+			String wrapper = ClassWriter.internalName(wrapper(type));
+			mw.invoke(INVOKESTATIC, wrapper, "valueOf", "("+ClassWriter.descriptor(type)+")L"+wrapper+";");
+		}
+	}
+	
+	/*
+	 * Convert the Object returned by the handler to the return type and return it
+	 */
+	private static void returnResult(ClassWriter cw, MethodWriter mw, Class<?> type){
+		if(type==void.class){
+			mw.op(POP).op(RETURN);
+		} else if(type.isPrimitive()){
+			String wrapper = ClassWriter.internalName(wrapper(type));
+			mw.op2(CHECKCAST, cw.classRef(wrapper));
+			mw.invoke(INVOKEVIRTUAL, wrapper, type.getName()+"Value", "()"+ClassWriter.descriptor(type));
+			if(type==long.class){
+				mw.op(LRETURN);
+			} else if(type==double.class){
+				mw.op(DRETURN);
+			} else if(type==float.class){
+				mw.op(FRETURN);
+			} else {
+				mw.op(IRETURN);
+			}
+		} else {
+			if(type!=Object.class){
+				mw.op2(CHECKCAST, cw.classRef(ClassWriter.classRefName(type)));
+			}
+			mw.op(ARETURN);
+		}
+	}
+	
+	/**
+	 * The wrapper class of a primitive type
+	 */
+	public static Class<?> wrapper(Class<?> primitive){
+		if(primitive==int.class){
+			return Integer.class;
+		} else if(primitive==long.class){
+			return Long.class;
+		} else if(primitive==boolean.class){
+			return Boolean.class;
+		} else if(primitive==double.class){
+			return Double.class;
+		} else if(primitive==float.class){
+			return Float.class;
+		} else if(primitive==short.class){
+			return Short.class;
+		} else if(primitive==byte.class){
+			return Byte.class;
+		} else if(primitive==char.class){
+			return Character.class;
+		}
+		return Void.class;
+	}
+	
+	/*
+	 * Defines one proxy class and keeps its constructor, the loader is 
+	 * reachable as long as the class or one of its proxies is
+	 */
+	private static final class ProxyClassLoader extends GeneratedClassLoader {
+		
+		private final Class<?>[] interfaces;
+		private Constructor<?> constructor;
+		// declared exceptions by method index
+		private Class<?>[][] exceptions;
+		
+		ProxyClassLoader(Class<?>[] interfaces){
+			super(ProxyHandler.class.getClassLoader());
+			this.interfaces = interfaces.clone();
+		}
+	}
+	
+	/*
+	 * Wraps the checked exceptions of the handler that the called method does not declare
+	 */
+	private static final class DeclaredExceptions implements ProxyHandler {
+		
+		private final ProxyHandler handler;
+		private final Class<?>[][] exceptions;
+		
+		DeclaredExceptions(ProxyHandler handler, Class<?>[][] exceptions){
+			this.handler = handler;
+			this.exceptions = exceptions;
+		}
+		
+		@Override
+		public Object invoke(Object proxy, int method, Object[] args) throws Throwable {
+			try {
+				return handler.invoke(proxy, method, args);
+			} catch(RuntimeException e){
+				throw e;
+			} catch(Error e){
+				throw e;
+			} catch(Throwable t){
+				for(Class<?> declared : exceptions[method]){
+					if(declared.isInstance(t)){
+						throw t;
+					}
+				}
+				throw new UndeclaredThrowableException(t);
+			}
+		}
+	}
+}
@@ -30,14 +30,17 @@
  */
 package be.iminds.aiolos.event.broker.rs;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -56,13 +59,15 @@ public class RSEventBroker extends AbstractEventBroker {
 	private ServiceTracker<EventBroker, EventBroker> eventBrokerTracker;
 	private Map<EventBroker, String[]> brokers = Collections.synchronizedMap(new HashMap<EventBroker, String[]>());
 	
-	private ExecutorService notificationThread = Executors.newSingleThreadExecutor();
+	private ExecutorService notificationThread;
 	private Dictionary<String, Object> eventBrokerProperties = new Hashtable<String, Object>();
 	private ServiceRegistration reg;
 	
 	public RSEventBroker(final BundleContext context){
 		super(context);
 		
+		notificationThread = createNotificationThread(context.getProperty("aiolos.threads"));
+		
 		eventBrokerTracker = new ServiceTracker<EventBroker, EventBroker>(context, EventBroker.class, 
 				new ServiceTrackerCustomizer<EventBroker, EventBroker>() {
 
@@ -93,6 +98,8 @@ public class RSEventBroker extends AbstractEventBroker {
 		
 		eventBrokerProperties.put("service.exported.interfaces",new String[]{EventBroker.class.getName()});
 		eventBrokerProperties.put("event.topics", getTopics());
+		// remote brokers do not wait until an event is forwarded
+		eventBrokerProperties.put("aiolos.oneway", new String[]{"forwardEvent"});
 		reg = context.registerService(EventBroker.class, this, eventBrokerProperties);
 	}
 	
@@ -133,18 +140,21 @@ public class RSEventBroker extends AbstractEventBroker {
 			Runnable notification = new Runnable(){
 				@Override
 				public void run() {
+					// forward outside the lock, remote brokers are called over the network
+					List<Entry<EventBroker, String[]>> targets;
 					synchronized(brokers){
-						for(Entry<EventBroker, String[]> b : brokers.entrySet()){
-							try {
-								for(String topic : b.getValue()){
-									if(wildCardMatch(e.getTopic(), topic)){
-										b.getKey().forwardEvent(e);
-										break;
-									} 
-								}
-							} catch(Exception ex){
-								ex.printStackTrace();
+						targets = new ArrayList<Entry<EventBroker, String[]>>(brokers.entrySet());
+					}
+					for(Entry<EventBroker, String[]> b : targets){
+						try {
+							for(String topic : b.getValue()){
+								if(wildCardMatch(e.getTopic(), topic)){
+									b.getKey().forwardEvent(e);
+									break;
+								} 
 							}
+						} catch(Exception ex){
+							ex.printStackTrace();
 						}
 					}
 				}
@@ -160,6 +170,23 @@ public class RSEventBroker extends AbstractEventBroker {
 		}
 	}
 
+	/*
+	 * Events are forwarded in order by a single thread, a virtual thread 
+	 * when aiolos.threads=virtual and the JVM supports it (Java 21 or later)
+	 */
+	private static ExecutorService createNotificationThread(String threads){
+		if("virtual".equals(threads)){
+			try {
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				ThreadFactory factory = (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+				return Executors.newSingleThreadExecutor(factory);
+			} catch(Exception e){
+				// no virtual threads on this JVM
+			}
+		}
+		return Executors.newSingleThreadExecutor();
+	}
+	
 	private String[] getTopics(){
 		String[] t = null;
 		synchronized(topics){
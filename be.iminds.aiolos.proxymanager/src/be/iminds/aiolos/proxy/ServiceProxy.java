@@ -65,6 +65,8 @@ import be.iminds.aiolos.proxy.api.ProxyPolicy;
 import be.iminds.aiolos.proxy.api.ServiceProxyListener;
 import be.iminds.aiolos.proxy.policy.LocalPolicy;
 import be.iminds.aiolos.proxy.policy.RoundRobinPolicy;
+import be.iminds.aiolos.util.proxy.ProxyGenerator;
+import be.iminds.aiolos.util.proxy.ProxyHandler;
 
 /**
  * The {@link ServiceProxy} class is the actual proxy object that proxies a service interface. 
@@ -72,7 +74,7 @@ import be.iminds.aiolos.proxy.policy.RoundRobinPolicy;
  * {@link ServiceProxyListener}s. When multiple instances are available, the {@link ServiceProxy}
  * will choose one of the instances by the provided {@link ProxyPolicy}.
  */
-public class ServiceProxy implements InvocationHandler {
+public class ServiceProxy implements InvocationHandler, ProxyHandler {
 
 	private final Map<ServiceInfo, Object> instances = new HashMap<ServiceInfo, Object>();
 	
@@ -83,6 +85,9 @@ public class ServiceProxy implements InvocationHandler {
 	private final String serviceId;
 	private final ServiceReference<?> reference;
 	
+	// the methods of the generated proxy by index
+	private Method[] methods;
+	
 	private final Hashtable<String, Object> serviceProperties = new Hashtable<String, Object>();
 	
 	private boolean export = true; //by default export when local instance is available
@@ -154,6 +159,46 @@ public class ServiceProxy implements InvocationHandler {
 	@Override
 	public Object invoke(Object proxy, Method method, Object[] args)
 			throws Throwable {
+		// Capture these methods in the proxy : 
+		// When adding a (proxy of an) object to a list or map, 
+		// we don't want hashcode to change depending
+		// on which target of proxied references are chosen...
+		if(method.getName().equals("equals")){
+			return proxyEquals(args[0]);
+		} else if(method.getName().equals("hashCode")){
+			return this.hashCode();
+		} else if(method.getName().equals("toString")){
+			return this.toString();
+		}
+		return call(method, args);
+	}
+	
+	@Override
+	public Object invoke(Object proxy, int method, Object[] args)
+			throws Throwable {
+		// the generated proxy passes the index of the method instead
+		switch(method){
+		case ProxyGenerator.EQUALS:
+			return proxyEquals(args[0]);
+		case ProxyGenerator.HASH_CODE:
+			return this.hashCode();
+		case ProxyGenerator.TO_STRING:
+			return this.toString();
+		}
+		return call(methods[method], args);
+	}
+	
+	private boolean proxyEquals(Object other){
+		// workaround ... other is not of type ServiceProxy, but a proxy object of
+		// the proxied interface ... however if you call method on other, it will
+		// be captured by other's ServiceProxy ...
+		if(other == null)
+			return false;
+		
+		return this.hashCode() == other.hashCode();
+	}
+	
+	private Object call(Method method, Object[] args) throws Throwable {
 		long t1 = System.currentTimeMillis();
 		long threadId = Thread.currentThread().getId();
 		
@@ -161,24 +206,6 @@ public class ServiceProxy implements InvocationHandler {
 		ServiceInfo target = null;
 		
 		try {
-			// Capture these methods in the proxy : 
-			// When adding a (proxy of an) object to a list or map, 
-			// we don't want hashcode to change depending
-			// on which target of proxied references are chosen...
-			if(method.getName().equals("equals")){
-				// workaround ... args[0] is not of type ServiceProxy, but a proxy object of
-				// the proxied interface ... however if you call method on args[0], it will
-				// be captured by args[0]'s ServiceProxy ...
-				if(args[0] == null)
-					return false;
-				
-				return this.hashCode() == args[0].hashCode();
-			} else if(method.getName().equals("hashCode")){
-				return this.hashCode();
-			} else if(method.getName().equals("toString")){
-				return this.toString();
-			}
-			
 			// Forward call to one of the service instances selected by the policy
 			read.lock();
 
@@ -372,6 +399,17 @@ public class ServiceProxy implements InvocationHandler {
 		}
 	}
 	
+	// generate a proxy class, a dynamic proxy is used when this fails (e.g. on Android)
+	private Object createProxy(Class<?>[] clazzes){
+		try {
+			methods = ProxyGenerator.getMethods(clazzes);
+			return ProxyGenerator.newProxyInstance(clazzes, this);
+		} catch(Throwable t){
+			Activator.logger.log(LogService.LOG_DEBUG, "Using a dynamic proxy for "+componentId+" "+serviceId+" : "+t.getMessage());
+		}
+		return Proxy.newProxyInstance(this.getClass().getClassLoader(), clazzes, this);
+	}
+	
 	private void registerProxyService() throws ClassNotFoundException {
 		Class[] clazzes = new Class[serviceInterfaces.size()];
 		int i =0;
@@ -384,7 +422,7 @@ public class ServiceProxy implements InvocationHandler {
 		}
 		Object monitorProxy;
 		if(isInterface){
-			monitorProxy = Proxy.newProxyInstance(this.getClass().getClassLoader(), clazzes, this);
+			monitorProxy = createProxy(clazzes);
 		} else {
 			// just reregister the object in case no service interface?
 			// work around for e.g. allowing Fragment service on Android
@@ -42,6 +42,7 @@ import org.osgi.service.remoteserviceadmin.RemoteServiceAdmin;
 import org.osgi.util.tracker.ServiceTracker;
 import org.osgi.util.tracker.ServiceTrackerCustomizer;
 
+import be.iminds.aiolos.rsa.api.TransportMetrics;
 import be.iminds.aiolos.rsa.command.RSACommands;
 import be.iminds.aiolos.rsa.serialization.kryo.KryoDeserializer;
 import be.iminds.aiolos.rsa.serialization.kryo.KryoFactory;
@@ -85,6 +86,7 @@ public class Activator implements BundleActivator {
 		rsa.activate();
 			
 		ref  = context.registerService(RemoteServiceAdmin.class,rsa, props).getReference();
+		context.registerService(TransportMetrics.class, rsa, null);
 			
 		ROSGiBundleListener listener = new ROSGiBundleListener(rsa);
 		context.addBundleListener(listener);
@@ -97,7 +99,7 @@ public class Activator implements BundleActivator {
 		Dictionary<String, Object> commandProps = new Hashtable<String, Object>();
 		try {
 			commandProps.put(CommandProcessor.COMMAND_SCOPE, "rsa");
-			commandProps.put(CommandProcessor.COMMAND_FUNCTION, new String[] {"endpoints", "importEndpoint", "exportEndpoint", "channels"});
+			commandProps.put(CommandProcessor.COMMAND_FUNCTION, new String[] {"endpoints", "importEndpoint", "exportEndpoint", "channels", "pools", "compression", "stats"});
 			context.registerService(Object.class, commands, commandProps);
 		} catch(Throwable t){
 			// ignore exception, in that case no GoGo shell available
@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.osgi.framework.ServiceException;
+import org.osgi.service.log.LogService;
+
+import be.iminds.aiolos.rsa.network.api.MessageFuture;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+import be.iminds.aiolos.rsa.network.message.RemoteCallResultMessage;
+
+/**
+ * Support for service methods that return a {@link Future}, CompletableFuture/CompletionStage 
+ * or an OSGi Promise.
+ * 
+ * At the client side the proxy returns such an object immediately, which is completed when
+ * the result message arrives. At the server side the returned object is resolved before 
+ * the result is sent back. CompletableFuture and Promise are accessed by reflection, 
+ * as they are not available on all platforms.
+ */
+abstract class AsyncResult {
+
+	private static final String COMPLETABLE_FUTURE = "java.util.concurrent.CompletableFuture";
+	private static final String COMPLETION_STAGE = "java.util.concurrent.CompletionStage";
+	private static final String PROMISE = "org.osgi.util.promise.Promise";
+	private static final String DEFERRED = "org.osgi.util.promise.Deferred";
+	
+	private static final AsyncResult FUTURE = new AsyncResult(){
+		@Override
+		Object create(MessageFuture future, String errorMessage){
+			return new RemoteFuture(future);
+		}
+	};
+	
+	// return type -> adapter, null value if the type is not asynchronous
+	private static final Map<Class<?>, AsyncResult> adapters = new WeakHashMap<Class<?>, AsyncResult>();
+	
+	/**
+	 * Get the adapter for a method return type, or null when the method is synchronous
+	 */
+	static AsyncResult forType(Class<?> type){
+		if(type.isPrimitive()){
+			return null;
+		}
+		synchronized(adapters){
+			if(adapters.containsKey(type)){
+				return adapters.get(type);
+			}
+			AsyncResult adapter = null;
+			try {
+				adapter = createAdapter(type);
+			} catch(Exception e){
+				Activator.logger.log(LogService.LOG_WARNING, "Asynchronous return type "+type.getName()+" not supported, calls will be synchronous", e);
+			}
+			adapters.put(type, adapter);
+			return adapter;
+		}
+	}
+	
+	private static AsyncResult createAdapter(Class<?> type) throws Exception {
+		String name = type.getName();
+		if(type==Future.class){
+			return FUTURE;
+		} else if(name.equals(COMPLETABLE_FUTURE) || name.equals(COMPLETION_STAGE)){
+			Class<?> completable = type.getClassLoader()==null ? 
+					Class.forName(COMPLETABLE_FUTURE) : type.getClassLoader().loadClass(COMPLETABLE_FUTURE);
+			return new CompletableResult(completable);
+		} else if(name.equals(PROMISE)){
+			return new PromiseResult(type.getClassLoader().loadClass(DEFERRED));
+		}
+		return null;
+	}
+	
+	/**
+	 * Create the object returned to the caller, completed when the future is done
+	 */
+	abstract Object create(MessageFuture future, String errorMessage) throws Exception;
+	
+	/**
+	 * Wait for the value of an asynchronous result returned by the service object, 
+	 * the failure of the result is thrown
+	 */
+	static Object resolve(Object result) throws Throwable {
+		if(result==null){
+			return null;
+		}
+		if(result instanceof Future){
+			try {
+				return ((Future<?>)result).get();
+			} catch(ExecutionException e){
+				throw e.getCause();
+			}
+		}
+		
+		Class<?> promise = findInterface(result.getClass(), PROMISE);
+		if(promise!=null){
+			try {
+				return promise.getMethod("getValue").invoke(result);
+			} catch(InvocationTargetException e){
+				Throwable t = e.getTargetException();
+				// a failed promise throws an InvocationTargetException with the failure
+				if(t instanceof InvocationTargetException){
+					t = ((InvocationTargetException)t).getTargetException();
+				}
+				throw t;
+			}
+		}
+		
+		// other CompletionStages
+		Method toCompletableFuture = null;
+		try {
+			toCompletableFuture = result.getClass().getMethod("toCompletableFuture");
+		} catch(NoSuchMethodException e){
+			return result;
+		}
+		return resolve(toCompletableFuture.invoke(result));
+	}
+	
+	private static Class<?> findInterface(Class<?> clazz, String name){
+		for(Class<?> c = clazz; c!=null; c = c.getSuperclass()){
+			for(Class<?> i : c.getInterfaces()){
+				if(i.getName().equals(name)){
+					return i;
+				}
+			}
+		}
+		return null;
+	}
+	
+	/*
+	 * Get the value of the result message, or throw the remote exception
+	 */
+	static Object getValue(MessageFuture future, String errorMessage) throws Throwable {
+		try {
+			return getValue(future.get());
+		} catch(ExecutionException e){
+			throw new ServiceException(errorMessage, ServiceException.REMOTE, e.getCause());
+		}
+	}
+	
+	static Object getValue(ROSGiMessage resultMsg) throws Throwable {
+		RemoteCallResultMessage result = (RemoteCallResultMessage) resultMsg;
+		if (result.causedException()) {
+			throw result.getException();
+		}
+		return result.getResult();
+	}
+	
+	/*
+	 * Plain Future that maps the result message to its value
+	 */
+	private static class RemoteFuture implements Future<Object> {
+		
+		private final MessageFuture future;
+		
+		public RemoteFuture(MessageFuture future){
+			this.future = future;
+		}
+		
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return future.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return future.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return future.isDone();
+		}
+
+		@Override
+		public Object get() throws InterruptedException, ExecutionException {
+			return value(future.get());
+		}
+
+		@Override
+		public Object get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException, TimeoutException {
+			return value(future.get(timeout, unit));
+		}
+		
+		private Object value(ROSGiMessage resultMsg) throws ExecutionException {
+			try {
+				return getValue(resultMsg);
+			} catch(Throwable t){
+				throw new ExecutionException(t);
+			}
+		}
+	}
+	
+	/*
+	 * Completes a CompletableFuture when the result message arrives
+	 */
+	private static class CompletableResult extends AsyncResult {
+		
+		private final Class<?> completableClass;
+		private final Method complete;
+		private final Method completeExceptionally;
+		
+		public CompletableResult(Class<?> completableClass) throws Exception {
+			this.completableClass = completableClass;
+			this.complete = completableClass.getMethod("complete", Object.class);
+			this.completeExceptionally = completableClass.getMethod("completeExceptionally", Throwable.class);
+		}
+		
+		@Override
+		Object create(final MessageFuture future, final String errorMessage) throws Exception {
+			final Object completable = completableClass.newInstance();
+			future.addListener(new Runnable(){
+				public void run(){
+					try {
+						Object value;
+						try {
+							value = getValue(future, errorMessage);
+						} catch(Throwable t){
+							completeExceptionally.invoke(completable, t);
+							return;
+						}
+						complete.invoke(completable, value);
+					} catch(Exception e){
+						Activator.logger.log(LogService.LOG_ERROR, "Error completing future", e);
+					}
+				}
+			});
+			return completable;
+		}
+	}
+	
+	/*
+	 * Resolves an OSGi Promise through its Deferred when the result message arrives
+	 */
+	private static class PromiseResult extends AsyncResult {
+		
+		private final Class<?> deferredClass;
+		private final Method getPromise;
+		private final Method resolve;
+		private final Method fail;
+		
+		public PromiseResult(Class<?> deferredClass) throws Exception {
+			this.deferredClass = deferredClass;
+			this.getPromise = deferredClass.getMethod("getPromise");
+			this.resolve = deferredClass.getMethod("resolve", Object.class);
+			this.fail = deferredClass.getMethod("fail", Throwable.class);
+		}
+		
+		@Override
+		Object create(final MessageFuture future, final String errorMessage) throws Exception {
+			final Object deferred = deferredClass.newInstance();
+			future.addListener(new Runnable(){
+				public void run(){
+					try {
+						Object value;
+						try {
+							value = getValue(future, errorMessage);
+						} catch(Throwable t){
+							fail.invoke(deferred, t);
+							return;
+						}
+						resolve.invoke(deferred, value);
+					} catch(Exception e){
+						Activator.logger.log(LogService.LOG_ERROR, "Error resolving promise", e);
+					}
+				}
+			});
+			return getPromise.invoke(deferred);
+		}
+	}
+}
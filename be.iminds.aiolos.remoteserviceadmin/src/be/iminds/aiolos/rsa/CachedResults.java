@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Results of the cacheable methods of an imported service, keyed by method and arguments. 
+ * 
+ * Entries expire after the time to live, and the least recently used entry 
+ * is evicted when the cache is full. The arguments are kept as the key, arrays are 
+ * copied but other arguments must not be modified after the call (see {@link be.iminds.aiolos.rsa.api.Cacheable}).
+ */
+final class CachedResults {
+
+	// returned by get when there is no valid entry
+	static final Object MISS = new Object();
+	
+	private final long ttl;
+	private final int size;
+	private final LinkedHashMap<Key, Result> entries;
+	// incremented on each invalidation, results of calls started before are not cached
+	private long generation = 0;
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	
+	CachedResults(long ttl, int size){
+		this.ttl = ttl*1000000L;
+		this.size = size;
+		this.entries = new LinkedHashMap<Key, Result>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest){
+				return size() > CachedResults.this.size;
+			}
+		};
+	}
+	
+	synchronized Object get(Method method, Object[] args){
+		Key key = new Key(method, args);
+		Result r = entries.get(key);
+		if(r!=null && r.expires - System.nanoTime() > 0){
+			hits.incrementAndGet();
+			return r.result;
+		}
+		if(r!=null){
+			entries.remove(key);
+		}
+		misses.incrementAndGet();
+		return MISS;
+	}
+	
+	synchronized long getGeneration(){
+		return generation;
+	}
+	
+	/*
+	 * Cache the result of a call that started at the given generation
+	 */
+	synchronized void put(Method method, Object[] args, Object result, long generation){
+		if(generation!=this.generation){
+			return;
+		}
+		// the caller can reuse its argument array and the arrays passed as argument
+		entries.put(new Key(method, copy(args)), new Result(result, System.nanoTime()+ttl));
+	}
+	
+	private static Object[] copy(Object[] array){
+		if(array==null){
+			return null;
+		}
+		Object[] copy = array.clone();
+		for(int i=0;i<copy.length;i++){
+			Object o = copy[i];
+			if(o instanceof Object[]){
+				copy[i] = copy((Object[])o);
+			} else if(o!=null && o.getClass().isArray()){
+				int length = Array.getLength(o);
+				Object primitives = Array.newInstance(o.getClass().getComponentType(), length);
+				System.arraycopy(o, 0, primitives, 0, length);
+				copy[i] = primitives;
+			}
+		}
+		return copy;
+	}
+	
+	/*
+	 * Drop the results of the methods with the given names, or of all methods 
+	 */
+	synchronized void invalidate(List<String> methods){
+		generation++;
+		if(methods==null || methods.isEmpty()){
+			entries.clear();
+			return;
+		}
+		Iterator<Key> it = entries.keySet().iterator();
+		while(it.hasNext()){
+			if(methods.contains(it.next().method.getName())){
+				it.remove();
+			}
+		}
+	}
+	
+	synchronized int getSize(){
+		return entries.size();
+	}
+	
+	long getHits(){
+		return hits.get();
+	}
+	
+	long getMisses(){
+		return misses.get();
+	}
+	
+	private static final class Key {
+		private final Method method;
+		private final Object[] args;
+		private final int hash;
+		
+		Key(Method method, Object[] args){
+			this.method = method;
+			this.args = args;
+			this.hash = 31*method.hashCode() + Arrays.deepHashCode(args);
+		}
+		
+		@Override
+		public int hashCode(){
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object o){
+			if(!(o instanceof Key)){
+				return false;
+			}
+			Key other = (Key) o;
+			return method.equals(other.method) && Arrays.deepEquals(args, other.args);
+		}
+	}
+	
+	private static final class Result {
+		private final Object result;
+		private final long expires;
+		
+		Result(Object result, long expires){
+			this.result = result;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.service.log.LogService;
+
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.message.CallBatchMessage;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+
+/**
+ * Packs concurrent remote calls to the same peer in a single {@link CallBatchMessage}.
+ * 
+ * A call is queued until the batch is sent, which is as soon as a thread of the message 
+ * handler is available or after rsa.call.batch.delay microseconds. Calls made in the meantime 
+ * join the batch, a batch of rsa.call.batch calls is sent immediately by the caller.
+ * Calls are only batched over version 7 channels.
+ * 
+ * The receiver runs the calls of a batch one after the other on the thread that handles 
+ * the batch. With rsa.call.batch.parallel the calls start on a separate batch handler, 
+ * a call that finds no free thread there runs on the thread of the batch.
+ */
+final class CallBatcher {
+
+	private final ROSGiServiceAdmin admin;
+	private final Executor executor;
+	private final ScheduledExecutorService timer;
+	
+	private final ConcurrentMap<NetworkChannel, Batch> batches = new ConcurrentHashMap<NetworkChannel, Batch>();
+	
+	CallBatcher(ROSGiServiceAdmin admin, Executor executor, ScheduledExecutorService timer){
+		this.admin = admin;
+		this.executor = executor;
+		this.timer = timer;
+	}
+	
+	static boolean isEnabled(NetworkChannel channel){
+		return Config.CALL_BATCH > 1 && channel.getProtocolVersion() >= ROSGiMessage.VERSION_7;
+	}
+	
+	/*
+	 * Queue a call, the call has its xid already
+	 */
+	void add(ROSGiMessage call, NetworkChannel channel){
+		Batch batch = batches.get(channel);
+		if(batch==null){
+			Batch created = new Batch(channel);
+			batch = batches.putIfAbsent(channel, created);
+			if(batch==null){
+				batch = created;
+			}
+		}
+		batch.add(call);
+	}
+	
+	/*
+	 * Forget the queue of a closed channel, its pending calls are failed by the admin
+	 */
+	void close(NetworkChannel channel){
+		batches.remove(channel);
+	}
+	
+	private void send(List<ROSGiMessage> calls, NetworkChannel channel){
+		if(calls.isEmpty()){
+			return;
+		}
+		if(calls.size() > 1){
+			try {
+				admin.transmit(new CallBatchMessage(ROSGiMessage.CALL_BATCH, calls), channel);
+				return;
+			} catch(Exception e){
+				// send the calls one by one, so only the calls that cannot be sent fail
+			}
+		}
+		for(ROSGiMessage call : calls){
+			try {
+				admin.transmit(call, channel);
+			} catch(Exception e){
+				Activator.logger.log(LogService.LOG_WARNING, "Error sending call "+call.getXID()+" to "+channel.getRemoteAddress(), e);
+				admin.failCall(call.getXID());
+			}
+		}
+	}
+	
+	private final class Batch implements Runnable {
+		
+		private final NetworkChannel channel;
+		private List<ROSGiMessage> calls = new ArrayList<ROSGiMessage>();
+		private boolean scheduled = false;
+		
+		Batch(NetworkChannel channel){
+			this.channel = channel;
+		}
+		
+		void add(ROSGiMessage call){
+			List<ROSGiMessage> full = null;
+			synchronized(this){
+				calls.add(call);
+				if(calls.size() >= Config.CALL_BATCH){
+					full = take();
+				} else if(!scheduled){
+					scheduled = true;
+					if(Config.CALL_BATCH_DELAY > 0){
+						// the batch is sent on the executor, the timer only wakes it up
+						timer.schedule(new Runnable(){
+							public void run(){
+								executor.execute(Batch.this);
+							}
+						}, Config.CALL_BATCH_DELAY, TimeUnit.MICROSECONDS);
+					} else {
+						executor.execute(this);
+					}
+				}
+			}
+			if(full!=null){
+				send(full, channel);
+			}
+		}
+		
+		@Override
+		public void run(){
+			List<ROSGiMessage> pending;
+			synchronized(this){
+				scheduled = false;
+				pending = take();
+			}
+			send(pending, channel);
+		}
+		
+		private List<ROSGiMessage> take(){
+			List<ROSGiMessage> taken = calls;
+			calls = new ArrayList<ROSGiMessage>();
+			return taken;
+		}
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import be.iminds.aiolos.rsa.exception.ROSGiException;
+import be.iminds.aiolos.rsa.network.api.MessageSender;
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.message.StreamChunkMessage;
+import be.iminds.aiolos.rsa.network.message.StreamCreditMessage;
+
+/**
+ * {@link InputStream} that is filled with the {@link StreamChunkMessage}s of a 
+ * streamed argument while it is read.
+ * 
+ * Chunks can arrive out of order, they are buffered until they are read. Each chunk that 
+ * is read grants the sender a credit to send another one, so no more than the window of 
+ * rsa.stream.window chunks is buffered.
+ */
+class ChunkedInputStream extends InputStream {
+
+	private final long senderId;
+	private final int streamId;
+	private final NetworkChannel channel;
+	private final MessageSender sender;
+	private final StreamArguments streams;
+	
+	// a lock instead of a monitor, so waiting readers do not pin a carrier thread
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition arrived = lock.newCondition();
+	
+	// received chunks that are not read yet, indexed by sequence number
+	private final Map<Integer, StreamChunkMessage> chunks = new HashMap<Integer, StreamChunkMessage>();
+	private int next = 0;
+	private int credits = 0;
+	
+	private byte[] current;
+	private int position = 0;
+	private int limit = 0;
+	
+	private boolean end = false;
+	private boolean failed = false;
+	private boolean closed = false;
+	// the sender sends no more chunks after the last or a failed chunk, 
+	// the stream is finished once all chunks up to that one are received
+	private int received = 0;
+	private int lastSequence = -1;
+	private boolean abandoned = false;
+	private boolean finished = false;
+	// set once the call that uses the stream is received
+	private boolean claimed = false;
+	
+	ChunkedInputStream(long senderId, int streamId, NetworkChannel channel, MessageSender sender, StreamArguments streams){
+		this.senderId = senderId;
+		this.streamId = streamId;
+		this.channel = channel;
+		this.sender = sender;
+		this.streams = streams;
+	}
+	
+	long getSenderId(){
+		return senderId;
+	}
+	
+	int getStreamId(){
+		return streamId;
+	}
+	
+	NetworkChannel getChannel(){
+		return channel;
+	}
+	
+	/*
+	 * Add a received chunk, returns true when the stream can be forgotten: no more chunks will 
+	 * be received and the stream is closed, or the sender gave up before the call was received
+	 */
+	boolean received(StreamChunkMessage chunk){
+		lock.lock();
+		try {
+			received++;
+			if(chunk.isLast() || chunk.isFailed()){
+				lastSequence = chunk.getSequence();
+				abandoned = chunk.isFailed();
+			}
+			finished = lastSequence >= 0 && received > lastSequence;
+			if(!closed){
+				chunks.put(chunk.getSequence(), chunk);
+				arrived.signalAll();
+			}
+			return finished && (closed || (abandoned && !claimed));
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	void claim(){
+		lock.lock();
+		try {
+			claimed = true;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	void fail(){
+		lock.lock();
+		try {
+			failed = true;
+			finished = true;
+			arrived.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public int read() throws IOException {
+		lock.lock();
+		try {
+			if(!fill()){
+				return -1;
+			}
+			return current[position++] & 0xFF;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0){
+			return 0;
+		}
+		lock.lock();
+		try {
+			if(!fill()){
+				return -1;
+			}
+			int n = Math.min(len, limit - position);
+			System.arraycopy(current, position, b, off, n);
+			position += n;
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public int available() throws IOException {
+		lock.lock();
+		try {
+			return limit - position;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public void close(){
+		streams.close(this);
+	}
+	
+	/*
+	 * Make sure unread data is available, waits for the next chunk when needed.
+	 * Returns false at the end of the stream, called with the lock held.
+	 */
+	private boolean fill() throws IOException {
+		while(position == limit){
+			if(closed){
+				throw new IOException("Stream "+streamId+" is closed");
+			}
+			if(end){
+				return false;
+			}
+			
+			StreamChunkMessage chunk;
+			long deadline = System.currentTimeMillis() + Config.TIMEOUT;
+			while((chunk = chunks.remove(next))==null){
+				if(failed){
+					throw new IOException("Stream "+streamId+" from "+channel.getRemoteAddress()+" failed");
+				}
+				long wait = deadline - System.currentTimeMillis();
+				if(wait <= 0){
+					throw new IOException("Timeout receiving stream "+streamId+" from "+channel.getRemoteAddress());
+				}
+				try {
+					arrived.await(wait, TimeUnit.MILLISECONDS);
+				} catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted receiving stream "+streamId);
+				}
+			}
+			next++;
+			if(chunk.isFailed()){
+				failed = true;
+				throw new IOException("Sender of stream "+streamId+" failed to read the stream");
+			}
+			current = chunk.getData();
+			position = 0;
+			limit = chunk.getLength();
+			end = chunk.isLast();
+			
+			if(!end && ++credits >= Math.max(1, Config.STREAM_WINDOW/2)){
+				grant(credits);
+				credits = 0;
+			}
+		}
+		return true;
+	}
+	
+	/*
+	 * Stop receiving, the sender is told to stop when the stream is not completely received.
+	 * Returns true when no more chunks will be received.
+	 */
+	boolean cancel(){
+		lock.lock();
+		try {
+			if(closed){
+				return finished;
+			}
+			closed = true;
+			chunks.clear();
+			current = null;
+			position = limit = 0;
+			if(!finished){
+				grant(StreamCreditMessage.CANCEL);
+			}
+			arrived.signalAll();
+			return finished;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	private void grant(int credits){
+		try {
+			sender.sendMessage(new StreamCreditMessage(streamId, credits), channel);
+		} catch(ROSGiException e){
+			failed = true;
+		}
+	}
+}
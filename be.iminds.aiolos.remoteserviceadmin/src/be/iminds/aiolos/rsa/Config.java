@@ -40,13 +40,79 @@ public class Config {
 		KRYO
 	}
 	
+	public enum TransportStrategy {
+		TCP,
+		NIO
+	}
+	
+	public enum CompressionStrategy {
+		NONE,
+		DEFLATE
+	}
+	
+	public enum ExecutionStrategy {
+		CACHED,
+		BOUNDED
+	}
+	
+	public enum ThreadStrategy {
+		PLATFORM,
+		VIRTUAL
+	}
+	
 	public static String CONFIG_ROSGI = "be.iminds.aiolos.r-osgi";
+	// endpoint property with the method signatures of an endpoint, indexed by method id
+	public static String ENDPOINT_METHODS = "be.iminds.aiolos.r-osgi.methods";
+	// endpoint property with the unix domain socket file of the exporting framework
+	public static String ENDPOINT_LOCAL_PATH = "be.iminds.aiolos.r-osgi.local";
+	// endpoint property telling that stream arguments can be sent in chunks
+	public static String ENDPOINT_STREAMS = "be.iminds.aiolos.r-osgi.streams";
+	// service property with the names of void methods that are called without waiting for the result
+	public static String ENDPOINT_ONEWAY = "aiolos.oneway";
+	// service property with the maximum number of concurrent calls of an endpoint
+	public static String ENDPOINT_CONCURRENCY = "aiolos.concurrency";
+	// service property with the milliseconds an importer waits for the result of a call
+	public static String ENDPOINT_TIMEOUT = "aiolos.timeout";
+	// service property with the names of methods of which importers may cache the results
+	public static String ENDPOINT_CACHE = "aiolos.cache";
+	// service property with the milliseconds cached results are valid
+	public static String ENDPOINT_CACHE_TTL = "aiolos.cache.ttl";
 	
 	public static String PROP_INTERFACE = "rsa.interface";
 	public static String PROP_IP = "rsa.ip";
 	public static String PROP_PORT = "rsa.port";
 	public static String PROP_SERIALIZATION = "rsa.serialization";
 	public static String PROP_TIMEOUT = "rsa.timeout";
+	public static String PROP_TRANSPORT = "rsa.transport";
+	public static String PROP_NIO_THREADS = "rsa.nio.threads";
+	public static String PROP_PROTOCOL_VERSION = "rsa.protocol.version";
+	public static String PROP_POOL_SIZE = "rsa.pool.size";
+	public static String PROP_POOL_LARGE_MESSAGE = "rsa.pool.large";
+	public static String PROP_MAX_FRAME = "rsa.frame.max";
+	public static String PROP_BATCH_DELAY = "rsa.batch.delay";
+	public static String PROP_COMPRESSION = "rsa.compression";
+	public static String PROP_COMPRESSION_THRESHOLD = "rsa.compression.threshold";
+	public static String PROP_LOCAL = "rsa.local";
+	public static String PROP_LOCAL_DIR = "rsa.local.dir";
+	public static String PROP_LOOPBACK = "rsa.loopback";
+	public static String PROP_LOOPBACK_COPY = "rsa.loopback.copy";
+	public static String PROP_STREAM_CHUNK = "rsa.stream.chunk";
+	public static String PROP_STREAM_WINDOW = "rsa.stream.window";
+	public static String PROP_RESULT_BATCH = "rsa.result.batch";
+	public static String PROP_RESULT_WINDOW = "rsa.result.window";
+	public static String PROP_CALL_BATCH = "rsa.call.batch";
+	public static String PROP_CALL_BATCH_DELAY = "rsa.call.batch.delay";
+	public static String PROP_CALL_BATCH_PARALLEL = "rsa.call.batch.parallel";
+	public static String PROP_EXECUTION = "rsa.execution";
+	public static String PROP_CALL_THREADS = "rsa.call.threads";
+	public static String PROP_CALL_QUEUE = "rsa.call.queue";
+	public static String PROP_CONCURRENCY = "rsa.concurrency";
+	// shared with the other aiolos bundles
+	public static String PROP_THREADS = "aiolos.threads";
+	public static String PROP_GENERATED_DISPATCH = "rsa.dispatch.generated";
+	public static String PROP_GENERATED_PROXY = "rsa.proxy.generated";
+	public static String PROP_CACHE_TTL = "rsa.cache.ttl";
+	public static String PROP_CACHE_SIZE = "rsa.cache.size";
 	
 	
 	public static int PORT = 9278;  // rsa.port
@@ -54,5 +120,68 @@ public class Config {
 	public static String IP = null; // rsa.ip
 	public static int TIMEOUT = 15000; // rsa.timeout
 	public static SerializationStrategy SERIALIZATION = SerializationStrategy.KRYO; // rsa.serialization
+	public static TransportStrategy TRANSPORT = TransportStrategy.TCP; // rsa.transport
+	public static int NIO_THREADS = Runtime.getRuntime().availableProcessors(); // rsa.nio.threads
+	// highest protocol version offered when opening a channel, peers that only speak version 1 are still accepted
+	// version 3 registers the classes of exported interfaces per channel, version 4 adds compression,
+	// version 5 adds streamed results, version 6 adds one-way calls, version 7 adds batched calls,
+	// version 8 adds call deadlines, version 9 adds cache invalidation, version 10 adds batched endpoint requests
+	public static int PROTOCOL_VERSION = 10; // rsa.protocol.version
+	// number of connections opened to each remote peer
+	public static int POOL_SIZE = 1; // rsa.pool.size
+	// messages of at least this many bytes use a separate connection of the pool, -1 to disable
+	public static int POOL_LARGE_MESSAGE = 65536; // rsa.pool.large
+	// largest frame body accepted from a peer, the channel is closed when a peer announces a larger frame
+	public static int MAX_FRAME_SIZE = 64*1024*1024; // rsa.frame.max
+	// microseconds a TCP channel waits for more messages before flushing a batch, 0 flushes as soon as the queue is drained
+	public static int BATCH_DELAY = 0; // rsa.batch.delay
+	// compression of messages sent over version 4 channels
+	public static CompressionStrategy COMPRESSION = CompressionStrategy.NONE; // rsa.compression
+	// only messages of at least this many bytes are compressed
+	public static int COMPRESSION_THRESHOLD = 8192; // rsa.compression.threshold
+	// use loopback channels and unix domain sockets for frameworks in the same JVM or on the same machine
+	public static boolean LOCAL = true; // rsa.local
+	// directory of the unix domain socket files
+	public static String LOCAL_DIR = System.getProperty("java.io.tmpdir"); // rsa.local.dir
+	// pass messages between frameworks in the same JVM without serialization
+	public static boolean LOOPBACK = true; // rsa.loopback
+	// copy the messages passed between frameworks in the same JVM, this keeps pass-by-value semantics.
+	// Only disable this when the frameworks share the classes of the service APIs, otherwise 
+	// arguments and results arrive as instances of a class of the other framework.
+	public static boolean LOOPBACK_COPY = true; // rsa.loopback.copy
+	// size of the chunks of stream arguments
+	public static int STREAM_CHUNK_SIZE = 32768; // rsa.stream.chunk
+	// number of chunks of a stream argument that are sent before the receiver grants more credits
+	public static int STREAM_WINDOW = 16; // rsa.stream.window
+	// number of items in a batch of an Iterator, Iterable or Stream result
+	public static int RESULT_BATCH_SIZE = 100; // rsa.result.batch
+	// number of batches of a result that are sent before the caller asks for more
+	public static int RESULT_WINDOW = 4; // rsa.result.window
+	// maximum number of concurrent calls to the same peer that are sent in one message, 1 disables batching
+	public static int CALL_BATCH = 1; // rsa.call.batch
+	// microseconds a call waits for other calls to batch with, 0 sends a batch as soon as a thread is available
+	public static int CALL_BATCH_DELAY = 0; // rsa.call.batch.delay
+	// execute the calls of a received batch in parallel instead of one after the other
+	public static boolean CALL_BATCH_PARALLEL = false; // rsa.call.batch.parallel
+	// execution of incoming calls, bounded uses a limited number of threads and rejects calls when its queue is full,
+	// other messages are always handled on a separate pool so they are not held up by calls
+	public static ExecutionStrategy EXECUTION = ExecutionStrategy.CACHED; // rsa.execution
+	// number of threads executing incoming calls in bounded mode
+	public static int CALL_THREADS = 64; // rsa.call.threads
+	// number of incoming calls waiting for a thread in bounded mode
+	public static int CALL_QUEUE = 1024; // rsa.call.queue
+	// default maximum number of concurrent calls of each endpoint, 0 for no limit
+	public static int CONCURRENCY = 0; // rsa.concurrency
+	// virtual threads for the message handling and the TCP channels, when supported by the JVM
+	public static ThreadStrategy THREADS = ThreadStrategy.PLATFORM; // aiolos.threads
+	// call exported methods through generated classes instead of reflection, off by default 
+	// as it saves less than a nanosecond per call on a JIT compiled JVM (see DispatchBenchmark)
+	public static boolean GENERATED_DISPATCH = false; // rsa.dispatch.generated
+	// generated proxy classes for imported services instead of dynamic proxies
+	public static boolean GENERATED_PROXY = true; // rsa.proxy.generated
+	// default milliseconds that cached results are valid
+	public static long CACHE_TTL = 30000; // rsa.cache.ttl
+	// maximum number of cached results of each imported service
+	public static int CACHE_SIZE = 1000; // rsa.cache.size
 
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.osgi.service.log.LogService;
+
+/**
+ * Invokes the methods of an exported service, indexed by their position in the method table.
+ * 
+ * This implementation uses reflection. {@link #create(Method[])} generates a subclass that 
+ * calls the methods directly, without the access checks, argument boxing and exception 
+ * wrapping of reflection.
+ */
+public class Dispatcher {
+
+	protected final Method[] methods;
+	
+	protected Dispatcher(Method[] methods){
+		this.methods = methods;
+	}
+	
+	/**
+	 * Invoke a method on the target, exceptions thrown by the method are thrown as is
+	 */
+	public Object invoke(int method, Object target, Object[] args) throws Throwable {
+		try {
+			return methods[method].invoke(target, args);
+		} catch(InvocationTargetException e){
+			throw e.getTargetException();
+		}
+	}
+	
+	/**
+	 * Generated dispatcher for the methods, a reflective one when the class cannot be generated
+	 */
+	static Dispatcher create(Method[] methods){
+		if(Config.GENERATED_DISPATCH){
+			try {
+				return DispatcherGenerator.generate(methods);
+			} catch(Throwable t){
+				Activator.logger.log(LogService.LOG_WARNING, "Failed to generate a dispatcher, using reflection", t);
+			}
+		}
+		return new Dispatcher(methods);
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import be.iminds.aiolos.util.proxy.ClassWriter;
+import be.iminds.aiolos.util.proxy.ClassWriter.MethodWriter;
+import be.iminds.aiolos.util.proxy.GeneratedClassLoader;
+import be.iminds.aiolos.util.proxy.Opcodes;
+
+/**
+ * Generates a {@link Dispatcher} subclass of which the invoke method switches on the 
+ * method index and calls the method on the target directly. 
+ * 
+ * Methods the generated class cannot access, e.g. of a non-public interface, 
+ * are left to the reflective invoke of the superclass. So are calls with a target or 
+ * arguments that reflection would reject or convert, e.g. an Integer for a long parameter, 
+ * so both give the same result or exception.
+ */
+class DispatcherGenerator implements Opcodes {
+
+	private static final AtomicInteger count = new AtomicInteger();
+	
+	private static final String DISPATCHER = ClassWriter.internalName(Dispatcher.class);
+	private static final String INVOKE = "(ILjava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;";
+	
+	static Dispatcher generate(Method[] methods) throws Exception {
+		if(methods.length==0){
+			return new Dispatcher(methods);
+		}
+		String name = "be/iminds/aiolos/rsa/generated/Dispatcher"+count.incrementAndGet();
+		GeneratedClassLoader loader = new GeneratedClassLoader(Dispatcher.class.getClassLoader());
+		
+		ClassWriter cw = new ClassWriter(ClassWriter.ACC_PUBLIC | ClassWriter.ACC_FINAL, name, DISPATCHER, new String[0]);
+		
+		MethodWriter init = cw.method(ClassWriter.ACC_PUBLIC, "<init>", "([Ljava/lang/reflect/Method;)V");
+		init.op(ALOAD, 0).op(ALOAD, 1)
+			.invoke(INVOKESPECIAL, DISPATCHER, "<init>", "([Ljava/lang/reflect/Method;)V")
+			.op(RETURN);
+		init.maxs(2, 2);
+		
+		// locals: this, method index, target, arguments
+		MethodWriter invoke = cw.method(ClassWriter.ACC_PUBLIC, "invoke", INVOKE);
+		int maxStack = 4;
+		
+		invoke.op(ILOAD, 1);
+		int tableswitch = invoke.position();
+		invoke.op(TABLESWITCH).align();
+		int defaultOffset = invoke.position();
+		invoke.u4(0).u4(0).u4(methods.length - 1);
+		int[] offsets = new int[methods.length];
+		for(int i=0;i<methods.length;i++){
+			offsets[i] = invoke.position();
+			invoke.u4(0);
+		}
+		
+		boolean[] generated = new boolean[methods.length];
+		// branches to the reflective invoke
+		List<Integer> branches = new ArrayList<Integer>();
+		for(int i=0;i<methods.length;i++){
+			Method m = methods[i];
+			if(!canInvoke(m)){
+				continue;
+			}
+			generated[i] = true;
+			invoke.patch(offsets[i], invoke.position() - tableswitch);
+			
+			Class<?> owner = m.getDeclaringClass();
+			Class<?>[] parameters = m.getParameterTypes();
+			loader.add(owner);
+			check(cw, invoke, owner, parameters, branches);
+			invoke.op(ALOAD, 2).op2(CHECKCAST, cw.classRef(ClassWriter.classRefName(owner)));
+			
+			int slots = 0;
+			for(int p=0;p<parameters.length;p++){
+				loader.add(parameters[p]);
+				invoke.op(ALOAD, 3).push(p).op(AALOAD);
+				unbox(cw, invoke, parameters[p]);
+				slots += parameters[p]==long.class || parameters[p]==double.class ? 2 : 1;
+			}
+			maxStack = Math.max(maxStack, 3 + slots);
+			
+			loader.add(m.getReturnType());
+			invoke.invoke(owner.isInterface() ? INVOKEINTERFACE : INVOKEVIRTUAL, 
+					ClassWriter.internalName(owner), m.getName(), ClassWriter.methodDescriptor(m));
+			box(invoke, m.getReturnType());
+			invoke.op(ARETURN);
+		}
+		
+		// the other methods are invoked through reflection
+		int fallback = invoke.position() - tableswitch;
+		invoke.patch(defaultOffset, fallback);
+		for(int i=0;i<methods.length;i++){
+			if(!generated[i]){
+				invoke.patch(offsets[i], fallback);
+			}
+		}
+		for(int branch : branches){
+			if(invoke.position() - branch > Short.MAX_VALUE){
+				throw new IllegalArgumentException("Too many methods to generate a dispatcher");
+			}
+			invoke.patch2(branch + 1, fallback + tableswitch - branch);
+		}
+		invoke.op(ALOAD, 0).op(ILOAD, 1).op(ALOAD, 2).op(ALOAD, 3)
+			.invoke(INVOKESPECIAL, DISPATCHER, "invoke", INVOKE)
+			.op(ARETURN);
+		invoke.maxs(maxStack, 4);
+		
+		if(invoke.position() > 65535){
+			throw new IllegalArgumentException("Too many methods to generate a dispatcher");
+		}
+		
+		Class<?> c = loader.define(name.replace('/', '.'), cw.toByteArray());
+		return (Dispatcher) c.getConstructor(Method[].class).newInstance((Object)methods);
+	}
+	
+	/*
+	 * Branch to the reflective invoke unless the target and the arguments have the declared types, 
+	 * null arguments are only passed directly for reference types
+	 */
+	private static void check(ClassWriter cw, MethodWriter mw, Class<?> owner, Class<?>[] parameters, List<Integer> branches){
+		mw.op(ALOAD, 2).op2(INSTANCEOF, cw.classRef(ClassWriter.classRefName(owner)));
+		branch(mw, IFEQ, branches);
+		
+		if(parameters.length == 0){
+			// a method without parameters accepts null or an empty array
+			mw.op(ALOAD, 3);
+			int skip = mw.position();
+			mw.op2(IFNULL, 0);
+			mw.op(ALOAD, 3).op(ARRAYLENGTH);
+			branch(mw, IFNE, branches);
+			mw.patch2(skip + 1, mw.position() - skip);
+			return;
+		}
+		
+		mw.op(ALOAD, 3);
+		branch(mw, IFNULL, branches);
+		mw.op(ALOAD, 3).op(ARRAYLENGTH).push(parameters.length);
+		branch(mw, IF_ICMPNE, branches);
+		for(int p=0;p<parameters.length;p++){
+			Class<?> type = parameters[p];
+			if(type==Object.class){
+				continue;
+			}
+			int skip = -1;
+			if(!type.isPrimitive()){
+				mw.op(ALOAD, 3).push(p).op(AALOAD);
+				skip = mw.position();
+				mw.op2(IFNULL, 0);
+			}
+			mw.op(ALOAD, 3).push(p).op(AALOAD)
+				.op2(INSTANCEOF, cw.classRef(type.isPrimitive() ? ClassWriter.internalName(wrapper(type)) : ClassWriter.classRefName(type)));
+			branch(mw, IFEQ, branches);
+			if(skip != -1){
+				mw.patch2(skip + 1, mw.position() - skip);
+			}
+		}
+	}
+	
+	/*
+	 * Branch instruction of which the offset is patched later
+	 */
+	private static void branch(MethodWriter mw, int opcode, List<Integer> branches){
+		branches.add(mw.position());
+		mw.op2(opcode, 0);
+	}
+	
+	private static boolean canInvoke(Method m){
+		if(!Modifier.isPublic(m.getModifiers()) || Modifier.isStatic(m.getModifiers())
+				|| !GeneratedClassLoader.isAccessible(m.getDeclaringClass())
+				|| !GeneratedClassLoader.isAccessible(m.getReturnType())){
+			return false;
+		}
+		for(Class<?> p : m.getParameterTypes()){
+			if(!GeneratedClassLoader.isAccessible(p)){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/*
+	 * Convert the argument on the stack to the parameter type
+	 */
+	static void unbox(ClassWriter cw, MethodWriter mw, Class<?> type){
+		if(type==Object.class){
+			return;
+		}
+		if(!type.isPrimitive()){
+			mw.op2(CHECKCAST, cw.classRef(ClassWriter.classRefName(type)));
+			return;
+		}
+		String wrapper = ClassWriter.internalName(wrapper(type));
+		mw.op2(CHECKCAST, cw.classRef(wrapper));
+		mw.invoke(INVOKEVIRTUAL, wrapper, type.getName()+"Value", "()"+ClassWriter.descriptor(type));
+	}
+	
+	/*
+	 * Convert the result on the stack to an Object, null for a void method
+	 */
+	static void box(MethodWriter mw, Class<?> type){
+		if(type==void.class){
+			mw.op(ACONST_NULL);
+		} else if(type.isPrimitive()){
+			String wrapper = ClassWriter.internalName(wrapper(type));
+			mw.invoke(INVOKESTATIC, wrapper, "valueOf", "("+ClassWriter.descriptor(type)+")L"+wrapper+";");
+		}
+	}
+	
+	static Class<?> wrapper(Class<?> primitive){
+		if(primitive==int.class){
+			return Integer.class;
+		} else if(primitive==long.class){
+			return Long.class;
+		} else if(primitive==boolean.class){
+			return Boolean.class;
+		} else if(primitive==double.class){
+			return Double.class;
+		} else if(primitive==float.class){
+			return Float.class;
+		} else if(primitive==short.class){
+			return Short.class;
+		} else if(primitive==byte.class){
+			return Byte.class;
+		} else if(primitive==char.class){
+			return Character.class;
+		}
+		return Void.class;
+	}
+}
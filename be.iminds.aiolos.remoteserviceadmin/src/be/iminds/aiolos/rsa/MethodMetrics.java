@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.service.remoteserviceadmin.ExportReference;
+import org.osgi.service.remoteserviceadmin.ImportReference;
+
+import be.iminds.aiolos.rsa.api.LatencyHistogram;
+import be.iminds.aiolos.rsa.api.MethodStatistics;
+import be.iminds.aiolos.rsa.util.Histogram;
+
+/**
+ * Call counters of a method of a {@link ROSGiProxy} or {@link ROSGiEndpoint}
+ */
+class MethodMetrics implements MethodStatistics {
+
+	// the proxy or endpoint, the endpoint id is only known once it is exported
+	private final Object owner;
+	private final String method;
+	
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final Histogram latencies = new Histogram();
+	
+	MethodMetrics(ROSGiProxy proxy, String method){
+		this.owner = proxy;
+		this.method = method;
+	}
+	
+	MethodMetrics(ROSGiEndpoint endpoint, String method){
+		this.owner = endpoint;
+		this.method = method;
+	}
+	
+	void called(){
+		calls.incrementAndGet();
+	}
+	
+	/*
+	 * The call returned a result or threw an exception of the service
+	 */
+	void completed(long nanos, boolean exception){
+		if(exception){
+			failures.incrementAndGet();
+		}
+		latencies.record(nanos);
+	}
+	
+	/*
+	 * The call could not be sent or the channel failed
+	 */
+	void failed(){
+		failures.incrementAndGet();
+	}
+	
+	void timedOut(){
+		timeouts.incrementAndGet();
+	}
+	
+	@Override
+	public String getEndpointId() {
+		if(owner instanceof ImportReference){
+			return ((ImportReference)owner).getImportedEndpoint().getId();
+		}
+		return ((ExportReference)owner).getExportedEndpoint().getId();
+	}
+
+	@Override
+	public String getMethod() {
+		return method;
+	}
+
+	@Override
+	public boolean isImported() {
+		return owner instanceof ImportReference;
+	}
+
+	@Override
+	public long getCalls() {
+		return calls.get();
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.get();
+	}
+
+	@Override
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	@Override
+	public LatencyHistogram getLatencies() {
+		return latencies.snapshot();
+	}
+}
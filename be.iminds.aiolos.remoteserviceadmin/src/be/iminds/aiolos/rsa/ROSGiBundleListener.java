@@ -30,7 +30,6 @@
  */
 package be.iminds.aiolos.rsa;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -66,11 +65,8 @@ public class ROSGiBundleListener implements BundleListener {
 			List<EndpointDescription> endpointDescriptions = EndpointDescriptionParser
 					.parseEndpointDescriptions(bundle);
 			if (endpointDescriptions.size() > 0) {
-				List<ImportRegistration> importRegistrationsList = new ArrayList<ImportRegistration>();
-				for (EndpointDescription endpointDescription : endpointDescriptions) {
-					ImportRegistration ir = rsa.importService(endpointDescription);
-					importRegistrationsList.add(ir);
-				}
+				// import all at once, the endpoints of a remote framework are checked with one request
+				List<ImportRegistration> importRegistrationsList = rsa.importServices(endpointDescriptions);
 				importRegistrations.put(bundle, importRegistrationsList);
 			}
 			break;
@@ -33,11 +33,16 @@ package be.iminds.aiolos.rsa;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -50,6 +55,8 @@ import org.osgi.service.remoteserviceadmin.EndpointDescription;
 import org.osgi.service.remoteserviceadmin.ExportReference;
 import org.osgi.service.remoteserviceadmin.RemoteConstants;
 
+import be.iminds.aiolos.rsa.api.MethodStatistics;
+import be.iminds.aiolos.rsa.network.LocalChannelFactory;
 import be.iminds.aiolos.rsa.network.api.NetworkChannelFactory;
 import be.iminds.aiolos.rsa.util.MethodSignature;
 import be.iminds.aiolos.rsa.util.PropertiesUtil;
@@ -57,7 +64,8 @@ import be.iminds.aiolos.rsa.util.PropertiesUtil;
 /**
  * Implementation of the R-OSGi endpoint
  * 
- * Keeps a map of Method objects hashed by signature to which method calls are dispatched
+ * Keeps a map of Method objects hashed by signature to which method calls are dispatched,
+ * each method also gets a numeric id which is published in the endpoint description
  * 
  * Also keeps a list of aqcuired references to this endpoint
  */
@@ -68,8 +76,29 @@ public class ROSGiEndpoint implements ExportReference {
 	private Object serviceObject;
 	private ServiceReference<?> serviceReference;
 	private Map<String, Method> methodList = new HashMap<String, Method>();
+	private Method[] methodTable;
+	// invokes the methods, indexed by their position in the dispatch table
+	private Dispatcher dispatcher;
+	private Map<Method, Integer> dispatchIndex = new HashMap<Method, Integer>();
+	// call counters per dispatch index
+	private MethodMetrics[] methodMetrics;
+	// classes used by the exported methods, registered on the channels that call this endpoint
+	private Class<?>[] classes;
+	// void methods listed in aiolos.oneway, these calls are not answered
+	private Set<Method> oneWayMethods = new HashSet<Method>();
+	private final AtomicLong oneWayFailures = new AtomicLong();
+	// limits the number of concurrent calls, null when unlimited
+	private Semaphore concurrency;
+	private final AtomicLong rejectedCalls = new AtomicLong();
+	// calls dropped because the caller stopped waiting before they were executed
+	private final AtomicLong expiredCalls = new AtomicLong();
 	
 	private Map<String, Object> endpointDescriptionProperties;
+	// description snapshot, rebuilt only when the address or socket file it advertises changes
+	private EndpointDescription endpointDescription;
+	private String endpointAddress;
+	private String endpointLocalPath;
+	private List<String> interfaces;
 	
 	private NetworkChannelFactory factory;
 	
@@ -132,6 +161,8 @@ public class ROSGiEndpoint implements ExportReference {
 			throw new IllegalArgumentException("Intent "+serviceIntents[0]+" not supported!");
 		}
 		
+		this.interfaces = Collections.unmodifiableList(Arrays.asList(exportedInterfaces));
+		
 		// Keep service id and service object
 		long id = (Long)serviceReference.getProperty("service.id");
 		this.serviceId = ""+id;
@@ -143,6 +174,25 @@ public class ROSGiEndpoint implements ExportReference {
 		
 		// Cache list of methods in a Map, faster lookup then reflection?
 		createMethodList(serviceObject, exportedInterfaces);
+		classes = MethodSignature.getClasses(methodList.values());
+		oneWayMethods = getOneWayMethods(methodList.values(), endpointDescriptionProperties.get(Config.ENDPOINT_ONEWAY));
+		
+		// the service can override the default limit of concurrent calls
+		int limit = Config.CONCURRENCY;
+		Object maxConcurrency = endpointDescriptionProperties.get(Config.ENDPOINT_CONCURRENCY);
+		if(maxConcurrency!=null){
+			limit = Integer.parseInt(maxConcurrency.toString());
+		}
+		if(limit > 0){
+			concurrency = new Semaphore(limit);
+		}
+		
+		// Publish the method ids
+		endpointDescriptionProperties.put(Config.ENDPOINT_METHODS, createMethodTable());
+		createDispatcher();
+		
+		// stream arguments are received in chunks
+		endpointDescriptionProperties.put(Config.ENDPOINT_STREAMS, "true");
 
 	}
 	
@@ -162,6 +212,96 @@ public class ROSGiEndpoint implements ExportReference {
 		return methodList.get(methodSignature);
 	}
 	
+	public Method getMethod(short methodId){
+		if(methodId < 0 || methodId >= methodTable.length){
+			return null;
+		}
+		return methodTable[methodId];
+	}
+	
+	/**
+	 * Invoke a method of this endpoint on the service object, 
+	 * exceptions thrown by the method are thrown as is
+	 */
+	public Object invoke(Method method, Object[] args) throws Throwable {
+		Integer index = dispatchIndex.get(method);
+		if(index==null){
+			throw new IllegalArgumentException("Method "+method.getName()+" is not exported by endpoint service id "+serviceId);
+		}
+		MethodMetrics metrics = methodMetrics[index.intValue()];
+		metrics.called();
+		long start = System.nanoTime();
+		try {
+			Object result = dispatcher.invoke(index.intValue(), serviceObject, args);
+			metrics.completed(System.nanoTime() - start, false);
+			return result;
+		} catch(Throwable t){
+			metrics.completed(System.nanoTime() - start, true);
+			throw t;
+		}
+	}
+	
+	/**
+	 * Call statistics of the exported methods
+	 */
+	public List<MethodStatistics> getMethodStatistics(){
+		return Collections.<MethodStatistics>unmodifiableList(Arrays.asList(methodMetrics));
+	}
+	
+	public Class<?>[] getClasses(){
+		return classes;
+	}
+	
+	public boolean isOneWay(Method method){
+		return oneWayMethods.contains(method);
+	}
+	
+	/**
+	 * Number of one-way calls that threw an exception, these are not sent back to the caller
+	 */
+	public long getOneWayFailures(){
+		return oneWayFailures.get();
+	}
+	
+	void oneWayFailed(){
+		oneWayFailures.incrementAndGet();
+	}
+	
+	/*
+	 * Start a call, returns false when the maximum number of concurrent calls is reached
+	 */
+	boolean acquireCall(){
+		if(concurrency==null || concurrency.tryAcquire()){
+			return true;
+		}
+		rejectedCalls.incrementAndGet();
+		return false;
+	}
+	
+	void releaseCall(){
+		if(concurrency!=null){
+			concurrency.release();
+		}
+	}
+	
+	/**
+	 * Number of calls rejected because of the limit of concurrent calls
+	 */
+	public long getRejectedCalls(){
+		return rejectedCalls.get();
+	}
+	
+	void callExpired(){
+		expiredCalls.incrementAndGet();
+	}
+	
+	/**
+	 * Number of calls that were dropped because their deadline expired before they were executed
+	 */
+	public long getExpiredCalls(){
+		return expiredCalls.get();
+	}
+	
 	public Object getServiceObject(){
 		return serviceObject;
 	}
@@ -172,14 +312,46 @@ public class ROSGiEndpoint implements ExportReference {
 	}
 
 	@Override
-	public EndpointDescription getExportedEndpoint() {
+	public synchronized EndpointDescription getExportedEndpoint() {
 		// always re-fetch the address in order to mitigate runtime ip change
-		String endpointId = "r-osgi://"+factory.getAddress()+"#"+serviceId;
+		String address = factory.getAddress();
+		
+		// advertise the socket file for frameworks on the same machine
+		String localPath = null;
+		if(factory instanceof LocalChannelFactory){
+			localPath = ((LocalChannelFactory)factory).getLocalPath();
+		}
 		
+		if(endpointDescription!=null 
+				&& sameValue(address, endpointAddress)
+				&& sameValue(localPath, endpointLocalPath)){
+			return endpointDescription;
+		}
+		
+		String endpointId = "r-osgi://"+address+"#"+serviceId;
 		endpointDescriptionProperties.put(RemoteConstants.ENDPOINT_ID,
 				endpointId);
+		if(localPath!=null){
+			endpointDescriptionProperties.put(Config.ENDPOINT_LOCAL_PATH, localPath);
+		} else {
+			endpointDescriptionProperties.remove(Config.ENDPOINT_LOCAL_PATH);
+		}
 		
-		return new EndpointDescription(endpointDescriptionProperties);
+		endpointDescription = new EndpointDescription(endpointDescriptionProperties);
+		endpointAddress = address;
+		endpointLocalPath = localPath;
+		return endpointDescription;
+	}
+	
+	/**
+	 * The exported interfaces, these do not change during the lifetime of the endpoint
+	 */
+	public List<String> getInterfaces(){
+		return interfaces;
+	}
+	
+	private static boolean sameValue(String s1, String s2){
+		return s1==null ? s2==null : s1.equals(s2);
 	}
 	
 	
@@ -264,6 +436,58 @@ public class ROSGiEndpoint implements ExportReference {
 		}
 	}
 	
+	/*
+	 * Assign method ids in the order of the sorted signatures, 
+	 * returns the signatures indexed by method id
+	 */
+	private String[] createMethodTable(){
+		String[] signatures = methodList.keySet().toArray(new String[methodList.size()]);
+		Arrays.sort(signatures);
+		if(signatures.length > Short.MAX_VALUE){
+			// too many methods, only support calls by signature
+			methodTable = new Method[0];
+			return new String[0];
+		}
+		
+		methodTable = new Method[signatures.length];
+		for(int i=0;i<signatures.length;i++){
+			methodTable[i] = methodList.get(signatures[i]);
+		}
+		return signatures;
+	}
+	
+	/*
+	 * The dispatch table is the method table, unless there are too many methods to have ids
+	 */
+	private void createDispatcher(){
+		Method[] dispatchTable = methodTable.length == methodList.size() ? methodTable 
+				: methodList.values().toArray(new Method[methodList.size()]);
+		methodMetrics = new MethodMetrics[dispatchTable.length];
+		for(int i=0;i<dispatchTable.length;i++){
+			dispatchIndex.put(dispatchTable[i], i);
+			methodMetrics[i] = new MethodMetrics(this, MethodSignature.getMethodSignature(dispatchTable[i]));
+		}
+		dispatcher = Dispatcher.create(dispatchTable);
+	}
+	
+	/*
+	 * The void methods whose name is listed in the aiolos.oneway property
+	 */
+	static Set<Method> getOneWayMethods(Collection<Method> methods, Object property){
+		Set<Method> oneWay = new HashSet<Method>();
+		String[] names = PropertiesUtil.getStringArrayFromPropertyValue(property);
+		if(names==null){
+			return oneWay;
+		}
+		List<String> nameList = Arrays.asList(names);
+		for(Method m : methods){
+			if(m.getReturnType()==void.class && nameList.contains(m.getName())){
+				oneWay.add(m);
+			}
+		}
+		return oneWay;
+	}
+	
 	private List<Class> getInterfaces(Class clazz){
 		List<Class> ifaces = new ArrayList<Class>();
 		for(Class<?> iface : clazz.getInterfaces()){
@@ -30,41 +30,94 @@
  */
 package be.iminds.aiolos.rsa;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.service.log.LogService;
 import org.osgi.service.remoteserviceadmin.ImportReference;
 
+import be.iminds.aiolos.rsa.api.Cacheable;
+import be.iminds.aiolos.rsa.api.Deadline;
+import be.iminds.aiolos.rsa.api.MethodStatistics;
+import be.iminds.aiolos.rsa.exception.DeadlineException;
 import be.iminds.aiolos.rsa.exception.ROSGiException;
+import be.iminds.aiolos.rsa.network.LoopbackChannel;
+import be.iminds.aiolos.rsa.network.api.MessageFuture;
 import be.iminds.aiolos.rsa.network.api.MessageSender;
 import be.iminds.aiolos.rsa.network.api.NetworkChannel;
 import be.iminds.aiolos.rsa.network.api.NetworkChannelFactory;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
 import be.iminds.aiolos.rsa.network.message.RemoteCallMessage;
 import be.iminds.aiolos.rsa.network.message.RemoteCallResultMessage;
+import be.iminds.aiolos.rsa.network.message.StreamedResult;
 import be.iminds.aiolos.rsa.util.MethodSignature;
+import be.iminds.aiolos.rsa.util.PropertiesUtil;
 import be.iminds.aiolos.rsa.util.URI;
+import be.iminds.aiolos.util.proxy.ProxyGenerator;
+import be.iminds.aiolos.util.proxy.ProxyHandler;
 
 /**
  * Proxy object at the client side that calls the remote service.
  * 
- * A dynamic proxy object is generated that dispatches the calls over the network.
+ * A proxy object is generated that dispatches the calls over the network. The generated
+ * proxy class passes the method index, when it cannot be generated a dynamic proxy is used.
  */
-public class ROSGiProxy implements InvocationHandler, ImportReference{
+public class ROSGiProxy implements InvocationHandler, ProxyHandler, ImportReference{
 
 	private ServiceRegistration<?> registration;
 	private EndpointDescription endpointDescription;
+	// the proxy object and its interfaces, registered as service once the import is accepted
+	private Object serviceProxy;
+	private String[] serviceInterfaces;
 
 	private String serviceId;
 	private NetworkChannel channel;
 	private MessageSender sender;
+	// sends stream arguments in chunks, null when the endpoint does not support this
+	private StreamArguments streams;
+	// receives Iterator, Iterable and Stream results in batches
+	private StreamedResults results;
+	
+	// numeric ids of the methods published by the endpoint, calls of other methods use the signature
+	private int numericServiceId = -1;
+	private final Map<Method, Short> methodIds = new HashMap<Method, Short>();
+	private final Map<Method, String> signatures = new HashMap<Method, String>();
+	// void methods that do not wait for the result, failures are only counted
+	private Set<Method> oneWayMethods = new HashSet<Method>();
+	private final AtomicLong oneWayFailures = new AtomicLong();
+	// call counters per method
+	private final Map<Method, MethodMetrics> methodMetrics = new HashMap<Method, MethodMetrics>();
+	// the same per method index of the generated proxy
+	private Method[] proxyMethods;
+	private Short[] proxyMethodIds;
+	private String[] proxySignatures;
+	private boolean[] proxyOneWay;
+	private boolean[] proxyCacheable;
+	private MethodMetrics[] proxyMetrics;
+	// methods listed in aiolos.cache or annotated as Cacheable
+	private Set<Method> cacheableMethods = new HashSet<Method>();
+	// their results, null when there are no cacheable methods
+	private CachedResults cache;
+	// milliseconds to wait for the result, set by aiolos.timeout or else rsa.timeout
+	private long timeout = -1;
 	
 	private int refCount = 0;
 	
@@ -73,9 +126,130 @@ public class ROSGiProxy implements InvocationHandler, ImportReference{
 		this.serviceId = ""+endpointDescription.getServiceId();
 		this.channel = channel;
 		this.sender = sender;
+		
+		long id = endpointDescription.getServiceId();
+		if(id >= 0 && id <= Integer.MAX_VALUE){
+			this.numericServiceId = (int) id;
+		}
+		
+		Object t = endpointDescription.getProperties().get(Config.ENDPOINT_TIMEOUT);
+		if(t!=null){
+			try {
+				timeout = Long.parseLong(t.toString());
+			} catch(NumberFormatException e){
+				Activator.logger.log(LogService.LOG_WARNING, "Invalid "+Config.ENDPOINT_TIMEOUT+" "+t+" for "+endpointDescription.getId());
+			}
+		}
+	}
+	
+	/*
+	 * Cache the method signatures and look up the method ids in the table of the endpoint description,
+	 * older endpoints do not publish a method table
+	 */
+	private void createMethodTable(Class<?>[] interfaces){
+		Map<String, Short> ids = new HashMap<String, Short>();
+		Object table = endpointDescription.getProperties().get(Config.ENDPOINT_METHODS);
+		if(table instanceof String[] && numericServiceId >= 0){
+			String[] methods = (String[]) table;
+			for(short i=0;i<methods.length;i++){
+				ids.put(methods[i], i);
+			}
+		}
+		
+		for(Class<?> iface : interfaces){
+			for(Method m : iface.getMethods()){
+				String signature = MethodSignature.getMethodSignature(m);
+				signatures.put(m, signature);
+				methodMetrics.put(m, new MethodMetrics(this, signature));
+				Short id = ids.get(signature);
+				if(id!=null){
+					methodIds.put(m, id);
+				}
+			}
+		}
+		
+		// older endpoints answer all calls
+		if(channel.getProtocolVersion() >= ROSGiMessage.VERSION_6){
+			oneWayMethods = ROSGiEndpoint.getOneWayMethods(signatures.keySet(), 
+					endpointDescription.getProperties().get(Config.ENDPOINT_ONEWAY));
+		}
+		
+		createCache();
+		
+		proxyMethods = ProxyGenerator.getMethods(interfaces);
+		proxyMethodIds = new Short[proxyMethods.length];
+		proxySignatures = new String[proxyMethods.length];
+		proxyOneWay = new boolean[proxyMethods.length];
+		proxyCacheable = new boolean[proxyMethods.length];
+		proxyMetrics = new MethodMetrics[proxyMethods.length];
+		for(int i=0;i<proxyMethods.length;i++){
+			Method m = proxyMethods[i];
+			proxyMethodIds[i] = methodIds.get(m);
+			proxySignatures[i] = signatures.get(m);
+			proxyOneWay[i] = oneWayMethods.contains(m);
+			proxyCacheable[i] = cacheableMethods.contains(m);
+			if(i!=ProxyGenerator.EQUALS && i!=ProxyGenerator.HASH_CODE && !methodMetrics.containsKey(m)){
+				// toString is called remotely as well
+				methodMetrics.put(m, new MethodMetrics(this, MethodSignature.getMethodSignature(m)));
+			}
+			proxyMetrics[i] = methodMetrics.get(m);
+		}
+	}
+	
+	/*
+	 * Methods returning a value synchronously can be cached
+	 */
+	private void createCache(){
+		Map<String, Object> properties = endpointDescription.getProperties();
+		String[] names = PropertiesUtil.getStringArrayFromPropertyValue(properties.get(Config.ENDPOINT_CACHE));
+		List<String> nameList = names==null ? new ArrayList<String>() : Arrays.asList(names);
+		for(Method m : signatures.keySet()){
+			if(m.getReturnType()==void.class || oneWayMethods.contains(m) 
+					|| AsyncResult.forType(m.getReturnType())!=null){
+				continue;
+			}
+			if(nameList.contains(m.getName()) || m.isAnnotationPresent(Cacheable.class)){
+				cacheableMethods.add(m);
+			}
+		}
+		if(cacheableMethods.isEmpty()){
+			return;
+		}
+		
+		long ttl = Config.CACHE_TTL;
+		Object t = properties.get(Config.ENDPOINT_CACHE_TTL);
+		if(t!=null){
+			try {
+				ttl = Long.parseLong(t.toString());
+			} catch(NumberFormatException e){
+				Activator.logger.log(LogService.LOG_WARNING, "Invalid "+Config.ENDPOINT_CACHE_TTL+" "+t+" for "+endpointDescription.getId());
+			}
+		}
+		cache = new CachedResults(ttl, Config.CACHE_SIZE);
 	}
 	
-	public static ROSGiProxy createServiceProxy(BundleContext context, ClassLoader loader, EndpointDescription endpointDescription, NetworkChannelFactory channelFactory, MessageSender sender) throws ROSGiException{
+	private Object createProxy(ClassLoader loader, Class<?>[] interfaces){
+		if(Config.GENERATED_PROXY){
+			try {
+				return ProxyGenerator.newProxyInstance(interfaces, this);
+			} catch(Throwable t){
+				Activator.logger.log(LogService.LOG_DEBUG, "Using a dynamic proxy for "+endpointDescription.getId()+": "+t.getMessage());
+			}
+		}
+		return Proxy.newProxyInstance(loader, interfaces, this);
+	}
+	
+	public static ROSGiProxy createServiceProxy(BundleContext context, ClassLoader loader, EndpointDescription endpointDescription, NetworkChannelFactory channelFactory, MessageSender sender, StreamArguments streams, StreamedResults results) throws ROSGiException{
+		ROSGiProxy p = createServiceProxy(loader, endpointDescription, channelFactory, sender, streams, results);
+		p.register(context);
+		return p;
+	}
+	
+	/*
+	 * Create the proxy without registering it as a service, 
+	 * this does not need any lock so multiple proxies can be created concurrently
+	 */
+	static ROSGiProxy createServiceProxy(ClassLoader loader, EndpointDescription endpointDescription, NetworkChannelFactory channelFactory, MessageSender sender, StreamArguments streams, StreamedResults results) throws ROSGiException{
 		String endpointId = endpointDescription.getId();
 		List<String> interfaces = endpointDescription.getInterfaces();
 
@@ -89,6 +263,12 @@ public class ROSGiProxy implements InvocationHandler, ImportReference{
 		}
 		
 		ROSGiProxy p = new ROSGiProxy(endpointDescription, channel, sender);
+		p.results = results;
+		// loopback channels without copying pass streams by reference
+		boolean byReference = channel instanceof LoopbackChannel && !((LoopbackChannel)channel).isCopy();
+		if(!byReference && "true".equals(String.valueOf(endpointDescription.getProperties().get(Config.ENDPOINT_STREAMS)))){
+			p.streams = streams;
+		}
 		try {
 			Class<?>[] clazzes = new Class[interfaces.size()];
 			String[] clazzNames = new String[interfaces.size()];
@@ -96,20 +276,29 @@ public class ROSGiProxy implements InvocationHandler, ImportReference{
 				clazzNames[i] = interfaces.get(i);
 				clazzes[i] = loader.loadClass(interfaces.get(i));
 			}
-			Object proxy = Proxy.newProxyInstance(loader, clazzes, p);
-			Hashtable<String, Object> properties = p.buildServiceProperties();
-			p.registration = context.registerService(clazzNames, proxy, properties);
+			p.createMethodTable(clazzes);
+			// register the classes used by the interfaces, so arguments are sent as a small id
+			try {
+				channel.registerClasses(MethodSignature.getClasses(p.signatures.keySet()));
+			} catch(IOException e){
+				Activator.logger.log(LogService.LOG_WARNING, "Failed to register classes on channel to "+channel.getRemoteAddress(), e);
+			}
+			p.serviceProxy = p.createProxy(loader, clazzes);
+			p.serviceInterfaces = clazzNames;
 		} catch (ClassNotFoundException e) {
 			throw new ROSGiException("Error loading class of service proxy", e);
 		}
 		return p;
 	}
 	
+	void register(BundleContext context){
+		Hashtable<String, Object> properties = buildServiceProperties();
+		registration = context.registerService(serviceInterfaces, serviceProxy, properties);
+	}
+	
 	@Override
 	public Object invoke(Object proxy, Method method, Object[] args)
 			throws Throwable {
-		RemoteCallMessage invokeMsg = new RemoteCallMessage(serviceId, MethodSignature.getMethodSignature(method), args);
-	
 		// equals and hashcode should be invoked on proxy object
 		// this enables to keep proxies in a list/map
 		if(method.getName().equals("equals")){
@@ -118,22 +307,155 @@ public class ROSGiProxy implements InvocationHandler, ImportReference{
 			return this.hashCode();
 		}
 		
+		return call(method, methodIds.get(method), signatures.get(method), oneWayMethods.contains(method), 
+				cacheableMethods.contains(method), methodMetrics.get(method), args);
+	}
+	
+	@Override
+	public Object invoke(Object proxy, int method, Object[] args)
+			throws Throwable {
+		if(method==ProxyGenerator.EQUALS){
+			return this.equals(args[0]);
+		} else if(method==ProxyGenerator.HASH_CODE){
+			return this.hashCode();
+		}
+		
+		return call(proxyMethods[method], proxyMethodIds[method], proxySignatures[method], proxyOneWay[method], 
+				proxyCacheable[method], proxyMetrics[method], args);
+	}
+	
+	private Object call(Method method, Short methodId, String signature, boolean oneWay, boolean cacheable, 
+			final MethodMetrics metrics, Object[] args) throws Throwable {
+		// stream arguments can only be read once
+		long generation = -1;
+		if(cacheable && !StreamArguments.hasStreams(args)){
+			Object cached = cache.get(method, args);
+			if(cached!=CachedResults.MISS){
+				return cached;
+			}
+			generation = cache.getGeneration();
+		}
+		
+		// the deadline of this thread, e.g. of the remote call it is handling, limits the timeout
+		long timeout = this.timeout > 0 ? this.timeout : Config.TIMEOUT;
+		long remaining = Deadline.remaining();
+		if(remaining >= 0){
+			if(remaining==0){
+				throw new ServiceException("Deadline expired before remote method call "+method.getName()+" of "+endpointDescription.getId(), 
+						ServiceException.REMOTE, new DeadlineException("No time left to call "+method.getName()));
+			}
+			timeout = Math.min(timeout, remaining);
+		}
+		
+		metrics.called();
+		final long start = System.nanoTime();
+		
+		if(streams!=null && StreamArguments.hasStreams(args)){
+			try {
+				args = streams.send(args, channel);
+			} catch(IOException e){
+				metrics.failed();
+				throw new ServiceException("Error reading stream argument of remote method call "+method.getName()+" of "+endpointDescription.getId(), ServiceException.REMOTE, e);
+			}
+		}
+		
+		RemoteCallMessage invokeMsg;
+		if(methodId!=null){
+			invokeMsg = new RemoteCallMessage(numericServiceId, methodId.shortValue(), args);
+		} else {
+			if(signature==null){
+				signature = MethodSignature.getMethodSignature(method);
+			}
+			invokeMsg = new RemoteCallMessage(serviceId, signature, args);
+		}
+		// the server drops the call when it cannot start it in time
+		if(channel.getProtocolVersion() >= ROSGiMessage.VERSION_8){
+			invokeMsg.setTimeout((int) Math.min(timeout, Integer.MAX_VALUE));
+		}
+		
+		if(oneWay){
+			// return as soon as the call is queued
+			try {
+				sender.sendMessage(invokeMsg, channel);
+			} catch (ROSGiException e) {
+				oneWayFailures.incrementAndGet();
+				metrics.failed();
+				Activator.logger.log(LogService.LOG_WARNING, "Error in one-way remote method call "+method.getName()+" of "+endpointDescription.getId(), e);
+			}
+			return null;
+		}
+		
+		// methods returning a Future or Promise do not wait for the result
+		AsyncResult async = AsyncResult.forType(method.getReturnType());
+		if(async!=null){
+			String errorMessage = "Error in remote method call "+method.getName()+" of "+endpointDescription.getId();
+			try {
+				final MessageFuture future = sender.sendAsyncMessage(invokeMsg, channel, timeout);
+				future.addListener(new Runnable(){
+					public void run(){
+						completed(future, metrics, start);
+					}
+				});
+				return async.create(future, errorMessage);
+			} catch (ROSGiException e) {
+				metrics.failed();
+				throw new ServiceException(errorMessage, ServiceException.REMOTE, e);
+			}
+		}
+		
+		RemoteCallResultMessage resultMsg = null;
 		try {
 			// send the message and get a RemoteCallResultMessage in return
-			RemoteCallResultMessage resultMsg = (RemoteCallResultMessage) sender.sendAndWaitMessage(invokeMsg, channel);
+			resultMsg = (RemoteCallResultMessage) sender.sendAndWaitMessage(invokeMsg, channel, timeout);
+			metrics.completed(System.nanoTime() - start, resultMsg.causedException());
 			if (resultMsg.causedException()) {
 				throw resultMsg.getException();
 			}
 			Object result = resultMsg.getResult();
+			if(result instanceof StreamedResult){
+				return results.open((StreamedResult)result, invokeMsg.getXID(), channel, method.getReturnType());
+			}
+			if(generation >= 0){
+				cache.put(method, args, result, generation);
+			}
 			return result;
 			
 		} catch (ROSGiException e) {
+			// a remote ROSGiException is already counted with the result
+			if(resultMsg==null){
+				if(e.getCause() instanceof TimeoutException){
+					metrics.timedOut();
+				} else {
+					metrics.failed();
+				}
+			}
 			// Throw exception to the application... remote call failed!
 			throw new ServiceException("Error in remote method call "+method.getName()+" of "+endpointDescription.getId(), ServiceException.REMOTE, e);
 		}
 	}
 
 	
+	/*
+	 * Count the outcome of an asynchronous call, the future is done so this does not block
+	 */
+	private static void completed(MessageFuture future, MethodMetrics metrics, long start){
+		if(future.isCancelled()){
+			return;
+		}
+		try {
+			RemoteCallResultMessage resultMsg = (RemoteCallResultMessage) future.get();
+			metrics.completed(System.nanoTime() - start, resultMsg.causedException());
+		} catch(ExecutionException e){
+			if(e.getCause()!=null && e.getCause().getCause() instanceof TimeoutException){
+				metrics.timedOut();
+			} else {
+				metrics.failed();
+			}
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+	
 	public int acquire(){
 		return ++refCount;
 	}
@@ -162,6 +484,36 @@ public class ROSGiProxy implements InvocationHandler, ImportReference{
 		return channel;
 	}
 	
+	/**
+	 * Drop the cached results of the methods with the given names, or of all methods
+	 */
+	public void invalidate(String[] methods){
+		if(cache!=null){
+			cache.invalidate(methods==null ? null : Arrays.asList(methods));
+		}
+	}
+	
+	/**
+	 * Cached results of the cacheable methods, null when there are none
+	 */
+	CachedResults getCache(){
+		return cache;
+	}
+	
+	/**
+	 * Call statistics of the imported methods
+	 */
+	public List<MethodStatistics> getMethodStatistics(){
+		return new ArrayList<MethodStatistics>(methodMetrics.values());
+	}
+	
+	/**
+	 * Number of one-way calls that could not be sent
+	 */
+	public long getOneWayFailures(){
+		return oneWayFailures.get();
+	}
+	
 	@Override
 	public ServiceReference<?> getImportedService() {
 		return registration.getReference();
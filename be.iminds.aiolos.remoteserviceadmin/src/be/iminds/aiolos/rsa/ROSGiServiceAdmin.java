@@ -31,7 +31,6 @@
 package be.iminds.aiolos.rsa;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.NetworkInterface;
 import java.security.cert.X509Certificate;
@@ -44,12 +43,33 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -71,33 +91,64 @@ import org.osgi.service.remoteserviceadmin.RemoteServiceAdminListener;
 import org.osgi.util.tracker.ServiceTracker;
 import org.osgi.util.tracker.ServiceTrackerCustomizer;
 
+import be.iminds.aiolos.rsa.Config.CompressionStrategy;
+import be.iminds.aiolos.rsa.Config.ExecutionStrategy;
+import be.iminds.aiolos.rsa.Config.ThreadStrategy;
 import be.iminds.aiolos.rsa.Config.SerializationStrategy;
+import be.iminds.aiolos.rsa.Config.TransportStrategy;
+import be.iminds.aiolos.rsa.api.BulkImport;
+import be.iminds.aiolos.rsa.api.ChannelStatistics;
+import be.iminds.aiolos.rsa.api.Deadline;
+import be.iminds.aiolos.rsa.api.MethodStatistics;
+import be.iminds.aiolos.rsa.api.ResultCache;
+import be.iminds.aiolos.rsa.api.TransportMetrics;
+import be.iminds.aiolos.rsa.exception.OverloadException;
 import be.iminds.aiolos.rsa.exception.ROSGiException;
+import be.iminds.aiolos.rsa.network.LocalChannelFactory;
+import be.iminds.aiolos.rsa.network.NIOChannelFactory;
 import be.iminds.aiolos.rsa.network.TCPChannelFactory;
+import be.iminds.aiolos.rsa.network.api.MessageFuture;
 import be.iminds.aiolos.rsa.network.api.MessageReceiver;
 import be.iminds.aiolos.rsa.network.api.MessageSender;
 import be.iminds.aiolos.rsa.network.api.NetworkChannel;
 import be.iminds.aiolos.rsa.network.api.NetworkChannelFactory;
+import be.iminds.aiolos.rsa.network.message.CacheInvalidateMessage;
+import be.iminds.aiolos.rsa.network.message.CallBatchMessage;
+import be.iminds.aiolos.rsa.network.message.EndpointBatchMessage;
 import be.iminds.aiolos.rsa.network.message.EndpointDescriptionMessage;
 import be.iminds.aiolos.rsa.network.message.EndpointRequestMessage;
 import be.iminds.aiolos.rsa.network.message.InterruptMessage;
+import be.iminds.aiolos.rsa.network.message.MessageFrame;
 import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
 import be.iminds.aiolos.rsa.network.message.RemoteCallMessage;
 import be.iminds.aiolos.rsa.network.message.RemoteCallResultMessage;
+import be.iminds.aiolos.rsa.network.message.ResultBatchMessage;
+import be.iminds.aiolos.rsa.network.message.ResultDemandMessage;
+import be.iminds.aiolos.rsa.network.message.StreamChunkMessage;
+import be.iminds.aiolos.rsa.network.message.StreamCreditMessage;
 import be.iminds.aiolos.rsa.serialization.api.SerializationException;
+import be.iminds.aiolos.rsa.util.Threads;
 import be.iminds.aiolos.rsa.util.URI;
 
 /**
  * Implements {@link RemoteServiceAdmin}, and implements the messaging protocol
  */
 @SuppressWarnings({ "rawtypes", "unchecked" })
-public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, MessageSender {
+public class ROSGiServiceAdmin implements RemoteServiceAdmin, BulkImport, TransportMetrics, MessageReceiver, MessageSender, ResultCache.Invalidator {
 	
 	BundleContext context;
 	
 	NetworkChannelFactory channelFactory;
 	
 	ExecutorService messageHandler;
+	// executes incoming calls, the message handler itself unless the execution is bounded
+	ExecutorService callHandler;
+	// executes the calls of a batch in parallel, never the call handler itself since the batch waits for them
+	ExecutorService batchHandler;
+	StreamArguments streams;
+	StreamedResults results;
+	CallBatcher batcher;
+	ScheduledExecutorService timer;
 	Map<Integer, CancelableRunnable> messageTasks = Collections.synchronizedMap(new HashMap<Integer, CancelableRunnable>());
 	
 	ServiceTracker<RemoteServiceAdminListener, RemoteServiceAdminListener> remoteServiceAdminListenerTracker;
@@ -107,6 +158,11 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 	
 	// Exported Services (mapped by serviceId)
 	Map<String, ROSGiEndpoint> endpoints = Collections.synchronizedMap(new HashMap<String, ROSGiEndpoint>());
+	// Exported Services indexed by interface, guarded by the endpoints lock
+	Map<String, Set<ROSGiEndpoint>> exportedInterfaces = new HashMap<String, Set<ROSGiEndpoint>>();
+	
+	// maximum number of endpoint requests in one batch
+	private static final int MAX_ENDPOINT_BATCH = 1024;
 	
 	// Imported Services (mapped by endpointId)
 	Map<String, ROSGiProxy> proxies = new HashMap<String, ROSGiProxy>();
@@ -114,7 +170,20 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 	
 	public ROSGiServiceAdmin(BundleContext context){
 		this.context = context;
-		this.messageHandler = Executors.newCachedThreadPool();
+		// the executors are created before activation, so the thread model is configured here
+		if(context!=null){
+			String threads = context.getProperty(Config.PROP_THREADS);
+			if(threads!=null && threads.equals("virtual")){
+				Config.THREADS = ThreadStrategy.VIRTUAL;
+			}
+		}
+		this.messageHandler = Threads.newCachedThreadPool();
+		this.callHandler = createCallHandler();
+		this.batchHandler = createBatchHandler();
+		this.streams = new StreamArguments(this, messageHandler);
+		this.timer = Executors.newSingleThreadScheduledExecutor();
+		this.results = new StreamedResults(this, timer);
+		this.batcher = new CallBatcher(this, messageHandler, timer);
 	}
 	
 	public void activate() throws ROSGiException{
@@ -126,6 +195,8 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 				EventAdmin.class, null);
 		eventAdminTracker.open();
 		
+		ResultCache.addInvalidator(this);
+		
 		// configure!
 		String timeout = context.getProperty(Config.PROP_TIMEOUT);
 		if(timeout!=null){
@@ -168,9 +239,177 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 		
 		Config.IP = context.getProperty(Config.PROP_IP);
 		
+		String transport = context.getProperty(Config.PROP_TRANSPORT);
+		if(transport!=null){
+			if(transport.equals("tcp")){
+				Config.TRANSPORT = TransportStrategy.TCP;
+			} else if(transport.equals("nio")){
+				Config.TRANSPORT = TransportStrategy.NIO;
+			}
+		}
+		
+		String nioThreads = context.getProperty(Config.PROP_NIO_THREADS);
+		if(nioThreads!=null){
+			Config.NIO_THREADS = Integer.parseInt(nioThreads);
+		}
+		
+		String protocolVersion = context.getProperty(Config.PROP_PROTOCOL_VERSION);
+		if(protocolVersion!=null){
+			Config.PROTOCOL_VERSION = Integer.parseInt(protocolVersion);
+		}
+		
+		String poolSize = context.getProperty(Config.PROP_POOL_SIZE);
+		if(poolSize!=null){
+			Config.POOL_SIZE = Integer.parseInt(poolSize);
+		}
+		
+		String poolLargeMessage = context.getProperty(Config.PROP_POOL_LARGE_MESSAGE);
+		if(poolLargeMessage!=null){
+			Config.POOL_LARGE_MESSAGE = Integer.parseInt(poolLargeMessage);
+		}
+		
+		String maxFrame = context.getProperty(Config.PROP_MAX_FRAME);
+		if(maxFrame!=null){
+			Config.MAX_FRAME_SIZE = Integer.parseInt(maxFrame);
+		}
+		
+		String batchDelay = context.getProperty(Config.PROP_BATCH_DELAY);
+		if(batchDelay!=null){
+			Config.BATCH_DELAY = Integer.parseInt(batchDelay);
+		}
+		
+		String compression = context.getProperty(Config.PROP_COMPRESSION);
+		if(compression!=null){
+			if(compression.equals("none")){
+				Config.COMPRESSION = CompressionStrategy.NONE;
+			} else if(compression.equals("deflate")){
+				Config.COMPRESSION = CompressionStrategy.DEFLATE;
+			}
+		}
+		
+		String compressionThreshold = context.getProperty(Config.PROP_COMPRESSION_THRESHOLD);
+		if(compressionThreshold!=null){
+			Config.COMPRESSION_THRESHOLD = Integer.parseInt(compressionThreshold);
+		}
+		
+		String local = context.getProperty(Config.PROP_LOCAL);
+		if(local!=null){
+			Config.LOCAL = Boolean.parseBoolean(local);
+		}
+		
+		String localDir = context.getProperty(Config.PROP_LOCAL_DIR);
+		if(localDir!=null){
+			Config.LOCAL_DIR = localDir;
+		}
+		
+		String loopback = context.getProperty(Config.PROP_LOOPBACK);
+		if(loopback!=null){
+			Config.LOOPBACK = Boolean.parseBoolean(loopback);
+		}
+		
+		String loopbackCopy = context.getProperty(Config.PROP_LOOPBACK_COPY);
+		if(loopbackCopy!=null){
+			Config.LOOPBACK_COPY = Boolean.parseBoolean(loopbackCopy);
+		}
+		
+		String streamChunk = context.getProperty(Config.PROP_STREAM_CHUNK);
+		if(streamChunk!=null){
+			Config.STREAM_CHUNK_SIZE = Integer.parseInt(streamChunk);
+		}
+		
+		String streamWindow = context.getProperty(Config.PROP_STREAM_WINDOW);
+		if(streamWindow!=null){
+			Config.STREAM_WINDOW = Integer.parseInt(streamWindow);
+		}
+		
+		String resultBatch = context.getProperty(Config.PROP_RESULT_BATCH);
+		if(resultBatch!=null){
+			Config.RESULT_BATCH_SIZE = Integer.parseInt(resultBatch);
+		}
+		
+		String resultWindow = context.getProperty(Config.PROP_RESULT_WINDOW);
+		if(resultWindow!=null){
+			Config.RESULT_WINDOW = Integer.parseInt(resultWindow);
+		}
+		
+		String callBatch = context.getProperty(Config.PROP_CALL_BATCH);
+		if(callBatch!=null){
+			Config.CALL_BATCH = Integer.parseInt(callBatch);
+		}
+		
+		String callBatchDelay = context.getProperty(Config.PROP_CALL_BATCH_DELAY);
+		if(callBatchDelay!=null){
+			Config.CALL_BATCH_DELAY = Integer.parseInt(callBatchDelay);
+		}
+		
+		String callBatchParallel = context.getProperty(Config.PROP_CALL_BATCH_PARALLEL);
+		if(callBatchParallel!=null){
+			Config.CALL_BATCH_PARALLEL = Boolean.parseBoolean(callBatchParallel);
+		}
+		
+		String generatedDispatch = context.getProperty(Config.PROP_GENERATED_DISPATCH);
+		if(generatedDispatch!=null){
+			Config.GENERATED_DISPATCH = Boolean.parseBoolean(generatedDispatch);
+		}
+		
+		String generatedProxy = context.getProperty(Config.PROP_GENERATED_PROXY);
+		if(generatedProxy!=null){
+			Config.GENERATED_PROXY = Boolean.parseBoolean(generatedProxy);
+		}
+		
+		String cacheTtl = context.getProperty(Config.PROP_CACHE_TTL);
+		if(cacheTtl!=null){
+			Config.CACHE_TTL = Long.parseLong(cacheTtl);
+		}
+		
+		String cacheSize = context.getProperty(Config.PROP_CACHE_SIZE);
+		if(cacheSize!=null){
+			Config.CACHE_SIZE = Integer.parseInt(cacheSize);
+		}
+		
+		String execution = context.getProperty(Config.PROP_EXECUTION);
+		if(execution!=null){
+			if(execution.equals("cached")){
+				Config.EXECUTION = ExecutionStrategy.CACHED;
+			} else if(execution.equals("bounded")){
+				Config.EXECUTION = ExecutionStrategy.BOUNDED;
+			}
+		}
+		
+		String callThreads = context.getProperty(Config.PROP_CALL_THREADS);
+		if(callThreads!=null){
+			Config.CALL_THREADS = Integer.parseInt(callThreads);
+		}
+		
+		String callQueue = context.getProperty(Config.PROP_CALL_QUEUE);
+		if(callQueue!=null){
+			Config.CALL_QUEUE = Integer.parseInt(callQueue);
+		}
+		
+		String concurrency = context.getProperty(Config.PROP_CONCURRENCY);
+		if(concurrency!=null){
+			Config.CONCURRENCY = Integer.parseInt(concurrency);
+		}
+		
+		// the execution model is only known once the configuration is read
+		if(callHandler!=messageHandler){
+			callHandler.shutdown();
+		}
+		if(batchHandler!=messageHandler){
+			batchHandler.shutdown();
+		}
+		callHandler = createCallHandler();
+		batchHandler = createBatchHandler();
 		
 		try {
-			channelFactory = new TCPChannelFactory(this, Config.IP, Config.NETWORK_INTERFACE, Config.PORT);
+			if(Config.TRANSPORT==TransportStrategy.NIO){
+				channelFactory = new NIOChannelFactory(this, Config.IP, Config.NETWORK_INTERFACE, Config.PORT, Config.NIO_THREADS);
+			} else {
+				channelFactory = new TCPChannelFactory(this, Config.IP, Config.NETWORK_INTERFACE, Config.PORT);
+			}
+			if(Config.LOCAL){
+				channelFactory = new LocalChannelFactory(this, channelFactory, Config.LOCAL_DIR, getFrameworkUUID(context));
+			}
 			channelFactory.activate();
 		} catch(Exception e){
 			throw new ROSGiException("Failed to create Channel Factory", e);
@@ -195,6 +434,11 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 					@Override
 					public void modifiedService(ServiceReference ref,
 							Object regs) {
+						// a change of the service properties signals that cached results are stale
+						ROSGiEndpoint endpoint = endpoints.get(String.valueOf(ref.getProperty("service.id")));
+						if(endpoint!=null){
+							sendInvalidation(endpoint, null);
+						}
 						// TODO update to RSA v 1.1 that supports modified events
 						// for now just take it down and re-export
 						Iterator<ExportRegistration> it = ((Collection<ExportRegistration>)regs).iterator();
@@ -220,6 +464,7 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 	
 	public void deactivate(){
 		serviceTracker.close();
+		ResultCache.removeInvalidator(this);
 		
 		try {
 			channelFactory.deactivate();
@@ -229,6 +474,14 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 		
 		remoteServiceAdminListenerTracker.close();
 		eventAdminTracker.close();
+		
+		timer.shutdownNow();
+		if(callHandler!=messageHandler){
+			callHandler.shutdown();
+		}
+		if(batchHandler!=messageHandler){
+			batchHandler.shutdown();
+		}
 	}
 	
 	
@@ -256,7 +509,7 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 					checkEndpointPermission(endpoint.getExportedEndpoint(),
 							EndpointPermission.EXPORT);
 					
-					endpoints.put(serviceId, endpoint);
+					addEndpoint(endpoint);
 				}
 				registration = new ROSGiExportRegistration(endpoint);
 			} catch(Throwable t){
@@ -306,7 +559,7 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 		public void close() {
 			synchronized(endpoints){
 				if(endpoint!=null && endpoint.release()==0){
-					endpoints.remove(endpoint.getServiceId());
+					removeEndpoint(endpoint);
 					
 					RemoteServiceAdminEvent event = new RemoteServiceAdminEvent(RemoteServiceAdminEvent.EXPORT_UNREGISTRATION,
 							context.getBundle(), endpoint, exception);
@@ -342,16 +595,91 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 			return registration;
 		}
 		
+		registration = registerImport(endpointDescription, null);
+		publishImportEvent(registration);
+		return registration;
+	}
+	
+	/*
+	 * Import the endpoints with one round trip: the endpoints of the same channel are requested 
+	 * in one batch, or pipelined for peers that do not support this, and all proxies 
+	 * are created concurrently
+	 */
+	@Override
+	public List<ImportRegistration> importServices(Collection<EndpointDescription> endpointDescriptions) {
+		List<EndpointDescription> requested = new ArrayList<EndpointDescription>(endpointDescriptions);
+		for(EndpointDescription endpointDescription : requested){
+			checkEndpointPermission(endpointDescription, EndpointPermission.IMPORT);
+		}
+		
+		final Throwable[] errors = new Throwable[requested.size()];
+		final EndpointDescription[] validated = checkEndpointDescriptions(requested, errors);
+		
+		// create the proxies of endpoints that are not imported yet
+		final ROSGiProxy[] created = new ROSGiProxy[requested.size()];
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for(int i=0;i<validated.length;i++){
+			if(validated[i]==null){
+				continue;
+			}
+			synchronized(proxies){
+				if(proxies.containsKey(validated[i].getId())){
+					continue;
+				}
+			}
+			final int index = i;
+			tasks.add(new Runnable(){
+				public void run(){
+					try {
+						created[index] = ROSGiProxy.createServiceProxy(ROSGiServiceAdmin.this.getClass().getClassLoader(), 
+								validated[index], 
+								channelFactory, 
+								ROSGiServiceAdmin.this, 
+								streams, 
+								results);
+					} catch(Throwable t){
+						errors[index] = t;
+					}
+				}
+			});
+		}
+		runAll(tasks);
+		
+		List<ImportRegistration> imports = new ArrayList<ImportRegistration>(requested.size());
+		for(int i=0;i<requested.size();i++){
+			ROSGiImportRegistration registration;
+			if(errors[i]!=null){
+				registration = new ROSGiImportRegistration(errors[i], requested.get(i));
+			} else {
+				registration = registerImport(validated[i], created[i]);
+			}
+			publishImportEvent(registration);
+			imports.add(registration);
+		}
+		return imports;
+	}
+	
+	/*
+	 * Register the import of a validated endpoint, a proxy that is created up front 
+	 * is only registered as service when the endpoint is not imported yet
+	 */
+	private ROSGiImportRegistration registerImport(EndpointDescription endpointDescription, ROSGiProxy created){
+		ROSGiImportRegistration registration;
 		String endpointId = endpointDescription.getId();
 		synchronized(proxies){
 			try {
 				ROSGiProxy proxy = proxies.get(endpointId);
 				if(proxy==null){
-					proxy = ROSGiProxy.createServiceProxy(context, 
-							this.getClass().getClassLoader(), 
-							endpointDescription, 
-							channelFactory, 
-							this);
+					proxy = created;
+					if(proxy==null){
+						proxy = ROSGiProxy.createServiceProxy(this.getClass().getClassLoader(), 
+								endpointDescription, 
+								channelFactory, 
+								this,
+								streams,
+								results);
+					}
+					proxy.register(context);
 					proxies.put(endpointId, proxy);
 				} 
 				registration = new ROSGiImportRegistration(proxy);
@@ -369,10 +697,135 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 				registration = new ROSGiImportRegistration(roe, endpointDescription);
 			}
 		}
-		publishImportEvent(registration);
 		return registration;
 	}
 	
+	/*
+	 * Run the tasks on the message handler and wait until all are done, 
+	 * the last task runs on the current thread
+	 */
+	private void runAll(List<Runnable> tasks){
+		final CountDownLatch done = new CountDownLatch(tasks.size());
+		for(int i=0;i<tasks.size();i++){
+			final Runnable task = tasks.get(i);
+			Runnable counted = new Runnable(){
+				public void run(){
+					try {
+						task.run();
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+			if(i < tasks.size()-1){
+				try {
+					messageHandler.execute(counted);
+					continue;
+				} catch(RejectedExecutionException e){
+					// run it here instead
+				}
+			}
+			counted.run();
+		}
+		boolean interrupted = false;
+		while(done.getCount() > 0){
+			try {
+				done.await();
+			} catch(InterruptedException e){
+				interrupted = true;
+			}
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/*
+	 * Validate the endpoints with one request per channel, the descriptions of invalid endpoints 
+	 * are null and their error is set instead
+	 */
+	private EndpointDescription[] checkEndpointDescriptions(List<EndpointDescription> endpointDescriptions, Throwable[] errors){
+		EndpointDescription[] validated = new EndpointDescription[endpointDescriptions.size()];
+		
+		// group the endpoints per channel
+		Map<NetworkChannel, List<Integer>> channels = new LinkedHashMap<NetworkChannel, List<Integer>>();
+		for(int i=0;i<endpointDescriptions.size();i++){
+			EndpointDescription endpointDescription = endpointDescriptions.get(i);
+			try {
+				URI uri = new URI(endpointDescription.getId());
+				addLocalRoute(uri, endpointDescription);
+				NetworkChannel channel = channelFactory.getChannel(uri);
+				List<Integer> indices = channels.get(channel);
+				if(indices==null){
+					indices = new ArrayList<Integer>();
+					channels.put(channel, indices);
+				}
+				indices.add(i);
+			} catch(Exception e){
+				errors[i] = new ROSGiException("Error creating service proxy with null channel", e);
+			}
+		}
+		
+		// send all requests before waiting for the first reply
+		Map<MessageFuture, List<Integer>> requests = new LinkedHashMap<MessageFuture, List<Integer>>();
+		for(Entry<NetworkChannel, List<Integer>> entry : channels.entrySet()){
+			NetworkChannel channel = entry.getKey();
+			List<Integer> indices = entry.getValue();
+			if(channel.getProtocolVersion() >= ROSGiMessage.VERSION_10 && indices.size() > 1){
+				for(int from=0;from<indices.size();from+=MAX_ENDPOINT_BATCH){
+					List<Integer> batch = indices.subList(from, Math.min(from+MAX_ENDPOINT_BATCH, indices.size()));
+					List<EndpointRequestMessage> requestMsgs = new ArrayList<EndpointRequestMessage>(batch.size());
+					for(Integer i : batch){
+						EndpointDescription endpointDescription = endpointDescriptions.get(i);
+						requestMsgs.add(new EndpointRequestMessage(endpointDescription.getId(), endpointDescription.getInterfaces()));
+					}
+					try {
+						requests.put(sendAsyncMessage(new EndpointBatchMessage(ROSGiMessage.ENDPOINT_BATCH_REQUEST, requestMsgs), channel), batch);
+					} catch(ROSGiException e){
+						for(Integer i : batch){
+							errors[i] = e;
+						}
+					}
+				}
+			} else {
+				// peers that do not support batches get their requests pipelined
+				for(Integer i : indices){
+					EndpointDescription endpointDescription = endpointDescriptions.get(i);
+					try {
+						requests.put(sendAsyncMessage(new EndpointRequestMessage(endpointDescription.getId(), endpointDescription.getInterfaces()), channel), 
+								Collections.singletonList(i));
+					} catch(ROSGiException e){
+						errors[i] = e;
+					}
+				}
+			}
+		}
+		
+		for(Entry<MessageFuture, List<Integer>> request : requests.entrySet()){
+			ROSGiMessage reply = null;
+			try {
+				reply = request.getKey().get();
+			} catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			} catch(ExecutionException e){}
+			
+			List<ROSGiMessage> replies = reply instanceof EndpointBatchMessage ? 
+					((EndpointBatchMessage)reply).getMessages() : Collections.singletonList(reply);
+			List<Integer> indices = request.getValue();
+			for(int k=0;k<indices.size();k++){
+				int i = indices.get(k);
+				ROSGiMessage edMsg = k < replies.size() ? replies.get(k) : null;
+				if(edMsg instanceof EndpointDescriptionMessage 
+						&& ((EndpointDescriptionMessage)edMsg).getEndpointDescription()!=null){
+					validated[i] = ((EndpointDescriptionMessage)edMsg).getEndpointDescription();
+				} else {
+					errors[i] = new ROSGiException("No valid endpoint exists!");
+				}
+			}
+		}
+		return validated;
+	}
+	
 	private EndpointDescription checkEndpointDescription(EndpointDescription endpointDescription) throws ROSGiException{
 		String endpointId = endpointDescription.getId();
 		List<String> interfaces = endpointDescription.getInterfaces();
@@ -380,6 +833,7 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 		URI uri = new URI(endpointId);
 		NetworkChannel channel;
 		
+		addLocalRoute(uri, endpointDescription);
 		try {
 			channel = channelFactory.getChannel(uri);
 		} catch(Exception e){
@@ -398,6 +852,19 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 		return edMsg.getEndpointDescription();
 	}
 	
+	/*
+	 * Frameworks in the same JVM are reached by their framework uuid, 
+	 * frameworks on the same machine over the socket file advertised in their endpoints
+	 */
+	private void addLocalRoute(URI uri, EndpointDescription endpointDescription){
+		if(channelFactory instanceof LocalChannelFactory){
+			Object path = endpointDescription.getProperties().get(Config.ENDPOINT_LOCAL_PATH);
+			((LocalChannelFactory)channelFactory).addRoute(uri.getAddress(), 
+					endpointDescription.getFrameworkUUID(), 
+					path instanceof String ? (String)path : null);
+		}
+	}
+	
 	// ImportRegistration class : aqcuire and release the proxies
 	private class ROSGiImportRegistration implements ImportRegistration {
 
@@ -453,6 +920,65 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 		}
 	}
 
+	/*
+	 * Keep the interface index in sync with the exported endpoints, 
+	 * called while holding the endpoints lock
+	 */
+	private void addEndpoint(ROSGiEndpoint endpoint){
+		endpoints.put(endpoint.getServiceId(), endpoint);
+		for(String iface : endpoint.getInterfaces()){
+			Set<ROSGiEndpoint> exported = exportedInterfaces.get(iface);
+			if(exported==null){
+				exported = new LinkedHashSet<ROSGiEndpoint>();
+				exportedInterfaces.put(iface, exported);
+			}
+			exported.add(endpoint);
+		}
+	}
+	
+	private void removeEndpoint(ROSGiEndpoint endpoint){
+		endpoints.remove(endpoint.getServiceId());
+		for(String iface : endpoint.getInterfaces()){
+			Set<ROSGiEndpoint> exported = exportedInterfaces.get(iface);
+			if(exported!=null){
+				exported.remove(endpoint);
+				if(exported.isEmpty()){
+					exportedInterfaces.remove(iface);
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Find an exported endpoint that implements all given interfaces, 
+	 * only the endpoints of the least exported interface are checked
+	 */
+	private ROSGiEndpoint findEndpoint(List<String> interfaces){
+		synchronized(endpoints){
+			if(interfaces.isEmpty()){
+				Iterator<ROSGiEndpoint> it = endpoints.values().iterator();
+				return it.hasNext() ? it.next() : null;
+			}
+			
+			Set<ROSGiEndpoint> candidates = null;
+			for(String iface : interfaces){
+				Set<ROSGiEndpoint> exported = exportedInterfaces.get(iface);
+				if(exported==null){
+					return null;
+				}
+				if(candidates==null || exported.size() < candidates.size()){
+					candidates = exported;
+				}
+			}
+			for(ROSGiEndpoint endpoint : candidates){
+				if(endpoint.getInterfaces().containsAll(interfaces)){
+					return endpoint;
+				}
+			}
+			return null;
+		}
+	}
+
 	@Override
 	public Collection<ExportReference> getExportedServices() {
 		Collection<ExportReference> results = new ArrayList<ExportReference>();
@@ -677,13 +1203,77 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 	/*
 	 * Methods for sending and receiving messages (MessageSender / MessageReceiver)
 	 */
-	static int xIdCount = (new Random(System.currentTimeMillis())).nextInt();
-
-	protected final Map<Integer, WaitingCallback> callbacks = new HashMap<Integer, WaitingCallback>(0);
+	static final AtomicInteger xIdCount = new AtomicInteger((new Random(System.currentTimeMillis())).nextInt());
 
+	// outcomes of a WaitingCallback other than a result message
+	private static final Object PENDING = new Object();
+	private static final Object FAILED = new Object();
+	private static final Object CANCELLED = new Object();
+	private static final Object TIMED_OUT = new Object();
 	
-	private static synchronized int nextXid(){
-		return ++xIdCount;
+	// pending calls, mapped by xid and indexed per channel
+	protected final ConcurrentMap<Integer, WaitingCallback> callbacks = new ConcurrentHashMap<Integer, WaitingCallback>();
+	protected final ConcurrentMap<NetworkChannel, Set<WaitingCallback>> channelCallbacks = new ConcurrentHashMap<NetworkChannel, Set<WaitingCallback>>();
+	
+	private static int nextXid(){
+		int xid;
+		do {
+			// 0 marks a message without xid
+			xid = xIdCount.incrementAndGet();
+		} while(xid == 0);
+		return xid;
+	}
+	
+	private void addCallback(WaitingCallback callback){
+		callbacks.put(callback.xid, callback);
+		callback.channel.getMetrics().callStarted();
+		
+		Set<WaitingCallback> pending = channelCallbacks.get(callback.channel);
+		if(pending==null){
+			Set<WaitingCallback> created = Collections.newSetFromMap(new ConcurrentHashMap<WaitingCallback, Boolean>());
+			pending = channelCallbacks.putIfAbsent(callback.channel, created);
+			if(pending==null){
+				pending = created;
+			}
+		}
+		pending.add(callback);
+	}
+	
+	private WaitingCallback removeCallback(Integer xid){
+		WaitingCallback callback = callbacks.remove(xid);
+		if(callback!=null){
+			callback.channel.getMetrics().callEnded();
+			Set<WaitingCallback> pending = channelCallbacks.get(callback.channel);
+			if(pending!=null){
+				pending.remove(callback);
+			}
+		}
+		return callback;
+	}
+	
+	/*
+	 * Fail a call that could not be sent
+	 */
+	void failCall(int xid){
+		WaitingCallback callback = removeCallback(xid);
+		if(callback!=null){
+			callback.result(null);
+		}
+	}
+	
+	/*
+	 * Fail all calls pending on a closed channel
+	 */
+	private void failCallbacks(NetworkChannel networkChannel){
+		Set<WaitingCallback> pending = channelCallbacks.remove(networkChannel);
+		if(pending!=null){
+			for(WaitingCallback callback : pending){
+				if(callbacks.remove(callback.xid, callback)){
+					networkChannel.getMetrics().callEnded();
+				}
+				callback.result(null);
+			}
+		}
 	}
 	
 	/*
@@ -694,45 +1284,221 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 		if(msg==null){
 			messageTask = new Runnable(){
 				public void run(){
-					synchronized (callbacks) {
-						Iterator<Entry<Integer, WaitingCallback> > it = callbacks.entrySet().iterator();
-						Entry<Integer, WaitingCallback> entry = null;
-						while(it.hasNext()){
-							entry = it.next();
-							if(entry.getValue().channel==networkChannel){
-								entry.getValue().result(null);
-								it.remove();
-							}
-						}
-					}
-		
-					// dispose channel
+					// dispose channel, this also fails the pending calls
 					disposeChannel(networkChannel);
 				}
 			};
 		} else { 
+			networkChannel.getMetrics().received(0);
 			messageTask = new Runnable() {
 				public void run() {
-					ROSGiMessage reply = handleMessage(msg);
-					if (reply != null) {
-						try {
-							sendMessage(reply, networkChannel);
-						} catch (ROSGiException e) {
-							Activator.logger.log(LogService.LOG_ERROR, "Error sending reply message", e);
-						}
-					}
+					ROSGiMessage reply = handleMessage(msg, networkChannel);
+					sendReply(reply, networkChannel);
 				}
 			};
 			// Remote calls should be cancelable to support interrupts
-			if(msg.getFuncID()==ROSGiMessage.REMOTE_CALL){
+			if(isRemoteCall(msg.getFuncID())){
 				CancelableRunnable cancelable = new CancelableRunnable(messageTask);
 				messageTasks.put(new Integer(msg.getXID()), cancelable);
 				messageTask = cancelable;
 			}
+			
+			if(isCall(msg.getFuncID())){
+				executeCall(messageTask, msg.getXID(), new Runnable(){
+					public void run(){
+						sendReply(overloaded(msg, networkChannel), networkChannel);
+					}
+				});
+				return;
+			}
 		}
 		
 		messageHandler.execute(messageTask);
 	}
+	
+	/*
+	 * This method is called back by a version 2 NetworkChannel when a frame is received,
+	 * the message is decoded on the message handler thread instead of the receiving thread
+	 */
+	public void receivedFrame(final MessageFrame frame, final NetworkChannel networkChannel) {
+		final long received = System.nanoTime();
+		networkChannel.getMetrics().received(frame.getLength());
+		Runnable messageTask = new Runnable() {
+			public void run() {
+				ROSGiMessage reply;
+				try {
+					long start = System.nanoTime();
+					ROSGiMessage msg = frame.decode();
+					networkChannel.getMetrics().decoded(System.nanoTime() - start);
+					if(msg==null){
+						// frames are self-contained, so unknown message types can safely be skipped
+						Activator.logger.log(LogService.LOG_WARNING, "Unsupported message "+frame+" received from "+networkChannel.getRemoteAddress());
+						return;
+					}
+					setReceived(msg, received);
+					reply = handleMessage(msg, networkChannel);
+				} catch(Exception e){
+					Activator.logger.log(LogService.LOG_ERROR, "Error decoding message "+frame+" from "+networkChannel.getRemoteAddress(), e);
+					reply = decodingFailed(frame, e);
+				}
+				sendReply(reply, networkChannel);
+			}
+		};
+		// Remote calls should be cancelable to support interrupts
+		if(isRemoteCall(frame.getFuncID())){
+			CancelableRunnable cancelable = new CancelableRunnable(messageTask);
+			messageTasks.put(Integer.valueOf(frame.getXID()), cancelable);
+			messageTask = cancelable;
+		}
+		
+		if(isCall(frame.getFuncID())){
+			executeCall(messageTask, frame.getXID(), new Runnable(){
+				public void run(){
+					try {
+						sendReply(overloaded(frame.decode(), networkChannel), networkChannel);
+					} catch(Exception e){
+						Activator.logger.log(LogService.LOG_ERROR, "Error decoding message "+frame+" from "+networkChannel.getRemoteAddress(), e);
+					}
+				}
+			});
+			return;
+		}
+		
+		messageHandler.execute(messageTask);
+	}
+	
+	/*
+	 * Calls are executed by the call handler, other messages by the message handler so 
+	 * they are never held up by calls. A call that is rejected by the call handler 
+	 * is answered with an OverloadException.
+	 */
+	private void executeCall(Runnable task, int xid, Runnable reject){
+		try {
+			callHandler.execute(task);
+		} catch(RejectedExecutionException e){
+			messageTasks.remove(Integer.valueOf(xid));
+			messageHandler.execute(reject);
+		}
+	}
+	
+	private ROSGiMessage overloaded(ROSGiMessage call, NetworkChannel networkChannel){
+		if(call==null){
+			return null;
+		}
+		if(call.getFuncID()==ROSGiMessage.CALL_BATCH){
+			List<ROSGiMessage> replies = new ArrayList<ROSGiMessage>();
+			for(ROSGiMessage c : ((CallBatchMessage)call).getMessages()){
+				replies.add(overloaded(c, networkChannel));
+			}
+			return new CallBatchMessage(ROSGiMessage.CALL_BATCH_RESULT, replies);
+		}
+		// cancel the stream arguments that are sent along
+		streams.discard(((RemoteCallMessage)call).getArgs(), networkChannel);
+		RemoteCallResultMessage m = new RemoteCallResultMessage(new OverloadException("Too many calls, call "+call.getXID()+" is rejected"));
+		m.setXID(call.getXID());
+		return m;
+	}
+	
+	/*
+	 * The deadline of a call starts when its frame is received, so the time it 
+	 * waits for a call handler thread counts as well
+	 */
+	private static void setReceived(ROSGiMessage msg, long received){
+		if(msg instanceof RemoteCallMessage){
+			((RemoteCallMessage)msg).received(received);
+		} else if(msg.getFuncID()==ROSGiMessage.CALL_BATCH){
+			for(ROSGiMessage call : ((CallBatchMessage)msg).getMessages()){
+				setReceived(call, received);
+			}
+		}
+	}
+	
+	private ExecutorService createCallHandler(){
+		if(Config.EXECUTION!=ExecutionStrategy.BOUNDED){
+			return messageHandler;
+		}
+		BlockingQueue<Runnable> queue = Config.CALL_QUEUE > 0 ? 
+				new ArrayBlockingQueue<Runnable>(Config.CALL_QUEUE) : new SynchronousQueue<Runnable>();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(Config.CALL_THREADS, Config.CALL_THREADS, 
+				60, TimeUnit.SECONDS, queue, Threads.threadFactory());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/*
+	 * A batch waits for its calls on a call handler thread, so its calls cannot be 
+	 * queued on the bounded call handler: once every thread waits for a batch, the queued 
+	 * calls would never start. The batch handler never queues, a call it rejects runs 
+	 * on the thread of the batch instead.
+	 */
+	private ExecutorService createBatchHandler(){
+		if(Config.EXECUTION!=ExecutionStrategy.BOUNDED){
+			return messageHandler;
+		}
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(Config.CALL_THREADS, Config.CALL_THREADS, 
+				60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), Threads.threadFactory());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/*
+	 * A frame that cannot be decoded does not break the channel, 
+	 * just answer or release the waiting call
+	 */
+	private ROSGiMessage decodingFailed(MessageFrame frame, Exception e){
+		Integer xid = Integer.valueOf(frame.getXID());
+		switch(frame.getFuncID()){
+		case ROSGiMessage.REMOTE_CALL:
+		case ROSGiMessage.COMPACT_REMOTE_CALL:
+		case ROSGiMessage.TIMED_REMOTE_CALL:
+		case ROSGiMessage.TIMED_COMPACT_REMOTE_CALL: {
+			messageTasks.remove(xid);
+			RemoteCallResultMessage m = new RemoteCallResultMessage(new ROSGiException("Error decoding remote call", e));
+			m.setXID(frame.getXID());
+			return m;
+		}
+		case ROSGiMessage.ENDPOINT_REQUEST: {
+			EndpointDescriptionMessage m = new EndpointDescriptionMessage((EndpointDescription)null);
+			m.setXID(frame.getXID());
+			return m;
+		}
+		case ROSGiMessage.ENDPOINT_BATCH_REQUEST: {
+			EndpointBatchMessage m = new EndpointBatchMessage(ROSGiMessage.ENDPOINT_BATCH_DESCRIPTION, 
+					Collections.<ROSGiMessage>emptyList());
+			m.setXID(frame.getXID());
+			return m;
+		}
+		case ROSGiMessage.REMOTE_CALL_RESULT:
+		case ROSGiMessage.ENDPOINT_DESCRIPTION:
+		case ROSGiMessage.ENDPOINT_BATCH_DESCRIPTION: {
+			WaitingCallback callback = removeCallback(xid);
+			if (callback != null) {
+				callback.result(null);
+			}
+			return null;
+		}
+		default:
+			return null;
+		}
+	}
+	
+	private static boolean isRemoteCall(short funcID){
+		return ROSGiMessage.isRemoteCall(funcID);
+	}
+	
+	private static boolean isCall(short funcID){
+		return isRemoteCall(funcID) || funcID==ROSGiMessage.CALL_BATCH;
+	}
+	
+	private void sendReply(ROSGiMessage reply, NetworkChannel networkChannel){
+		if (reply != null) {
+			try {
+				sendMessage(reply, networkChannel);
+			} catch (ROSGiException e) {
+				Activator.logger.log(LogService.LOG_ERROR, "Error sending reply message", e);
+			}
+		}
+	}
 
 	/*
 	 * Send the ROSGiMessage over the NetworkChannel
@@ -741,7 +1507,19 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 		if (msg.getXID() == 0) {
 			msg.setXID(nextXid());
 		}
-
+		
+		if(isRemoteCall(msg.getFuncID()) && CallBatcher.isEnabled(networkChannel)){
+			// sent later on together with concurrent calls
+			batcher.add(msg, networkChannel);
+			return;
+		}
+		transmit(msg, networkChannel);
+	}
+	
+	/*
+	 * Send the ROSGiMessage over the NetworkChannel without batching
+	 */
+	void transmit(final ROSGiMessage msg, NetworkChannel networkChannel) throws ROSGiException{
 		try {
 			networkChannel.sendMessage(msg);
 			return;
@@ -759,68 +1537,234 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 	 * Send the ROSGiMessage over the NetworkChannel and wait (blocking) for reply
 	 */
 	public ROSGiMessage sendAndWaitMessage(final ROSGiMessage msg, NetworkChannel networkChannel) throws ROSGiException, InterruptedException {
+		return sendAndWaitMessage(msg, networkChannel, Config.TIMEOUT);
+	}
+	
+	/*
+	 * Send the ROSGiMessage over the NetworkChannel and wait at most timeout milliseconds for reply
+	 */
+	public ROSGiMessage sendAndWaitMessage(final ROSGiMessage msg, NetworkChannel networkChannel, long timeout) throws ROSGiException, InterruptedException {
 		if (msg.getXID() == 0) {
 			msg.setXID(nextXid());
 		}
 		Integer xid = new Integer(msg.getXID());
 		
-		WaitingCallback blocking = new WaitingCallback(networkChannel);
-
-		synchronized (callbacks) {
-			callbacks.put(xid, blocking);
-		}
+		WaitingCallback blocking = new WaitingCallback(networkChannel, xid);
+		addCallback(blocking);
 
 		sendMessage(msg, networkChannel);
 
 		// wait for the reply
-		synchronized (blocking) {
-			ROSGiMessage result = blocking.getResult();
-			try {
-				if (result == null) {
-					blocking.wait(Config.TIMEOUT);
-					result = blocking.getResult();
-				}
-			} catch (InterruptedException ie) {
-				// interrupt the remote call, also remove callback
-				callbacks.remove(xid);
-				sendMessage(new InterruptMessage(xid), networkChannel);
-				throw ie;
-			}
-			if (result != null) {
-				return result;
-			} else {
-				// TODO should we immediately dispose the channel here?
-				//disposeChannel(networkChannel);
-				throw new ROSGiException("No (valid) message returned");
+		ROSGiMessage result;
+		try {
+			result = blocking.await(timeout);
+		} catch (InterruptedException ie) {
+			// interrupt the remote call, also remove callback
+			removeCallback(xid);
+			sendMessage(new InterruptMessage(xid), networkChannel);
+			throw ie;
+		}
+		if (result != null) {
+			return result;
+		} else {
+			removeCallback(xid);
+			if(blocking.expire()){
+				throw new ROSGiException("No reply received within "+timeout+" ms", new TimeoutException());
 			}
+			// TODO should we immediately dispose the channel here?
+			//disposeChannel(networkChannel);
+			throw new ROSGiException("No (valid) message returned");
 		}
 	}
 	
 	/*
-	 * Helper class for waiting on the result message
+	 * Send the ROSGiMessage over the NetworkChannel and return a future for the reply, 
+	 * the future fails when no reply is received within the timeout
+	 */
+	public MessageFuture sendAsyncMessage(final ROSGiMessage msg, NetworkChannel networkChannel) throws ROSGiException {
+		return sendAsyncMessage(msg, networkChannel, Config.TIMEOUT);
+	}
+	
+	/*
+	 * Send the ROSGiMessage over the NetworkChannel and return a future for the reply, 
+	 * the future fails when no reply is received within timeout milliseconds
 	 */
-	class WaitingCallback {
+	public MessageFuture sendAsyncMessage(final ROSGiMessage msg, NetworkChannel networkChannel, long timeout) throws ROSGiException {
+		if (msg.getXID() == 0) {
+			msg.setXID(nextXid());
+		}
+		final Integer xid = Integer.valueOf(msg.getXID());
+		
+		final WaitingCallback callback = new WaitingCallback(networkChannel, xid);
+		addCallback(callback);
+		callback.timeout = timer.schedule(new Runnable(){
+			public void run(){
+				removeCallback(xid);
+				callback.expire();
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+		
+		try {
+			sendMessage(msg, networkChannel);
+		} catch(ROSGiException e){
+			removeCallback(xid);
+			callback.result(null);
+			throw e;
+		}
+		return callback;
+	}
+	
+	/*
+	 * Helper class for waiting on the result message, 
+	 * also serves as future for asynchronous calls
+	 */
+	class WaitingCallback implements MessageFuture {
 
-		private ROSGiMessage result;
-		private final NetworkChannel channel;
+		// either PENDING, FAILED, CANCELLED, TIMED_OUT or the result message
+		private final AtomicReference<Object> outcome = new AtomicReference<Object>(PENDING);
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final Queue<Runnable> listeners = new ConcurrentLinkedQueue<Runnable>();
+		final NetworkChannel channel;
+		final Integer xid;
+		// to measure the round trip time
+		private final long sent = System.nanoTime();
+		
+		volatile ScheduledFuture<?> timeout = null;
 		
-		public WaitingCallback(NetworkChannel channel){
+		public WaitingCallback(NetworkChannel channel, Integer xid){
 			this.channel = channel;
+			this.xid = xid;
+		}
+		
+		public void result(ROSGiMessage msg) {
+			if(msg!=null){
+				if(complete(msg)){
+					channel.getMetrics().replied(System.nanoTime() - sent);
+				}
+			} else {
+				complete(FAILED);
+			}
 		}
 		
-		public synchronized void result(ROSGiMessage msg) {
-			result = msg;
-			this.notifyAll();
+		/*
+		 * No reply was received in time, returns false when the call was already done
+		 */
+		boolean expire(){
+			if(!complete(TIMED_OUT)){
+				return false;
+			}
+			channel.getMetrics().timedOut();
+			return true;
 		}
 
-		synchronized ROSGiMessage getResult() {
-			return result;
+		ROSGiMessage getResult() {
+			Object o = outcome.get();
+			return o instanceof ROSGiMessage ? (ROSGiMessage) o : null;
+		}
+		
+		/*
+		 * Wait for the result, returns null when the call failed or timed out
+		 */
+		ROSGiMessage await(long timeout) throws InterruptedException {
+			done.await(timeout, TimeUnit.MILLISECONDS);
+			return getResult();
 		}
 		
 		// used to break callback when channel closed
 		public NetworkChannel getChannel(){
 			return channel;
 		}
+		
+		private boolean complete(Object o){
+			if(!outcome.compareAndSet(PENDING, o)){
+				return false;
+			}
+			done.countDown();
+			
+			ScheduledFuture<?> t = timeout;
+			if(t!=null){
+				t.cancel(false);
+			}
+			notifyListeners();
+			return true;
+		}
+		
+		private void notifyListeners(){
+			Runnable listener;
+			while((listener = listeners.poll())!=null){
+				try {
+					listener.run();
+				} catch(Throwable t){
+					Activator.logger.log(LogService.LOG_ERROR, "Error notifying result of call "+xid, t);
+				}
+			}
+		}
+		
+		@Override
+		public int getXID(){
+			return xid.intValue();
+		}
+		
+		@Override
+		public void addListener(Runnable listener){
+			listeners.add(listener);
+			if(isDone()){
+				notifyListeners();
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if(!complete(CANCELLED)){
+				return false;
+			}
+			removeCallback(xid);
+			if(mayInterruptIfRunning){
+				try {
+					sendMessage(new InterruptMessage(xid), channel);
+				} catch(ROSGiException e){
+					// channel is already gone
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return outcome.get()==CANCELLED;
+		}
+
+		@Override
+		public boolean isDone() {
+			return outcome.get()!=PENDING;
+		}
+
+		@Override
+		public ROSGiMessage get() throws InterruptedException, ExecutionException {
+			done.await();
+			return value();
+		}
+
+		@Override
+		public ROSGiMessage get(long t, TimeUnit unit)
+				throws InterruptedException, ExecutionException, TimeoutException {
+			if(!done.await(t, unit)){
+				throw new TimeoutException();
+			}
+			return value();
+		}
+		
+		private ROSGiMessage value() throws ExecutionException {
+			Object o = outcome.get();
+			if(o==CANCELLED){
+				throw new CancellationException();
+			} else if(o instanceof ROSGiMessage){
+				return (ROSGiMessage) o;
+			} else if(o==TIMED_OUT){
+				throw new ExecutionException(new ROSGiException("No reply received in time", new TimeoutException()));
+			}
+			throw new ExecutionException(new ROSGiException("No (valid) message returned"));
+		}
 	}
 	
 	/*
@@ -850,11 +1794,14 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 	/*
 	 * Handle incoming messages
 	 */
-	private ROSGiMessage handleMessage(final ROSGiMessage msg) {
+	private ROSGiMessage handleMessage(final ROSGiMessage msg, final NetworkChannel networkChannel) {
 		try {
 			switch (msg.getFuncID()) {
 			
-			case ROSGiMessage.REMOTE_CALL: {
+			case ROSGiMessage.REMOTE_CALL:
+			case ROSGiMessage.COMPACT_REMOTE_CALL:
+			case ROSGiMessage.TIMED_REMOTE_CALL:
+			case ROSGiMessage.TIMED_COMPACT_REMOTE_CALL: {
 				final RemoteCallMessage invMsg = (RemoteCallMessage) msg;
 				try {
 					String serviceId = invMsg.getServiceId();
@@ -864,25 +1811,83 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 						// no endpoint exists
 						throw new ROSGiException("No valid endpoint for service "+serviceId);
 					}
+					registerClasses(endpoint, networkChannel);
 	
 					// get the invocation arguments and the local method
 					final Object[] arguments = invMsg.getArgs();
 	
-					final Method method = endpoint.getMethod(invMsg.getMethodSignature());
-					if(method==null){
-						throw new ROSGiException("No method found with signature "+invMsg.getMethodSignature()+" for endpoint service id "+endpoint.getServiceId());
+					final Method method;
+					if(invMsg.getMethodId() >= 0){
+						method = endpoint.getMethod(invMsg.getMethodId());
+						if(method==null){
+							throw new ROSGiException("No method found with id "+invMsg.getMethodId()+" for endpoint service id "+endpoint.getServiceId());
+						}
+					} else {
+						method = endpoint.getMethod(invMsg.getMethodSignature());
+						if(method==null){
+							throw new ROSGiException("No method found with signature "+invMsg.getMethodSignature()+" for endpoint service id "+endpoint.getServiceId());
+						}
 					}
 					
-					// invoke method
+					final boolean oneWay = endpoint.isOneWay(method) && networkChannel.getProtocolVersion() >= ROSGiMessage.VERSION_6;
+					if(invMsg.isExpired()){
+						// the caller does not wait for the result anymore
+						streams.discard(arguments, networkChannel);
+						endpoint.callExpired();
+						Activator.logger.log(LogService.LOG_DEBUG, "Dropped expired call of "+method.getName()+" on endpoint service id "+endpoint.getServiceId());
+						return null;
+					}
+					if(!endpoint.acquireCall()){
+						// cancel the stream arguments that are sent along
+						streams.discard(arguments, networkChannel);
+						OverloadException overload = new OverloadException("Endpoint service id "+endpoint.getServiceId()+" is handling the maximum number of concurrent calls");
+						if(oneWay){
+							endpoint.oneWayFailed();
+							Activator.logger.log(LogService.LOG_WARNING, "One-way call of "+method.getName()+" rejected", overload);
+							return null;
+						}
+						throw overload;
+					}
+					
+					// the service can check the time left, and passes it on with its own remote calls
+					final Long previousDeadline = Deadline.enter(invMsg.getDeadline());
 					try {
-						Object result = method.invoke(endpoint.getServiceObject(),
-								arguments);
-						final RemoteCallResultMessage m = new RemoteCallResultMessage(result);
-						m.setXID(invMsg.getXID());
+						// stream arguments are received while the method reads them
+						final List<Object> resources = streams.receive(arguments, networkChannel);
+					
+						if(oneWay){
+							// the caller does not wait for a result
+							try {
+								endpoint.invoke(method, arguments);
+							} catch (final Throwable t) {
+								endpoint.oneWayFailed();
+								Activator.logger.log(LogService.LOG_WARNING, "One-way call of "+method.getName()+" on endpoint service id "+endpoint.getServiceId()+" failed", t);
+							} finally {
+								streams.release(resources);
+							}
+							return null;
+						}
+					
+						// invoke method
+						try {
+							Object result = endpoint.invoke(method, arguments);
+							if(AsyncResult.forType(method.getReturnType())!=null){
+								// send back the value of the returned Future or Promise
+								result = AsyncResult.resolve(result);
+							} else if(StreamedResults.canStream(method, networkChannel)){
+								// send back the first batch of a returned Iterator, Iterable or Stream
+								result = results.open(result, invMsg.getXID(), networkChannel);
+							}
+							final RemoteCallResultMessage m = new RemoteCallResultMessage(result);
+							m.setXID(invMsg.getXID());
 						
-						return m;
-					} catch (final InvocationTargetException t) {
-						throw t.getTargetException();
+							return m;
+						} finally {
+							streams.release(resources);
+						}
+					} finally {
+						Deadline.enter(previousDeadline);
+						endpoint.releaseCall();
 					}
 				} catch (final Throwable t) {
 					RemoteCallResultMessage m = new RemoteCallResultMessage(t);
@@ -892,65 +1897,61 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 			}
 			case ROSGiMessage.REMOTE_CALL_RESULT:
 			case ROSGiMessage.ENDPOINT_DESCRIPTION:
+			case ROSGiMessage.ENDPOINT_BATCH_DESCRIPTION:
 				Integer xid = new Integer(msg.getXID());
-				WaitingCallback callback;
-				synchronized (callbacks) {
-					callback = (WaitingCallback) callbacks.remove(xid);
-				}
+				WaitingCallback callback = removeCallback(xid);
 				if (callback != null) {
 					callback.result(msg);
 				}
 				return null;
 			case ROSGiMessage.ENDPOINT_REQUEST:
-				final EndpointRequestMessage erqMsg = (EndpointRequestMessage) msg;
-				try {
-					String endpointId = erqMsg.getEndpointId();
-					URI uri = new URI(endpointId);
-					String serviceId = uri.getServiceId();
-					if(serviceId==null){
-						// Try to lookup an endpoint based on interfaces
-						for(ROSGiEndpoint endpoint : endpoints.values()){
-							boolean found = true;
-							for(String rqstInterface : erqMsg.getInterfaces()){
-								if(!endpoint.getExportedEndpoint().getInterfaces().contains(rqstInterface)){
-									found = false;
-									break;
-								}
-							}
-							if(found){
-								serviceId = endpoint.getServiceId();
-								break;
-							}
-						}
-					}
-					
-					ROSGiEndpoint endpoint = endpoints.get(serviceId);
-		
-					if(endpoint == null){
-						// no endpoint exists
-						throw new ROSGiException("No valid endpoint for service "+uri.getServiceId());
-					}
-					
-					EndpointDescription ed = endpoint.getExportedEndpoint();
-					for(String rqstInterface : erqMsg.getInterfaces()){
-						if(!ed.getInterfaces().contains(rqstInterface)){
-							throw new ROSGiException("This endpoint does not implement interface "+rqstInterface);
+				return describeEndpoint((EndpointRequestMessage) msg, networkChannel);
+			case ROSGiMessage.ENDPOINT_BATCH_REQUEST:
+				List<ROSGiMessage> descriptions = new ArrayList<ROSGiMessage>();
+				for(ROSGiMessage request : ((EndpointBatchMessage) msg).getMessages()){
+					descriptions.add(describeEndpoint((EndpointRequestMessage) request, networkChannel));
+				}
+				EndpointBatchMessage ebMsg = new EndpointBatchMessage(ROSGiMessage.ENDPOINT_BATCH_DESCRIPTION, descriptions);
+				ebMsg.setXID(msg.getXID());
+				return ebMsg;
+			case ROSGiMessage.CACHE_INVALIDATE:
+				final CacheInvalidateMessage ciMsg = (CacheInvalidateMessage) msg;
+				synchronized(proxies){
+					for(ROSGiProxy proxy : proxies.values()){
+						EndpointDescription ed = proxy.getImportedEndpoint();
+						if(ciMsg.getServiceId().equals(String.valueOf(ed.getServiceId()))
+								&& ciMsg.getFrameworkId().equals(ed.getFrameworkUUID())){
+							proxy.invalidate(ciMsg.getMethods());
 						}
 					}
-					
-					final EndpointDescriptionMessage edMsg = new EndpointDescriptionMessage(ed);
-					edMsg.setXID(erqMsg.getXID());
-					return edMsg;
-				}catch(final Throwable t){
-					final EndpointDescriptionMessage edMsg = new EndpointDescriptionMessage((EndpointDescription)null);
-					edMsg.setXID(erqMsg.getXID());
-					return edMsg;
 				}
+				return null;
+			case ROSGiMessage.STREAM_CHUNK:
+				streams.received((StreamChunkMessage) msg, networkChannel);
+				return null;
+			case ROSGiMessage.STREAM_CREDIT:
+				streams.received((StreamCreditMessage) msg);
+				return null;
+			case ROSGiMessage.CALL_BATCH:
+				return handleBatch((CallBatchMessage) msg, networkChannel);
+			case ROSGiMessage.CALL_BATCH_RESULT:
+				for(ROSGiMessage result : ((CallBatchMessage) msg).getMessages()){
+					handleMessage(result, networkChannel);
+				}
+				return null;
+			case ROSGiMessage.RESULT_BATCH:
+				results.received((ResultBatchMessage) msg);
+				return null;
+			case ROSGiMessage.RESULT_DEMAND:
+				results.received((ResultDemandMessage) msg);
+				return null;
 			case ROSGiMessage.INTERRUPT:
 				CancelableRunnable task = messageTasks.get(new Integer(msg.getXID()));
 				if(task!=null){
 					task.cancel();
 				}
+				// the caller stops consuming a streamed result
+				results.cancel(msg.getXID());
 			default:
 				//Unimplemented message type
 				return null;
@@ -960,8 +1961,136 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 		}
 	}
 	
+	/*
+	 * Answer an endpoint request with the description of the matching exported endpoint, 
+	 * or with an empty description when there is none
+	 */
+	private EndpointDescriptionMessage describeEndpoint(final EndpointRequestMessage erqMsg, NetworkChannel networkChannel){
+		try {
+			String endpointId = erqMsg.getEndpointId();
+			URI uri = new URI(endpointId);
+			String serviceId = uri.getServiceId();
+			if(serviceId==null){
+				// Try to lookup an endpoint based on interfaces
+				ROSGiEndpoint endpoint = findEndpoint(erqMsg.getInterfaces());
+				if(endpoint!=null){
+					serviceId = endpoint.getServiceId();
+				}
+			}
+			
+			ROSGiEndpoint endpoint = endpoints.get(serviceId);
+	
+			if(endpoint == null){
+				// no endpoint exists
+				throw new ROSGiException("No valid endpoint for service "+uri.getServiceId());
+			}
+			
+			for(String rqstInterface : erqMsg.getInterfaces()){
+				if(!endpoint.getInterfaces().contains(rqstInterface)){
+					throw new ROSGiException("This endpoint does not implement interface "+rqstInterface);
+				}
+			}
+			EndpointDescription ed = endpoint.getExportedEndpoint();
+			
+			registerClasses(endpoint, networkChannel);
+			
+			final EndpointDescriptionMessage edMsg = new EndpointDescriptionMessage(ed);
+			edMsg.setXID(erqMsg.getXID());
+			return edMsg;
+		}catch(final Throwable t){
+			final EndpointDescriptionMessage edMsg = new EndpointDescriptionMessage((EndpointDescription)null);
+			edMsg.setXID(erqMsg.getXID());
+			return edMsg;
+		}
+	}
+	
+	/*
+	 * Execute a call of a batch on the batch handler, 
+	 * returns false when it should run on the current thread instead
+	 */
+	private boolean tryExecute(Runnable task){
+		try {
+			batchHandler.execute(task);
+			return true;
+		} catch(RejectedExecutionException e){
+			return false;
+		}
+	}
+	
+	/*
+	 * Execute the calls of a batch and answer them with one batch of results,
+	 * each call can be interrupted like a call that is received on its own
+	 */
+	private ROSGiMessage handleBatch(final CallBatchMessage batch, final NetworkChannel networkChannel){
+		final List<ROSGiMessage> calls = batch.getMessages();
+		final ROSGiMessage[] replies = new ROSGiMessage[calls.size()];
+		final CountDownLatch done = new CountDownLatch(calls.size());
+		for(int i=0;i<calls.size();i++){
+			final int index = i;
+			final ROSGiMessage call = calls.get(i);
+			CancelableRunnable task = new CancelableRunnable(new Runnable(){
+				public void run(){
+					try {
+						replies[index] = handleMessage(call, networkChannel);
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+			messageTasks.put(Integer.valueOf(call.getXID()), task);
+			if(Config.CALL_BATCH_PARALLEL && i < calls.size()-1 && tryExecute(task)){
+				continue;
+			} else {
+				task.run();
+				// do not pass an interrupt of this call on to the next one
+				Thread.interrupted();
+			}
+		}
+		
+		boolean interrupted = false;
+		while(true){
+			try {
+				done.await();
+				break;
+			} catch(InterruptedException e){
+				interrupted = true;
+			}
+		}
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+		
+		List<ROSGiMessage> results = new ArrayList<ROSGiMessage>();
+		for(ROSGiMessage reply : replies){
+			if(reply!=null){
+				results.add(reply);
+			}
+		}
+		if(results.isEmpty()){
+			// only one-way calls
+			return null;
+		}
+		return new CallBatchMessage(ROSGiMessage.CALL_BATCH_RESULT, results);
+	}
+	
+	/*
+	 * Register the classes of the endpoint on the channel it is called from, 
+	 * returns immediately when they are registered already
+	 */
+	private void registerClasses(ROSGiEndpoint endpoint, NetworkChannel networkChannel){
+		try {
+			networkChannel.registerClasses(endpoint.getClasses());
+		} catch(IOException e){
+			Activator.logger.log(LogService.LOG_WARNING, "Failed to register classes on channel to "+networkChannel.getRemoteAddress(), e);
+		}
+	}
 	
 	public void disposeChannel(NetworkChannel networkChannel){
+		failCallbacks(networkChannel);
+		streams.close(networkChannel);
+		results.close(networkChannel);
+		batcher.close(networkChannel);
+		
 		// unregister proxies of closed channel
 		List<ROSGiImportRegistration> importsToClose = new ArrayList<ROSGiImportRegistration>();
 		synchronized(proxies){
@@ -985,7 +2114,64 @@ public class ROSGiServiceAdmin implements RemoteServiceAdmin, MessageReceiver, M
 		channelFactory.deleteChannel(networkChannel);
 	}
 	
+	/*
+	 * Drop the cached results at the importers of an exported service object
+	 */
+	@Override
+	public void invalidate(Object service, String[] methods){
+		List<ROSGiEndpoint> toInvalidate = new ArrayList<ROSGiEndpoint>();
+		synchronized(endpoints){
+			for(ROSGiEndpoint endpoint : endpoints.values()){
+				if(endpoint.getServiceObject()==service){
+					toInvalidate.add(endpoint);
+				}
+			}
+		}
+		for(ROSGiEndpoint endpoint : toInvalidate){
+			sendInvalidation(endpoint, methods);
+		}
+	}
+	
+	/*
+	 * Only the channels that support it get the invalidation, the importers on 
+	 * other channels keep cached results until they expire
+	 */
+	private void sendInvalidation(ROSGiEndpoint endpoint, String[] methods){
+		EndpointDescription ed = endpoint.getExportedEndpoint();
+		for(NetworkChannel channel : getChannels()){
+			if(channel.getProtocolVersion() < ROSGiMessage.VERSION_9){
+				continue;
+			}
+			try {
+				sendMessage(new CacheInvalidateMessage(ed.getFrameworkUUID(), endpoint.getServiceId(), methods), channel);
+			} catch(ROSGiException e){
+				Activator.logger.log(LogService.LOG_WARNING, "Failed to invalidate cached results of "+ed.getId()+" at "+channel.getRemoteAddress(), e);
+			}
+		}
+	}
+	
 	public List<NetworkChannel> getChannels(){
 		return channelFactory.getChannels();
 	}
+	
+	@Override
+	public List<ChannelStatistics> getChannelStatistics(){
+		List<ChannelStatistics> statistics = new ArrayList<ChannelStatistics>();
+		for(NetworkChannel channel : getChannels()){
+			statistics.add(channel.getMetrics());
+		}
+		return statistics;
+	}
+	
+	@Override
+	public List<MethodStatistics> getMethodStatistics(){
+		List<MethodStatistics> statistics = new ArrayList<MethodStatistics>();
+		for(ExportReference export : getExportedServices()){
+			statistics.addAll(((ROSGiEndpoint)export).getMethodStatistics());
+		}
+		for(ImportReference imported : getImportedEndpoints()){
+			statistics.addAll(((ROSGiProxy)imported).getMethodStatistics());
+		}
+		return statistics;
+	}
 }
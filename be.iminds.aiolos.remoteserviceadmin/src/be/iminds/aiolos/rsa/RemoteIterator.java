@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.osgi.framework.ServiceException;
+import org.osgi.service.log.LogService;
+
+import be.iminds.aiolos.rsa.exception.ROSGiException;
+import be.iminds.aiolos.rsa.network.api.MessageSender;
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.message.ResultBatchMessage;
+import be.iminds.aiolos.rsa.network.message.ResultDemandMessage;
+
+/**
+ * {@link Iterator} over a result that is received in {@link ResultBatchMessage}s 
+ * while it is consumed.
+ * 
+ * Batches can arrive out of order, they are buffered until they are consumed. The sender
+ * only sends the batches that are asked for, so no more than rsa.result.window batches 
+ * are buffered. Closing the iterator before the end interrupts the remote call.
+ */
+class RemoteIterator implements Iterator<Object>, Closeable {
+
+	private final int xid;
+	private final NetworkChannel channel;
+	private final MessageSender sender;
+	private final StreamedResults results;
+	
+	// a lock instead of a monitor, so waiting consumers do not pin a carrier thread
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition arrived = lock.newCondition();
+	
+	// received batches that are not consumed yet, indexed by sequence number
+	private final Map<Integer, ResultBatchMessage> batches = new HashMap<Integer, ResultBatchMessage>();
+	private int next = 1;
+	private int demand = 0;
+	
+	private Object[] current;
+	private int position = 0;
+	
+	private boolean end = false;
+	private boolean closed = false;
+	private boolean failed = false;
+	
+	RemoteIterator(int xid, NetworkChannel channel, MessageSender sender, StreamedResults results, Object[] first){
+		this.xid = xid;
+		this.channel = channel;
+		this.sender = sender;
+		this.results = results;
+		this.current = first;
+	}
+	
+	int getXid(){
+		return xid;
+	}
+	
+	NetworkChannel getChannel(){
+		return channel;
+	}
+	
+	/*
+	 * Ask for the first window of batches
+	 */
+	void start(){
+		demand(Config.RESULT_WINDOW);
+	}
+	
+	void received(ResultBatchMessage batch){
+		lock.lock();
+		try {
+			if(!closed){
+				batches.put(batch.getSequence(), batch);
+				arrived.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	void fail(){
+		lock.lock();
+		try {
+			failed = true;
+			arrived.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public boolean hasNext() {
+		lock.lock();
+		try {
+			return fill();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/*
+	 * Make sure an unconsumed item is available, waits for the next batch when needed.
+	 * Returns false at the end of the result, called with the lock held.
+	 */
+	private boolean fill() {
+		while(position == current.length){
+			if(closed || end){
+				return false;
+			}
+			
+			ResultBatchMessage batch;
+			long deadline = System.currentTimeMillis() + Config.TIMEOUT;
+			while((batch = batches.remove(next))==null){
+				if(failed){
+					throw new ServiceException("Channel to "+channel.getRemoteAddress()+" closed while receiving the result of call "+xid, ServiceException.REMOTE);
+				}
+				long wait = deadline - System.currentTimeMillis();
+				if(wait <= 0){
+					end = true;
+					results.close(this, true);
+					throw new ServiceException("Timeout receiving the result of call "+xid+" from "+channel.getRemoteAddress(), ServiceException.REMOTE);
+				}
+				try {
+					arrived.await(wait, TimeUnit.MILLISECONDS);
+				} catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new ServiceException("Interrupted receiving the result of call "+xid, ServiceException.REMOTE, e);
+				}
+			}
+			next++;
+			if(batch.isLast() || batch.isFailed()){
+				end = true;
+				results.close(this, false);
+			}
+			if(batch.isFailed()){
+				// the exception thrown by the remote iterator
+				Throwable t = batch.getException();
+				if(t instanceof RuntimeException){
+					throw (RuntimeException) t;
+				} else if(t instanceof Error){
+					throw (Error) t;
+				}
+				throw new ServiceException("Error iterating the result of call "+xid, ServiceException.REMOTE, t);
+			}
+			current = batch.getItems();
+			position = 0;
+			
+			if(!end && ++demand >= Math.max(1, Config.RESULT_WINDOW/2)){
+				demand(demand);
+				demand = 0;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public Object next() {
+		lock.lock();
+		try {
+			if(!fill()){
+				throw new NoSuchElementException();
+			}
+			Object item = current[position];
+			current[position++] = null;
+			return item;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Remote results cannot be modified");
+	}
+	
+	/**
+	 * Stop consuming the result, the remaining items are discarded
+	 */
+	@Override
+	public void close() {
+		boolean interrupt;
+		lock.lock();
+		try {
+			if(closed){
+				return;
+			}
+			closed = true;
+			interrupt = !end;
+			batches.clear();
+			current = new Object[0];
+			position = 0;
+		} finally {
+			lock.unlock();
+		}
+		results.close(this, interrupt);
+	}
+	
+	private void demand(int n){
+		try {
+			sender.sendMessage(new ResultDemandMessage(xid, n), channel);
+		} catch(ROSGiException e){
+			Activator.logger.log(LogService.LOG_WARNING, "Failed to ask for the result of call "+xid, e);
+		}
+	}
+}
@@ -0,0 +1,491 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.osgi.service.log.LogService;
+
+import be.iminds.aiolos.rsa.exception.ROSGiException;
+import be.iminds.aiolos.rsa.network.api.MessageSender;
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.message.StreamArgument;
+import be.iminds.aiolos.rsa.network.message.StreamChunkMessage;
+import be.iminds.aiolos.rsa.network.message.StreamCreditMessage;
+
+/**
+ * Sends and receives the stream arguments of remote calls.
+ * 
+ * At the client side {@link InputStream}, {@link ReadableByteChannel}, {@link ByteBuffer} and 
+ * {@link File} arguments are replaced by a {@link StreamArgument} and their content is sent in 
+ * chunks of rsa.stream.chunk bytes. At most rsa.stream.window chunks are sent ahead of the 
+ * receiver, which grants credits for more chunks while the stream is read.
+ * 
+ * At the server side the {@link StreamArgument}s are replaced by a {@link ChunkedInputStream}
+ * (or a channel wrapping it) that is filled while the service reads it. ByteBuffer and File 
+ * arguments are completely received before the service is invoked, the latter in a temporary file.
+ */
+final class StreamArguments {
+
+	private final MessageSender sender;
+	private final Executor executor;
+	
+	// identifies this framework as sender of streams, the receiver does not know which 
+	// connection of a pool a stream is sent over, so it cannot tell the senders apart by channel. 
+	// Random so that a peer cannot guess it and send chunks into the streams of another peer.
+	private final long senderId = new SecureRandom().nextLong();
+	private final AtomicInteger nextId = new AtomicInteger(new Random(System.currentTimeMillis()).nextInt());
+	// streams being sent, indexed by stream id
+	private final Map<Integer, OutgoingStream> outgoing = new ConcurrentHashMap<Integer, OutgoingStream>();
+	// streams being received, indexed by sender id and stream id
+	private final Map<Long, Map<Integer, ChunkedInputStream>> incoming = new HashMap<Long, Map<Integer, ChunkedInputStream>>();
+	
+	StreamArguments(MessageSender sender, Executor executor){
+		this.sender = sender;
+		this.executor = executor;
+	}
+	
+	static boolean isStream(Object o){
+		return o instanceof InputStream 
+				|| o instanceof ReadableByteChannel 
+				|| o instanceof ByteBuffer 
+				|| o instanceof File;
+	}
+	
+	static boolean hasStreams(Object[] args){
+		if(args!=null){
+			for(Object arg : args){
+				if(isStream(arg)){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/*
+	 * Client side: replace the stream arguments by a StreamArgument and start sending them,
+	 * the given arguments are not modified
+	 */
+	Object[] send(Object[] args, NetworkChannel channel) throws IOException {
+		Object[] replaced = args.clone();
+		List<OutgoingStream> streams = new ArrayList<OutgoingStream>();
+		try {
+			for(int i=0;i<args.length;i++){
+				if(isStream(args[i])){
+					OutgoingStream stream = new OutgoingStream(nextId.incrementAndGet() & Integer.MAX_VALUE, args[i], channel);
+					streams.add(stream);
+					replaced[i] = stream.argument;
+				}
+			}
+		} catch(IOException e){
+			for(OutgoingStream stream : streams){
+				stream.closeSource();
+			}
+			throw e;
+		}
+		
+		for(OutgoingStream stream : streams){
+			outgoing.put(stream.argument.getStreamId(), stream);
+			executor.execute(stream);
+		}
+		return replaced;
+	}
+	
+	/*
+	 * Server side: replace the StreamArguments by the streams that are received, returns the
+	 * resources to release after the invocation
+	 */
+	List<Object> receive(Object[] args, NetworkChannel channel) throws IOException {
+		List<Object> resources = new ArrayList<Object>();
+		if(args==null){
+			return resources;
+		}
+		try {
+			for(int i=0;i<args.length;i++){
+				if(!(args[i] instanceof StreamArgument)){
+					continue;
+				}
+				
+				StreamArgument argument = (StreamArgument) args[i];
+				ChunkedInputStream stream = getIncoming(channel, argument.getSenderId(), argument.getStreamId());
+				stream.claim();
+				resources.add(stream);
+				switch(argument.getType()){
+				case StreamArgument.CHANNEL:
+					args[i] = Channels.newChannel(stream);
+					break;
+				case StreamArgument.BYTE_BUFFER:
+					args[i] = readBuffer(stream, argument.getLength());
+					break;
+				case StreamArgument.FILE:
+					File file = File.createTempFile("aiolos-rsa-stream", null);
+					resources.add(file);
+					readFile(stream, file);
+					args[i] = file;
+					break;
+				default:
+					args[i] = stream;
+				}
+			}
+		} catch(IOException e){
+			release(resources);
+			throw e;
+		}
+		return resources;
+	}
+	
+	/*
+	 * Server side: cancel the streams of a call that is not executed
+	 */
+	void discard(Object[] args, NetworkChannel channel){
+		if(args==null){
+			return;
+		}
+		for(Object arg : args){
+			if(arg instanceof StreamArgument){
+				StreamArgument argument = (StreamArgument) arg;
+				ChunkedInputStream stream = getIncoming(channel, argument.getSenderId(), argument.getStreamId());
+				stream.claim();
+				close(stream);
+			}
+		}
+	}
+	
+	/*
+	 * Server side: close the streams and remove the temporary files of an invocation
+	 */
+	void release(List<Object> resources){
+		for(Object resource : resources){
+			if(resource instanceof ChunkedInputStream){
+				close((ChunkedInputStream)resource);
+			} else if(resource instanceof File){
+				((File)resource).delete();
+			}
+		}
+	}
+	
+	void received(StreamChunkMessage chunk, NetworkChannel channel){
+		ChunkedInputStream stream = getIncoming(channel, chunk.getSenderId(), chunk.getStreamId());
+		if(stream.received(chunk)){
+			remove(stream);
+		}
+	}
+	
+	void received(StreamCreditMessage credit){
+		OutgoingStream stream = outgoing.get(credit.getStreamId());
+		if(stream!=null){
+			stream.credit(credit.getCredits());
+		}
+	}
+	
+	/*
+	 * Stop receiving a stream, it is forgotten once the sender stopped sending
+	 */
+	void close(ChunkedInputStream stream){
+		if(stream.cancel()){
+			remove(stream);
+		}
+	}
+	
+	/*
+	 * Fail all streams received over a closed channel
+	 */
+	void close(NetworkChannel channel){
+		List<ChunkedInputStream> streams = new ArrayList<ChunkedInputStream>();
+		synchronized(incoming){
+			Iterator<Map<Integer, ChunkedInputStream>> senders = incoming.values().iterator();
+			while(senders.hasNext()){
+				Map<Integer, ChunkedInputStream> received = senders.next();
+				Iterator<ChunkedInputStream> it = received.values().iterator();
+				while(it.hasNext()){
+					ChunkedInputStream stream = it.next();
+					if(stream.getChannel()==channel){
+						streams.add(stream);
+						it.remove();
+					}
+				}
+				if(received.isEmpty()){
+					senders.remove();
+				}
+			}
+		}
+		for(ChunkedInputStream stream : streams){
+			stream.fail();
+		}
+	}
+	
+	private ChunkedInputStream getIncoming(NetworkChannel channel, long senderId, int streamId){
+		synchronized(incoming){
+			Map<Integer, ChunkedInputStream> streams = incoming.get(senderId);
+			if(streams==null){
+				streams = new HashMap<Integer, ChunkedInputStream>();
+				incoming.put(senderId, streams);
+			}
+			ChunkedInputStream stream = streams.get(streamId);
+			if(stream==null){
+				// chunks can be received before the call that uses the stream
+				stream = new ChunkedInputStream(senderId, streamId, channel, sender, this);
+				streams.put(streamId, stream);
+			}
+			return stream;
+		}
+	}
+	
+	private void remove(ChunkedInputStream stream){
+		synchronized(incoming){
+			Map<Integer, ChunkedInputStream> streams = incoming.get(stream.getSenderId());
+			if(streams!=null && streams.get(stream.getStreamId())==stream){
+				streams.remove(stream.getStreamId());
+				if(streams.isEmpty()){
+					incoming.remove(stream.getSenderId());
+				}
+			}
+		}
+	}
+	
+	private static ByteBuffer readBuffer(InputStream in, long length) throws IOException {
+		if(length > Integer.MAX_VALUE){
+			throw new IOException("Stream of "+length+" bytes does not fit in a ByteBuffer");
+		}
+		byte[] data = new byte[length >= 0 ? (int)length : Config.STREAM_CHUNK_SIZE];
+		int size = 0;
+		int read;
+		while(true){
+			if(size == data.length){
+				if(length >= 0){
+					break;
+				}
+				byte[] larger = new byte[data.length*2];
+				System.arraycopy(data, 0, larger, 0, size);
+				data = larger;
+			}
+			if((read = in.read(data, size, data.length - size)) == -1){
+				break;
+			}
+			size += read;
+		}
+		return ByteBuffer.wrap(data, 0, size).slice();
+	}
+	
+	private static void readFile(InputStream in, File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			byte[] buffer = new byte[Config.STREAM_CHUNK_SIZE];
+			int read;
+			while((read = in.read(buffer)) != -1){
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			out.close();
+		}
+	}
+	
+	/*
+	 * Sends a stream in chunks while credits are available, the stream always ends 
+	 * with a last chunk, or a failed chunk when it is cancelled or cannot be read
+	 */
+	private final class OutgoingStream implements Runnable {
+		
+		final StreamArgument argument;
+		private final NetworkChannel channel;
+		
+		private InputStream in;
+		private ReadableByteChannel source;
+		private ByteBuffer buffer;
+		private FileChannel file;
+		private long position = 0;
+		
+		private int credits = Config.STREAM_WINDOW;
+		private boolean cancelled = false;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition granted = lock.newCondition();
+		
+		OutgoingStream(int streamId, Object stream, NetworkChannel channel) throws IOException {
+			this.channel = channel;
+			
+			byte type;
+			long length = -1;
+			if(stream instanceof File){
+				// the file is read with positional reads on its channel, without an intermediate stream
+				file = new FileInputStream((File)stream).getChannel();
+				type = StreamArgument.FILE;
+				length = file.size();
+			} else if(stream instanceof ByteBuffer){
+				// send the remaining bytes without changing the position of the caller's buffer
+				buffer = ((ByteBuffer)stream).duplicate();
+				type = StreamArgument.BYTE_BUFFER;
+				length = buffer.remaining();
+			} else if(stream instanceof ReadableByteChannel){
+				source = (ReadableByteChannel)stream;
+				type = StreamArgument.CHANNEL;
+			} else {
+				in = (InputStream)stream;
+				type = StreamArgument.INPUT_STREAM;
+			}
+			this.argument = new StreamArgument(senderId, streamId, type, length);
+		}
+		
+		void credit(int n){
+			lock.lock();
+			try {
+				if(n < 0){
+					cancelled = true;
+				} else {
+					credits += n;
+				}
+				granted.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		/*
+		 * Wait for a credit, returns false when cancelled or when no credit is granted in time
+		 */
+		private boolean acquire() throws InterruptedException {
+			lock.lock();
+			try {
+				long deadline = System.currentTimeMillis() + Config.TIMEOUT;
+				while(credits == 0 && !cancelled){
+					long wait = deadline - System.currentTimeMillis();
+					if(wait <= 0){
+						Activator.logger.log(LogService.LOG_WARNING, "Timeout sending stream "+argument.getStreamId()+" to "+channel.getRemoteAddress());
+						return false;
+					}
+					granted.await(wait, TimeUnit.MILLISECONDS);
+				}
+				if(cancelled){
+					return false;
+				}
+				credits--;
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		@Override
+		public void run() {
+			int sequence = 0;
+			try {
+				while(acquire()){
+					// a new array for each chunk, version 1 channels serialize the message later on
+					byte[] data = new byte[Config.STREAM_CHUNK_SIZE];
+					int length = 0;
+					int read = 0;
+					while(length < data.length && (read = read(data, length)) != -1){
+						length += read;
+					}
+					boolean last = read == -1;
+					sender.sendMessage(new StreamChunkMessage(senderId, argument.getStreamId(), sequence++, 
+							last ? StreamChunkMessage.LAST : 0, data, length), channel);
+					if(last){
+						return;
+					}
+				}
+				fail(sequence);
+			} catch(InterruptedException e){
+				fail(sequence);
+			} catch(IOException e){
+				Activator.logger.log(LogService.LOG_WARNING, "Error reading stream "+argument.getStreamId()+" : "+e.getMessage(), e);
+				fail(sequence);
+			} catch(ROSGiException e){
+				Activator.logger.log(LogService.LOG_WARNING, "Error sending stream "+argument.getStreamId()+" : "+e.getMessage(), e);
+			} finally {
+				outgoing.remove(argument.getStreamId());
+				closeSource();
+			}
+		}
+		
+		private int read(byte[] data, int offset) throws IOException {
+			int length = data.length - offset;
+			if(file != null){
+				int read = file.read(ByteBuffer.wrap(data, offset, length), position);
+				if(read > 0){
+					position += read;
+				}
+				return read;
+			} else if(buffer != null){
+				if(!buffer.hasRemaining()){
+					return -1;
+				}
+				int read = Math.min(length, buffer.remaining());
+				buffer.get(data, offset, read);
+				return read;
+			} else if(source != null){
+				return source.read(ByteBuffer.wrap(data, offset, length));
+			} else {
+				return in.read(data, offset, length);
+			}
+		}
+		
+		private void fail(int sequence){
+			try {
+				sender.sendMessage(new StreamChunkMessage(senderId, argument.getStreamId(), sequence, 
+						StreamChunkMessage.FAILED, new byte[0], 0), channel);
+			} catch(ROSGiException e){}
+		}
+		
+		/*
+		 * Only files are opened here, streams and channels of the caller are left open
+		 */
+		void closeSource(){
+			if(file != null){
+				try {
+					file.close();
+				} catch(IOException e){}
+			}
+		}
+	}
+}
@@ -0,0 +1,523 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.io.Closeable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.service.log.LogService;
+
+import be.iminds.aiolos.rsa.exception.ROSGiException;
+import be.iminds.aiolos.rsa.network.LoopbackChannel;
+import be.iminds.aiolos.rsa.network.api.MessageSender;
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.message.InterruptMessage;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+import be.iminds.aiolos.rsa.network.message.ResultBatchMessage;
+import be.iminds.aiolos.rsa.network.message.ResultDemandMessage;
+import be.iminds.aiolos.rsa.network.message.StreamedResult;
+
+/**
+ * Sends and receives the results of remote methods returning an {@link Iterator}, 
+ * {@link Iterable} or java.util.stream.Stream in batches.
+ * 
+ * At the server side the first batch of rsa.result.batch items is sent as a {@link StreamedResult}
+ * in the reply of the call, the next batches are only produced when the caller asks for them. 
+ * At the client side the proxy returns a {@link RemoteIterator} (or an Iterable or Stream on top of it) 
+ * that asks for rsa.result.window batches ahead of the items that are consumed. 
+ * Closing it before the end interrupts the call, which closes the result at the server side.
+ * 
+ * Results that are abandoned without closing them are cleaned up at both sides: the server 
+ * closes a result when the caller did not ask for a batch during rsa.timeout, the client 
+ * only keeps a weak reference to its iterators and interrupts the call of an unfinished 
+ * iterator once it is garbage collected.
+ * 
+ * Results are only streamed over version 5 channels, Stream is accessed by reflection
+ * as it is not available on all platforms.
+ */
+final class StreamedResults {
+
+	private static final String STREAM = "java.util.stream.Stream";
+	private static final String BASE_STREAM = "java.util.stream.BaseStream";
+	
+	private final MessageSender sender;
+	private final ScheduledExecutorService timer;
+	
+	// results being sent, indexed by the xid of the call, as are the interrupts of calls
+	private final Map<Integer, ResultStream> outgoing = new HashMap<Integer, ResultStream>();
+	// results being received, indexed by the xid of the call
+	private final Map<Integer, IteratorReference> incoming = new HashMap<Integer, IteratorReference>();
+	private final ReferenceQueue<RemoteIterator> abandoned = new ReferenceQueue<RemoteIterator>();
+	
+	StreamedResults(MessageSender sender, ScheduledExecutorService timer){
+		this.sender = sender;
+		this.timer = timer;
+	}
+	
+	static boolean isStreamed(Class<?> type){
+		return type==Iterator.class || type==Iterable.class || type.getName().equals(STREAM);
+	}
+	
+	/*
+	 * Server side: whether the result of a method is sent in batches over the channel,
+	 * loopback channels that pass messages by reference just pass the result itself
+	 */
+	static boolean canStream(Method method, NetworkChannel channel){
+		if(!isStreamed(method.getReturnType())){
+			return false;
+		}
+		if(channel instanceof LoopbackChannel && !((LoopbackChannel)channel).isCopy()){
+			return false;
+		}
+		return channel.getProtocolVersion() >= ROSGiMessage.VERSION_5;
+	}
+	
+	/*
+	 * Server side: send the first batch of a result, the rest is sent on demand of the caller. 
+	 * Exceptions thrown while producing the first batch are thrown to the caller as 
+	 * the exception of the call.
+	 */
+	Object open(Object result, int xid, NetworkChannel channel) throws Throwable {
+		if(result==null){
+			return null;
+		}
+		
+		ResultStream stream = new ResultStream(xid, channel, result);
+		Object[] items;
+		try {
+			items = stream.next();
+		} catch(Throwable t){
+			stream.close();
+			throw t;
+		}
+		if(stream.end){
+			stream.close();
+			return new StreamedResult(items, true);
+		}
+		synchronized(outgoing){
+			outgoing.put(xid, stream);
+		}
+		expire(stream, Config.TIMEOUT);
+		return new StreamedResult(items, false);
+	}
+	
+	/*
+	 * Server side: close a result the caller did not ask a batch of during rsa.timeout
+	 */
+	private void expire(final ResultStream stream, long delay){
+		try {
+			timer.schedule(new Runnable(){
+				public void run(){
+					synchronized(outgoing){
+						if(outgoing.get(stream.xid)!=stream){
+							return;
+						}
+					}
+					long idle = stream.idle();
+					if(idle < Config.TIMEOUT){
+						expire(stream, Config.TIMEOUT - idle);
+					} else if(stream.expire()){
+						remove(stream);
+					}
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch(RejectedExecutionException e){
+			// the admin is stopped, which closes all channels and their results
+		}
+	}
+	
+	/*
+	 * Server side: send the batches the caller asked for
+	 */
+	void received(ResultDemandMessage demand){
+		ResultStream stream;
+		synchronized(outgoing){
+			stream = outgoing.get(demand.getXID());
+		}
+		if(stream!=null){
+			stream.demand(demand.getBatches());
+		}
+	}
+	
+	/*
+	 * Server side: the caller stopped consuming the result of a call
+	 */
+	void cancel(int xid){
+		ResultStream stream;
+		synchronized(outgoing){
+			stream = outgoing.remove(xid);
+		}
+		if(stream!=null){
+			stream.cancel();
+		}
+	}
+	
+	/*
+	 * Client side: create the object returned by the proxy for a streamed result
+	 */
+	Object open(StreamedResult result, int xid, NetworkChannel channel, Class<?> type) throws Exception {
+		if(result.isLast()){
+			// the complete result fits in one batch
+			List<Object> items = Arrays.asList(result.getItems());
+			if(type==Iterator.class){
+				return items.iterator();
+			} else if(type==Iterable.class){
+				return items;
+			}
+			return toStream(items.iterator(), null);
+		}
+		
+		purge();
+		final RemoteIterator iterator = new RemoteIterator(xid, channel, sender, this, result.getItems());
+		synchronized(incoming){
+			incoming.put(xid, new IteratorReference(iterator, abandoned));
+		}
+		iterator.start();
+		
+		if(type==Iterator.class){
+			return iterator;
+		} else if(type==Iterable.class){
+			return new Iterable<Object>(){
+				private boolean used = false;
+				
+				@Override
+				public synchronized Iterator<Object> iterator() {
+					if(used){
+						throw new IllegalStateException("A remote Iterable can only be iterated once");
+					}
+					used = true;
+					return iterator;
+				}
+			};
+		}
+		return toStream(iterator, iterator);
+	}
+	
+	/*
+	 * Client side: a batch of a result is received
+	 */
+	void received(ResultBatchMessage batch){
+		purge();
+		RemoteIterator iterator = null;
+		synchronized(incoming){
+			IteratorReference ref = incoming.get(batch.getXID());
+			if(ref!=null){
+				iterator = ref.get();
+			}
+		}
+		if(iterator!=null){
+			iterator.received(batch);
+		}
+	}
+	
+	/*
+	 * Client side: stop receiving a result, the call is interrupted when not all batches are received
+	 */
+	void close(RemoteIterator iterator, boolean interrupt){
+		synchronized(incoming){
+			IteratorReference ref = incoming.get(iterator.getXid());
+			if(ref!=null && ref.get()==iterator){
+				incoming.remove(iterator.getXid());
+			}
+		}
+		if(interrupt){
+			interrupt(iterator.getXid(), iterator.getChannel());
+		}
+	}
+	
+	/*
+	 * Client side: interrupt the calls of the iterators that were garbage collected before 
+	 * they were closed, iterators that are closed are no longer in the incoming results
+	 */
+	private void purge(){
+		IteratorReference ref;
+		while((ref = (IteratorReference) abandoned.poll())!=null){
+			synchronized(incoming){
+				if(incoming.get(ref.xid)!=ref){
+					continue;
+				}
+				incoming.remove(ref.xid);
+			}
+			interrupt(ref.xid, ref.channel);
+		}
+	}
+	
+	private void interrupt(int xid, NetworkChannel channel){
+		try {
+			sender.sendMessage(new InterruptMessage(xid), channel);
+		} catch(ROSGiException e){
+			Activator.logger.log(LogService.LOG_WARNING, "Failed to interrupt result of call "+xid, e);
+		}
+	}
+	
+	/*
+	 * Close all results sent or received over a closed channel
+	 */
+	void close(NetworkChannel channel){
+		List<ResultStream> streams = new ArrayList<ResultStream>();
+		synchronized(outgoing){
+			Iterator<ResultStream> it = outgoing.values().iterator();
+			while(it.hasNext()){
+				ResultStream stream = it.next();
+				if(stream.channel==channel){
+					streams.add(stream);
+					it.remove();
+				}
+			}
+		}
+		for(ResultStream stream : streams){
+			stream.cancel();
+		}
+		
+		List<RemoteIterator> iterators = new ArrayList<RemoteIterator>();
+		synchronized(incoming){
+			Iterator<IteratorReference> it = incoming.values().iterator();
+			while(it.hasNext()){
+				IteratorReference ref = it.next();
+				if(ref.channel==channel){
+					RemoteIterator iterator = ref.get();
+					if(iterator!=null){
+						iterators.add(iterator);
+					}
+					it.remove();
+				}
+			}
+		}
+		for(RemoteIterator iterator : iterators){
+			iterator.fail();
+		}
+	}
+	
+	private void remove(ResultStream stream){
+		synchronized(outgoing){
+			if(outgoing.get(stream.xid)==stream){
+				outgoing.remove(stream.xid);
+			}
+		}
+	}
+	
+	/*
+	 * Wraps an iterator in a sequential Stream, that closes the iterator when it is closed
+	 */
+	private static Object toStream(Iterator<?> iterator, final Closeable closeable) throws Exception {
+		Class<?> spliterator = Class.forName("java.util.Spliterator");
+		Object split = Class.forName("java.util.Spliterators").getMethod("spliteratorUnknownSize", Iterator.class, int.class)
+				.invoke(null, iterator, spliterator.getField("ORDERED").getInt(null));
+		Object stream = Class.forName("java.util.stream.StreamSupport").getMethod("stream", spliterator, boolean.class)
+				.invoke(null, split, false);
+		if(closeable!=null){
+			stream = Class.forName(BASE_STREAM).getMethod("onClose", Runnable.class).invoke(stream, new Runnable(){
+				public void run(){
+					try {
+						closeable.close();
+					} catch(Exception e){
+						// closing a remote iterator does not fail
+					}
+				}
+			});
+		}
+		return stream;
+	}
+	
+	/*
+	 * Weak reference to the iterator of a result, keeps what is needed to interrupt the call
+	 */
+	private static final class IteratorReference extends WeakReference<RemoteIterator> {
+		
+		final int xid;
+		final NetworkChannel channel;
+		
+		IteratorReference(RemoteIterator iterator, ReferenceQueue<RemoteIterator> queue){
+			super(iterator, queue);
+			this.xid = iterator.getXid();
+			this.channel = iterator.getChannel();
+		}
+	}
+	
+	/*
+	 * Produces the batches of a result at the server side, on the thread handling the demand.
+	 */
+	private final class ResultStream {
+		
+		final int xid;
+		final NetworkChannel channel;
+		
+		private final Object source;
+		private final Iterator<?> iterator;
+		
+		private int sequence = 1;
+		private int demand = 0;
+		private boolean producing = false;
+		private boolean cancelled = false;
+		private long active = System.currentTimeMillis();
+		// only accessed by the producing thread
+		private boolean end = false;
+		
+		ResultStream(int xid, NetworkChannel channel, Object result) throws Exception {
+			this.xid = xid;
+			this.channel = channel;
+			this.source = result;
+			if(result instanceof Iterator){
+				iterator = (Iterator<?>) result;
+			} else if(result instanceof Iterable){
+				iterator = ((Iterable<?>) result).iterator();
+			} else {
+				// the stream pipeline classes are not public, call the interface method
+				iterator = (Iterator<?>) Class.forName(BASE_STREAM).getMethod("iterator").invoke(result);
+			}
+		}
+		
+		/*
+		 * Next batch of at most rsa.result.batch items
+		 */
+		Object[] next(){
+			List<Object> items = new ArrayList<Object>();
+			while(items.size() < Config.RESULT_BATCH_SIZE && iterator.hasNext()){
+				items.add(iterator.next());
+			}
+			end = !iterator.hasNext();
+			return items.toArray();
+		}
+		
+		void demand(int batches){
+			synchronized(this){
+				demand += batches;
+				active = System.currentTimeMillis();
+				if(producing || cancelled){
+					return;
+				}
+				producing = true;
+			}
+			
+			while(true){
+				synchronized(this){
+					if(cancelled || demand == 0){
+						producing = false;
+						if(cancelled){
+							close();
+						}
+						return;
+					}
+					demand--;
+				}
+				
+				ResultBatchMessage batch;
+				try {
+					Object[] items = next();
+					batch = new ResultBatchMessage(xid, sequence++, items, end);
+				} catch(Throwable t){
+					batch = new ResultBatchMessage(xid, sequence++, t);
+					end = true;
+				}
+				
+				try {
+					sender.sendMessage(batch, channel);
+				} catch(ROSGiException e){
+					Activator.logger.log(LogService.LOG_WARNING, "Error sending result of call "+xid+" to "+channel.getRemoteAddress(), e);
+					end = true;
+				}
+				if(end){
+					// producing stays set, so a late cancel does not close the result again
+					remove(this);
+					close();
+					return;
+				}
+			}
+		}
+		
+		/*
+		 * Milliseconds since the caller last asked for a batch, 0 while a batch is produced
+		 */
+		synchronized long idle(){
+			return producing ? 0 : System.currentTimeMillis() - active;
+		}
+		
+		/*
+		 * Close an abandoned result, the caller gets an exception if it asks for the next batch after all
+		 */
+		boolean expire(){
+			synchronized(this){
+				if(producing || cancelled){
+					return false;
+				}
+				cancelled = true;
+			}
+			try {
+				sender.sendMessage(new ResultBatchMessage(xid, sequence, 
+						new IllegalStateException("Result of call "+xid+" expired after "+Config.TIMEOUT+" ms without demand")), channel);
+			} catch(ROSGiException e){
+				// the caller is gone
+			}
+			close();
+			return true;
+		}
+		
+		void cancel(){
+			synchronized(this){
+				cancelled = true;
+				if(producing){
+					// the producing thread closes the result
+					return;
+				}
+			}
+			close();
+		}
+		
+		/*
+		 * Release the resources of the result: close a Stream, or an Iterator 
+		 * that is Closeable. Called once by the thread that last produced a batch.
+		 */
+		void close(){
+			try {
+				if(source instanceof Closeable){
+					((Closeable)source).close();
+				} else if(iterator instanceof Closeable){
+					((Closeable)iterator).close();
+				} else if(!(source instanceof Iterator) && !(source instanceof Iterable)){
+					Class.forName(BASE_STREAM).getMethod("close").invoke(source);
+				}
+			} catch(Exception e){
+				Activator.logger.log(LogService.LOG_WARNING, "Error closing result of call "+xid, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.api;
+
+/**
+ * Traffic and call statistics of a channel to a remote framework. 
+ * 
+ * Bytes are counted including the frame header. Messages of protocol version 1 
+ * are serialized on the stream, so their bytes are counted on the stream and the 
+ * time to encode and decode them is {@link #UNAVAILABLE}. Loopback channels that do 
+ * not copy messages serialize nothing, their bytes and times are {@link #UNAVAILABLE}.
+ */
+public interface ChannelStatistics {
+
+	/**
+	 * Returned for a figure the channel cannot measure
+	 */
+	long UNAVAILABLE = -1;
+
+	String getRemoteAddress();
+	
+	String getLocalAddress();
+	
+	long getMessagesSent();
+	
+	long getMessagesReceived();
+	
+	/**
+	 * Bytes sent, or {@link #UNAVAILABLE}
+	 */
+	long getBytesSent();
+	
+	/**
+	 * Bytes received, or {@link #UNAVAILABLE}
+	 */
+	long getBytesReceived();
+	
+	/**
+	 * Total time spent serializing messages, or {@link #UNAVAILABLE}
+	 */
+	long getEncodeNanos();
+	
+	/**
+	 * Total time spent deserializing messages, or {@link #UNAVAILABLE}
+	 */
+	long getDecodeNanos();
+	
+	/**
+	 * Number of messages sent that are still waiting for a reply
+	 */
+	int getPendingCalls();
+	
+	/**
+	 * Number of messages for which no reply was received in time
+	 */
+	long getTimeouts();
+	
+	/**
+	 * Time between sending a message and receiving the reply with the same xid
+	 */
+	LatencyHistogram getRoundTripTimes();
+	
+}
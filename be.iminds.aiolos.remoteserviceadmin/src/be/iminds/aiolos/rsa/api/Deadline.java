@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.api;
+
+/**
+ * Deadline of the remote calls made by the current thread.
+ * 
+ * A caller can limit the time its next remote calls may take with {@link #set(long)}. 
+ * While a remote call is handled, the deadline of the caller is set on the thread 
+ * that invokes the service, so the service can check the remaining time with 
+ * {@link #remaining()} and the remote calls it makes itself get the same deadline.
+ */
+public final class Deadline {
+
+	// absolute deadline in System.nanoTime()
+	private static final ThreadLocal<Long> deadline = new ThreadLocal<Long>();
+	
+	private Deadline(){}
+	
+	/**
+	 * Remote calls made by this thread should finish within timeout milliseconds from now,
+	 * until the deadline is cleared
+	 */
+	public static void set(long timeout){
+		deadline.set(System.nanoTime() + timeout*1000000L);
+	}
+	
+	public static void clear(){
+		deadline.remove();
+	}
+	
+	/**
+	 * Milliseconds left until the deadline of this thread, 0 when it is expired 
+	 * and -1 when there is no deadline
+	 */
+	public static long remaining(){
+		Long d = deadline.get();
+		if(d==null){
+			return -1;
+		}
+		long left = d.longValue() - System.nanoTime();
+		return left > 0 ? (left + 999999)/1000000 : 0;
+	}
+	
+	public static boolean isExpired(){
+		return remaining()==0;
+	}
+	
+	/**
+	 * Set the absolute deadline in {@link System#nanoTime()}, or clear it when null. 
+	 * Returns the previous deadline, so it can be restored afterwards.
+	 */
+	public static Long enter(Long nanos){
+		Long previous = deadline.get();
+		if(nanos==null){
+			deadline.remove();
+		} else {
+			deadline.set(nanos);
+		}
+		return previous;
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.api;
+
+/**
+ * Snapshot of a latency distribution.
+ * 
+ * Latencies are counted in buckets of powers of two microseconds: bucket 0 holds the
+ * latencies below 1 microsecond, bucket i those from 2^(i-1) up to 2^i microseconds 
+ * and the last bucket everything above.
+ */
+public final class LatencyHistogram {
+
+	public static final int BUCKETS = 32;
+	
+	private final long[] buckets;
+	private final long count;
+	private final long totalNanos;
+	private final long maxNanos;
+	
+	public LatencyHistogram(long[] buckets, long totalNanos, long maxNanos){
+		if(buckets.length != BUCKETS){
+			throw new IllegalArgumentException("A latency histogram has "+BUCKETS+" buckets");
+		}
+		this.buckets = buckets.clone();
+		long c = 0;
+		for(long b : buckets){
+			c += b;
+		}
+		this.count = c;
+		this.totalNanos = totalNanos;
+		this.maxNanos = maxNanos;
+	}
+	
+	/**
+	 * Upper limit of the latencies in the given bucket, in nanoseconds
+	 */
+	public static long getBucketLimit(int bucket){
+		if(bucket >= BUCKETS-1){
+			return Long.MAX_VALUE;
+		}
+		return 1000L << bucket;
+	}
+	
+	/**
+	 * The bucket a latency of the given number of nanoseconds is counted in
+	 */
+	public static int getBucket(long nanos){
+		long micros = nanos / 1000;
+		return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS-1);
+	}
+	
+	public long getCount(){
+		return count;
+	}
+	
+	public long getBucketCount(int bucket){
+		return buckets[bucket];
+	}
+	
+	public long getTotalNanos(){
+		return totalNanos;
+	}
+	
+	public long getMaxNanos(){
+		return maxNanos;
+	}
+	
+	public long getMeanNanos(){
+		return count == 0 ? 0 : totalNanos / count;
+	}
+	
+	/**
+	 * Upper limit of the bucket that contains the given percentile (0-100) of the latencies, 
+	 * this is at most the maximum latency. Returns 0 when nothing was counted.
+	 */
+	public long getPercentileNanos(double percentile){
+		if(count == 0){
+			return 0;
+		}
+		long rank = (long)Math.ceil(count * Math.max(0, Math.min(percentile, 100)) / 100);
+		long seen = 0;
+		for(int i=0;i<BUCKETS;i++){
+			seen += buckets[i];
+			if(seen >= rank && seen > 0){
+				return Math.min(getBucketLimit(i), maxNanos);
+			}
+		}
+		return maxNanos;
+	}
+}
@@ -44,8 +44,14 @@ import org.osgi.service.remoteserviceadmin.ImportRegistration;
 
 import be.iminds.aiolos.rsa.Activator;
 import be.iminds.aiolos.rsa.Config;
+import be.iminds.aiolos.rsa.ROSGiEndpoint;
 import be.iminds.aiolos.rsa.ROSGiServiceAdmin;
+import be.iminds.aiolos.rsa.api.ChannelStatistics;
+import be.iminds.aiolos.rsa.api.LatencyHistogram;
+import be.iminds.aiolos.rsa.api.MethodStatistics;
+import be.iminds.aiolos.rsa.network.ChannelPool;
 import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.message.Compression;
 
 /**
  * 	CLI Commands to import/export services 
@@ -74,6 +80,15 @@ public class RSACommands {
 			for(String iface : export.getExportedEndpoint().getInterfaces()){
 				sb.append(iface+" ");
 			}
+			if(export instanceof ROSGiEndpoint && ((ROSGiEndpoint)export).getOneWayFailures() > 0){
+				sb.append("(failed one-way calls: "+((ROSGiEndpoint)export).getOneWayFailures()+")");
+			}
+			if(export instanceof ROSGiEndpoint && ((ROSGiEndpoint)export).getRejectedCalls() > 0){
+				sb.append("(rejected calls: "+((ROSGiEndpoint)export).getRejectedCalls()+")");
+			}
+			if(export instanceof ROSGiEndpoint && ((ROSGiEndpoint)export).getExpiredCalls() > 0){
+				sb.append("(expired calls: "+((ROSGiEndpoint)export).getExpiredCalls()+")");
+			}
 			sb.append("\n");
 		}
 		System.out.println(sb.toString());
@@ -129,4 +144,97 @@ public class RSACommands {
 		}
 		System.out.println(sb.toString());
 	}
+	
+	public void pools(){
+		StringBuilder sb = new StringBuilder();
+		sb.append("Pools:\n");
+		for(NetworkChannel c : rsa.getChannels()){
+			if(!(c instanceof ChannelPool))
+				continue;
+			
+			ChannelPool pool = (ChannelPool) c;
+			sb.append("* "+pool.getRemoteAddress()+" ("+pool.getSize()+" connections)\n");
+			for(int i=0;i<pool.getSize();i++){
+				NetworkChannel channel = pool.getChannel(i);
+				sb.append("  - "+channel.getLocalAddress()+"->"+channel.getRemoteAddress());
+				if(pool.isLargeMessageChannel(i)){
+					sb.append(" [large]");
+				}
+				sb.append(" messages: "+pool.getMessages(i));
+				sb.append(" bytes: "+pool.getBytes(i));
+				sb.append(" sending: "+pool.getSending(i));
+				sb.append(" queued: "+pool.getQueuedBytes(i));
+				sb.append("\n");
+			}
+		}
+		System.out.println(sb.toString());
+	}
+	
+	public void compression(){
+		StringBuilder sb = new StringBuilder();
+		sb.append("Compression: "+Config.COMPRESSION.toString().toLowerCase()
+				+" (threshold "+Config.COMPRESSION_THRESHOLD+" bytes)\n");
+		long in = Compression.getUncompressedBytes();
+		long out = Compression.getCompressedBytes();
+		sb.append("* compressed frames: "+Compression.getCompressedFrames());
+		sb.append(" bytes: "+in+" -> "+out);
+		if(in > 0){
+			sb.append(String.format(" (ratio %.2f)", (double)out/in));
+		}
+		sb.append(" time: "+Compression.getCompressNanos()/1000000+"ms\n");
+		sb.append("* uncompressible frames: "+Compression.getUncompressibleFrames()+"\n");
+		sb.append("* decompressed frames: "+Compression.getDecompressedFrames());
+		sb.append(" time: "+Compression.getDecompressNanos()/1000000+"ms\n");
+		System.out.println(sb.toString());
+	}
+	
+	public void stats(){
+		StringBuilder sb = new StringBuilder();
+		sb.append("Channels:\n");
+		for(ChannelStatistics c : rsa.getChannelStatistics()){
+			sb.append("* "+c.getLocalAddress()+"->"+c.getRemoteAddress()+"\n");
+			sb.append("  messages: "+c.getMessagesSent()+" out "+c.getMessagesReceived()+" in");
+			sb.append(" bytes: "+figure(c.getBytesSent(), 1, "")+" out "+figure(c.getBytesReceived(), 1, "")+" in");
+			sb.append(" encode: "+figure(c.getEncodeNanos(), 1000000, "ms")+" decode: "+figure(c.getDecodeNanos(), 1000000, "ms")+"\n");
+			sb.append("  pending: "+c.getPendingCalls()+" timeouts: "+c.getTimeouts());
+			sb.append(" rtt: ");
+			appendLatencies(sb, c.getRoundTripTimes());
+			sb.append("\n");
+		}
+		sb.append("Methods:\n");
+		for(MethodStatistics m : rsa.getMethodStatistics()){
+			if(m.getCalls()==0){
+				continue;
+			}
+			sb.append("* "+(m.isImported() ? "imported " : "exported ")+m.getEndpointId()+" "+m.getMethod()+"\n");
+			sb.append("  calls: "+m.getCalls()+" failures: "+m.getFailures()+" timeouts: "+m.getTimeouts());
+			sb.append(" latency: ");
+			appendLatencies(sb, m.getLatencies());
+			sb.append("\n");
+		}
+		System.out.println(sb.toString());
+	}
+	
+	/*
+	 * A figure of a channel divided by the unit, n/a when the channel cannot measure it
+	 */
+	private static String figure(long value, long unit, String suffix){
+		if(value==ChannelStatistics.UNAVAILABLE){
+			return "n/a";
+		}
+		return (value/unit)+suffix;
+	}
+	
+	/*
+	 * Mean, median, 99th percentile and maximum, percentiles are rounded up to a power of two microseconds
+	 */
+	private static void appendLatencies(StringBuilder sb, LatencyHistogram h){
+		if(h.getCount()==0){
+			sb.append("-");
+			return;
+		}
+		sb.append(String.format("mean %.3fms p50 %.3fms p99 %.3fms max %.3fms (%d)", 
+				h.getMeanNanos()/1e6, h.getPercentileNanos(50)/1e6, h.getPercentileNanos(99)/1e6, 
+				h.getMaxNanos()/1e6, h.getCount()));
+	}
 }
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import be.iminds.aiolos.rsa.api.ChannelStatistics;
+import be.iminds.aiolos.rsa.network.api.ChannelMetrics;
+import be.iminds.aiolos.rsa.network.api.MessageReceiver;
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.message.MessageFrame;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+import be.iminds.aiolos.rsa.serialization.api.SerializationException;
+
+/**
+ * {@link NetworkChannel} that spreads messages to a remote peer over multiple connections,
+ * so a large message does not block all other callers until it is written.
+ * 
+ * Each message is sent over the least loaded connection. When frames are supported, 
+ * the first connection is reserved for messages larger than a threshold, keeping small 
+ * messages out of its way. Messages received on any of the connections are passed 
+ * to the receiver as coming from the pool, when one connection fails the whole pool is closed.
+ */
+public class ChannelPool implements NetworkChannel, MessageReceiver {
+
+	/**
+	 * Opens a single connection of the pool
+	 */
+	interface Connector {
+		NetworkChannel connect(MessageReceiver receiver) throws IOException;
+	}
+	
+	private final String remoteAddress;
+	private final MessageReceiver receiver;
+	private final NetworkChannel[] channels;
+	private final int largeMessage;
+	// frames are encoded by the pool, before a connection is selected
+	private FrameCodec codec = FrameCodec.NONE;
+	
+	// statistics per connection
+	private final AtomicInteger[] sending;
+	private final AtomicLong[] messages;
+	private final AtomicLong[] bytes;
+	// statistics of the pool as a whole, connections that serialize messages on 
+	// their stream count the bytes themselves
+	private final ChannelMetrics metrics = new ChannelMetrics(this){
+		@Override
+		public long getBytesSent(){
+			return addConnectionBytes(super.getBytesSent(), true);
+		}
+		
+		@Override
+		public long getBytesReceived(){
+			return addConnectionBytes(super.getBytesReceived(), false);
+		}
+	};
+	
+	private final AtomicInteger next = new AtomicInteger();
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	
+	private ChannelPool(String remoteAddress, MessageReceiver receiver, int size, int largeMessage){
+		this.remoteAddress = remoteAddress;
+		this.receiver = receiver;
+		this.largeMessage = largeMessage;
+		this.channels = new NetworkChannel[size];
+		this.sending = new AtomicInteger[size];
+		this.messages = new AtomicLong[size];
+		this.bytes = new AtomicLong[size];
+		for(int i=0;i<size;i++){
+			sending[i] = new AtomicInteger();
+			messages[i] = new AtomicLong();
+			bytes[i] = new AtomicLong();
+		}
+	}
+	
+	/*
+	 * Open all connections of a new pool, messages larger than largeMessage bytes 
+	 * get a separate connection when size is larger than 1 (-1 to disable)
+	 */
+	static ChannelPool open(String remoteAddress, MessageReceiver receiver, int size, int largeMessage, Connector connector) throws IOException {
+		ChannelPool pool = new ChannelPool(remoteAddress, receiver, size, largeMessage);
+		try {
+			for(int i=0;i<size;i++){
+				pool.channels[i] = connector.connect(pool);
+			}
+			if(pool.supportsFrames()){
+				pool.codec = FrameCodec.create(pool.getProtocolVersion());
+			} else {
+				pool.metrics.codingNotTimed();
+			}
+		} catch(IOException e){
+			pool.closed.set(true);
+			pool.closeChannels();
+			throw e;
+		}
+		return pool;
+	}
+	
+	@Override
+	public void sendMessage(ROSGiMessage message) throws SerializationException, IOException {
+		if(closed.get()){
+			throw new IOException("Channel to "+remoteAddress+" is closed");
+		}
+		
+		// encode first to know the size of the message
+		MessageFrame frame = null;
+		long encodeNanos = 0;
+		if(supportsFrames()){
+			long start = System.nanoTime();
+			frame = codec.encode(message);
+			encodeNanos = System.nanoTime() - start;
+		}
+		
+		int i = select(frame);
+		sending[i].incrementAndGet();
+		try {
+			if(frame!=null){
+				((FrameChannel)channels[i]).sendFrame(frame);
+				bytes[i].addAndGet(frame.getLength());
+			} else {
+				channels[i].sendMessage(message);
+			}
+			messages[i].incrementAndGet();
+			metrics.sent(frame!=null ? frame.getLength() : 0, encodeNanos);
+		} finally {
+			sending[i].decrementAndGet();
+		}
+	}
+	
+	@Override
+	public void registerClasses(Class<?>[] classes) throws IOException {
+		if(!supportsFrames()){
+			return;
+		}
+		// announced on all connections, as messages can be sent over any of them
+		FrameChannel[] frameChannels = new FrameChannel[channels.length];
+		for(int i=0;i<channels.length;i++){
+			frameChannels[i] = (FrameChannel)channels[i];
+		}
+		codec.register(classes, frameChannels);
+	}
+	
+	@Override
+	public ChannelMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/*
+	 * The lowest protocol version of all connections
+	 */
+	public int getProtocolVersion(){
+		int version = Integer.MAX_VALUE;
+		for(NetworkChannel channel : channels){
+			version = Math.min(version, channel.getProtocolVersion());
+		}
+		return version;
+	}
+	
+	private boolean supportsFrames(){
+		for(NetworkChannel channel : channels){
+			if(!(channel instanceof FrameChannel) 
+					|| channel.getProtocolVersion() < ROSGiMessage.VERSION_2){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/*
+	 * Select the least loaded connection of the lane the message belongs to, 
+	 * connections are checked starting from a round robin index to spread equal load
+	 */
+	private int select(MessageFrame frame){
+		int first = 0;
+		int count = channels.length;
+		if(frame!=null && channels.length > 1 && largeMessage >= 0){
+			if(frame.getLength() >= largeMessage){
+				return 0;
+			}
+			first = 1;
+			count = channels.length - 1;
+		}
+		
+		int start = (next.getAndIncrement() & Integer.MAX_VALUE) % count;
+		int selected = -1;
+		long selectedLoad = Long.MAX_VALUE;
+		for(int j=0;j<count;j++){
+			int i = first + (start + j) % count;
+			long load = load(i);
+			if(load == 0){
+				return i;
+			}
+			if(load < selectedLoad){
+				selected = i;
+				selectedLoad = load;
+			}
+		}
+		return selected;
+	}
+	
+	/*
+	 * Messages that are currently being written weigh more than any number of queued bytes
+	 */
+	private long load(int i){
+		long queued = 0;
+		if(channels[i] instanceof FrameChannel){
+			queued = ((FrameChannel)channels[i]).getQueuedBytes();
+		}
+		return ((long)sending[i].get() << 40) + Math.min(queued, (1L << 40) - 1);
+	}
+	
+	@Override
+	public void receivedMessage(ROSGiMessage msg, NetworkChannel channel) {
+		if(msg==null){
+			// a connection failed, close the whole pool
+			if(closed.compareAndSet(false, true)){
+				closeChannels();
+				receiver.receivedMessage(null, this);
+			}
+			return;
+		}
+		receiver.receivedMessage(msg, this);
+	}
+
+	@Override
+	public void receivedFrame(MessageFrame frame, NetworkChannel channel) {
+		receiver.receivedFrame(frame, this);
+	}
+	
+	@Override
+	public void close() {
+		closed.set(true);
+		closeChannels();
+	}
+	
+	private void closeChannels(){
+		for(NetworkChannel channel : channels){
+			if(channel!=null){
+				channel.close();
+			}
+		}
+	}
+
+	@Override
+	public String getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	@Override
+	public String getLocalAddress() {
+		return channels[0].getLocalAddress();
+	}
+	
+	/*
+	 * Pool statistics
+	 */
+	public int getSize(){
+		return channels.length;
+	}
+	
+	public NetworkChannel getChannel(int i){
+		return channels[i];
+	}
+	
+	public boolean isLargeMessageChannel(int i){
+		return i == 0 && channels.length > 1 && largeMessage >= 0 && supportsFrames();
+	}
+	
+	public int getSending(int i){
+		return sending[i].get();
+	}
+	
+	public long getQueuedBytes(int i){
+		return channels[i] instanceof FrameChannel ? ((FrameChannel)channels[i]).getQueuedBytes() : 0;
+	}
+	
+	public long getMessages(int i){
+		return messages[i].get();
+	}
+	
+	public long getBytes(int i){
+		if(!supportsFrames()){
+			return channels[i].getMetrics().getBytesSent();
+		}
+		return bytes[i].get();
+	}
+	
+	/*
+	 * Messages that are not sent as frames are counted by the connection they are sent over
+	 */
+	private long addConnectionBytes(long bytes, boolean sent){
+		if(supportsFrames()){
+			return bytes;
+		}
+		for(NetworkChannel channel : channels){
+			ChannelMetrics m = channel.getMetrics();
+			long b = sent ? m.getBytesSent() : m.getBytesReceived();
+			if(b == ChannelStatistics.UNAVAILABLE){
+				return ChannelStatistics.UNAVAILABLE;
+			}
+			bytes += b;
+		}
+		return bytes;
+	}
+	
+	public String toString(){
+		return "[POOL] - "+remoteAddress+" ("+channels.length+" connections)";
+	}
+}
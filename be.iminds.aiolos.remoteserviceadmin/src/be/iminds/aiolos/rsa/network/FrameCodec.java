@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.osgi.service.log.LogService;
+
+import be.iminds.aiolos.rsa.Activator;
+import be.iminds.aiolos.rsa.Config;
+import be.iminds.aiolos.rsa.Config.CompressionStrategy;
+import be.iminds.aiolos.rsa.Config.SerializationStrategy;
+import be.iminds.aiolos.rsa.network.message.ClassTableMessage;
+import be.iminds.aiolos.rsa.network.message.MessageFrame;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+import be.iminds.aiolos.rsa.serialization.api.SerializationException;
+import be.iminds.aiolos.rsa.serialization.kryo.KryoClassRegistry;
+
+/**
+ * Encodes and decodes the frames of a channel, depending on the negotiated protocol version.
+ * 
+ * Version 3 registers classes, with one registry for the classes this side registers
+ * and one for the classes announced by the peer. Classes are only registered when 
+ * Kryo is used, otherwise frames are (de)serialized as before.
+ * 
+ * Version 4 compresses large frames when compression is configured. 
+ * Compressed frames are flagged, so they are decoded regardless of the local configuration.
+ */
+final class FrameCodec {
+
+	static final FrameCodec NONE = new FrameCodec(null, null, false);
+	
+	private final KryoClassRegistry outbound;
+	private final KryoClassRegistry inbound;
+	private final boolean compress;
+	
+	private FrameCodec(KryoClassRegistry outbound, KryoClassRegistry inbound, boolean compress){
+		this.outbound = outbound;
+		this.inbound = inbound;
+		this.compress = compress;
+	}
+	
+	static FrameCodec create(int version){
+		boolean compress = version >= ROSGiMessage.VERSION_4 && Config.COMPRESSION==CompressionStrategy.DEFLATE;
+		if(version < ROSGiMessage.VERSION_3 || Config.SERIALIZATION!=SerializationStrategy.KRYO){
+			return compress ? new FrameCodec(null, null, true) : NONE;
+		}
+		try {
+			return new FrameCodec(new KryoClassRegistry(), new KryoClassRegistry(), compress);
+		} catch(NoClassDefFoundError e){
+			Activator.logger.log(LogService.LOG_WARNING, "Kryo not available, no classes are registered", e);
+			return compress ? new FrameCodec(null, null, true) : NONE;
+		}
+	}
+	
+	MessageFrame encode(ROSGiMessage message) throws SerializationException, IOException {
+		MessageFrame frame = MessageFrame.encode(message, outbound);
+		if(compress){
+			frame = frame.compress(Config.COMPRESSION_THRESHOLD);
+		}
+		return frame;
+	}
+	
+	MessageFrame read(DataInputStream in) throws IOException {
+		return MessageFrame.read(in, inbound);
+	}
+	
+	MessageFrame read(ByteBuffer buffer) throws IOException {
+		return MessageFrame.read(buffer, inbound);
+	}
+	
+	/*
+	 * Register the classes announced by the peer, should be called on the thread that reads 
+	 * the frames so the classes are known before any later frame is decoded.
+	 * Returns false when the frame is not a class table.
+	 */
+	boolean received(MessageFrame frame) throws IOException {
+		if(frame.getFuncID()!=ROSGiMessage.CLASS_TABLE){
+			return false;
+		}
+		if(inbound==null){
+			throw new IOException("Unexpected class table, no classes are registered on this channel");
+		}
+		try {
+			ClassTableMessage msg = (ClassTableMessage) frame.decode();
+			inbound.register(msg.getFirstId(), msg.getClassNames());
+		} catch(SerializationException e){
+			throw new IOException("Invalid class table", e);
+		}
+		return true;
+	}
+	
+	/*
+	 * Announce the classes that are not registered yet to the peer over all channels,
+	 * they are only used for encoding after the announcement is queued
+	 */
+	void register(Class<?>[] classes, FrameChannel... channels) throws IOException {
+		if(outbound==null || outbound.isKnown(classes)){
+			return;
+		}
+		synchronized(this){
+			Class<?>[] added = outbound.select(classes);
+			if(added.length==0){
+				return;
+			}
+			String[] names = new String[added.length];
+			for(int i=0;i<added.length;i++){
+				names[i] = added[i].getName();
+			}
+			
+			int firstId = outbound.nextId();
+			MessageFrame frame;
+			try {
+				frame = MessageFrame.encode(new ClassTableMessage(firstId, names));
+			} catch(SerializationException e){
+				throw new IOException("Error encoding class table", e);
+			}
+			for(FrameChannel channel : channels){
+				channel.sendFrame(frame);
+			}
+			outbound.register(firstId, added);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+
+import be.iminds.aiolos.rsa.Config;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+
+/**
+ * Negotiates the protocol version when a channel is opened.
+ * 
+ * The connecting side sends a preamble "ROSG" followed by the highest version it supports,
+ * the accepting side answers with the same preamble and the version that will be used.
+ * Version 1 peers never send a preamble, they are detected by the first byte of the stream, 
+ * which is either the version byte of a message or the Java serialization stream header.
+ */
+final class Handshake {
+
+	static final int LENGTH = 5;
+	
+	private static final byte[] MAGIC = new byte[]{'R', 'O', 'S', 'G'};
+	
+	private Handshake(){}
+	
+	/*
+	 * Connecting side: send the preamble and wait for the reply of the peer, 
+	 * throws an IOException when the peer does not understand the preamble
+	 */
+	static int connect(Socket socket) throws IOException {
+		OutputStream out = socket.getOutputStream();
+		out.write(preamble(Config.PROTOCOL_VERSION));
+		out.flush();
+		
+		int timeout = socket.getSoTimeout();
+		socket.setSoTimeout(Config.TIMEOUT);
+		try {
+			byte[] reply = new byte[LENGTH];
+			new DataInputStream(socket.getInputStream()).readFully(reply);
+			return Math.min(version(reply), Config.PROTOCOL_VERSION);
+		} finally {
+			socket.setSoTimeout(timeout);
+		}
+	}
+	
+	/*
+	 * Accepting side: check for a preamble and reply with the negotiated version,
+	 * the stream is reset when no preamble is sent (so it should support mark)
+	 */
+	static int accept(InputStream in, OutputStream out) throws IOException {
+		in.mark(LENGTH);
+		int first = in.read();
+		if(first==-1){
+			throw new IOException("Connection closed before protocol negotiation");
+		}
+		if(!isPreamble((byte)first)){
+			in.reset();
+			return ROSGiMessage.VERSION_1;
+		}
+		
+		byte[] preamble = new byte[LENGTH];
+		preamble[0] = (byte)first;
+		new DataInputStream(in).readFully(preamble, 1, LENGTH-1);
+		
+		int version = negotiate(preamble);
+		out.write(preamble(version));
+		out.flush();
+		return version;
+	}
+	
+	/*
+	 * Connecting side of a blocking channel that is not backed by a socket, 
+	 * these are only opened to peers that support version 2 or higher
+	 */
+	static int connect(ByteChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(preamble(Config.PROTOCOL_VERSION));
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+		
+		buffer.clear();
+		readFully(channel, buffer);
+		return Math.min(version(buffer.array()), Config.PROTOCOL_VERSION);
+	}
+	
+	/*
+	 * Accepting side of a blocking channel that is not backed by a socket
+	 */
+	static int accept(ByteChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
+		readFully(channel, buffer);
+		
+		int version = negotiate(buffer.array());
+		buffer = ByteBuffer.wrap(preamble(version));
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+		return version;
+	}
+	
+	private static void readFully(ByteChannel channel, ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()){
+			if(channel.read(buffer)==-1){
+				throw new IOException("Connection closed before protocol negotiation");
+			}
+		}
+	}
+	
+	/*
+	 * Check whether a stream starts with a preamble rather than a version 1 message
+	 */
+	static boolean isPreamble(byte first){
+		return first==MAGIC[0];
+	}
+	
+	/*
+	 * The version to use, given the preamble received from the connecting side
+	 */
+	static int negotiate(byte[] preamble) throws IOException {
+		return Math.min(version(preamble), Config.PROTOCOL_VERSION);
+	}
+	
+	static byte[] preamble(int version){
+		byte[] preamble = new byte[LENGTH];
+		System.arraycopy(MAGIC, 0, preamble, 0, MAGIC.length);
+		preamble[LENGTH-1] = (byte)version;
+		return preamble;
+	}
+	
+	private static int version(byte[] preamble) throws IOException {
+		for(int i=0;i<MAGIC.length;i++){
+			if(preamble[i]!=MAGIC[i]){
+				throw new IOException("Invalid protocol preamble");
+			}
+		}
+		int version = preamble[LENGTH-1];
+		if(version < ROSGiMessage.VERSION_1){
+			throw new IOException("Invalid protocol version "+version);
+		}
+		return version;
+	}
+}
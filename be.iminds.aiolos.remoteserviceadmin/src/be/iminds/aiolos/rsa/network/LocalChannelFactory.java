@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.service.log.LogService;
+
+import be.iminds.aiolos.rsa.Activator;
+import be.iminds.aiolos.rsa.Config;
+import be.iminds.aiolos.rsa.network.api.MessageReceiver;
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.api.NetworkChannelFactory;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+import be.iminds.aiolos.rsa.util.URI;
+
+/**
+ * Factory that connects to frameworks in the same JVM over {@link LoopbackChannel}s
+ * and to frameworks on the same machine over unix domain sockets
+ * 
+ * Frameworks in the same JVM are found by their framework uuid, as long as they share
+ * the classes of this bundle (e.g. embedded frameworks that delegate this package to
+ * the parent class loader). Each framework listens on a socket file named after its framework uuid, which is advertised
+ * in the exported endpoint descriptions. When an imported endpoint advertises a socket file that 
+ * exists on this machine, channels to that framework use the socket file instead of TCP. 
+ * All other channels, or local channels that fail to connect, are created by the delegate factory.
+ */
+public class LocalChannelFactory implements NetworkChannelFactory {
+
+	private final NetworkChannelFactory delegate;
+	private final MessageReceiver receiver;
+	private final String path;
+	private final String frameworkId;
+	
+	// factories of the frameworks in this JVM, indexed by framework uuid
+	private static final Map<String, LocalChannelFactory> frameworks = new ConcurrentHashMap<String, LocalChannelFactory>();
+	
+	private ServerSocketChannel serverChannel;
+	private LocalAcceptorThread thread;
+	private NIOEventLoop loop;
+	
+	// framework uuids and socket files of co-located frameworks, indexed by their network address
+	private final Map<String, String> loopbacks = new ConcurrentHashMap<String, String>();
+	private final Map<String, String> routes = new ConcurrentHashMap<String, String>();
+	// new channels are created holding the lock on channels, accepted channels are added without it
+	private final ConcurrentMap<String, NetworkChannel> channels = new ConcurrentHashMap<String, NetworkChannel>();
+	private final AtomicInteger accepted = new AtomicInteger();
+	
+	public LocalChannelFactory(MessageReceiver receiver, NetworkChannelFactory delegate, String directory, String frameworkId){
+		this.receiver = receiver;
+		this.delegate = delegate;
+		this.frameworkId = frameworkId;
+		this.path = new File(directory, "aiolos-rsa-"+frameworkId+".sock").getAbsolutePath();
+	}
+	
+	public void activate() throws Exception {
+		delegate.activate();
+		
+		if(Config.LOOPBACK){
+			frameworks.put(frameworkId, this);
+		}
+		
+		if(!UnixSockets.isSupported() || Config.PROTOCOL_VERSION < ROSGiMessage.VERSION_2){
+			Activator.logger.log(LogService.LOG_INFO, "Unix domain sockets not available, only using "+delegate.getClass().getSimpleName());
+			return;
+		}
+		
+		try {
+			loop = new NIOEventLoop("R-OSGi Local Event Loop");
+			loop.start();
+			
+			// remove the socket file of a previous run of this framework
+			new File(path).delete();
+			serverChannel = UnixSockets.openServer();
+			serverChannel.bind(UnixSockets.address(path));
+			
+			thread = new LocalAcceptorThread();
+			thread.start();
+		} catch(IOException e){
+			Activator.logger.log(LogService.LOG_WARNING, "Unable to listen on "+path+", only using "+delegate.getClass().getSimpleName(), e);
+			close();
+		}
+	}
+	
+	public void deactivate() throws Exception {
+		frameworks.remove(frameworkId);
+		close();
+		
+		synchronized(channels){
+			for(NetworkChannel channel : channels.values()){
+				channel.close();
+			}
+			channels.clear();
+		}
+		routes.clear();
+		loopbacks.clear();
+		
+		delegate.deactivate();
+	}
+	
+	private void close(){
+		if(thread!=null){
+			thread.interrupt();
+			thread = null;
+		}
+		if(serverChannel!=null){
+			try {
+				serverChannel.close();
+			} catch(IOException e){}
+			serverChannel = null;
+			new File(path).delete();
+		}
+		if(loop!=null){
+			loop.shutdown();
+			loop = null;
+		}
+	}
+	
+	/**
+	 * The socket file to advertise in exported endpoint descriptions, 
+	 * null when this framework does not accept local channels 
+	 */
+	public String getLocalPath(){
+		return serverChannel==null ? null : path;
+	}
+	
+	/**
+	 * Use a loopback channel when the framework at the given address runs in this JVM, or 
+	 * the socket file it advertises when that file exists on this machine
+	 */
+	public void addRoute(String address, String frameworkId, String path){
+		if(frameworkId!=null && frameworks.containsKey(frameworkId)){
+			loopbacks.put(address, frameworkId);
+		}
+		
+		if(path==null || loop==null)
+			return;
+		
+		if(new File(path).exists()){
+			routes.put(address, path);
+		} else {
+			routes.remove(address);
+		}
+	}
+	
+	@Override
+	public List<NetworkChannel> getChannels(){
+		List<NetworkChannel> c = new ArrayList<NetworkChannel>(delegate.getChannels());
+		c.addAll(channels.values());
+		return c;
+	}
+	
+	@Override
+	public NetworkChannel getChannel(URI uri) throws Exception {
+		String address = uri.getAddress();
+		
+		String loopback = loopbacks.get(address);
+		if(loopback!=null){
+			synchronized(channels){
+				NetworkChannel channel = channels.get(address);
+				if(channel == null){
+					LocalChannelFactory target = frameworks.get(loopback);
+					if(target != null){
+						channel = target.accept(address, receiver, frameworkId);
+						channels.put(address, channel);
+					} else {
+						loopbacks.remove(address);
+					}
+				}
+				if(channel != null){
+					return channel;
+				}
+			}
+		}
+		
+		String route = routes.get(address);
+		if(route!=null){
+			synchronized(channels){
+				NetworkChannel channel = channels.get(address);
+				if(channel == null){
+					try {
+						channel = connect(address, route);
+						channels.put(address, channel);
+					} catch(IOException ioe){
+						Activator.logger.log(LogService.LOG_INFO, "Unable to connect to "+route+", falling back to "+delegate.getClass().getSimpleName(), ioe);
+						routes.remove(address);
+					}
+				}
+				if(channel != null){
+					return channel;
+				}
+			}
+		}
+		return delegate.getChannel(uri);
+	}
+	
+	/*
+	 * Open a single channel, or a pool of channels when rsa.pool.size is larger than 1
+	 */
+	private NetworkChannel connect(final String address, final String route) throws IOException {
+		if(Config.POOL_SIZE > 1){
+			return ChannelPool.open(address, receiver, Config.POOL_SIZE, Config.POOL_LARGE_MESSAGE,
+					new ChannelPool.Connector() {
+						@Override
+						public NetworkChannel connect(MessageReceiver receiver) throws IOException {
+							return LocalChannelFactory.this.connect(address, route, receiver);
+						}
+					});
+		}
+		return connect(address, route, receiver);
+	}
+	
+	private NetworkChannel connect(String address, String route, MessageReceiver receiver) throws IOException {
+		SocketChannel socketChannel = UnixSockets.open();
+		try {
+			socketChannel.connect(UnixSockets.address(route));
+			int version = Handshake.connect(socketChannel);
+			if(version < ROSGiMessage.VERSION_2){
+				throw new IOException("Local channels require protocol version 2, negotiated version "+version);
+			}
+			// identify the channel by the network address so it is found again for the same uri
+			return new NIOChannel(socketChannel, receiver, version, loop, address, "unix:"+path);
+		} catch(IOException e){
+			socketChannel.close();
+			throw e;
+		}
+	}
+
+	/*
+	 * Create a loopback channel pair to this framework, the accepted channel
+	 * is kept by this factory and the connecting channel is returned
+	 */
+	private NetworkChannel accept(String address, MessageReceiver connecting, String connectingId){
+		String remoteAddress = "jvm:"+connectingId+"#"+accepted.incrementAndGet();
+		LoopbackChannel[] pair = LoopbackChannel.open(connecting, remoteAddress, receiver, address, Config.LOOPBACK_COPY);
+		channels.put(remoteAddress, pair[1]);
+		return pair[0];
+	}
+
+	@Override
+	public void deleteChannel(NetworkChannel channel){
+		if(channels.remove(channel.getRemoteAddress(), channel)){
+			channel.close();
+			return;
+		}
+		delegate.deleteChannel(channel);
+	}
+
+	@Override
+	public String getAddress() {
+		return delegate.getAddress();
+	}
+	
+	// accepts channels on the socket file and negotiates the protocol version
+	private final class LocalAcceptorThread extends Thread {
+		
+		LocalAcceptorThread(){
+			super("R-OSGi Local Acceptor");
+			setDaemon(true);
+		}
+		
+		public void run() {
+			while (!isInterrupted()) {
+				SocketChannel socketChannel;
+				try {
+					socketChannel = serverChannel.accept();
+				} catch(ClosedChannelException e){
+					return;
+				} catch(IOException ioe){
+					Activator.logger.log(LogService.LOG_ERROR, "Error accepting local channel: "+ioe.getMessage(), ioe);
+					continue;
+				}
+				
+				try {
+					int version = Handshake.accept(socketChannel);
+					if(version < ROSGiMessage.VERSION_2){
+						throw new IOException("Local channels require protocol version 2, negotiated version "+version);
+					}
+					String remoteAddress = "unix:"+path+"#"+accepted.incrementAndGet();
+					channels.put(remoteAddress, new NIOChannel(socketChannel, receiver, version, loop, remoteAddress, "unix:"+path));
+				} catch (IOException ioe) {
+					Activator.logger.log(LogService.LOG_ERROR, "Error creating new local channel: "+ioe.getMessage(), ioe);
+					try {
+						socketChannel.close();
+					} catch(IOException e){}
+				}
+			}
+		}
+	}
+}
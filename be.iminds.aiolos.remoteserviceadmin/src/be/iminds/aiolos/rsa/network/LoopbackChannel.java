@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import be.iminds.aiolos.rsa.Config;
+import be.iminds.aiolos.rsa.network.api.ChannelMetrics;
+import be.iminds.aiolos.rsa.network.api.MessageReceiver;
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.message.MessageFrame;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+import be.iminds.aiolos.rsa.serialization.api.SerializationException;
+
+/**
+ * {@link NetworkChannel} between two frameworks in the same JVM
+ * 
+ * Loopback channels are created in pairs, messages sent on one channel are handed 
+ * to the receiver of its peer without serialization. In copy mode each message is 
+ * encoded in a {@link MessageFrame} and decoded by the receiver, so arguments and 
+ * results are still passed by value.
+ */
+public class LoopbackChannel implements NetworkChannel {
+
+	private final MessageReceiver receiver;
+	private final String remoteAddress;
+	private final String localAddress;
+	private final boolean copy;
+	private LoopbackChannel peer;
+	
+	private final AtomicBoolean connected = new AtomicBoolean(true);
+	private final ChannelMetrics metrics = new ChannelMetrics(this);
+	
+	private LoopbackChannel(MessageReceiver receiver, String remoteAddress, String localAddress, boolean copy){
+		this.receiver = receiver;
+		this.remoteAddress = remoteAddress;
+		this.localAddress = localAddress;
+		this.copy = copy;
+		if(!copy){
+			// messages are handed over as they are
+			metrics.bytesNotCounted();
+			metrics.codingNotTimed();
+		}
+	}
+	
+	/*
+	 * Create a connected pair of channels, the first channel is used by the
+	 * connecting side, the second one by the accepting side
+	 */
+	static LoopbackChannel[] open(MessageReceiver connecting, String connectingAddress,
+			MessageReceiver accepting, String acceptingAddress, boolean copy){
+		LoopbackChannel channel = new LoopbackChannel(connecting, acceptingAddress, connectingAddress, copy);
+		LoopbackChannel peer = new LoopbackChannel(accepting, connectingAddress, acceptingAddress, copy);
+		channel.peer = peer;
+		peer.peer = channel;
+		return new LoopbackChannel[]{channel, peer};
+	}
+	
+	@Override
+	public void sendMessage(ROSGiMessage message) throws SerializationException, IOException {
+		if(!connected.get() || !peer.connected.get()){
+			throw new IOException("Channel to "+remoteAddress+" is closed");
+		}
+		
+		// the receivers handle messages on their own threads, so this only queues the message
+		if(copy){
+			long start = System.nanoTime();
+			MessageFrame frame = MessageFrame.encode(message);
+			long encoded = System.nanoTime();
+			peer.receiver.receivedFrame(frame, peer);
+			metrics.sent(frame.getLength(), encoded - start);
+		} else {
+			peer.receiver.receivedMessage(message, peer);
+			metrics.sent(0, 0);
+		}
+	}
+
+	@Override
+	public void registerClasses(Class<?>[] classes) throws IOException {
+		// classes are never serialized by name over a loopback channel
+	}
+
+	@Override
+	public void close() {
+		if(connected.compareAndSet(true, false)){
+			// the peer is notified like a peer of a closed socket
+			if(peer.connected.get()){
+				peer.receiver.receivedMessage(null, peer);
+			}
+		}
+	}
+	
+	@Override
+	public ChannelMetrics getMetrics() {
+		return metrics;
+	}
+	
+	public boolean isCopy(){
+		return copy;
+	}
+	
+	@Override
+	public String getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	@Override
+	public String getLocalAddress() {
+		return localAddress;
+	}
+	
+	@Override
+	public int getProtocolVersion() {
+		// both frameworks run the same code
+		return Config.PROTOCOL_VERSION;
+	}
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.service.log.LogService;
+
+import be.iminds.aiolos.rsa.Activator;
+import be.iminds.aiolos.rsa.network.api.ChannelMetrics;
+import be.iminds.aiolos.rsa.network.api.MessageReceiver;
+import be.iminds.aiolos.rsa.network.message.MessageFrame;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+import be.iminds.aiolos.rsa.serialization.api.SerializationException;
+
+/**
+ * Non-blocking implementation of the protocol on top of a {@link SocketChannel}
+ * 
+ * Messages are exchanged as version 2 {@link MessageFrame}s, the {@link NIOEventLoop} only 
+ * slices complete frames from the stream, decoding is left to the receiver
+ */
+public class NIOChannel implements FrameChannel, NIOEventLoop.Handler {
+
+	private static final int BUFFER_SIZE = 8192;
+	// maximum number of frames in a single gathering write
+	private static final int MAX_GATHER = 64;
+	
+	private final SocketChannel socketChannel;
+	private final String remoteAddress;
+	private final String localAddress;
+	private final NIOEventLoop loop;
+	private volatile SelectionKey key;
+	
+	private final MessageReceiver receiver;
+	private final int version;
+	private final FrameCodec codec;
+	private final ChannelMetrics metrics = new ChannelMetrics(this);
+	
+	// outgoing frames, written by whichever thread holds the writing flag
+	private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicBoolean writing = new AtomicBoolean(false);
+	private final AtomicLong queuedBytes = new AtomicLong();
+	// frames taken from the queue but not completely written yet, only accessed holding the writing flag
+	private final LinkedList<ByteBuffer> pending = new LinkedList<ByteBuffer>();
+	// set when the socket buffer is full, the event loop continues writing once the socket is writable
+	private volatile boolean waitingForWritable = false;
+	
+	// incoming bytes are collected until a complete frame is received
+	private ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+	
+	private volatile boolean connected = true;
+	
+	NIOChannel(final SocketChannel socketChannel, MessageReceiver receiver, int version, NIOEventLoop loop) throws IOException {
+		this(socketChannel, receiver, version, loop, null, null);
+	}
+	
+	/*
+	 * Channels that are not backed by a TCP socket (i.e. unix domain sockets) have 
+	 * no socket options and are identified by the given addresses
+	 */
+	NIOChannel(final SocketChannel socketChannel, MessageReceiver receiver, int version, NIOEventLoop loop,
+			String remoteAddress, String localAddress) throws IOException {
+		this.socketChannel = socketChannel;
+		this.receiver = receiver;
+		this.version = version;
+		this.codec = FrameCodec.create(version);
+		this.loop = loop;
+		
+		if(remoteAddress==null){
+			Socket socket = socketChannel.socket();
+			try {
+				socket.setKeepAlive(true);
+			} catch (final Throwable t) {
+				// for 1.2 VMs that do not support the setKeepAlive
+			}
+			socket.setTcpNoDelay(true);
+			remoteAddress = socket.getInetAddress().getHostAddress()+":"+socket.getPort();
+			localAddress = socket.getLocalAddress().getHostAddress()+":"+socket.getLocalPort();
+		}
+		this.remoteAddress = remoteAddress;
+		this.localAddress = localAddress;
+		socketChannel.configureBlocking(false);
+		
+		loop.execute(new Runnable(){
+			public void run(){
+				try {
+					key = socketChannel.register(NIOChannel.this.loop.getSelector(), SelectionKey.OP_READ, NIOChannel.this);
+				} catch(IOException e){
+					failed(e);
+				}
+			}
+		});
+	}
+
+	public void close(){
+		connected = false;
+		if(key!=null){
+			key.cancel();
+		}
+		try {
+			socketChannel.close();
+		} catch(IOException ioe){
+			
+		}
+	}
+
+	public void sendMessage(final ROSGiMessage message)
+			throws SerializationException, IOException {
+		// serialize on the calling thread, the event loop never waits for serialization
+		long start = System.nanoTime();
+		MessageFrame frame = codec.encode(message);
+		long encoded = System.nanoTime();
+		sendFrame(frame);
+		metrics.sent(frame.getLength(), encoded - start);
+	}
+	
+	public void registerClasses(Class<?>[] classes) throws IOException {
+		codec.register(classes, this);
+	}
+	
+	public void sendFrame(final MessageFrame message) throws IOException {
+		if(!connected){
+			throw new IOException("Channel to "+getRemoteAddress()+" is closed");
+		}
+		
+		ByteBuffer frame = message.toByteBuffer();
+		queuedBytes.addAndGet(frame.remaining());
+		writeQueue.add(frame);
+		flush();
+	}
+	
+	/*
+	 * Write the queued frames unless another thread is already writing, in which case
+	 * that thread also writes the frames queued in the meantime. This way frames of 
+	 * concurrent senders are coalesced in a single write.
+	 */
+	private void flush() throws IOException {
+		// queuedBytes also covers frames that are partially written
+		while(!waitingForWritable && queuedBytes.get() > 0 && writing.compareAndSet(false, true)){
+			try {
+				if(!write()){
+					waitingForWritable = true;
+					loop.execute(new Runnable(){
+						public void run(){
+							if(key!=null && key.isValid()){
+								key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+							}
+						}
+					});
+				}
+			} finally {
+				writing.set(false);
+			}
+		}
+	}
+	
+	/*
+	 * Write as much queued frames as possible without blocking using gathering writes, 
+	 * should be called holding the writing flag. Returns false when the socket buffer is full.
+	 */
+	private boolean write() throws IOException {
+		ByteBuffer frame;
+		while((frame = writeQueue.poll())!=null){
+			pending.add(frame);
+		}
+		
+		while(!pending.isEmpty()){
+			int n = Math.min(pending.size(), MAX_GATHER);
+			ByteBuffer[] frames = new ByteBuffer[n];
+			Iterator<ByteBuffer> it = pending.iterator();
+			for(int i=0;i<n;i++){
+				frames[i] = it.next();
+			}
+			
+			queuedBytes.addAndGet(-socketChannel.write(frames));
+			while(!pending.isEmpty() && !pending.getFirst().hasRemaining()){
+				pending.removeFirst();
+			}
+			if(frames[n-1].hasRemaining()){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/*
+	 * Read all frames that are currently available, called by the event loop
+	 */
+	private void read() throws IOException {
+		int read = socketChannel.read(readBuffer);
+		if(read == -1){
+			throw new EOFException("Connection closed by "+getRemoteAddress());
+		}
+		
+		readBuffer.flip();
+		MessageFrame frame;
+		while((frame = codec.read(readBuffer))!=null){
+			if(!codec.received(frame)){
+				receiver.receivedFrame(frame, this);
+			}
+		}
+		
+		// make sure a large frame fits in the buffer
+		int length = MessageFrame.bodyLength(readBuffer);
+		if(length != -1 && MessageFrame.HEADER_LENGTH + length > readBuffer.capacity()){
+			ByteBuffer larger = ByteBuffer.allocate(MessageFrame.HEADER_LENGTH + length);
+			larger.put(readBuffer);
+			readBuffer = larger;
+		} else if(!readBuffer.hasRemaining() && readBuffer.capacity() > BUFFER_SIZE){
+			readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+		} else {
+			readBuffer.compact();
+		}
+	}
+	
+	@Override
+	public void handle(SelectionKey key) throws Exception {
+		if(key.isReadable()){
+			read();
+		}
+		if(key.isValid() && key.isWritable()){
+			key.interestOps(SelectionKey.OP_READ);
+			waitingForWritable = false;
+			flush();
+		}
+	}
+	
+	@Override
+	public void failed(Exception e) {
+		if(!connected)
+			return;
+		
+		Activator.logger.log(LogService.LOG_WARNING, "Exception receiving message, closing network channel to "+getRemoteAddress()+" : "+e.getMessage(), e);
+		close();
+		receiver.receivedMessage(null, this);
+	}
+
+	public ChannelMetrics getMetrics(){
+		return metrics;
+	}
+	
+	public int getProtocolVersion(){
+		return version;
+	}
+	
+	public long getQueuedBytes(){
+		return queuedBytes.get();
+	}
+
+	@Override
+	public String getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	@Override
+	public String getLocalAddress(){
+		return localAddress;
+	}
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.service.log.LogService;
+
+import be.iminds.aiolos.rsa.Activator;
+import be.iminds.aiolos.rsa.Config;
+import be.iminds.aiolos.rsa.network.api.MessageReceiver;
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.api.NetworkChannelFactory;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+import be.iminds.aiolos.rsa.util.URI;
+
+/**
+ * Factory for creating non-blocking {@link NIOChannel}s
+ * 
+ * All channels are served by a fixed number of {@link NIOEventLoop}s instead of a thread per channel,
+ * peers that only speak protocol version 1 fall back to a blocking {@link TCPChannel}
+ */
+public class NIOChannelFactory implements NetworkChannelFactory {
+
+	private String hostAddress = null;
+	private String networkInterface = null;
+	private int listeningPort = 9278;
+	
+	private ServerSocketChannel serverChannel;
+	private NIOEventLoop[] loops;
+	private final AtomicInteger nextLoop = new AtomicInteger();
+	
+	private Map<String, NetworkChannel> channels = new HashMap<String, NetworkChannel>();
+	
+	private MessageReceiver receiver;
+	
+	public NIOChannelFactory(MessageReceiver receiver, String ip, String networkInterface, int port, int threads){
+		this.receiver = receiver;
+		this.hostAddress = ip;
+		this.networkInterface = networkInterface;
+		if(port!=-1)
+			this.listeningPort = port;
+		this.loops = new NIOEventLoop[threads > 0 ? threads : 1];
+	}
+	
+	public void activate() throws IOException {
+		for(int i=0;i<loops.length;i++){
+			loops[i] = new NIOEventLoop("R-OSGi NIO Event Loop "+i);
+			loops[i].start();
+		}
+		
+		serverChannel = ServerSocketChannel.open();
+		int e = 0;
+		while (true) {
+			try {
+				listeningPort += e;
+				serverChannel.socket().bind(new InetSocketAddress(listeningPort));
+				break;
+			} catch (final BindException b) {
+				e++;
+			}
+		}
+		serverChannel.configureBlocking(false);
+		
+		final NIOEventLoop.Handler acceptor = new NIOEventLoop.Handler() {
+			@Override
+			public void handle(SelectionKey key) throws Exception {
+				SocketChannel socketChannel;
+				while((socketChannel = serverChannel.accept())!=null){
+					// accept incoming connections, first negotiate the protocol version
+					final SocketChannel accepted = socketChannel;
+					final NIOEventLoop loop = nextLoop();
+					loop.execute(new Runnable(){
+						public void run(){
+							HandshakeHandler handshake = new HandshakeHandler(accepted, loop);
+							try {
+								accepted.configureBlocking(false);
+								accepted.register(loop.getSelector(), SelectionKey.OP_READ, handshake);
+							} catch(IOException e){
+								handshake.failed(e);
+							}
+						}
+					});
+				}
+			}
+
+			@Override
+			public void failed(Exception e) {
+				Activator.logger.log(LogService.LOG_ERROR, "Error accepting channels: "+e.getMessage(), e);
+			}
+		};
+		loops[0].execute(new Runnable(){
+			public void run(){
+				try {
+					serverChannel.register(loops[0].getSelector(), SelectionKey.OP_ACCEPT, acceptor);
+				} catch(IOException e){
+					acceptor.failed(e);
+				}
+			}
+		});
+	}
+	
+	/*
+	 * Reads the preamble of an accepted connection, version 1 peers are 
+	 * handed over to a blocking TCPChannel
+	 */
+	private class HandshakeHandler implements NIOEventLoop.Handler {
+		
+		private final SocketChannel socketChannel;
+		private final NIOEventLoop loop;
+		private final ByteBuffer preamble = ByteBuffer.allocate(Handshake.LENGTH);
+		
+		HandshakeHandler(SocketChannel socketChannel, NIOEventLoop loop){
+			this.socketChannel = socketChannel;
+			this.loop = loop;
+		}
+		
+		@Override
+		public void handle(SelectionKey key) throws Exception {
+			if(socketChannel.read(preamble)==-1){
+				throw new EOFException("Connection closed before protocol negotiation");
+			}
+			if(preamble.position() > 0 && !Handshake.isPreamble(preamble.get(0))){
+				handOver(key, ROSGiMessage.VERSION_1);
+				return;
+			}
+			if(preamble.hasRemaining()){
+				return;
+			}
+			
+			int version = Handshake.negotiate(preamble.array());
+			ByteBuffer reply = ByteBuffer.wrap(Handshake.preamble(version));
+			socketChannel.write(reply);
+			if(reply.hasRemaining()){
+				throw new IOException("Unable to complete protocol negotiation");
+			}
+			preamble.clear();
+			handOver(key, version);
+		}
+		
+		private void handOver(SelectionKey key, final int version){
+			// the key is deregistered on the next select, after which the channel can be handed over
+			key.cancel();
+			loop.execute(new Runnable(){
+				public void run(){
+					try {
+						NetworkChannel channel;
+						if(version >= ROSGiMessage.VERSION_2){
+							channel = new NIOChannel(socketChannel, receiver, version, loop);
+						} else {
+							// push back the bytes already read from the version 1 stream
+							preamble.flip();
+							byte[] read = new byte[preamble.remaining()];
+							preamble.get(read);
+							socketChannel.configureBlocking(true);
+							Socket socket = socketChannel.socket();
+							channel = new TCPChannel(socket, receiver, version,
+									new SequenceInputStream(new ByteArrayInputStream(read), socket.getInputStream()));
+						}
+						synchronized(channels){
+							channels.put(channel.getRemoteAddress(), channel);
+						}
+					} catch(IOException e){
+						failed(e);
+					}
+				}
+			});
+		}
+
+		@Override
+		public void failed(Exception e) {
+			Activator.logger.log(LogService.LOG_ERROR, "Error creating new channel: "+e.getMessage(), e);
+			try {
+				socketChannel.close();
+			} catch(IOException ioe){}
+		}
+	}
+
+	public void deactivate(){
+		try {
+			serverChannel.close();
+		} catch(IOException e){}
+		
+		synchronized(channels){
+			for(NetworkChannel channel : channels.values()){
+				channel.close();
+			}
+			channels.clear();
+		}
+		
+		for(NIOEventLoop loop : loops){
+			if(loop!=null){
+				loop.shutdown();
+			}
+		}
+	}
+	
+	private NIOEventLoop nextLoop(){
+		int i = nextLoop.getAndIncrement() & Integer.MAX_VALUE;
+		return loops[i % loops.length];
+	}
+	
+	@Override
+	public List<NetworkChannel> getChannels(){
+		List<NetworkChannel> c;
+		synchronized(channels){
+			c = new ArrayList<NetworkChannel>(channels.values());
+		}
+		return c;
+	}
+	
+	@Override
+	public NetworkChannel getChannel(URI uri) throws Exception {
+		synchronized(channels){
+			NetworkChannel channel = channels.get(uri.getAddress());
+			if(channel == null) {
+				try {
+					channel = connect(uri);
+					channels.put(channel.getRemoteAddress(), channel);
+				} catch(IOException ioe){
+					throw new Exception("Error creating NIO channel to "+uri, ioe);
+				}
+			}
+			return channel;
+		}
+	}
+	
+	/*
+	 * Open a single channel, or a pool of channels when rsa.pool.size is larger than 1
+	 */
+	private NetworkChannel connect(final URI uri) throws IOException {
+		if(Config.POOL_SIZE > 1){
+			return ChannelPool.open(uri.getAddress(), receiver, Config.POOL_SIZE, Config.POOL_LARGE_MESSAGE,
+					new ChannelPool.Connector() {
+						@Override
+						public NetworkChannel connect(MessageReceiver receiver) throws IOException {
+							return NIOChannelFactory.this.connect(uri.getIP(), uri.getPort(), receiver);
+						}
+					});
+		}
+		return connect(uri.getIP(), uri.getPort(), receiver);
+	}
+	
+	/*
+	 * Connect and negotiate the protocol version in blocking mode, 
+	 * version 1 peers are served by a blocking TCPChannel
+	 */
+	private NetworkChannel connect(String ip, int port, MessageReceiver receiver) throws IOException {
+		if(Config.PROTOCOL_VERSION < ROSGiMessage.VERSION_2){
+			return TCPChannel.connect(ip, port, receiver);
+		}
+		
+		SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress(ip, port));
+		int version;
+		try {
+			version = Handshake.connect(socketChannel.socket());
+		} catch(IOException e){
+			Activator.logger.log(LogService.LOG_INFO, "Protocol negotiation with "+ip+":"+port+" failed, falling back to version 1", e);
+			socketChannel.close();
+			return new TCPChannel(new Socket(ip, port), receiver, ROSGiMessage.VERSION_1, null);
+		}
+		
+		try {
+			if(version >= ROSGiMessage.VERSION_2){
+				return new NIOChannel(socketChannel, receiver, version, nextLoop());
+			} else {
+				return new TCPChannel(socketChannel.socket(), receiver, version, null);
+			}
+		} catch(IOException e){
+			socketChannel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void deleteChannel(NetworkChannel channel){
+		synchronized(channels){
+			channels.remove(channel.getRemoteAddress());
+			channel.close();
+		}
+	}
+
+	@Override
+	public String getAddress() {
+		if(serverChannel==null)
+			return null;
+		
+		// method one : already set (e.g. using property rsa.ip)
+		if(hostAddress==null){
+			// if not set , try to get it from a (hopefully the preferred) network interface
+			hostAddress = TCPChannelFactory.findHostAddress(networkInterface);
+		}
+
+		// if still not set just get the default one...
+		if(hostAddress==null)
+			hostAddress = serverChannel.socket().getInetAddress().getHostAddress();
+		
+		return hostAddress+":"+serverChannel.socket().getLocalPort();
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.osgi.service.log.LogService;
+
+import be.iminds.aiolos.rsa.Activator;
+
+/**
+ * Event loop thread that serves a number of non-blocking channels using a single {@link Selector}
+ * 
+ * Registration and interest changes are queued as tasks and executed on the loop thread
+ */
+class NIOEventLoop extends Thread {
+
+	/*
+	 * Callback for the channels registered with this event loop
+	 */
+	interface Handler {
+		
+		void handle(SelectionKey key) throws Exception;
+		
+		void failed(Exception e);
+	}
+	
+	private final Selector selector;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	
+	private volatile boolean running = true;
+	
+	NIOEventLoop(String name) throws IOException {
+		super(name);
+		setDaemon(true);
+		selector = Selector.open();
+	}
+	
+	Selector getSelector(){
+		return selector;
+	}
+	
+	/*
+	 * Execute a task on the event loop thread
+	 */
+	void execute(Runnable task){
+		tasks.add(task);
+		selector.wakeup();
+	}
+	
+	void shutdown(){
+		running = false;
+		selector.wakeup();
+	}
+	
+	public void run(){
+		while(running){
+			try {
+				selector.select();
+				
+				Runnable task;
+				while((task = tasks.poll())!=null){
+					task.run();
+				}
+				
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while(it.hasNext()){
+					SelectionKey key = it.next();
+					it.remove();
+					
+					Handler handler = (Handler) key.attachment();
+					if(!key.isValid() || handler==null)
+						continue;
+					
+					try {
+						handler.handle(key);
+					} catch(Exception e){
+						key.cancel();
+						handler.failed(e);
+					}
+				}
+			} catch(Throwable t){
+				Activator.logger.log(LogService.LOG_ERROR, "Error in event loop "+getName()+" : "+t.getMessage(), t);
+			}
+		}
+		
+		try {
+			selector.close();
+		} catch(IOException e){}
+	}
+}
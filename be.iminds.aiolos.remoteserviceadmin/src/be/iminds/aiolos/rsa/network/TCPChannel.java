@@ -32,16 +32,30 @@ package be.iminds.aiolos.rsa.network;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.osgi.service.log.LogService;
 
 import be.iminds.aiolos.rsa.Activator;
 import be.iminds.aiolos.rsa.Config;
 import be.iminds.aiolos.rsa.Config.SerializationStrategy;
+import be.iminds.aiolos.rsa.network.api.ChannelMetrics;
 import be.iminds.aiolos.rsa.network.api.MessageReceiver;
-import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.message.MessageFrame;
 import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
 import be.iminds.aiolos.rsa.serialization.api.Deserializer;
 import be.iminds.aiolos.rsa.serialization.api.SerializationException;
@@ -50,50 +64,132 @@ import be.iminds.aiolos.rsa.serialization.java.JavaDeserializer;
 import be.iminds.aiolos.rsa.serialization.java.JavaSerializer;
 import be.iminds.aiolos.rsa.serialization.kryo.KryoDeserializer;
 import be.iminds.aiolos.rsa.serialization.kryo.KryoSerializer;
+import be.iminds.aiolos.rsa.util.Threads;
 
 /**
  * TCP implementation of the protocol, sends and recieves ROSGiMessages
+ * 
+ * Version 1 channels (de)serialize messages directly on the socket streams, 
+ * version 2 channels exchange {@link MessageFrame}s that are decoded by the receiver.
+ * 
+ * Outgoing frames are queued and written by a writer thread, that writes all 
+ * queued frames at once and only flushes the socket once per batch. Version 1 messages
+ * are serialized and flushed by the caller, so a message that cannot be serialized only 
+ * fails the call that sends it.
  */
-public class TCPChannel implements NetworkChannel {
+public class TCPChannel implements FrameChannel {
 
+	// limits of the write queue, senders block when it is full
+	private static final int MAX_QUEUED_BYTES = 4*1024*1024;
+	private static final int MAX_QUEUED_MESSAGES = 1024;
+	// stop waiting for more messages once a batch is this large
+	private static final int BATCH_SIZE = 8192;
+	
 	private Socket socket;
+	private int version;
+	
+	// version 1
 	private Deserializer input;
 	private Serializer output;
+	
+	// version 2
+	private DataInputStream in;
+	private OutputStream out;
+	// version 3
+	private volatile FrameCodec codec = FrameCodec.NONE;
+	private final ChannelMetrics metrics = new ChannelMetrics(this);
 
 	private MessageReceiver receiver;
 	private Thread receiverThread = null;
+	private Thread writerThread = null;
+	
+	// outgoing frames waiting for the writer thread
+	private final LinkedList<MessageFrame> writeQueue = new LinkedList<MessageFrame>();
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private final Condition notEmpty = writeLock.newCondition();
+	private final Condition notFull = writeLock.newCondition();
+	private volatile long queuedBytes = 0;
 	
 	private volatile boolean connected = true;
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	private final CountDownLatch opened = new CountDownLatch(1);
 
-	
+	/*
+	 * Accepting side, the protocol version is negotiated on the receiver thread
+	 */
 	public TCPChannel(final Socket socket, MessageReceiver receiver) throws IOException {
-		this.receiver = receiver;
-		open(socket);
-		receiverThread = new ReceiverThread();
-		receiverThread.start();
+		this(socket, receiver, -1, null);
 	}
 	
-	TCPChannel(String ip, int port, MessageReceiver receiver) throws IOException {
-		this(new Socket(ip, port), receiver);
-	}
-
-	private void open(final Socket s) throws IOException {
-		socket = s;
+	/*
+	 * Channel with a known protocol version, the InputStream allows to
+	 * push back bytes that were already read from the socket
+	 */
+	TCPChannel(final Socket socket, MessageReceiver receiver, int version, InputStream in) throws IOException {
+		this.socket = socket;
+		this.receiver = receiver;
+		this.version = version;
 		try {
 			socket.setKeepAlive(true);
 		} catch (final Throwable t) {
 			// for 1.2 VMs that do not support the setKeepAlive
 		}
 		socket.setTcpNoDelay(true);
+		// virtual threads when aiolos.threads=virtual, the socket is blocking either way
+		writerThread = Threads.newThread(new Writer(), "TCPChannel writer "+socket.getRemoteSocketAddress());
+		writerThread.start();
+		receiverThread = Threads.newThread(new Receiver(in==null ? socket.getInputStream() : in), "TCPChannel receiver "+socket.getRemoteSocketAddress());
+		receiverThread.start();
+	}
+	
+	/*
+	 * Connecting side, falls back to version 1 when the peer does not understand the preamble
+	 */
+	static TCPChannel connect(String ip, int port, MessageReceiver receiver) throws IOException {
+		Socket socket = new Socket(ip, port);
+		if(Config.PROTOCOL_VERSION >= ROSGiMessage.VERSION_2){
+			try {
+				int version = Handshake.connect(socket);
+				return new TCPChannel(socket, receiver, version, null);
+			} catch(IOException e){
+				Activator.logger.log(LogService.LOG_INFO, "Protocol negotiation with "+ip+":"+port+" failed, falling back to version 1");
+				try {
+					socket.close();
+				} catch(IOException ioe){}
+				socket = new Socket(ip, port);
+			}
+		}
+		return new TCPChannel(socket, receiver, ROSGiMessage.VERSION_1, null);
+	}
+
+	private void open(InputStream socketInput) throws IOException {
+		BufferedInputStream bufferedInput = new BufferedInputStream(socketInput);
+		BufferedOutputStream bufferedOutput = new BufferedOutputStream(socket.getOutputStream());
+		
+		if(version == -1){
+			version = Handshake.accept(bufferedInput, bufferedOutput);
+		}
+		
+		if(version >= ROSGiMessage.VERSION_2){
+			in = new DataInputStream(bufferedInput);
+			out = bufferedOutput;
+			codec = FrameCodec.create(version);
+			return;
+		}
+		
+		// the bytes of version 1 messages are counted on the streams, 
+		// their serialization cannot be timed apart from the socket
+		metrics.codingNotTimed();
+		OutputStream countedOutput = new CountingOutputStream(bufferedOutput);
+		InputStream countedInput = new CountingInputStream(bufferedInput);
+		
 		// Use ObjectOutputstream for object serialization
 		// Maybe change to a more efficient serialization algorithm?
 		if(Config.SERIALIZATION==SerializationStrategy.KRYO){ 
 			try {
-				output = new KryoSerializer(new BufferedOutputStream(
-						socket.getOutputStream()));
+				output = new KryoSerializer(countedOutput);
 				output.flush();
-				input = new KryoDeserializer(new BufferedInputStream(socket
-						.getInputStream()));
+				input = new KryoDeserializer(countedInput);
 			}catch(NoClassDefFoundError e){
 				Activator.logger.log(LogService.LOG_WARNING, "Kryo not available, falling back to Java Serialization", e);
 				// fall back to Java serialization
@@ -101,11 +197,9 @@ public class TCPChannel implements NetworkChannel {
 			}
 		} 
 		if(Config.SERIALIZATION==SerializationStrategy.JAVA){
-			output = new JavaSerializer(new BufferedOutputStream(
-					socket.getOutputStream()));
+			output = new JavaSerializer(countedOutput);
 			output.flush();
-			input = new JavaDeserializer(new BufferedInputStream(socket
-					.getInputStream()));
+			input = new JavaDeserializer(countedInput);
 		} 
 	}
 
@@ -117,39 +211,282 @@ public class TCPChannel implements NetworkChannel {
 		}
 		connected = false;
 		receiverThread.interrupt();
+		writerThread.interrupt();
+	}
+	
+	/*
+	 * Close the channel after an error on one of the threads, the receiver is only notified once
+	 */
+	private void failed(String message, Exception e){
+		connected = false;
+		try {
+			socket.close();
+		} catch (final IOException e1) {
+		}
+		if(closed.compareAndSet(false, true)){
+			Activator.logger.log(LogService.LOG_WARNING, message+" network channel to "+getRemoteAddress()+" : "+e.getMessage(), e);
+			writerThread.interrupt();
+			receiver.receivedMessage(null, TCPChannel.this);
+		}
 	}
 
 	public void sendMessage(final ROSGiMessage message)
 			throws SerializationException, IOException {
-		message.send(output);
+		awaitOpened();
+		
+		if(version >= ROSGiMessage.VERSION_2){
+			// serialize on the calling thread, the writer thread only copies the frame
+			long start = System.nanoTime();
+			MessageFrame frame = codec.encode(message);
+			long encoded = System.nanoTime();
+			enqueue(frame);
+			metrics.sent(frame.getLength(), encoded - start);
+		} else {
+			// the bytes are counted on the stream
+			synchronized(output){
+				if(!connected){
+					throw new IOException("Channel to "+getRemoteAddress()+" is closed");
+				}
+				message.write(output);
+				output.flush();
+			}
+			metrics.sent(0, 0);
+		}
+	}
+	
+	public void sendFrame(final MessageFrame frame) throws IOException {
+		awaitOpened();
+		
+		if(version < ROSGiMessage.VERSION_2){
+			throw new IOException("Channel to "+getRemoteAddress()+" does not support frames");
+		}
+		enqueue(frame);
+	}
+	
+	public void registerClasses(Class<?>[] classes) throws IOException {
+		awaitOpened();
+		
+		codec.register(classes, this);
+	}
+	
+	/*
+	 * Queue a message for the writer thread, blocks when too much data is queued already
+	 */
+	private void enqueue(MessageFrame frame) throws IOException {
+		writeLock.lock();
+		try {
+			while(connected && !writeQueue.isEmpty() 
+					&& (queuedBytes >= MAX_QUEUED_BYTES || writeQueue.size() >= MAX_QUEUED_MESSAGES)){
+				notFull.await();
+			}
+			if(!connected){
+				throw new IOException("Channel to "+getRemoteAddress()+" is closed");
+			}
+			writeQueue.add(frame);
+			queuedBytes += frame.getLength();
+			notEmpty.signal();
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted sending message to "+getRemoteAddress());
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	private void awaitOpened() throws IOException {
+		try {
+			if(!opened.await(Config.TIMEOUT, TimeUnit.MILLISECONDS)){
+				throw new IOException("Timeout opening channel to "+getRemoteAddress());
+			}
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted opening channel to "+getRemoteAddress());
+		}
+		if(!connected){
+			throw new IOException("Channel to "+getRemoteAddress()+" is closed");
+		}
+	}
+	
+	public ChannelMetrics getMetrics(){
+		return metrics;
+	}
+	
+	public int getProtocolVersion(){
+		return version;
+	}
+	
+	public long getQueuedBytes(){
+		return queuedBytes;
+	}
+	
+	/*
+	 * Writes all queued messages and flushes once per batch, 
+	 * optionally waiting for more messages up to the configured batch delay
+	 */
+	class Writer implements Runnable {
+		
+		public void run() {
+			try {
+				opened.await();
+				
+				List<MessageFrame> batch = new ArrayList<MessageFrame>();
+				while (connected) {
+					long bytes = take(batch);
+					for(MessageFrame frame : batch){
+						frame.writeTo(out);
+					}
+					out.flush();
+					batch.clear();
+					
+					writeLock.lock();
+					try {
+						queuedBytes -= bytes;
+						notFull.signalAll();
+					} finally {
+						writeLock.unlock();
+					}
+				}
+			} catch(InterruptedException e){
+				// closed
+			} catch(Exception e){
+				failed("Exception sending message, closing", e);
+			} finally {
+				writeLock.lock();
+				try {
+					connected = false;
+					notFull.signalAll();
+				} finally {
+					writeLock.unlock();
+				}
+			}
+		}
+		
+		/*
+		 * Wait for queued messages and move them to the batch, returns the number of bytes taken
+		 */
+		private long take(List<MessageFrame> batch) throws InterruptedException {
+			writeLock.lock();
+			try {
+				while(writeQueue.isEmpty()){
+					notEmpty.await();
+				}
+				if(Config.BATCH_DELAY > 0){
+					long remaining = TimeUnit.MICROSECONDS.toNanos(Config.BATCH_DELAY);
+					while(remaining > 0 && queuedBytes < BATCH_SIZE && writeQueue.size() < MAX_QUEUED_MESSAGES){
+						remaining = notEmpty.awaitNanos(remaining);
+					}
+				}
+				batch.addAll(writeQueue);
+				writeQueue.clear();
+				return queuedBytes;
+			} finally {
+				writeLock.unlock();
+			}
+		}
 	}
 
-	class ReceiverThread extends Thread {
-		ReceiverThread() {
-			setDaemon(true);
+	class Receiver implements Runnable {
+		
+		private final InputStream socketInput;
+		
+		Receiver(InputStream socketInput) {
+			this.socketInput = socketInput;
 		}
 
 		public void run() {
+			try {
+				open(socketInput);
+			} catch(Exception e){
+				failed("Exception opening", e);
+				return;
+			} finally {
+				opened.countDown();
+			}
+			
 			while (connected) {
 				try {
-					final ROSGiMessage msg = ROSGiMessage.parse(input);
-					receiver.receivedMessage(msg, TCPChannel.this);
+					if(version >= ROSGiMessage.VERSION_2){
+						final MessageFrame frame = codec.read(in);
+						if(!codec.received(frame)){
+							receiver.receivedFrame(frame, TCPChannel.this);
+						}
+					} else {
+						final ROSGiMessage msg = ROSGiMessage.parse(input);
+						receiver.receivedMessage(msg, TCPChannel.this);
+					}
 				} catch (Exception e) {
-					Activator.logger.log(LogService.LOG_WARNING, "Exception receiving message, closing network channel to "+getRemoteAddress()+" : "+e.getMessage(), e);
-					// e.printStackTrace();
 					// Handle socket error
-					connected = false;
-					try {
-						socket.close();
-					} catch (final IOException e1) {
-					}
-					receiver.receivedMessage(null, TCPChannel.this);
+					failed("Exception receiving message, closing", e);
 					return;
 				} 
 			}
 		}
 	}
 
+	/*
+	 * Counts the bytes of version 1 messages as they are written
+	 */
+	private class CountingOutputStream extends FilterOutputStream {
+		
+		CountingOutputStream(OutputStream out){
+			super(out);
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			metrics.wrote(1);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			metrics.wrote(len);
+		}
+	}
+	
+	/*
+	 * Counts the bytes of version 1 messages as they are read
+	 */
+	private class CountingInputStream extends FilterInputStream {
+		
+		CountingInputStream(InputStream in){
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if(b != -1){
+				metrics.read(1);
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = in.read(b, off, len);
+			if(read > 0){
+				metrics.read(read);
+			}
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(n);
+			if(skipped > 0){
+				metrics.read((int)skipped);
+			}
+			return skipped;
+		}
+		
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+
 	@Override
 	public String getRemoteAddress() {
 		return socket.getInetAddress().getHostAddress()+":"+socket.getPort();
@@ -46,6 +46,7 @@ import java.util.Map;
 import org.osgi.service.log.LogService;
 
 import be.iminds.aiolos.rsa.Activator;
+import be.iminds.aiolos.rsa.Config;
 import be.iminds.aiolos.rsa.network.api.MessageReceiver;
 import be.iminds.aiolos.rsa.network.api.NetworkChannel;
 import be.iminds.aiolos.rsa.network.api.NetworkChannelFactory;
@@ -104,7 +105,7 @@ public class TCPChannelFactory implements NetworkChannelFactory{
 			NetworkChannel channel = channels.get(uri.getAddress());
 			if(channel == null) {
 				try {
-					channel = new TCPChannel(uri.getIP(), uri.getPort(), receiver);
+					channel = connect(uri);
 					channels.put(channel.getRemoteAddress(), channel);
 				} catch(IOException ioe){
 					throw new Exception("Error creating TCP channel to "+uri, ioe);
@@ -114,6 +115,22 @@ public class TCPChannelFactory implements NetworkChannelFactory{
 		}
 	}
 
+	/*
+	 * Open a single channel, or a pool of channels when rsa.pool.size is larger than 1
+	 */
+	private NetworkChannel connect(final URI uri) throws IOException {
+		if(Config.POOL_SIZE > 1){
+			return ChannelPool.open(uri.getAddress(), receiver, Config.POOL_SIZE, Config.POOL_LARGE_MESSAGE,
+					new ChannelPool.Connector() {
+						@Override
+						public NetworkChannel connect(MessageReceiver receiver) throws IOException {
+							return TCPChannel.connect(uri.getIP(), uri.getPort(), receiver);
+						}
+					});
+		}
+		return TCPChannel.connect(uri.getIP(), uri.getPort(), receiver);
+	}
+
 	@Override
 	public void deleteChannel(NetworkChannel channel){
 		synchronized(channels){
@@ -158,30 +175,11 @@ public class TCPChannelFactory implements NetworkChannelFactory{
 			}
 		}
 		
-		// method to try to get a currently valid ip of the host
 		public String getListeningAddress(){
 			// method one : already set (e.g. using property rsa.ip)
 			if(hostAddress==null){
 				// if not set , try to get it from a (hopefully the preferred) network interface
-				try {
-					Enumeration<NetworkInterface> nets = NetworkInterface.getNetworkInterfaces();
-					for (NetworkInterface netint : Collections.list(nets)){
-						Enumeration<InetAddress> inetAddresses = netint.getInetAddresses();
-						for (InetAddress inetAddress : Collections.list(inetAddresses)) {
-							 if(inetAddress instanceof Inet4Address){
-								 if(hostAddress!=null && (inetAddress.isLoopbackAddress() || inetAddress.isAnyLocalAddress()))
-									 break;  //only set loopbackadres if no other possible
-								 else {	 
-									 hostAddress = inetAddress.getHostAddress();
-						     		 break;
-								 }
-						     }
-						}
-						if(netint.getName().equals(networkInterface) && hostAddress!=null){ // prefer configured networkInterface
-							break;
-						}
-				    }
-				}catch(Exception e){}
+				hostAddress = findHostAddress(networkInterface);
 			}
 
 			// if still not set just get the default one...
@@ -191,6 +189,31 @@ public class TCPChannelFactory implements NetworkChannelFactory{
 			return hostAddress+":"+socket.getLocalPort();
 		}
 	}
+	
+	// method to try to get a currently valid ip of the host
+	static String findHostAddress(String networkInterface){
+		String hostAddress = null;
+		try {
+			Enumeration<NetworkInterface> nets = NetworkInterface.getNetworkInterfaces();
+			for (NetworkInterface netint : Collections.list(nets)){
+				Enumeration<InetAddress> inetAddresses = netint.getInetAddresses();
+				for (InetAddress inetAddress : Collections.list(inetAddresses)) {
+					 if(inetAddress instanceof Inet4Address){
+						 if(hostAddress!=null && (inetAddress.isLoopbackAddress() || inetAddress.isAnyLocalAddress()))
+							 break;  //only set loopbackadres if no other possible
+						 else {	 
+							 hostAddress = inetAddress.getHostAddress();
+				     		 break;
+						 }
+				     }
+				}
+				if(netint.getName().equals(networkInterface) && hostAddress!=null){ // prefer configured networkInterface
+					break;
+				}
+		    }
+		}catch(Exception e){}
+		return hostAddress;
+	}
 
 	@Override
 	public String getAddress() {
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Access to unix domain socket channels, which are only available as of Java 16.
+ * 
+ * All methods are looked up by reflection so the bundle still runs on older VMs,
+ * where {@link #isSupported()} returns false.
+ */
+final class UnixSockets {
+
+	private static final Object UNIX;
+	private static final Method ADDRESS;
+	private static final Method OPEN;
+	private static final Method OPEN_SERVER;
+	
+	static {
+		Object unix = null;
+		Method address = null;
+		Method open = null;
+		Method openServer = null;
+		try {
+			Class<?> family = Class.forName("java.net.ProtocolFamily");
+			for(Object constant : Class.forName("java.net.StandardProtocolFamily").getEnumConstants()){
+				if(constant.toString().equals("UNIX")){
+					unix = constant;
+				}
+			}
+			address = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+			open = SocketChannel.class.getMethod("open", family);
+			openServer = ServerSocketChannel.class.getMethod("open", family);
+		} catch(Exception e){
+			unix = null;
+		}
+		UNIX = unix;
+		ADDRESS = address;
+		OPEN = open;
+		OPEN_SERVER = openServer;
+	}
+	
+	private UnixSockets(){}
+	
+	static boolean isSupported(){
+		return UNIX!=null;
+	}
+	
+	static SocketAddress address(String path) throws IOException {
+		return (SocketAddress) invoke(ADDRESS, null, path);
+	}
+	
+	static SocketChannel open() throws IOException {
+		return (SocketChannel) invoke(OPEN, null, UNIX);
+	}
+	
+	static ServerSocketChannel openServer() throws IOException {
+		return (ServerSocketChannel) invoke(OPEN_SERVER, null, UNIX);
+	}
+	
+	private static Object invoke(Method method, Object target, Object arg) throws IOException {
+		if(!isSupported()){
+			throw new IOException("Unix domain sockets are not supported by this VM");
+		}
+		try {
+			return method.invoke(target, arg);
+		} catch(InvocationTargetException e){
+			if(e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch(IllegalAccessException e){
+			throw new IOException(e);
+		}
+	}
+}
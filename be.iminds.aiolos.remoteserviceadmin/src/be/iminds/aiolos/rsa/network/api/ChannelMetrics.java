@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network.api;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import be.iminds.aiolos.rsa.api.ChannelStatistics;
+import be.iminds.aiolos.rsa.api.LatencyHistogram;
+import be.iminds.aiolos.rsa.util.Histogram;
+
+/**
+ * Counters of a {@link NetworkChannel}, the channel counts what it sends 
+ * and the {@link MessageReceiver} counts what it receives and the replies it waits for.
+ */
+public class ChannelMetrics implements ChannelStatistics {
+
+	private final NetworkChannel channel;
+	
+	private final AtomicLong messagesSent = new AtomicLong();
+	private final AtomicLong messagesReceived = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final AtomicLong encodeNanos = new AtomicLong();
+	private final AtomicLong decodeNanos = new AtomicLong();
+	private final AtomicInteger pendingCalls = new AtomicInteger();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final Histogram roundTripTimes = new Histogram();
+	// whether the channel can count its bytes and time its serialization
+	private volatile boolean bytesCounted = true;
+	private volatile boolean codingTimed = true;
+	
+	public ChannelMetrics(NetworkChannel channel){
+		this.channel = channel;
+	}
+	
+	/**
+	 * A message was sent, bytes is 0 when the size is not known
+	 */
+	public void sent(int bytes, long encodeNanos){
+		messagesSent.incrementAndGet();
+		if(bytes > 0){
+			bytesSent.addAndGet(bytes);
+		}
+		if(encodeNanos > 0){
+			this.encodeNanos.addAndGet(encodeNanos);
+		}
+	}
+	
+	/**
+	 * Bytes written to the stream of a channel that serializes on the stream, 
+	 * these are not counted per message
+	 */
+	public void wrote(int bytes){
+		bytesSent.addAndGet(bytes);
+	}
+	
+	/**
+	 * Bytes read from the stream of a channel that deserializes on the stream
+	 */
+	public void read(int bytes){
+		bytesReceived.addAndGet(bytes);
+	}
+	
+	/**
+	 * The channel does not serialize messages, so it has no bytes to count
+	 */
+	public void bytesNotCounted(){
+		bytesCounted = false;
+	}
+	
+	/**
+	 * The channel serializes messages on its stream, so the serialization cannot be 
+	 * timed apart from waiting on the stream
+	 */
+	public void codingNotTimed(){
+		codingTimed = false;
+	}
+	
+	/**
+	 * A message was received, bytes is 0 when the size is not known
+	 */
+	public void received(int bytes){
+		messagesReceived.incrementAndGet();
+		if(bytes > 0){
+			bytesReceived.addAndGet(bytes);
+		}
+	}
+	
+	public void decoded(long nanos){
+		decodeNanos.addAndGet(nanos);
+	}
+	
+	public void callStarted(){
+		pendingCalls.incrementAndGet();
+	}
+	
+	public void callEnded(){
+		pendingCalls.decrementAndGet();
+	}
+	
+	public void replied(long roundTripNanos){
+		roundTripTimes.record(roundTripNanos);
+	}
+	
+	public void timedOut(){
+		timeouts.incrementAndGet();
+	}
+	
+	@Override
+	public String getRemoteAddress() {
+		return channel.getRemoteAddress();
+	}
+
+	@Override
+	public String getLocalAddress() {
+		return channel.getLocalAddress();
+	}
+
+	@Override
+	public long getMessagesSent() {
+		return messagesSent.get();
+	}
+
+	@Override
+	public long getMessagesReceived() {
+		return messagesReceived.get();
+	}
+
+	@Override
+	public long getBytesSent() {
+		return bytesCounted ? bytesSent.get() : UNAVAILABLE;
+	}
+
+	@Override
+	public long getBytesReceived() {
+		return bytesCounted ? bytesReceived.get() : UNAVAILABLE;
+	}
+
+	@Override
+	public long getEncodeNanos() {
+		return codingTimed ? encodeNanos.get() : UNAVAILABLE;
+	}
+
+	@Override
+	public long getDecodeNanos() {
+		return codingTimed ? decodeNanos.get() : UNAVAILABLE;
+	}
+
+	@Override
+	public int getPendingCalls() {
+		return pendingCalls.get();
+	}
+
+	@Override
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	@Override
+	public LatencyHistogram getRoundTripTimes() {
+		return roundTripTimes.snapshot();
+	}
+}
@@ -30,6 +30,7 @@
  */
 package be.iminds.aiolos.rsa.network.api;
 
+import be.iminds.aiolos.rsa.network.message.MessageFrame;
 import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
 
 /**
@@ -38,4 +39,9 @@ import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
 public interface MessageReceiver {
 
 	public void receivedMessage(ROSGiMessage msg, NetworkChannel channel);
+	
+	/*
+	 * Version 2 channels hand over the received frame, the receiver decodes the message
+	 */
+	public void receivedFrame(MessageFrame frame, NetworkChannel channel);
 }
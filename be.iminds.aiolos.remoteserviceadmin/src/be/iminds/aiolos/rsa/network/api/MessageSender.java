@@ -42,4 +42,10 @@ public interface MessageSender {
 	public void sendMessage(ROSGiMessage msg, NetworkChannel channel) throws ROSGiException;
 	
 	public ROSGiMessage sendAndWaitMessage(ROSGiMessage msg, NetworkChannel channel) throws ROSGiException, InterruptedException;
+	
+	public MessageFuture sendAsyncMessage(ROSGiMessage msg, NetworkChannel channel) throws ROSGiException;
+	
+	public ROSGiMessage sendAndWaitMessage(ROSGiMessage msg, NetworkChannel channel, long timeout) throws ROSGiException, InterruptedException;
+	
+	public MessageFuture sendAsyncMessage(ROSGiMessage msg, NetworkChannel channel, long timeout) throws ROSGiException;
 }
@@ -44,7 +44,24 @@ public interface NetworkChannel {
 	
 	String getLocalAddress();
 	
+	/**
+	 * The protocol version negotiated with the peer, this tells which messages the peer understands
+	 */
+	int getProtocolVersion();
+	
 	void sendMessage(final ROSGiMessage message) throws SerializationException, IOException;
 	
+	/**
+	 * Register classes that are expected in the messages sent over this channel, 
+	 * so they are serialized as a small ID instead of their class name.
+	 * Has no effect when the peer does not support class registration.
+	 */
+	void registerClasses(Class<?>[] classes) throws IOException;
+	
+	/**
+	 * Traffic counters of this channel
+	 */
+	ChannelMetrics getMetrics();
+	
 	void close();
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network.message;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import be.iminds.aiolos.rsa.serialization.api.Deserializer;
+import be.iminds.aiolos.rsa.serialization.api.SerializationException;
+import be.iminds.aiolos.rsa.serialization.api.Serializer;
+
+/**
+ * {@link ROSGiMessage} telling the importers of a service to drop 
+ * the results of its methods they have cached.
+ */
+public final class CacheInvalidateMessage extends ROSGiMessage {
+
+	private String frameworkId;
+	private String serviceId;
+	// no methods means all methods
+	private String[] methods;
+	
+	public CacheInvalidateMessage(String frameworkId, String serviceId, String[] methods){
+		super(CACHE_INVALIDATE);
+		
+		this.frameworkId = frameworkId;
+		this.serviceId = serviceId;
+		this.methods = methods==null ? new String[0] : methods;
+	}
+	
+	/**
+	 * creates a new CacheInvalidateMessage from network packet:
+	 *       0                   1                   2                   3
+	 *       0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |       R-OSGi header (function = CacheInvalidate = 28)         |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |       frameworkId String                                      \
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |       serviceId String                                        \
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |   number of methods           |     Method name Strings       \
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 */
+	CacheInvalidateMessage(final Deserializer input) throws SerializationException, IOException {
+		super(CACHE_INVALIDATE);
+		
+		frameworkId = input.readString();
+		serviceId = input.readString();
+		methods = new String[input.readShort()];
+		for(int i=0;i<methods.length;i++){
+			methods[i] = input.readString();
+		}
+	}
+	
+	@Override
+	protected void writeBody(Serializer output) throws SerializationException, IOException {
+		output.writeString(frameworkId);
+		output.writeString(serviceId);
+		output.writeShort((short) methods.length);
+		for(String method : methods){
+			output.writeString(method);
+		}
+	}
+	
+	public String getFrameworkId(){
+		return frameworkId;
+	}
+	
+	public String getServiceId(){
+		return serviceId;
+	}
+	
+	/**
+	 * the names of the methods, empty for all methods of the service
+	 */
+	public String[] getMethods(){
+		return methods;
+	}
+	
+	public String toString() {
+		final StringBuffer buffer = new StringBuffer();
+		buffer.append("[CACHE_INVALIDATE] - XID: ");
+		buffer.append(xid);
+		buffer.append(", serviceID: ");
+		buffer.append(serviceId);
+		buffer.append(", methods: ");
+		buffer.append(Arrays.asList(methods));
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network.message;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import be.iminds.aiolos.rsa.serialization.api.Deserializer;
+import be.iminds.aiolos.rsa.serialization.api.SerializationException;
+import be.iminds.aiolos.rsa.serialization.api.Serializer;
+
+/**
+ * {@link ROSGiMessage} carrying multiple remote calls (CALL_BATCH) or 
+ * their results (CALL_BATCH_RESULT) in one frame. 
+ * 
+ * Each message in the batch keeps its own XID, the results of a batch 
+ * are only the results of calls that are answered.
+ */
+public final class CallBatchMessage extends ROSGiMessage {
+
+	private List<ROSGiMessage> messages;
+	
+	public CallBatchMessage(short funcID, List<? extends ROSGiMessage> messages){
+		super(funcID);
+		
+		this.messages = new ArrayList<ROSGiMessage>(messages);
+	}
+	
+	/**
+	 * creates a new CallBatchMessage from network packet:
+	 *       0                   1                   2                   3
+	 *       0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |       R-OSGi header (function = CallBatch = 24 or 25)         |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |   number of messages          |   Messages, with their header \
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 */
+	CallBatchMessage(short funcID, Deserializer input) throws SerializationException, IOException {
+		super(funcID);
+		
+		short expected = funcID==CALL_BATCH ? REMOTE_CALL : REMOTE_CALL_RESULT;
+		int count = input.readShort();
+		messages = new ArrayList<ROSGiMessage>(count);
+		for(int i=0;i<count;i++){
+			ROSGiMessage msg = ROSGiMessage.parse(input);
+			if(msg==null){
+				throw new IOException("Unsupported message in batch");
+			}
+			short inner = isRemoteCall(msg.getFuncID()) ? REMOTE_CALL : msg.getFuncID();
+			if(inner!=expected){
+				throw new IOException("Unexpected message "+msg.getFuncID()+" in batch "+funcID);
+			}
+			messages.add(msg);
+		}
+	}
+	
+	@Override
+	protected void writeBody(Serializer output) throws SerializationException, IOException {
+		output.writeShort((short)messages.size());
+		for(ROSGiMessage msg : messages){
+			msg.write(output);
+		}
+	}
+	
+	public List<ROSGiMessage> getMessages(){
+		return messages;
+	}
+	
+	public String toString() {
+		final StringBuffer buffer = new StringBuffer();
+		buffer.append(getFuncID()==CALL_BATCH ? "[CALL_BATCH] - XID: " : "[CALL_BATCH_RESULT] - XID: ");
+		buffer.append(xid);
+		buffer.append(", messages: ");
+		buffer.append(messages);
+		return buffer.toString();
+	}
+}
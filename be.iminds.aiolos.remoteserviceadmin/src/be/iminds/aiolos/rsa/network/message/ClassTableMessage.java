@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network.message;
+
+import java.io.IOException;
+
+import be.iminds.aiolos.rsa.serialization.api.Deserializer;
+import be.iminds.aiolos.rsa.serialization.api.SerializationException;
+import be.iminds.aiolos.rsa.serialization.api.Serializer;
+
+/**
+ * {@link ROSGiMessage} announcing the classes that the sender registers with 
+ * consecutive IDs, the receiver keeps them for the life of the channel.
+ * 
+ * Only exchanged on version 3 channels, it is handled by the channel itself 
+ * and never passed to the receiver.
+ */
+public class ClassTableMessage extends ROSGiMessage {
+
+	private int firstId;
+	private String[] classNames;
+	
+	public ClassTableMessage(int firstId, String[] classNames){
+		super(CLASS_TABLE);
+		
+		this.firstId = firstId;
+		this.classNames = classNames;
+	}
+	
+	/**
+	 * creates a new ClassTableMessage from network packet:
+	 *       0                   1                   2                   3
+	 *       0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |       R-OSGi header (function = ClassTable = 19)              |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |                  ID of the first class                        |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |                  number of classes                            |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |   Class name Strings                                          \
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 */
+	ClassTableMessage(Deserializer input) throws SerializationException, IOException {
+		super(CLASS_TABLE);
+		
+		firstId = input.readInt();
+		int count = input.readInt();
+		if(count < 0){
+			throw new IOException("Invalid number of classes "+count);
+		}
+		classNames = new String[count];
+		for(int i=0;i<count;i++){
+			classNames[i] = input.readString();
+		}
+	}
+	
+	@Override
+	protected void writeBody(Serializer output) throws SerializationException, IOException {
+		output.writeInt(firstId);
+		output.writeInt(classNames.length);
+		for(String className : classNames){
+			output.writeString(className);
+		}
+	}
+	
+	public int getFirstId(){
+		return firstId;
+	}
+	
+	public String[] getClassNames(){
+		return classNames;
+	}
+	
+	public String toString() {
+		final StringBuffer buffer = new StringBuffer();
+		buffer.append("[CLASS TABLE] - XID: ");
+		buffer.append(xid);
+		buffer.append(", first id: ");
+		buffer.append(firstId);
+		buffer.append(", classes: ");
+		buffer.append(classNames.length);
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network.message;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import be.iminds.aiolos.rsa.Config;
+
+/**
+ * Deflate compression of frame bodies, with statistics of all frames (de)compressed.
+ * 
+ * A compressed body starts with the length of the uncompressed body (4 bytes),
+ * followed by the raw deflate data. The fastest compression level is used,
+ * as the goal is to save bandwidth on slow links without adding much latency.
+ */
+public final class Compression {
+
+	private static final int POOL_SIZE = 16;
+	
+	private static final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+	private static final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+	
+	private static final AtomicLong compressed = new AtomicLong();
+	private static final AtomicLong uncompressible = new AtomicLong();
+	private static final AtomicLong bytesIn = new AtomicLong();
+	private static final AtomicLong bytesOut = new AtomicLong();
+	private static final AtomicLong compressNanos = new AtomicLong();
+	private static final AtomicLong decompressed = new AtomicLong();
+	private static final AtomicLong decompressNanos = new AtomicLong();
+	
+	private Compression(){}
+	
+	/**
+	 * Compress the data, returns null when the result is not smaller
+	 */
+	static byte[] deflate(byte[] data){
+		if(data.length <= 4){
+			return null;
+		}
+		long start = System.nanoTime();
+		Deflater deflater = deflaters.poll();
+		if(deflater==null){
+			deflater = new Deflater(Deflater.BEST_SPEED, true);
+		}
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			
+			// no use to continue when the output is not smaller
+			byte[] buffer = new byte[data.length];
+			int length = 4;
+			while(!deflater.finished() && length < buffer.length){
+				length += deflater.deflate(buffer, length, buffer.length - length);
+			}
+			if(!deflater.finished() || length >= data.length){
+				uncompressible.incrementAndGet();
+				return null;
+			}
+			
+			buffer[0] = (byte)(data.length >>> 24);
+			buffer[1] = (byte)(data.length >>> 16);
+			buffer[2] = (byte)(data.length >>> 8);
+			buffer[3] = (byte)data.length;
+			byte[] result = new byte[length];
+			System.arraycopy(buffer, 0, result, 0, length);
+			
+			compressed.incrementAndGet();
+			bytesIn.addAndGet(data.length);
+			bytesOut.addAndGet(length);
+			return result;
+		} finally {
+			deflater.reset();
+			if(deflaters.size() < POOL_SIZE){
+				deflaters.offer(deflater);
+			} else {
+				deflater.end();
+			}
+			compressNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * Decompress data that is compressed by {@link #deflate(byte[])}
+	 */
+	static byte[] inflate(byte[] data) throws IOException {
+		long start = System.nanoTime();
+		if(data.length < 4){
+			throw new IOException("Invalid compressed frame");
+		}
+		int length = ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+		if(length < 0 || length > Config.MAX_FRAME_SIZE){
+			throw new IOException("Invalid uncompressed length "+length);
+		}
+		
+		Inflater inflater = inflaters.poll();
+		if(inflater==null){
+			inflater = new Inflater(true);
+		}
+		try {
+			inflater.setInput(data, 4, data.length - 4);
+			byte[] result = new byte[length];
+			int read = 0;
+			while(read < length){
+				int n = inflater.inflate(result, read, length - read);
+				if(n == 0){
+					// finished or needs more input
+					break;
+				}
+				read += n;
+			}
+			if(read != length){
+				throw new IOException("Compressed frame is truncated");
+			}
+			decompressed.incrementAndGet();
+			return result;
+		} catch(DataFormatException e){
+			throw new IOException("Invalid compressed frame", e);
+		} finally {
+			inflater.reset();
+			if(inflaters.size() < POOL_SIZE){
+				inflaters.offer(inflater);
+			} else {
+				inflater.end();
+			}
+			decompressNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+	
+	/*
+	 * Statistics
+	 */
+	public static long getCompressedFrames(){
+		return compressed.get();
+	}
+	
+	public static long getUncompressibleFrames(){
+		return uncompressible.get();
+	}
+	
+	public static long getUncompressedBytes(){
+		return bytesIn.get();
+	}
+	
+	public static long getCompressedBytes(){
+		return bytesOut.get();
+	}
+	
+	public static long getCompressNanos(){
+		return compressNanos.get();
+	}
+	
+	public static long getDecompressedFrames(){
+		return decompressed.get();
+	}
+	
+	public static long getDecompressNanos(){
+		return decompressNanos.get();
+	}
+}
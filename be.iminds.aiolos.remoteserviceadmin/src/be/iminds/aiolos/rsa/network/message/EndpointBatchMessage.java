@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network.message;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import be.iminds.aiolos.rsa.serialization.api.Deserializer;
+import be.iminds.aiolos.rsa.serialization.api.SerializationException;
+import be.iminds.aiolos.rsa.serialization.api.Serializer;
+
+/**
+ * {@link ROSGiMessage} carrying multiple endpoint requests (ENDPOINT_BATCH_REQUEST) 
+ * or the matching endpoint descriptions (ENDPOINT_BATCH_DESCRIPTION) in one frame. 
+ * 
+ * The descriptions are in the order of the requests, an invalid endpoint 
+ * is answered with an empty description.
+ */
+public final class EndpointBatchMessage extends ROSGiMessage {
+
+	private List<ROSGiMessage> messages;
+	
+	public EndpointBatchMessage(short funcID, List<? extends ROSGiMessage> messages){
+		super(funcID);
+		
+		this.messages = new ArrayList<ROSGiMessage>(messages);
+	}
+	
+	/**
+	 * creates a new EndpointBatchMessage from network packet:
+	 *       0                   1                   2                   3
+	 *       0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |       R-OSGi header (function = EndpointBatch = 29 or 30)     |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |   number of messages          |   Messages, with their header \
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 */
+	EndpointBatchMessage(short funcID, Deserializer input) throws SerializationException, IOException {
+		super(funcID);
+		
+		short expected = funcID==ENDPOINT_BATCH_REQUEST ? ENDPOINT_REQUEST : ENDPOINT_DESCRIPTION;
+		int count = input.readShort() & 0xFFFF;
+		messages = new ArrayList<ROSGiMessage>(count);
+		for(int i=0;i<count;i++){
+			ROSGiMessage msg = ROSGiMessage.parse(input);
+			if(msg==null || msg.getFuncID()!=expected){
+				throw new IOException("Unexpected message in endpoint batch "+funcID);
+			}
+			messages.add(msg);
+		}
+	}
+	
+	@Override
+	protected void writeBody(Serializer output) throws SerializationException, IOException {
+		output.writeShort((short)messages.size());
+		for(ROSGiMessage msg : messages){
+			msg.write(output);
+		}
+	}
+	
+	public List<ROSGiMessage> getMessages(){
+		return messages;
+	}
+	
+	public String toString() {
+		final StringBuffer buffer = new StringBuffer();
+		buffer.append(getFuncID()==ENDPOINT_BATCH_REQUEST ? "[ENDPOINT_BATCH_REQ] - XID: " : "[ENDPOINT_BATCH_DESCR] - XID: ");
+		buffer.append(xid);
+		buffer.append(", messages: ");
+		buffer.append(messages.size());
+		return buffer.toString();
+	}
+}
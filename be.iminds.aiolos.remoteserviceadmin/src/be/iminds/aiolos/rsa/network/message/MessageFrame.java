@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.osgi.service.log.LogService;
+
+import be.iminds.aiolos.rsa.Activator;
+import be.iminds.aiolos.rsa.Config;
+import be.iminds.aiolos.rsa.Config.SerializationStrategy;
+import be.iminds.aiolos.rsa.serialization.api.SerializationException;
+import be.iminds.aiolos.rsa.serialization.java.JavaDeserializer;
+import be.iminds.aiolos.rsa.serialization.java.JavaSerializer;
+import be.iminds.aiolos.rsa.serialization.kryo.KryoClassRegistry;
+import be.iminds.aiolos.rsa.serialization.kryo.KryoDeserializer;
+import be.iminds.aiolos.rsa.serialization.kryo.KryoFactory;
+import be.iminds.aiolos.rsa.serialization.kryo.KryoSerializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * A version 2 R-OSGi message frame. The header is written as raw bytes
+ * and carries the length of the body:
+ *   0                   1                   2                   3
+ *   0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+ *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ *  |  Version = 2  |  Function-ID  |             XID               |
+ *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ *  |          XID cntd.            |           Length              |
+ *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ *  |        Length cntd.           |     Body (Length bytes)       \
+ *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ *  
+ * The body is serialized independently of any other frame, so frames can be
+ * sliced by the transport and decoded in parallel on any thread. On version 3 
+ * channels the body is serialized with the {@link KryoClassRegistry} of the channel,
+ * on version 4 channels large bodies can be compressed, which is flagged by the 
+ * highest bit of the Function-ID.
+ */
+public final class MessageFrame {
+
+	public static final int HEADER_LENGTH = 10;
+	// flag set on the function id of a frame with a compressed body (version 4)
+	private static final int COMPRESSED = 0x80;
+	
+	private final short funcID;
+	private final int xid;
+	private final byte[] body;
+	// classes registered by the sender, null if no classes are registered
+	private final KryoClassRegistry classes;
+	private final boolean compressed;
+	
+	private MessageFrame(short funcID, int xid, byte[] body, KryoClassRegistry classes, boolean compressed){
+		this.funcID = funcID;
+		this.xid = xid;
+		this.body = body;
+		this.classes = classes;
+		this.compressed = compressed;
+	}
+	
+	public short getFuncID(){
+		return funcID;
+	}
+	
+	public int getXID(){
+		return xid;
+	}
+	
+	/**
+	 * Number of bytes of the complete frame, including the header
+	 */
+	public int getLength(){
+		return HEADER_LENGTH + body.length;
+	}
+	
+	/**
+	 * Serialize the message body into a new frame
+	 */
+	public static MessageFrame encode(ROSGiMessage msg) throws SerializationException, IOException {
+		return encode(msg, null);
+	}
+	
+	/**
+	 * Serialize the message body using the classes registered on the channel
+	 */
+	public static MessageFrame encode(ROSGiMessage msg, KryoClassRegistry classes) throws SerializationException, IOException {
+		if(Config.SERIALIZATION==SerializationStrategy.KRYO){
+			try {
+				return encodeKryo(msg, classes);
+			} catch(NoClassDefFoundError e){
+				Activator.logger.log(LogService.LOG_WARNING, "Kryo not available, falling back to Java Serialization", e);
+				// fall back to Java serialization
+				Config.SERIALIZATION = SerializationStrategy.JAVA;
+			}
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+		JavaSerializer output = new JavaSerializer(buffer);
+		msg.writeBody(output);
+		output.flush();
+		return new MessageFrame(msg.getFuncID(), msg.getXID(), buffer.toByteArray(), null, false);
+	}
+	
+	/*
+	 * The body is written to a pooled buffer, only the resulting bytes are copied
+	 */
+	private static MessageFrame encodeKryo(ROSGiMessage msg, KryoClassRegistry classes) throws SerializationException, IOException {
+		Kryo kryo = classes==null ? KryoFactory.acquireKryo() : classes.acquireKryo();
+		Output buffer = KryoFactory.acquireOutput();
+		try {
+			msg.writeBody(new KryoSerializer(kryo, buffer));
+			return new MessageFrame(msg.getFuncID(), msg.getXID(), buffer.toBytes(), null, false);
+		} finally {
+			KryoFactory.releaseOutput(buffer);
+			if(classes==null){
+				KryoFactory.releaseKryo(kryo);
+			} else {
+				classes.releaseKryo(kryo);
+			}
+		}
+	}
+	
+	/**
+	 * Compress the body when it is at least threshold bytes, 
+	 * returns this frame when compression does not make it smaller
+	 */
+	public MessageFrame compress(int threshold){
+		if(compressed || body.length < threshold){
+			return this;
+		}
+		byte[] c = Compression.deflate(body);
+		if(c==null){
+			return this;
+		}
+		return new MessageFrame(funcID, xid, c, classes, true);
+	}
+	
+	public boolean isCompressed(){
+		return compressed;
+	}
+	
+	/**
+	 * Deserialize the message from the frame body
+	 */
+	public ROSGiMessage decode() throws SerializationException, IOException {
+		byte[] body = compressed ? Compression.inflate(this.body) : this.body;
+		if(Config.SERIALIZATION==SerializationStrategy.KRYO){
+			try {
+				Kryo kryo = classes==null ? KryoFactory.acquireKryo() : classes.acquireKryo();
+				try {
+					return ROSGiMessage.parse(funcID, xid, new KryoDeserializer(kryo, new Input(body)));
+				} finally {
+					if(classes==null){
+						KryoFactory.releaseKryo(kryo);
+					} else {
+						classes.releaseKryo(kryo);
+					}
+				}
+			} catch(NoClassDefFoundError e){
+				Activator.logger.log(LogService.LOG_WARNING, "Kryo not available, falling back to Java Serialization", e);
+				// fall back to Java serialization
+				Config.SERIALIZATION = SerializationStrategy.JAVA;
+			}
+		}
+		return ROSGiMessage.parse(funcID, xid, new JavaDeserializer(new ByteArrayInputStream(body)));
+	}
+	
+	/**
+	 * Write the complete frame to the stream, the stream is not flushed
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(header());
+		out.write(body);
+	}
+	
+	/**
+	 * The complete frame as a buffer ready to be written to a channel
+	 */
+	public ByteBuffer toByteBuffer(){
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + body.length);
+		buffer.put(header());
+		buffer.put(body);
+		buffer.flip();
+		return buffer;
+	}
+	
+	private byte[] header(){
+		byte[] header = new byte[HEADER_LENGTH];
+		ByteBuffer.wrap(header)
+			.put(ROSGiMessage.VERSION_2)
+			.put((byte)(compressed ? funcID | COMPRESSED : funcID))
+			.putInt(xid)
+			.putInt(body.length);
+		return header;
+	}
+	
+	/**
+	 * Read a complete frame from a blocking stream
+	 */
+	public static MessageFrame read(DataInputStream in) throws IOException {
+		return read(in, null);
+	}
+	
+	/**
+	 * Read a complete frame from a blocking stream, the body is decoded with the classes registered by the sender
+	 */
+	public static MessageFrame read(DataInputStream in, KryoClassRegistry classes) throws IOException {
+		byte version = in.readByte();
+		if(version!=ROSGiMessage.VERSION_2){
+			throw new IOException("Unsupported protocol version "+version);
+		}
+		byte function = in.readByte();
+		int xid = in.readInt();
+		int length = checkLength(in.readInt());
+		byte[] body = new byte[length];
+		in.readFully(body);
+		return new MessageFrame((short)(function & 0xFF & ~COMPRESSED), xid, body, classes, (function & COMPRESSED)!=0);
+	}
+	
+	/**
+	 * Slice a frame from the buffer, returns null when the frame is not complete yet
+	 */
+	public static MessageFrame read(ByteBuffer buffer) throws IOException {
+		return read(buffer, null);
+	}
+	
+	/**
+	 * Slice a frame from the buffer, the body is decoded with the classes registered by the sender
+	 */
+	public static MessageFrame read(ByteBuffer buffer, KryoClassRegistry classes) throws IOException {
+		int length = bodyLength(buffer);
+		if(length == -1 || buffer.remaining() < HEADER_LENGTH + length){
+			return null;
+		}
+		
+		byte version = buffer.get();
+		if(version!=ROSGiMessage.VERSION_2){
+			throw new IOException("Unsupported protocol version "+version);
+		}
+		byte function = buffer.get();
+		int xid = buffer.getInt();
+		buffer.getInt();
+		byte[] body = new byte[length];
+		buffer.get(body);
+		return new MessageFrame((short)(function & 0xFF & ~COMPRESSED), xid, body, classes, (function & COMPRESSED)!=0);
+	}
+	
+	/**
+	 * The body length of the next frame in the buffer, or -1 if the header is not complete yet
+	 */
+	public static int bodyLength(ByteBuffer buffer) throws IOException {
+		if(buffer.remaining() < HEADER_LENGTH){
+			return -1;
+		}
+		return checkLength(buffer.getInt(buffer.position() + 6));
+	}
+	
+	/*
+	 * Reject a frame before its body is allocated, a corrupt or hostile peer 
+	 * could otherwise make the receiver allocate up to 2GB per frame
+	 */
+	private static int checkLength(int length) throws IOException {
+		if(length < 0){
+			throw new IOException("Invalid frame length "+length);
+		}
+		if(length > Config.MAX_FRAME_SIZE){
+			throw new IOException("Frame length "+length+" exceeds the maximum of "+Config.MAX_FRAME_SIZE+" bytes");
+		}
+		return length;
+	}
+	
+	public String toString() {
+		final StringBuffer buffer = new StringBuffer();
+		buffer.append("[FRAME] - XID: ");
+		buffer.append(xid);
+		buffer.append(", funcID: ");
+		buffer.append(funcID);
+		buffer.append(", length: ");
+		buffer.append(body.length);
+		if(compressed){
+			buffer.append(" (compressed)");
+		}
+		return buffer.toString();
+	}
+}
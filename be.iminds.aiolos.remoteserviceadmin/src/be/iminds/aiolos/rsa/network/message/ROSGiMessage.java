@@ -40,9 +40,33 @@ import be.iminds.aiolos.rsa.serialization.api.Serializer;
  * This class is based on RemoteOSGiMessage from R-OSGi project
  * Only REMOTE_CALL and REMOTE_CALL_RESULT messages are implemented
  * 
+ * COMPACT_REMOTE_CALL is a REMOTE_CALL that identifies the method by 
+ * numeric service and method ids instead of strings
+ * 
  * ENDPOINT_REQUEST and ENDPOINT_DESCRIPTION are added to check
  * whether a valid interface is provided at the import description
  * and to fetch all endpoint properties set at the server side
+ * 
+ * CLASS_TABLE announces the classes that are registered with an ID 
+ * on a version 3 channel
+ * 
+ * STREAM_CHUNK and STREAM_CREDIT transfer stream arguments of a remote call
+ * in chunks, with credit based flow control
+ * 
+ * RESULT_BATCH and RESULT_DEMAND transfer the Iterator, Iterable or Stream
+ * result of a remote call in batches, on version 5 channels
+ * 
+ * CALL_BATCH and CALL_BATCH_RESULT carry multiple remote calls and their 
+ * results in one frame, on version 7 channels
+ * 
+ * TIMED_REMOTE_CALL and TIMED_COMPACT_REMOTE_CALL are remote calls that carry 
+ * the time the caller waits for the result, on version 8 channels
+ * 
+ * CACHE_INVALIDATE tells the importers of a service to drop cached results, 
+ * on version 9 channels
+ * 
+ * ENDPOINT_BATCH_REQUEST and ENDPOINT_BATCH_DESCRIPTION carry multiple endpoint 
+ * requests and their descriptions in one frame, on version 10 channels
  */
 public abstract class ROSGiMessage {
 	
@@ -52,6 +76,38 @@ public abstract class ROSGiMessage {
 	public static final short ENDPOINT_REQUEST = 15;
 	public static final short ENDPOINT_DESCRIPTION = 16;
 	public static final short INTERRUPT = 17;
+	public static final short COMPACT_REMOTE_CALL = 18;
+	public static final short CLASS_TABLE = 19;
+	public static final short STREAM_CHUNK = 20;
+	public static final short STREAM_CREDIT = 21;
+	public static final short RESULT_BATCH = 22;
+	public static final short RESULT_DEMAND = 23;
+	public static final short CALL_BATCH = 24;
+	public static final short CALL_BATCH_RESULT = 25;
+	public static final short TIMED_REMOTE_CALL = 26;
+	public static final short TIMED_COMPACT_REMOTE_CALL = 27;
+	public static final short CACHE_INVALIDATE = 28;
+	public static final short ENDPOINT_BATCH_REQUEST = 29;
+	public static final short ENDPOINT_BATCH_DESCRIPTION = 30;
+	
+	public static final byte VERSION_1 = 1;
+	public static final byte VERSION_2 = 2;
+	// same frames as version 2, adds class tables
+	public static final byte VERSION_3 = 3;
+	// adds compressed frames
+	public static final byte VERSION_4 = 4;
+	// adds streamed results
+	public static final byte VERSION_5 = 5;
+	// adds one-way calls, which are not answered
+	public static final byte VERSION_6 = 6;
+	// adds batched calls
+	public static final byte VERSION_7 = 7;
+	// adds call deadlines
+	public static final byte VERSION_8 = 8;
+	// adds cache invalidation
+	public static final byte VERSION_9 = 9;
+	// adds batched endpoint requests
+	public static final byte VERSION_10 = 10;
 	
 	private short funcID;
 	protected int xid;
@@ -71,6 +127,18 @@ public abstract class ROSGiMessage {
 	public final short getFuncID() {
 		return funcID;
 	}
+	
+	final void setFuncID(final short funcID) {
+		this.funcID = funcID;
+	}
+	
+	/**
+	 * whether the function id is one of the remote call messages
+	 */
+	public static boolean isRemoteCall(final short funcID) {
+		return funcID == REMOTE_CALL || funcID == COMPACT_REMOTE_CALL 
+				|| funcID == TIMED_REMOTE_CALL || funcID == TIMED_COMPACT_REMOTE_CALL;
+	}
 
 	/**
 	 * reads in a network packet and constructs the corresponding subtype of
@@ -87,15 +155,31 @@ public abstract class ROSGiMessage {
 	 */
 	public static ROSGiMessage parse(final Deserializer input)
 			throws SerializationException, IOException {
-		input.readByte(); // version, currently unused
+		input.readByte(); // version, always 1 for this stream format
 		final short funcID = input.readByte();
 		final int xid = input.readInt();
-
+		
+		return parse(funcID, xid, input);
+	}
+	
+	/**
+	 * constructs the R-OSGiMessage subtype from the body, the header 
+	 * is already read from the stream or from a {@link MessageFrame}
+	 */
+	static ROSGiMessage parse(final short funcID, final int xid, final Deserializer input)
+			throws SerializationException, IOException {
 		ROSGiMessage msg = null;
 		switch (funcID) {
 		case REMOTE_CALL:
 			msg = new RemoteCallMessage(input);
 			break;
+		case COMPACT_REMOTE_CALL:
+			msg = new RemoteCallMessage(input, true);
+			break;
+		case TIMED_REMOTE_CALL:
+		case TIMED_COMPACT_REMOTE_CALL:
+			msg = new RemoteCallMessage(funcID, input);
+			break;
 		case REMOTE_CALL_RESULT:
 			msg = new RemoteCallResultMessage(input);
 			break;
@@ -108,6 +192,32 @@ public abstract class ROSGiMessage {
 		case INTERRUPT:
 			msg = new InterruptMessage(input);
 			break;
+		case CLASS_TABLE:
+			msg = new ClassTableMessage(input);
+			break;
+		case STREAM_CHUNK:
+			msg = new StreamChunkMessage(input);
+			break;
+		case STREAM_CREDIT:
+			msg = new StreamCreditMessage(input);
+			break;
+		case RESULT_BATCH:
+			msg = new ResultBatchMessage(input);
+			break;
+		case RESULT_DEMAND:
+			msg = new ResultDemandMessage(input);
+			break;
+		case CACHE_INVALIDATE:
+			msg = new CacheInvalidateMessage(input);
+			break;
+		case CALL_BATCH:
+		case CALL_BATCH_RESULT:
+			msg = new CallBatchMessage(funcID, input);
+			break;
+		case ENDPOINT_BATCH_REQUEST:
+		case ENDPOINT_BATCH_DESCRIPTION:
+			msg = new EndpointBatchMessage(funcID, input);
+			break;
 		default:
 			// unsupported funcID
 			return null;
@@ -119,13 +229,21 @@ public abstract class ROSGiMessage {
 
 	public final void send(final Serializer out) throws SerializationException, IOException {
 		synchronized (out) {
-			out.writeByte((byte)1);
-			out.writeByte((byte)funcID);
-			out.writeInt(xid);
-			writeBody(out);
+			write(out);
 			out.flush();
 		}
 	}
+	
+	/**
+	 * writes the message to the stream without flushing, 
+	 * so multiple messages can be flushed at once
+	 */
+	public final void write(final Serializer out) throws SerializationException, IOException {
+		out.writeByte(VERSION_1);
+		out.writeByte((byte)funcID);
+		out.writeInt(xid);
+		writeBody(out);
+	}
 
 	protected abstract void writeBody(final Serializer output)
 			throws SerializationException, IOException;
@@ -45,6 +45,15 @@ public final class RemoteCallMessage extends ROSGiMessage {
 	private String serviceId;
 	private String methodSignature;
 	private Object[] arguments;
+	
+	// set for a COMPACT_REMOTE_CALL
+	private long numericServiceId = -1;
+	private short methodId = -1;
+	
+	// milliseconds the caller waits for the result, -1 when unknown
+	private int timeout = -1;
+	// set when the call is received, in System.nanoTime()
+	private long deadline;
 
 	public RemoteCallMessage(String serviceId, String methodSignature, Object[] args) {
 		super(REMOTE_CALL);
@@ -54,6 +63,18 @@ public final class RemoteCallMessage extends ROSGiMessage {
 		this.arguments = args;
 	}
 	
+	/**
+	 * creates a COMPACT_REMOTE_CALL, the method id is the index in 
+	 * the method table of the endpoint description
+	 */
+	public RemoteCallMessage(int serviceId, short methodId, Object[] args) {
+		super(COMPACT_REMOTE_CALL);
+		
+		this.numericServiceId = serviceId;
+		this.methodId = methodId;
+		this.arguments = args;
+	}
+	
 	/**
 	 * creates a new InvokeMethodMessage from network packet:
 	 *       0                   1                   2                   3
@@ -74,6 +95,61 @@ public final class RemoteCallMessage extends ROSGiMessage {
 
 		serviceId = input.readString();
 		methodSignature = input.readString();
+		readArguments(input);
+	}
+	
+	/**
+	 * creates a new COMPACT_REMOTE_CALL from network packet:
+	 *       0                   1                   2                   3
+	 *       0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |       R-OSGi header (function = 18)                           |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |       serviceId                                               |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |       methodId                |   number of param blocks      |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |       Param blocks (if any)                                   \
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 * 
+	 */
+	RemoteCallMessage(final Deserializer input, boolean compact) throws SerializationException, IOException {
+		super(COMPACT_REMOTE_CALL);
+		
+		numericServiceId = input.readInt() & 0xFFFFFFFFL;
+		methodId = input.readShort();
+		readArguments(input);
+	}
+	
+	/**
+	 * creates a new TIMED_REMOTE_CALL or TIMED_COMPACT_REMOTE_CALL from network packet:
+	 *       0                   1                   2                   3
+	 *       0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |       R-OSGi header (function = 26 or 27)                     |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |       timeout in milliseconds                                 |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |       body of a REMOTE_CALL or COMPACT_REMOTE_CALL            \
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 * 
+	 */
+	RemoteCallMessage(final short funcID, final Deserializer input) throws SerializationException, IOException {
+		super(funcID);
+		
+		timeout = input.readInt();
+		if(funcID == TIMED_COMPACT_REMOTE_CALL){
+			numericServiceId = input.readInt() & 0xFFFFFFFFL;
+			methodId = input.readShort();
+		} else {
+			serviceId = input.readString();
+			methodSignature = input.readString();
+		}
+		readArguments(input);
+		received(System.nanoTime());
+	}
+	
+	private void readArguments(final Deserializer input) throws SerializationException, IOException {
 		final short argLength = input.readShort();
 		arguments = new Object[argLength];
 		for (short i = 0; i < argLength; i++) {
@@ -82,8 +158,16 @@ public final class RemoteCallMessage extends ROSGiMessage {
 	}
 
 	public void writeBody(final Serializer out) throws SerializationException, IOException {
-		out.writeString(serviceId);
-		out.writeString(methodSignature);
+		if(timeout >= 0){
+			out.writeInt(timeout);
+		}
+		if(methodId >= 0){
+			out.writeInt((int)numericServiceId);
+			out.writeShort(methodId);
+		} else {
+			out.writeString(serviceId);
+			out.writeString(methodSignature);
+		}
 		if(arguments!=null){
 			out.writeShort((short) arguments.length);
 			for (short i = 0; i < arguments.length; i++) {
@@ -95,8 +179,18 @@ public final class RemoteCallMessage extends ROSGiMessage {
 	}
 
 	public String getServiceId() {
+		if(serviceId==null){
+			serviceId = String.valueOf(numericServiceId);
+		}
 		return serviceId;
 	}
+	
+	/**
+	 * the method id of a COMPACT_REMOTE_CALL, -1 when the method is identified by its signature
+	 */
+	public short getMethodId() {
+		return methodId;
+	}
 
 	public Object[] getArgs() {
 		return arguments;
@@ -105,15 +199,63 @@ public final class RemoteCallMessage extends ROSGiMessage {
 	public String getMethodSignature() {
 		return methodSignature;
 	}
+	
+	/**
+	 * send the time the caller waits for the result along, 
+	 * only supported by version 8 channels
+	 */
+	public void setTimeout(final int timeout) {
+		this.timeout = Math.max(timeout, 0);
+		setFuncID(methodId >= 0 ? TIMED_COMPACT_REMOTE_CALL : TIMED_REMOTE_CALL);
+		// for channels that pass the message itself
+		received(System.nanoTime());
+	}
+	
+	/**
+	 * the milliseconds the caller waits for the result, -1 when unknown
+	 */
+	public int getTimeout() {
+		return timeout;
+	}
+	
+	/**
+	 * set the deadline relative to the time the call is received, 
+	 * this is earlier than when it is decoded in case it waited in a queue
+	 */
+	public void received(final long nanos) {
+		if(timeout >= 0){
+			deadline = nanos + timeout*1000000L;
+		}
+	}
+	
+	/**
+	 * the deadline in {@link System#nanoTime()}, null when the caller did not send a timeout
+	 */
+	public Long getDeadline() {
+		return timeout >= 0 ? Long.valueOf(deadline) : null;
+	}
+	
+	public boolean isExpired() {
+		return timeout >= 0 && deadline - System.nanoTime() <= 0;
+	}
 
 	public String toString() {
 		final StringBuffer buffer = new StringBuffer();
 		buffer.append("[REMOTE_CALL] - XID: ");
 		buffer.append(xid);
 		buffer.append(", serviceID: ");
-		buffer.append(serviceId);
-		buffer.append(", methodName: ");
-		buffer.append(methodSignature);
+		buffer.append(getServiceId());
+		if(methodId >= 0){
+			buffer.append(", methodId: ");
+			buffer.append(methodId);
+		} else {
+			buffer.append(", methodName: ");
+			buffer.append(methodSignature);
+		}
+		if(timeout >= 0){
+			buffer.append(", timeout: ");
+			buffer.append(timeout);
+		}
 		buffer.append(", params: ");
 		buffer.append(arguments == null ? "" : Arrays.asList(arguments)
 				.toString());
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network.message;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import be.iminds.aiolos.rsa.serialization.api.Deserializer;
+import be.iminds.aiolos.rsa.serialization.api.SerializationException;
+import be.iminds.aiolos.rsa.serialization.api.Serializer;
+
+/**
+ * {@link ROSGiMessage} carrying the next batch of a streamed result, the XID is
+ * the XID of the remote call that returned the result.
+ * 
+ * Batches are numbered since they can be handled out of order by the receiver, the 
+ * first batch (number 0) is sent in the {@link StreamedResult} of the call itself.
+ * The last batch is flagged, a failed batch carries the exception thrown while iterating.
+ */
+public class ResultBatchMessage extends ROSGiMessage {
+
+	public static final byte LAST = 0x01;
+	public static final byte FAILED = 0x02;
+	
+	private int sequence;
+	private byte flags;
+	private Object[] items;
+	private Throwable exception;
+	
+	public ResultBatchMessage(int xid, int sequence, Object[] items, boolean last){
+		super(RESULT_BATCH);
+		
+		this.xid = xid;
+		this.sequence = sequence;
+		this.flags = last ? LAST : 0;
+		this.items = items;
+	}
+	
+	public ResultBatchMessage(int xid, int sequence, Throwable exception){
+		super(RESULT_BATCH);
+		
+		this.xid = xid;
+		this.sequence = sequence;
+		this.flags = FAILED;
+		this.exception = exception;
+	}
+	
+	/**
+	 * creates a new ResultBatchMessage from network packet:
+	 *       0                   1                   2                   3
+	 *       0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |       R-OSGi header (function = ResultBatch = 22)             |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |                  sequence number                              |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |    flags      |   Exception (failed) or number of items       |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |       number cntd.            |     Items                     \
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 */
+	ResultBatchMessage(Deserializer input) throws SerializationException, IOException {
+		super(RESULT_BATCH);
+		
+		sequence = input.readInt();
+		flags = input.readByte();
+		if(isFailed()){
+			exception = (Throwable) input.readObject();
+		} else {
+			int count = input.readInt();
+			if(count < 0){
+				throw new IOException("Invalid number of items "+count);
+			}
+			items = new Object[count];
+			for(int i=0;i<count;i++){
+				items[i] = input.readObject();
+			}
+		}
+	}
+	
+	@Override
+	protected void writeBody(Serializer output) throws SerializationException, IOException {
+		output.writeInt(sequence);
+		output.writeByte(flags);
+		if(isFailed()){
+			output.writeObject(exception);
+		} else {
+			output.writeInt(items.length);
+			for(Object item : items){
+				output.writeObject(item);
+			}
+		}
+	}
+	
+	public int getSequence(){
+		return sequence;
+	}
+	
+	public boolean isLast(){
+		return (flags & (LAST | FAILED)) != 0;
+	}
+	
+	public boolean isFailed(){
+		return (flags & FAILED) != 0;
+	}
+	
+	public Object[] getItems(){
+		return items;
+	}
+	
+	public Throwable getException(){
+		return exception;
+	}
+	
+	public String toString() {
+		final StringBuffer buffer = new StringBuffer();
+		buffer.append("[RESULT BATCH] - XID: ");
+		buffer.append(xid);
+		buffer.append(", sequence: ");
+		buffer.append(sequence);
+		if(isFailed()){
+			buffer.append(", exception: ");
+			buffer.append(exception);
+		} else {
+			buffer.append(", items: ");
+			buffer.append(Arrays.asList(items).toString());
+		}
+		return buffer.toString();
+	}
+}
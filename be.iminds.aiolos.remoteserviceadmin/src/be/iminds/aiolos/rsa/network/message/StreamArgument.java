@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network.message;
+
+import java.io.Serializable;
+
+/**
+ * Placeholder for a stream argument in a {@link RemoteCallMessage}, the content 
+ * of the stream is sent separately in {@link StreamChunkMessage}s
+ */
+public final class StreamArgument implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final byte INPUT_STREAM = 0;
+	public static final byte CHANNEL = 1;
+	public static final byte BYTE_BUFFER = 2;
+	public static final byte FILE = 3;
+	
+	// identifies the framework that sends the stream, stream ids are only unique per sender
+	private long senderId;
+	private int streamId;
+	private byte type;
+	// number of bytes in the stream, -1 when unknown
+	private long length;
+	
+	public StreamArgument(long senderId, int streamId, byte type, long length){
+		this.senderId = senderId;
+		this.streamId = streamId;
+		this.type = type;
+		this.length = length;
+	}
+	
+	public long getSenderId(){
+		return senderId;
+	}
+	
+	public int getStreamId(){
+		return streamId;
+	}
+	
+	public byte getType(){
+		return type;
+	}
+	
+	public long getLength(){
+		return length;
+	}
+	
+	public String toString(){
+		return "stream "+streamId;
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network.message;
+
+import java.io.IOException;
+
+import be.iminds.aiolos.rsa.serialization.api.Deserializer;
+import be.iminds.aiolos.rsa.serialization.api.SerializationException;
+import be.iminds.aiolos.rsa.serialization.api.Serializer;
+
+/**
+ * {@link ROSGiMessage} carrying a chunk of a streamed argument.
+ * 
+ * Chunks are numbered since they can be handled out of order by the receiver, 
+ * the last chunk of a stream is flagged.
+ */
+public class StreamChunkMessage extends ROSGiMessage {
+
+	public static final byte LAST = 0x01;
+	// the sender failed to read the stream, no more chunks will follow
+	public static final byte FAILED = 0x02;
+	
+	private long senderId;
+	private int streamId;
+	private int sequence;
+	private byte flags;
+	private byte[] data;
+	private int length;
+	
+	public StreamChunkMessage(long senderId, int streamId, int sequence, byte flags, byte[] data, int length){
+		super(STREAM_CHUNK);
+		
+		this.senderId = senderId;
+		this.streamId = streamId;
+		this.sequence = sequence;
+		this.flags = flags;
+		this.data = data;
+		this.length = length;
+	}
+	
+	/**
+	 * creates a new StreamChunkMessage from network packet:
+	 *       0                   1                   2                   3
+	 *       0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |       R-OSGi header (function = StreamChunk = 20)             |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |                  sender ID                                    |
+	 *      +                                                               +
+	 *      |                                                               |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |                  stream ID                                    |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |                  sequence number                              |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |    flags      |                  length                       |
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 *      |  length cntd. |           data                                \
+	 *      +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+	 */
+	StreamChunkMessage(Deserializer input) throws SerializationException, IOException {
+		super(STREAM_CHUNK);
+		
+		senderId = input.readLong();
+		streamId = input.readInt();
+		sequence = input.readInt();
+		flags = input.readByte();
+		length = input.readInt();
+		if(length < 0){
+			throw new IOException("Invalid chunk length "+length);
+		}
+		data = new byte[length];
+		input.readBytes(data, 0, length);
+	}
+	
+	@Override
+	protected void writeBody(Serializer output) throws SerializationException, IOException {
+		output.writeLong(senderId);
+		output.writeInt(streamId);
+		output.writeInt(sequence);
+		output.writeByte(flags);
+		output.writeInt(length);
+		output.writeBytes(data, 0, length);
+	}
+	
+	public long getSenderId(){
+		return senderId;
+	}
+	
+	public int getStreamId(){
+		return streamId;
+	}
+	
+	public int getSequence(){
+		return sequence;
+	}
+	
+	public boolean isLast(){
+		return (flags & LAST) != 0;
+	}
+	
+	public boolean isFailed(){
+		return (flags & FAILED) != 0;
+	}
+	
+	public byte[] getData(){
+		return data;
+	}
+	
+	public int getLength(){
+		return length;
+	}
+	
+	public String toString() {
+		final StringBuffer buffer = new StringBuffer();
+		buffer.append("[STREAM CHUNK] - XID: ");
+		buffer.append(xid);
+		buffer.append(", sender: ");
+		buffer.append(senderId);
+		buffer.append(", stream: ");
+		buffer.append(streamId);
+		buffer.append(", sequence: ");
+		buffer.append(sequence);
+		buffer.append(", length: ");
+		buffer.append(length);
+		return buffer.toString();
+	}
+}
@@ -54,4 +54,6 @@ public interface Deserializer {
 	public byte readByte() throws IOException, SerializationException;
 	
 	public boolean readBoolean() throws IOException, SerializationException;
+	
+	public void readBytes(byte[] b, int off, int len) throws IOException, SerializationException;
 }
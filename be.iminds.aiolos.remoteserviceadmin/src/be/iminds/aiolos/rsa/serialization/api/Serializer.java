@@ -54,6 +54,8 @@ public interface Serializer {
 	public void writeByte(byte b) throws IOException;
 	
 	public void writeBoolean(boolean b) throws IOException;
+	
+	public void writeBytes(byte[] b, int off, int len) throws IOException;
 
 	public void flush() throws IOException;
 }
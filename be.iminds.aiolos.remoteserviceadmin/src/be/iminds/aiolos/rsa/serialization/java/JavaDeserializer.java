@@ -99,4 +99,8 @@ public class JavaDeserializer implements Deserializer{
 	public boolean readBoolean() throws IOException{
 		return input.readBoolean();
 	}
+	
+	public void readBytes(byte[] b, int off, int len) throws IOException{
+		input.readFully(b, off, len);
+	}
 }
@@ -92,6 +92,10 @@ public class JavaSerializer implements Serializer {
 		output.writeBoolean(b);
 	}
 	
+	public void writeBytes(byte[] b, int off, int len) throws IOException{
+		output.write(b, off, len);
+	}
+	
 	public void flush() throws IOException{
 		output.flush();
 		output.reset();
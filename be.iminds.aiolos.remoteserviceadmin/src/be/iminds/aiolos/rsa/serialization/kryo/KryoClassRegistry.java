@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.serialization.kryo;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Registration;
+
+/**
+ * Table of classes that are registered with Kryo for one direction of a network channel, 
+ * so they are written as a small integer ID instead of their fully qualified name.
+ * 
+ * The sending side decides which classes are registered and announces them to the receiving side
+ * before using the IDs. The table only grows, an ID keeps referring to the same class for the life 
+ * of the channel, so frames can still be decoded in any order once the announcement is received.
+ */
+public class KryoClassRegistry {
+
+	// lower IDs are used by the default registrations of Kryo and the KryoFactory
+	public static final int FIRST_ID = 64;
+	private static final int MAX_CLASSES = 4096;
+	private static final int POOL_SIZE = 16;
+	
+	// registered on each channel, before the classes of the first interface
+	private static final Class<?>[] COMMON_CLASSES = new Class<?>[]{
+		ArrayList.class, LinkedList.class, HashMap.class, LinkedHashMap.class, TreeMap.class,
+		HashSet.class, LinkedHashSet.class, TreeSet.class, Date.class, UUID.class, 
+		BigInteger.class, BigDecimal.class, Object[].class, String[].class, byte[].class, 
+		int[].class, long[].class, float[].class, double[].class, short[].class, char[].class, boolean[].class
+	};
+	
+	// registered classes indexed by ID - FIRST_ID, null if the class could not be loaded
+	private volatile Class<?>[] classes = new Class<?>[0];
+	// classes that are registered or can not be registered, only used by the sending side
+	private final Set<Class<?>> known = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+	
+	private final Queue<RegistryKryo> pool = new ConcurrentLinkedQueue<RegistryKryo>();
+	
+	/**
+	 * The ID that will be assigned to the next registered class
+	 */
+	public int nextId(){
+		return FIRST_ID + classes.length;
+	}
+	
+	/**
+	 * Check whether all classes are registered already (or can not be registered),
+	 * does not block so it can be called for every message
+	 */
+	public boolean isKnown(Class<?>[] candidates){
+		for(Class<?> c : candidates){
+			if(!known.contains(c)){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Select the classes that are worth registering and are not registered yet,
+	 * the common classes are selected the first time
+	 */
+	public synchronized Class<?>[] select(Class<?>[] candidates){
+		List<Class<?>> selected = new ArrayList<Class<?>>();
+		Kryo kryo = KryoFactory.acquireKryo();
+		try {
+			if(classes.length == 0){
+				select(COMMON_CLASSES, selected, kryo);
+			}
+			select(candidates, selected, kryo);
+		} finally {
+			KryoFactory.releaseKryo(kryo);
+		}
+		return selected.toArray(new Class<?>[selected.size()]);
+	}
+	
+	private void select(Class<?>[] candidates, List<Class<?>> selected, Kryo kryo){
+		for(Class<?> c : candidates){
+			if(known.contains(c) || selected.contains(c)){
+				continue;
+			}
+			if(!isRegistrable(c, kryo) || classes.length + selected.size() >= MAX_CLASSES){
+				known.add(c);
+				continue;
+			}
+			selected.add(c);
+		}
+	}
+	
+	/*
+	 * Interfaces and abstract classes never are the runtime class of an object,
+	 * classes that are already registered by the KryoFactory have a small ID anyway.
+	 * Classes without a usable serializer (e.g. stream arguments like File) are skipped.
+	 */
+	private static boolean isRegistrable(Class<?> c, Kryo kryo){
+		if(c.isPrimitive() || Proxy.isProxyClass(c)){
+			return false;
+		}
+		if(!c.isArray() && (c.isInterface() || Modifier.isAbstract(c.getModifiers()))){
+			return false;
+		}
+		Registration registration = kryo.getClassResolver().getRegistration(c);
+		if(registration != null && registration.getId() >= 0){
+			return false;
+		}
+		try {
+			kryo.getDefaultSerializer(c);
+		} catch(RuntimeException e){
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Sending side: register classes after they are announced to the receiving side
+	 */
+	public synchronized void register(int firstId, Class<?>[] added) throws IOException {
+		checkId(firstId);
+		Class<?>[] c = new Class<?>[classes.length + added.length];
+		System.arraycopy(classes, 0, c, 0, classes.length);
+		System.arraycopy(added, 0, c, classes.length, added.length);
+		classes = c;
+		known.addAll(Arrays.asList(added));
+	}
+	
+	/**
+	 * Receiving side: register the classes announced by the sending side, 
+	 * classes that can not be loaded keep their ID but can not be decoded
+	 */
+	public synchronized void register(int firstId, String[] names) throws IOException {
+		checkId(firstId);
+		Class<?>[] added = new Class<?>[names.length];
+		for(int i=0;i<names.length;i++){
+			added[i] = loadClass(names[i]);
+		}
+		Class<?>[] c = new Class<?>[classes.length + added.length];
+		System.arraycopy(classes, 0, c, 0, classes.length);
+		System.arraycopy(added, 0, c, classes.length, added.length);
+		classes = c;
+	}
+	
+	private void checkId(int firstId) throws IOException {
+		if(firstId != nextId()){
+			throw new IOException("Invalid class registration, expected id "+nextId()+" but got "+firstId);
+		}
+	}
+	
+	private Class<?> loadClass(String name){
+		ClassLoader loader = KryoFactory.class.getClassLoader();
+		try {
+			return Class.forName(name, false, loader);
+		} catch(ClassNotFoundException e){
+			// same conversion as used for class names by the KryoDeserializer
+			String converted = KryoDeserializer.conversion.get(name);
+			if(converted!=null){
+				try {
+					return Class.forName(converted, false, loader);
+				} catch(ClassNotFoundException e2){}
+			}
+			return null;
+		}
+	}
+	
+	public int size(){
+		return classes.length;
+	}
+	
+	public Class<?> getClass(int id){
+		Class<?>[] c = classes;
+		int i = id - FIRST_ID;
+		return i >= 0 && i < c.length ? c[i] : null;
+	}
+	
+	/**
+	 * Get a Kryo instance with all classes registered, should be released after use
+	 */
+	public Kryo acquireKryo(){
+		int generation = KryoFactory.getGeneration();
+		Class<?>[] c = classes;
+		// an instance that wrote a class by name keeps doing so after the class is registered,
+		// so pooled instances are dropped once the table has grown
+		RegistryKryo kryo;
+		do {
+			kryo = pool.poll();
+		} while(kryo!=null && (kryo.generation!=generation || kryo.registered!=c.length));
+		if(kryo==null){
+			kryo = KryoFactory.configure(new RegistryKryo(generation, c.length));
+			for(int i=0;i<c.length;i++){
+				if(c[i]!=null){
+					kryo.register(c[i], FIRST_ID + i);
+				}
+			}
+		}
+		return kryo;
+	}
+	
+	public void releaseKryo(Kryo kryo){
+		kryo.reset();
+		if(kryo instanceof RegistryKryo && pool.size() < POOL_SIZE){
+			pool.offer((RegistryKryo)kryo);
+		}
+	}
+	
+	/*
+	 * Kryo instance that keeps track of the classes of this table it has registered
+	 */
+	private static final class RegistryKryo extends Kryo {
+		
+		// generation of the serializers of the KryoFactory
+		final int generation;
+		// number of classes of the table that are registered
+		final int registered;
+		
+		RegistryKryo(int generation, int registered){
+			this.generation = generation;
+			this.registered = registered;
+		}
+	}
+}
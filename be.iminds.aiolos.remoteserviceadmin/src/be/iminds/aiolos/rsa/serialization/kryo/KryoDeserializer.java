@@ -56,9 +56,20 @@ public class KryoDeserializer implements Deserializer {
 	
 	public KryoDeserializer(InputStream in){
 		//com.esotericsoftware.minlog.Log.set(Log.LEVEL_TRACE);
-		this.kryo = KryoFactory.createKryo();
+		this(KryoFactory.createKryo(), in);
+	}
+	
+	public KryoDeserializer(Kryo kryo, InputStream in){
+		this(kryo, new Input(in));
+	}
+	
+	/*
+	 * Read from an Input that already holds the bytes, e.g. the body of a frame
+	 */
+	public KryoDeserializer(Kryo kryo, Input input){
+		this.kryo = kryo;
 		
-		this.input = new Input(in);
+		this.input = input;
 	}
 	
 	@Override
@@ -95,105 +106,94 @@ public class KryoDeserializer implements Deserializer {
 	@Override
 	public String readString() throws IOException, SerializationException {
 		try {
+			// strings can be written as a reference, so these still go through Kryo
 			return kryo.readObject(input, String.class);
-		} catch(Throwable e) {
-			if(e.getCause()!=null && e.getCause() instanceof IOException){
-				throw (IOException)e.getCause();
-			} else {
-				throw new SerializationException("Error serializing string", e);
-			}
+		} catch(KryoException e) {
+			throw exception(e);
 		}
 	}
 
+	/*
+	 * Primitives are read directly from the input, in the same format 
+	 * as the default Kryo serializers of their wrapper types
+	 */
 	@Override
 	public int readInt() throws IOException, SerializationException{
 		try {
-			return kryo.readObject(input, Integer.class);
-		} catch(Throwable e ){
-			if(e.getCause()!=null && e.getCause() instanceof IOException){
-				throw (IOException)e.getCause();
-			} else {
-				throw new SerializationException("Error serializing object", e);
-			}
+			return input.readInt(false);
+		} catch(KryoException e){
+			throw exception(e);
 		}
 	}
 
 	@Override
 	public short readShort() throws IOException , SerializationException {
 		try {
-			return kryo.readObject(input, Short.class);
-		} catch(Throwable e ){
-			if(e.getCause()!=null && e.getCause() instanceof IOException){
-				throw (IOException)e.getCause();
-			} else {
-				throw new SerializationException("Error serializing object", e);
-			}
+			return input.readShort();
+		} catch(KryoException e){
+			throw exception(e);
 		}
 	}
 
 	@Override
 	public long readLong() throws IOException , SerializationException{
 		try {
-			return kryo.readObject(input, Long.class);
-		} catch(Throwable e ){
-			if(e.getCause()!=null && e.getCause() instanceof IOException){
-				throw (IOException)e.getCause();
-			} else {
-				throw new SerializationException("Error serializing object", e);
-			}
+			return input.readLong(false);
+		} catch(KryoException e){
+			throw exception(e);
 		}
 	}
 
 	@Override
 	public double readDouble() throws IOException, SerializationException {
 		try {
-			return kryo.readObject(input, Double.class);
-		} catch(Throwable e ){
-			if(e.getCause()!=null && e.getCause() instanceof IOException){
-				throw (IOException)e.getCause();
-			} else {
-				throw new SerializationException("Error serializing object", e);
-			}
+			return input.readDouble();
+		} catch(KryoException e){
+			throw exception(e);
 		}
 	}
 
 	@Override
 	public float readFloat() throws IOException , SerializationException {
 		try {
-			return kryo.readObject(input, Float.class);
-		} catch(Throwable e ){
-			if(e.getCause()!=null && e.getCause() instanceof IOException){
-				throw (IOException)e.getCause();
-			} else {
-				throw new SerializationException("Error serializing object", e);
-			}
+			return input.readFloat();
+		} catch(KryoException e){
+			throw exception(e);
 		}
 	}
 
 	@Override
 	public byte readByte() throws IOException, SerializationException {
 		try {
-			return kryo.readObject(input, Byte.class);
-		} catch(Throwable e ){
-			if(e.getCause()!=null && e.getCause() instanceof IOException){
-				throw (IOException)e.getCause();
-			} else {
-				throw new SerializationException("Error serializing object", e);
-			}
+			return input.readByte();
+		} catch(KryoException e){
+			throw exception(e);
 		}
 	}
 
 	@Override
 	public boolean readBoolean() throws IOException, SerializationException {
 		try {
-			return kryo.readObject(input, Boolean.class);
-		} catch(Throwable e ){
-			if(e.getCause()!=null && e.getCause() instanceof IOException){
-				throw (IOException)e.getCause();
-			} else {
-				throw new SerializationException("Error serializing object", e);
-			}
+			return input.readBoolean();
+		} catch(KryoException e){
+			throw exception(e);
+		}
+	}
+	
+	@Override
+	public void readBytes(byte[] b, int off, int len) throws IOException, SerializationException {
+		try {
+			input.readBytes(b, off, len);
+		} catch(KryoException e){
+			throw exception(e);
+		}
+	}
+	
+	private static IOException exception(KryoException e) throws SerializationException {
+		if(e.getCause()!=null && e.getCause() instanceof IOException){
+			return (IOException)e.getCause();
+		} else {
+			throw new SerializationException("Error deserializing", e);
 		}
 	}
-
 }
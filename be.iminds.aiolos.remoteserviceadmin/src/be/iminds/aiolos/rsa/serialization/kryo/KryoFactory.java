@@ -5,11 +5,14 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.objenesis.strategy.StdInstantiatorStrategy;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.serializers.JavaSerializer;
 
 import de.javakaffee.kryoserializers.ArraysAsListSerializer;
@@ -25,9 +28,24 @@ public class KryoFactory {
 
 	private static Map<Class, Serializer> serializers = new HashMap<Class, Serializer>(); 
 	
+	// pool of Kryo instances to (de)serialize independent message frames
+	private static final int POOL_SIZE = 16;
+	private static final Queue<Kryo> pool = new ConcurrentLinkedQueue<Kryo>();
+	// pool of buffers to encode message frames, large buffers are not kept
+	private static final int OUTPUT_SIZE = 1024;
+	private static final int MAX_POOLED_OUTPUT_SIZE = 64*1024;
+	private static final Queue<Output> outputs = new ConcurrentLinkedQueue<Output>();
+	// incremented when the serializers change, Kryo instances of an older generation are discarded
+	private static volatile int generation = 0;
+	
 	public static Kryo createKryo(){
-		Kryo kryo = new Kryo();
-		
+		return configure(new Kryo());
+	}
+	
+	/*
+	 * Apply the default configuration and serializers to a new Kryo instance
+	 */
+	static <T extends Kryo> T configure(T kryo){
 		// we call reset ourselves after each readObject
 		kryo.setAutoReset(false);
 		// redirect to RSA bundle classloader
@@ -50,10 +68,52 @@ public class KryoFactory {
 		return kryo;
 	}
 	
+	/*
+	 * Get a Kryo instance from the pool, should be released after use
+	 */
+	public static Kryo acquireKryo(){
+		Kryo kryo = pool.poll();
+		if(kryo==null){
+			kryo = createKryo();
+		}
+		return kryo;
+	}
+	
+	public static void releaseKryo(Kryo kryo){
+		kryo.reset();
+		if(pool.size() < POOL_SIZE){
+			pool.offer(kryo);
+		}
+	}
+	
+	/*
+	 * Get an empty growing buffer from the pool, should be released after use
+	 */
+	public static Output acquireOutput(){
+		Output output = outputs.poll();
+		if(output==null){
+			output = new Output(OUTPUT_SIZE, -1);
+		}
+		return output;
+	}
+	
+	public static void releaseOutput(Output output){
+		output.clear();
+		if(output.getBuffer().length <= MAX_POOLED_OUTPUT_SIZE && outputs.size() < POOL_SIZE){
+			outputs.offer(output);
+		}
+	}
+	
+	static int getGeneration(){
+		return generation;
+	}
+	
 	public static void addSerializer(String clazz, Object serializer){
 		try {
 			// This is fucked up dirty... but was quickest way to get stuff working...
 			serializers.put(KryoFactory.class.getClassLoader().loadClass(clazz), (Serializer)serializer);
+			generation++;
+			pool.clear();
 		} catch (ClassNotFoundException e) {
 			e.printStackTrace();
 		}
@@ -63,6 +123,8 @@ public class KryoFactory {
 		try {
 			// This is fucked up dirty... but was quickest way to get stuff working...
 			serializers.remove(KryoFactory.class.getClassLoader().loadClass(clazz));
+			generation++;
+			pool.clear();
 		} catch (ClassNotFoundException e) {
 			e.printStackTrace();
 		}
@@ -51,12 +51,25 @@ public class KryoSerializer implements Serializer {
 	
 	public KryoSerializer(OutputStream out){
 		//com.esotericsoftware.minlog.Log.set(Log.LEVEL_TRACE);
-		this.kryo = KryoFactory.createKryo();
+		this(KryoFactory.createKryo(), out);
+	}
+	
+	public KryoSerializer(Kryo kryo, OutputStream out){
+		this.kryo = kryo;
 
 		this.out = out;
 		this.output = new Output(out);
 	}
 	
+	/*
+	 * Write to an Output without stream, e.g. to encode the body of a frame
+	 */
+	public KryoSerializer(Kryo kryo, Output output){
+		this.kryo = kryo;
+		
+		this.output = output;
+	}
+	
 	@Override
 	public void writeObject(Object o) throws SerializationException, IOException {
 		try {
@@ -75,48 +88,60 @@ public class KryoSerializer implements Serializer {
 
 	@Override
 	public void writeString(String s) throws IOException {
+		// strings can be written as a reference, so these still go through Kryo
 		kryo.writeObject(output, s);
 	}
 
+	/*
+	 * Primitives are written directly to the output without boxing, 
+	 * in the same format as the default Kryo serializers of their wrapper types
+	 */
 	@Override
 	public void writeInt(int i) throws IOException {
-		kryo.writeObject(output, i);
+		output.writeInt(i, false);
 	}
 
 	@Override
 	public void writeShort(short s) throws IOException {
-		kryo.writeObject(output, s);
+		output.writeShort(s);
 	}
 
 	@Override
 	public void writeLong(long l) throws IOException {
-		kryo.writeObject(output, l);
+		output.writeLong(l, false);
 	}
 
 	@Override
 	public void writeDouble(double d) throws IOException {
-		kryo.writeObject(output, d);
+		output.writeDouble(d);
 	}
 
 	@Override
 	public void writeFloat(float f) throws IOException {
-		kryo.writeObject(output, f);
+		output.writeFloat(f);
 	}
 
 	@Override
 	public void writeByte(byte b) throws IOException {
-		kryo.writeObject(output, b);
+		output.writeByte(b);
 	}
 
 	@Override
 	public void writeBoolean(boolean b) throws IOException {
-		kryo.writeObject(output, b);
+		output.writeBoolean(b);
+	}
+	
+	@Override
+	public void writeBytes(byte[] b, int off, int len) throws IOException {
+		output.writeBytes(b, off, len);
 	}
 
 	@Override
 	public void flush() throws IOException {
 		output.flush();
-		out.flush();
+		if(out!=null){
+			out.flush();
+		}
 	}
 
 }
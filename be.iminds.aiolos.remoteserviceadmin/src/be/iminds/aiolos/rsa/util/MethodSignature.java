@@ -30,7 +30,14 @@
  */
 package be.iminds.aiolos.rsa.util;
 
+import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * Utility class for creating a method signature String from Method object
@@ -62,6 +69,42 @@ public class MethodSignature {
 		return buf.toString();
 	}
 
+	/**
+	 * All classes used as parameter, return or exception type by the methods,
+	 * including the type arguments of generic types
+	 */
+	public static Class<?>[] getClasses(final Collection<Method> methods) {
+		Set<Class<?>> classes = new LinkedHashSet<Class<?>>();
+		for (Method m : methods) {
+			for (Type t : m.getGenericParameterTypes()) {
+				addClasses(classes, t);
+			}
+			addClasses(classes, m.getGenericReturnType());
+			for (Type t : m.getGenericExceptionTypes()) {
+				addClasses(classes, t);
+			}
+		}
+		return classes.toArray(new Class<?>[classes.size()]);
+	}
+	
+	private static void addClasses(final Set<Class<?>> classes, final Type t) {
+		if (t instanceof Class) {
+			classes.add((Class<?>) t);
+		} else if (t instanceof ParameterizedType) {
+			addClasses(classes, ((ParameterizedType) t).getRawType());
+			for (Type a : ((ParameterizedType) t).getActualTypeArguments()) {
+				addClasses(classes, a);
+			}
+		} else if (t instanceof GenericArrayType) {
+			addClasses(classes, ((GenericArrayType) t).getGenericComponentType());
+		} else if (t instanceof WildcardType) {
+			for (Type b : ((WildcardType) t).getUpperBounds()) {
+				addClasses(classes, b);
+			}
+		}
+		// type variables are not resolved
+	}
+
 	private static void getDescriptor(final StringBuffer buf, final Class<?> c) {
 		Class<?> d = c;
 		while (true) {
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import be.iminds.aiolos.rsa.Config;
+import be.iminds.aiolos.rsa.Config.ThreadStrategy;
+
+/**
+ * Creates the threads of the remote service admin. These are virtual threads when 
+ * aiolos.threads is set to virtual and the JVM supports them (Java 21 or later), 
+ * platform threads otherwise.
+ * 
+ * Virtual threads are created through reflection so the bundle still runs on older JVMs.
+ */
+public class Threads {
+
+	private static ThreadFactory virtualThreads = null;
+	private static boolean supported = true;
+	
+	/**
+	 * Factory for virtual threads, or null when these are not enabled or not supported
+	 */
+	public static synchronized ThreadFactory virtualThreadFactory(){
+		if(Config.THREADS!=ThreadStrategy.VIRTUAL || !supported){
+			return null;
+		}
+		if(virtualThreads==null){
+			try {
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				virtualThreads = (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+			} catch(Exception e){
+				// no virtual threads on this JVM
+				supported = false;
+			}
+		}
+		return virtualThreads;
+	}
+	
+	/**
+	 * Factory for the threads of a pool, the default factory in case of platform threads
+	 */
+	public static ThreadFactory threadFactory(){
+		ThreadFactory factory = virtualThreadFactory();
+		return factory!=null ? factory : Executors.defaultThreadFactory();
+	}
+	
+	/**
+	 * A new thread that is not started yet. Platform threads are daemon threads,
+	 * just like virtual threads are.
+	 */
+	public static Thread newThread(Runnable task, String name){
+		ThreadFactory factory = virtualThreadFactory();
+		Thread thread = factory!=null ? factory.newThread(task) : new Thread(task);
+		thread.setName(name);
+		if(factory==null){
+			thread.setDaemon(true);
+		}
+		return thread;
+	}
+	
+	/**
+	 * A cached thread pool, or an executor that starts a virtual thread for each task
+	 */
+	public static ExecutorService newCachedThreadPool(){
+		ThreadFactory factory = virtualThreadFactory();
+		if(factory!=null){
+			try {
+				return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+			} catch(Exception e){
+				// fall back to a pool
+			}
+		}
+		return Executors.newCachedThreadPool(threadFactory());
+	}
+	
+	/**
+	 * True when the threads created here are virtual threads
+	 */
+	public static boolean isVirtual(){
+		return virtualThreadFactory()!=null;
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+public class AsyncResultTest extends TestCase {
+
+	public interface Service {
+		Future<String> echo(String s);
+		
+		Future<String> fail(String message);
+		
+		String sync(String s);
+	}
+	
+	public static class ServiceImpl implements Service {
+		final CountDownLatch release = new CountDownLatch(1);
+		
+		public Future<String> echo(final String s) {
+			FutureTask<String> task = new FutureTask<String>(new Callable<String>(){
+				public String call() throws Exception {
+					release.await();
+					return s;
+				}
+			});
+			new Thread(task).start();
+			return task;
+		}
+		
+		public Future<String> fail(final String message) {
+			FutureTask<String> task = new FutureTask<String>(new Callable<String>(){
+				public String call() throws Exception {
+					throw new IllegalStateException(message);
+				}
+			});
+			task.run();
+			return task;
+		}
+		
+		public String sync(String s) {
+			return s;
+		}
+	}
+	
+	private Map<Field, Object> config;
+	private TestFramework server;
+	private TestFramework client;
+	private ServiceImpl service;
+	private Service proxy;
+	
+	protected void setUp() throws Exception {
+		config = TestFramework.saveConfig();
+		TestFramework.silenceLog();
+		server = new TestFramework();
+		server.start();
+		client = new TestFramework();
+		client.start();
+		
+		service = new ServiceImpl();
+		EndpointDescription endpoint = server.export(Service.class, service);
+		proxy = client.importService(Service.class, endpoint);
+	}
+	
+	protected void tearDown() throws Exception {
+		service.release.countDown();
+		client.stop();
+		server.stop();
+		TestFramework.restoreConfig(config);
+	}
+	
+	public void testAdapters() {
+		assertNotNull(AsyncResult.forType(Future.class));
+		assertNull(AsyncResult.forType(String.class));
+		assertNull(AsyncResult.forType(int.class));
+	}
+	
+	public void testResolve() throws Throwable {
+		assertNull(AsyncResult.resolve(null));
+		assertEquals("a", AsyncResult.resolve("a"));
+		
+		FutureTask<String> done = new FutureTask<String>(new Callable<String>(){
+			public String call() {
+				return "b";
+			}
+		});
+		done.run();
+		assertEquals("b", AsyncResult.resolve(done));
+		
+		FutureTask<String> failed = new FutureTask<String>(new Callable<String>(){
+			public String call() {
+				throw new IllegalArgumentException("c");
+			}
+		});
+		failed.run();
+		try {
+			AsyncResult.resolve(failed);
+			fail("Expected the failure of the future");
+		} catch(IllegalArgumentException e){
+			assertEquals("c", e.getMessage());
+		}
+	}
+	
+	public void testCallReturnsBeforeResult() throws Exception {
+		Future<String> result = proxy.echo("hello");
+		// the server only completes the future once it is released
+		assertFalse(result.isDone());
+		
+		service.release.countDown();
+		assertEquals("hello", result.get(10, TimeUnit.SECONDS));
+		assertTrue(result.isDone());
+		
+		assertEquals("sync", proxy.sync("sync"));
+	}
+	
+	public void testFailedResult() throws Exception {
+		Future<String> result = proxy.fail("broken");
+		try {
+			result.get(10, TimeUnit.SECONDS);
+			fail("Expected an ExecutionException");
+		} catch(ExecutionException e){
+			assertTrue(e.getCause() instanceof IllegalStateException);
+			assertEquals("broken", e.getCause().getMessage());
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.service.remoteserviceadmin.ImportRegistration;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
+
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+
+/**
+ * Endpoints of the same peer are imported with one request.
+ */
+public class BulkImportTest extends TestCase {
+
+	public interface Service {
+		int id();
+	}
+	
+	public static class ServiceImpl implements Service {
+		private final int id;
+		
+		ServiceImpl(int id){
+			this.id = id;
+		}
+		
+		public int id() {
+			return id;
+		}
+	}
+	
+	private Map<Field, Object> config;
+	private TestFramework server;
+	private TestFramework client;
+	
+	protected void setUp() throws Exception {
+		config = TestFramework.saveConfig();
+		TestFramework.silenceLog();
+		server = new TestFramework();
+		server.start();
+		client = new TestFramework();
+		client.start();
+	}
+	
+	protected void tearDown() throws Exception {
+		client.stop();
+		server.stop();
+		TestFramework.restoreConfig(config);
+	}
+	
+	public void testImportServices() throws Exception {
+		List<EndpointDescription> endpoints = new ArrayList<EndpointDescription>();
+		for(int i=0;i<20;i++){
+			endpoints.add(server.export(Service.class, new ServiceImpl(i)));
+		}
+		// the first import opens the channel
+		client.importService(Service.class, endpoints.get(0));
+		NetworkChannel channel = client.admin.proxies.values().iterator().next().getNetworkChannel();
+		long sent = channel.getMetrics().getMessagesSent();
+		
+		List<ImportRegistration> registrations = client.admin.importServices(endpoints);
+		assertEquals(20, registrations.size());
+		for(int i=0;i<20;i++){
+			ImportRegistration registration = registrations.get(i);
+			assertNull(registration.getException());
+			assertEquals(endpoints.get(i).getId(), registration.getImportReference().getImportedEndpoint().getId());
+			Service proxy = client.proxy(Service.class, registration.getImportReference().getImportedService());
+			assertEquals(i, proxy.id());
+		}
+		// one request for the 19 new endpoints, and the 20 calls
+		assertTrue(channel.getMetrics().getMessagesSent() - sent <= 21);
+		assertEquals(20, client.admin.proxies.size());
+	}
+	
+	public void testInvalidEndpoint() throws Exception {
+		List<EndpointDescription> endpoints = new ArrayList<EndpointDescription>();
+		endpoints.add(server.export(Service.class, new ServiceImpl(0)));
+		
+		EndpointDescription exported = server.export(Service.class, new ServiceImpl(1));
+		Map<String, Object> properties = new HashMap<String, Object>(exported.getProperties());
+		properties.put(RemoteConstants.ENDPOINT_ID, exported.getId()+"999");
+		endpoints.add(new EndpointDescription(properties));
+		
+		endpoints.add(server.export(Service.class, new ServiceImpl(2)));
+		
+		// only the invalid endpoint fails
+		List<ImportRegistration> registrations = client.admin.importServices(endpoints);
+		assertNull(registrations.get(0).getException());
+		assertNotNull(registrations.get(1).getException());
+		assertNull(registrations.get(2).getException());
+		assertEquals(2, client.proxy(Service.class, 
+				registrations.get(2).getImportReference().getImportedService()).id());
+	}
+	
+	public void testImportedTwice() throws Exception {
+		List<EndpointDescription> endpoints = new ArrayList<EndpointDescription>();
+		endpoints.add(server.export(Service.class, new ServiceImpl(0)));
+		endpoints.add(server.export(Service.class, new ServiceImpl(1)));
+		
+		List<ImportRegistration> first = client.admin.importServices(endpoints);
+		List<ImportRegistration> second = client.admin.importServices(endpoints);
+		assertEquals(2, client.admin.proxies.size());
+		for(int i=0;i<2;i++){
+			assertNull(second.get(i).getException());
+			assertEquals(first.get(i).getImportReference().getImportedService(), 
+					second.get(i).getImportReference().getImportedService());
+		}
+		
+		// the proxy stays until both registrations are closed
+		first.get(0).close();
+		assertEquals(2, client.admin.proxies.size());
+		second.get(0).close();
+		assertEquals(1, client.admin.proxies.size());
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+public class CachedResultsTest extends TestCase {
+
+	private Method get;
+	private Method find;
+	
+	protected void setUp() throws Exception {
+		get = Lookup.class.getMethod("get", String.class);
+		find = Lookup.class.getMethod("find", int[].class, Object[].class);
+	}
+	
+	public void testHitAndMiss() {
+		CachedResults cache = new CachedResults(10000, 10);
+		assertSame(CachedResults.MISS, cache.get(get, new Object[]{"a"}));
+		cache.put(get, new Object[]{"a"}, "A", cache.getGeneration());
+		assertEquals("A", cache.get(get, new Object[]{"a"}));
+		assertSame(CachedResults.MISS, cache.get(get, new Object[]{"b"}));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+	
+	public void testArrayArgumentsAreCopied() {
+		CachedResults cache = new CachedResults(10000, 10);
+		int[] ids = new int[]{1, 2};
+		Object[] nested = new Object[]{new long[]{3}};
+		Object[] args = new Object[]{ids, nested};
+		cache.put(find, args, "found", cache.getGeneration());
+		
+		ids[0] = 5;
+		((long[])nested[0])[0] = 6;
+		args[1] = null;
+		
+		assertEquals("found", cache.get(find, new Object[]{new int[]{1, 2}, new Object[]{new long[]{3}}}));
+		assertSame(CachedResults.MISS, cache.get(find, new Object[]{new int[]{5, 2}, new Object[]{new long[]{6}}}));
+	}
+	
+	public void testExpiry() throws Exception {
+		CachedResults cache = new CachedResults(20, 10);
+		cache.put(get, new Object[]{"a"}, "A", cache.getGeneration());
+		Thread.sleep(50);
+		assertSame(CachedResults.MISS, cache.get(get, new Object[]{"a"}));
+		assertEquals(0, cache.getSize());
+	}
+	
+	public void testLeastRecentlyUsedIsEvicted() {
+		CachedResults cache = new CachedResults(10000, 2);
+		cache.put(get, new Object[]{"a"}, "A", cache.getGeneration());
+		cache.put(get, new Object[]{"b"}, "B", cache.getGeneration());
+		cache.get(get, new Object[]{"a"});
+		cache.put(get, new Object[]{"c"}, "C", cache.getGeneration());
+		
+		assertEquals("A", cache.get(get, new Object[]{"a"}));
+		assertSame(CachedResults.MISS, cache.get(get, new Object[]{"b"}));
+		assertEquals("C", cache.get(get, new Object[]{"c"}));
+	}
+	
+	public void testInvalidate() {
+		CachedResults cache = new CachedResults(10000, 10);
+		cache.put(get, new Object[]{"a"}, "A", cache.getGeneration());
+		cache.put(find, new Object[]{new int[0], null}, "found", cache.getGeneration());
+		
+		cache.invalidate(Collections.singletonList("find"));
+		assertEquals("A", cache.get(get, new Object[]{"a"}));
+		assertSame(CachedResults.MISS, cache.get(find, new Object[]{new int[0], null}));
+		
+		cache.invalidate(null);
+		assertEquals(0, cache.getSize());
+	}
+	
+	public void testResultOfCallBeforeInvalidationIsNotCached() {
+		CachedResults cache = new CachedResults(10000, 10);
+		long generation = cache.getGeneration();
+		cache.invalidate(null);
+		cache.put(get, new Object[]{"a"}, "stale", generation);
+		assertSame(CachedResults.MISS, cache.get(get, new Object[]{"a"}));
+	}
+	
+	public interface Lookup {
+		String get(String key);
+		String find(int[] ids, Object[] filters);
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+
+/**
+ * Concurrent calls to the same peer are sent in one batch.
+ */
+public class CallBatchingTest extends TestCase {
+
+	public interface Service {
+		int twice(int i);
+		
+		int meet(int i) throws InterruptedException;
+	}
+	
+	public static class ServiceImpl implements Service {
+		final CountDownLatch meeting = new CountDownLatch(4);
+		
+		public int twice(int i) {
+			if(i < 0){
+				throw new IllegalArgumentException("negative");
+			}
+			return 2*i;
+		}
+		
+		public int meet(int i) throws InterruptedException {
+			// only returns when the calls run in parallel
+			meeting.countDown();
+			if(!meeting.await(10, TimeUnit.SECONDS)){
+				throw new IllegalStateException("calls did not run in parallel");
+			}
+			return i;
+		}
+	}
+	
+	private Map<Field, Object> config;
+	private TestFramework server;
+	private TestFramework client;
+	private ServiceImpl service;
+	private Service proxy;
+	private ExecutorService executor;
+	
+	protected void setUp() throws Exception {
+		config = TestFramework.saveConfig();
+		TestFramework.silenceLog();
+		executor = Executors.newCachedThreadPool();
+	}
+	
+	private void start(String parallel) throws Exception {
+		// a batch waits 200ms for more calls, or is sent when 8 calls are queued
+		server = new TestFramework(Config.PROP_CALL_BATCH, "8", Config.PROP_CALL_BATCH_DELAY, "200000",
+				Config.PROP_CALL_BATCH_PARALLEL, parallel);
+		server.start();
+		client = new TestFramework(Config.PROP_CALL_BATCH, "8", Config.PROP_CALL_BATCH_DELAY, "200000",
+				Config.PROP_CALL_BATCH_PARALLEL, parallel);
+		client.start();
+		
+		service = new ServiceImpl();
+		EndpointDescription endpoint = server.export(Service.class, service);
+		proxy = client.importService(Service.class, endpoint);
+	}
+	
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+		if(client!=null){
+			client.stop();
+		}
+		if(server!=null){
+			server.stop();
+		}
+		TestFramework.restoreConfig(config);
+	}
+	
+	public void testBatchedCalls() throws Exception {
+		start("false");
+		NetworkChannel channel = client.admin.proxies.values().iterator().next().getNetworkChannel();
+		long sent = channel.getMetrics().getMessagesSent();
+		
+		List<Future<Integer>> results = call(8, new Call(){
+			public int call(int i) throws Exception {
+				return proxy.twice(i);
+			}
+		});
+		for(int i=0;i<8;i++){
+			assertEquals(2*i, results.get(i).get(10, TimeUnit.SECONDS).intValue());
+		}
+		// the calls do not take a message each
+		assertTrue(channel.getMetrics().getMessagesSent() - sent < 8);
+	}
+	
+	public void testFailedCallInBatch() throws Exception {
+		start("false");
+		List<Future<Integer>> results = call(4, new Call(){
+			public int call(int i) throws Exception {
+				return proxy.twice(i==2 ? -1 : i);
+			}
+		});
+		for(int i=0;i<4;i++){
+			if(i==2){
+				try {
+					results.get(i).get(10, TimeUnit.SECONDS);
+					fail("Expected the call to fail");
+				} catch(Exception e){
+					// only this call of the batch fails
+				}
+			} else {
+				assertEquals(2*i, results.get(i).get(10, TimeUnit.SECONDS).intValue());
+			}
+		}
+	}
+	
+	public void testParallelBatch() throws Exception {
+		start("true");
+		List<Future<Integer>> results = call(4, new Call(){
+			public int call(int i) throws Exception {
+				return proxy.meet(i);
+			}
+		});
+		for(int i=0;i<4;i++){
+			assertEquals(i, results.get(i).get(20, TimeUnit.SECONDS).intValue());
+		}
+	}
+	
+	private interface Call {
+		int call(int i) throws Exception;
+	}
+	
+	private List<Future<Integer>> call(int n, final Call call){
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for(int i=0;i<n;i++){
+			final int index = i;
+			results.add(executor.submit(new Callable<Integer>(){
+				public Integer call() throws Exception {
+					start.await();
+					return call.call(index);
+				}
+			}));
+		}
+		start.countDown();
+		return results;
+	}
+}
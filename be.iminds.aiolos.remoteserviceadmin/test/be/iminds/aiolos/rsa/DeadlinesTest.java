@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+import be.iminds.aiolos.rsa.api.Deadline;
+import be.iminds.aiolos.rsa.exception.DeadlineException;
+
+/**
+ * The deadline of the caller is passed along with its calls.
+ */
+public class DeadlinesTest extends TestCase {
+
+	public interface Service {
+		long remaining();
+		
+		String block() throws InterruptedException;
+		
+		String echo(String message);
+	}
+	
+	public static class ServiceImpl implements Service {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile int echoed = 0;
+		
+		public long remaining() {
+			return Deadline.remaining();
+		}
+		
+		public String block() throws InterruptedException {
+			started.countDown();
+			release.await(20, TimeUnit.SECONDS);
+			return "released";
+		}
+		
+		public String echo(String message) {
+			echoed++;
+			return message;
+		}
+	}
+	
+	private Map<Field, Object> config;
+	private TestFramework server;
+	private TestFramework client;
+	private ServiceImpl service;
+	private Service proxy;
+	private ExecutorService executor;
+	
+	protected void setUp() throws Exception {
+		config = TestFramework.saveConfig();
+		TestFramework.silenceLog();
+		executor = Executors.newCachedThreadPool();
+		
+		// one thread to execute calls, so calls wait in the queue
+		server = new TestFramework(Config.PROP_EXECUTION, "bounded", Config.PROP_CALL_THREADS, "1");
+		server.start();
+		client = new TestFramework(Config.PROP_TIMEOUT, "10000");
+		client.start();
+		
+		service = new ServiceImpl();
+		EndpointDescription endpoint = server.export(Service.class, service);
+		proxy = client.importService(Service.class, endpoint);
+	}
+	
+	protected void tearDown() throws Exception {
+		Deadline.clear();
+		service.release.countDown();
+		executor.shutdownNow();
+		client.stop();
+		server.stop();
+		TestFramework.restoreConfig(config);
+	}
+	
+	public void testThreadDeadline() throws Exception {
+		assertEquals(-1, Deadline.remaining());
+		assertFalse(Deadline.isExpired());
+		
+		Deadline.set(5000);
+		long remaining = Deadline.remaining();
+		assertTrue(remaining > 4000 && remaining <= 5000);
+		
+		Long previous = Deadline.enter(System.nanoTime() - 1);
+		assertNotNull(previous);
+		assertEquals(0, Deadline.remaining());
+		assertTrue(Deadline.isExpired());
+		
+		Deadline.enter(previous);
+		assertTrue(Deadline.remaining() > 0);
+		Deadline.clear();
+		assertEquals(-1, Deadline.remaining());
+	}
+	
+	public void testDeadlinePassedToService() throws Exception {
+		// without a deadline, the service gets the timeout of the caller
+		long remaining = proxy.remaining();
+		assertTrue(remaining > 0 && remaining <= 10000);
+		
+		Deadline.set(2000);
+		remaining = proxy.remaining();
+		assertTrue(remaining > 0 && remaining <= 2000);
+	}
+	
+	public void testExpiredBeforeTheCall() throws Exception {
+		Deadline.enter(System.nanoTime() - 1);
+		try {
+			proxy.echo("expired");
+			fail("Expected the call to fail");
+		} catch(RuntimeException e){
+			assertTrue(e.getCause() instanceof DeadlineException);
+		}
+		assertEquals(0, service.echoed);
+	}
+	
+	public void testExpiredInTheQueue() throws Exception {
+		Future<String> blocked = executor.submit(new Callable<String>(){
+			public String call() throws Exception {
+				return proxy.block();
+			}
+		});
+		assertTrue(service.started.await(10, TimeUnit.SECONDS));
+		
+		// waits in the queue behind the blocked call
+		Deadline.set(300);
+		try {
+			proxy.echo("expired");
+			fail("Expected the call to time out");
+		} catch(RuntimeException e){
+			// expected
+		}
+		Deadline.clear();
+		
+		service.release.countDown();
+		assertEquals("released", blocked.get(10, TimeUnit.SECONDS));
+		
+		// the expired call is dropped instead of executed
+		ROSGiEndpoint endpoint = server.admin.endpoints.values().iterator().next();
+		long end = System.currentTimeMillis()+10000;
+		while(endpoint.getExpiredCalls()==0 && System.currentTimeMillis() < end){
+			Thread.sleep(10);
+		}
+		assertEquals(1, endpoint.getExpiredCalls());
+		assertEquals(0, service.echoed);
+		assertEquals("accepted", proxy.echo("accepted"));
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.Method;
+
+/**
+ * Measures the time per call of the generated and the reflective {@link Dispatcher}.
+ * 
+ * Not a unit test, run it with the rsa classes on the classpath:
+ * java be.iminds.aiolos.rsa.DispatchBenchmark [iterations]
+ */
+public class DispatchBenchmark {
+
+	public interface Calculator {
+		int add(int a, int b);
+		String describe(String name, long value);
+	}
+	
+	public static class CalculatorImpl implements Calculator {
+		public int add(int a, int b) { return a + b; }
+		public String describe(String name, long value) { return name; }
+	}
+	
+	// keeps the results alive so the calls are not optimized away
+	static volatile Object sink;
+	
+	public static void main(String[] args) throws Throwable {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+		
+		Method[] methods = new Method[]{
+			Calculator.class.getMethod("add", int.class, int.class),
+			Calculator.class.getMethod("describe", String.class, long.class)
+		};
+		Dispatcher reflective = new Dispatcher(methods);
+		Dispatcher generated = DispatcherGenerator.generate(methods);
+		Calculator target = new CalculatorImpl();
+		Object[][] calls = new Object[][]{{1, 2}, {"value", 42L}};
+		
+		for(int pass=0;pass<2;pass++){
+			// the first pass warms up the JIT
+			boolean print = pass == 1;
+			run("reflection", reflective, target, calls, iterations, print);
+			run("generated", generated, target, calls, iterations, print);
+		}
+	}
+	
+	private static void run(String name, Dispatcher dispatcher, Object target, Object[][] calls, int iterations, boolean print) throws Throwable {
+		long start = System.nanoTime();
+		for(int i=0;i<iterations;i++){
+			int method = i & 1;
+			sink = dispatcher.invoke(method, target, calls[method]);
+		}
+		long nanos = System.nanoTime() - start;
+		if(print){
+			System.out.println(name+": "+String.format("%.1f", (double)nanos / iterations)+" ns per call");
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import junit.framework.TestCase;
+
+/**
+ * The generated dispatcher must give the same results and exceptions as the reflective one.
+ */
+public class DispatcherTest extends TestCase {
+
+	private Method[] methods;
+	private Dispatcher reflective;
+	private Dispatcher generated;
+	private final Service target = new ServiceImpl();
+	
+	protected void setUp() throws Exception {
+		methods = Service.class.getMethods();
+		Arrays.sort(methods, new Comparator<Method>(){
+			public int compare(Method m1, Method m2) {
+				return m1.getName().compareTo(m2.getName());
+			}
+		});
+		reflective = new Dispatcher(methods);
+		generated = DispatcherGenerator.generate(methods);
+	}
+	
+	public void testGenerated(){
+		assertNotSame(Dispatcher.class, generated.getClass());
+	}
+	
+	public void testPrimitives() throws Throwable {
+		same("add", 1, 2);
+		same("widen", 5L);
+		same("scale", 1.5d, 2f);
+		same("not", true);
+		same("next", 'a');
+		same("toByte", (byte)3);
+		same("toShort", (short)4);
+	}
+	
+	public void testReferences() throws Throwable {
+		same("concat", "a", 1);
+		same("concat", null, null);
+		same("array", new int[]{1, 2});
+		same("number", 1.5d);
+		same("number", (Object)null);
+	}
+	
+	public void testVoid() throws Throwable {
+		sameArgs("run", null);
+		sameArgs("run", new Object[0]);
+	}
+	
+	public void testConversionsOfReflection() throws Throwable {
+		// widening of a primitive
+		same("widen", 5);
+		same("scale", 1, 2);
+	}
+	
+	public void testRejectedArguments() throws Throwable {
+		same("add", null, 1);
+		same("add", "1", 1);
+		same("add", 1);
+		sameArgs("add", null);
+		same("number", "1");
+		sameArgs("run", new Object[1]);
+	}
+	
+	public void testRejectedTarget() throws Throwable {
+		sameTarget("run", new Object());
+		sameTarget("run", null);
+	}
+	
+	public void testExceptions() throws Throwable {
+		same("fail", "checked");
+		same("crash");
+	}
+	
+	private void same(String name, Object... args) throws Throwable {
+		sameArgs(name, args);
+	}
+	
+	private void sameArgs(String name, Object[] args) throws Throwable {
+		compare(name, target, args);
+	}
+	
+	private void sameTarget(String name, Object target) throws Throwable {
+		compare(name, target, new Object[0]);
+	}
+	
+	private void compare(String name, Object target, Object[] args) throws Throwable {
+		int method = index(name);
+		Object expected = null;
+		Throwable expectedException = null;
+		try {
+			expected = reflective.invoke(method, target, args);
+		} catch(Throwable t){
+			expectedException = t;
+		}
+		
+		Object result = null;
+		Throwable exception = null;
+		try {
+			result = generated.invoke(method, target, args);
+		} catch(Throwable t){
+			exception = t;
+		}
+		
+		if(expectedException!=null){
+			assertNotNull(name+" should throw "+expectedException, exception);
+			assertEquals(expectedException.getClass(), exception.getClass());
+			assertEquals(expectedException.getMessage(), exception.getMessage());
+		} else {
+			if(exception!=null){
+				throw exception;
+			}
+			if(expected instanceof int[]){
+				assertTrue(Arrays.equals((int[])expected, (int[])result));
+			} else {
+				assertEquals(expected, result);
+			}
+		}
+	}
+	
+	private int index(String name){
+		for(int i=0;i<methods.length;i++){
+			if(methods[i].getName().equals(name)){
+				return i;
+			}
+		}
+		throw new IllegalArgumentException(name);
+	}
+	
+	public interface Service {
+		int add(int a, int b);
+		long widen(long l);
+		double scale(double d, float f);
+		boolean not(boolean b);
+		char next(char c);
+		byte toByte(byte b);
+		short toShort(short s);
+		void run();
+		String concat(String a, Object b);
+		int[] array(int[] a);
+		Number number(Number n);
+		void fail(String message) throws IOException;
+		void crash();
+	}
+	
+	public static class ServiceImpl implements Service {
+		public int add(int a, int b) { return a + b; }
+		public long widen(long l) { return l * 2; }
+		public double scale(double d, float f) { return d * f; }
+		public boolean not(boolean b) { return !b; }
+		public char next(char c) { return (char)(c + 1); }
+		public byte toByte(byte b) { return (byte)(b + 1); }
+		public short toShort(short s) { return (short)(s + 1); }
+		public void run() {}
+		public String concat(String a, Object b) { return a + b; }
+		public int[] array(int[] a) { return a.clone(); }
+		public Number number(Number n) { return n; }
+		public void fail(String message) throws IOException { throw new IOException(message); }
+		public void crash() { throw new IllegalStateException("crash"); }
+	}
+}
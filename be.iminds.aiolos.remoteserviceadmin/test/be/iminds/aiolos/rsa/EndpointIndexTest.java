@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.service.remoteserviceadmin.ImportRegistration;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
+
+/**
+ * Endpoint requests without a service id find the exported endpoint by its interfaces.
+ */
+public class EndpointIndexTest extends TestCase {
+
+	public interface Hello {
+		String hello();
+	}
+	
+	public interface Goodbye {
+		String goodbye();
+	}
+	
+	public interface Unknown {
+		void unknown();
+	}
+	
+	public static class HelloImpl implements Hello {
+		public String hello() {
+			return "hello";
+		}
+	}
+	
+	public static class BothImpl implements Hello, Goodbye {
+		public String hello() {
+			return "hello both";
+		}
+		
+		public String goodbye() {
+			return "goodbye both";
+		}
+	}
+	
+	private Map<Field, Object> config;
+	private TestFramework server;
+	private TestFramework client;
+	
+	protected void setUp() throws Exception {
+		config = TestFramework.saveConfig();
+		TestFramework.silenceLog();
+		server = new TestFramework();
+		server.start();
+		client = new TestFramework();
+		client.start();
+	}
+	
+	protected void tearDown() throws Exception {
+		client.stop();
+		server.stop();
+		TestFramework.restoreConfig(config);
+	}
+	
+	public void testLookupByInterface() throws Exception {
+		EndpointDescription hello = server.export(Hello.class, new HelloImpl());
+		EndpointDescription both = server.export(new Class<?>[]{Hello.class, Goodbye.class}, new BothImpl());
+		
+		// only one endpoint has both interfaces
+		EndpointDescription found = lookup(hello, Hello.class, Goodbye.class);
+		assertEquals(both.getId(), found.getId());
+		assertEquals(both.getInterfaces(), found.getInterfaces());
+		
+		found = lookup(hello, Goodbye.class);
+		assertEquals(both.getId(), found.getId());
+		
+		found = lookup(hello, Hello.class);
+		assertTrue(found.getInterfaces().contains(Hello.class.getName()));
+	}
+	
+	public void testNoEndpointWithInterface() throws Exception {
+		EndpointDescription hello = server.export(Hello.class, new HelloImpl());
+		server.export(Goodbye.class, new Goodbye(){
+			public String goodbye() {
+				return "goodbye";
+			}
+		});
+		
+		assertNull(lookup(hello, Unknown.class));
+		// no single endpoint implements both
+		assertNull(lookup(hello, Hello.class, Goodbye.class));
+	}
+	
+	public void testUnexported() throws Exception {
+		EndpointDescription hello = server.export(Hello.class, new HelloImpl());
+		EndpointDescription both = server.export(new Class<?>[]{Hello.class, Goodbye.class}, new BothImpl());
+		assertNotNull(lookup(hello, Goodbye.class));
+		
+		server.unexport(both);
+		assertNull(lookup(hello, Goodbye.class));
+		assertEquals(hello.getId(), lookup(hello, Hello.class).getId());
+		
+		server.unexport(hello);
+		assertNull(lookup(hello, Hello.class));
+		assertTrue(server.admin.exportedInterfaces.isEmpty());
+	}
+	
+	public void testServiceIdChecksInterfaces() throws Exception {
+		EndpointDescription hello = server.export(Hello.class, new HelloImpl());
+		
+		Map<String, Object> properties = new HashMap<String, Object>(hello.getProperties());
+		properties.put("objectClass", new String[]{Goodbye.class.getName()});
+		ImportRegistration registration = client.admin.importService(new EndpointDescription(properties));
+		assertNotNull(registration.getException());
+	}
+	
+	public void testDescriptionIsKept() throws Exception {
+		server.export(Hello.class, new HelloImpl());
+		ROSGiEndpoint endpoint = server.admin.endpoints.values().iterator().next();
+		assertSame(endpoint.getExportedEndpoint(), endpoint.getExportedEndpoint());
+	}
+	
+	/*
+	 * Import an endpoint of the server by interfaces only, 
+	 * returns the description received from the server or null when there is none
+	 */
+	private EndpointDescription lookup(EndpointDescription exported, Class<?>... interfaces){
+		String[] names = new String[interfaces.length];
+		for(int i=0;i<interfaces.length;i++){
+			names[i] = interfaces[i].getName();
+		}
+		String id = exported.getId();
+		Map<String, Object> properties = new HashMap<String, Object>(exported.getProperties());
+		properties.put(RemoteConstants.ENDPOINT_ID, id.substring(0, id.indexOf('#')));
+		properties.put("objectClass", names);
+		
+		ImportRegistration registration = client.admin.importService(new EndpointDescription(properties));
+		if(registration.getException()!=null){
+			return null;
+		}
+		EndpointDescription found = registration.getImportReference().getImportedEndpoint();
+		registration.close();
+		return found;
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+import be.iminds.aiolos.util.proxy.ProxyGenerator;
+import be.iminds.aiolos.util.proxy.ProxyHandler;
+
+/**
+ * Imported services are generated proxy classes, or dynamic proxies 
+ * when rsa.proxy.generated is false. Both behave the same.
+ */
+public class GeneratedProxyTest extends TestCase {
+
+	public interface Service {
+		int add(int a, int b);
+		
+		long[] reverse(long[] values);
+		
+		void touch();
+		
+		String read(String name) throws IOException;
+	}
+	
+	public static class ServiceImpl implements Service {
+		volatile int touched = 0;
+		
+		public int add(int a, int b) {
+			return a + b;
+		}
+		
+		public long[] reverse(long[] values) {
+			long[] reversed = new long[values.length];
+			for(int i=0;i<values.length;i++){
+				reversed[i] = values[values.length-1-i];
+			}
+			return reversed;
+		}
+		
+		public void touch() {
+			touched++;
+		}
+		
+		public String read(String name) throws IOException {
+			if(name==null){
+				throw new IOException("no name");
+			}
+			return name;
+		}
+	}
+	
+	interface Hidden {
+		void run();
+	}
+	
+	private Map<Field, Object> config;
+	private TestFramework server;
+	private TestFramework client;
+	
+	protected void setUp() throws Exception {
+		config = TestFramework.saveConfig();
+		TestFramework.silenceLog();
+	}
+	
+	protected void tearDown() throws Exception {
+		if(client!=null){
+			client.stop();
+		}
+		if(server!=null){
+			server.stop();
+		}
+		TestFramework.restoreConfig(config);
+	}
+	
+	public void testGeneratedProxy() throws Exception {
+		Service proxy = importService("true");
+		assertFalse(Proxy.isProxyClass(proxy.getClass()));
+		assertCalls(proxy);
+	}
+	
+	public void testDynamicProxy() throws Exception {
+		Service proxy = importService("false");
+		assertTrue(Proxy.isProxyClass(proxy.getClass()));
+		assertCalls(proxy);
+	}
+	
+	public void testMethodTable() throws Exception {
+		Method[] methods = ProxyGenerator.getMethods(new Class<?>[]{Service.class, Runnable.class});
+		assertEquals("hashCode", methods[ProxyGenerator.HASH_CODE].getName());
+		assertEquals("equals", methods[ProxyGenerator.EQUALS].getName());
+		assertEquals("toString", methods[ProxyGenerator.TO_STRING].getName());
+		assertEquals(3 + Service.class.getMethods().length + 1, methods.length);
+	}
+	
+	public void testHandler() throws Exception {
+		final Method[] methods = ProxyGenerator.getMethods(new Class<?>[]{Service.class});
+		ProxyHandler handler = new ProxyHandler(){
+			public Object invoke(Object proxy, int method, Object[] args) throws Throwable {
+				String name = methods[method].getName();
+				if(name.equals("add")){
+					return (Integer)args[0] + (Integer)args[1];
+				} else if(name.equals("read")){
+					throw new IOException("declared");
+				} else if(name.equals("touch")){
+					throw new Exception("undeclared");
+				} else if(name.equals("toString")){
+					return "handler";
+				}
+				return null;
+			}
+		};
+		Service proxy = (Service) ProxyGenerator.newProxyInstance(new Class<?>[]{Service.class}, handler);
+		assertEquals(5, proxy.add(2, 3));
+		assertEquals("handler", proxy.toString());
+		try {
+			proxy.read("name");
+			fail("Expected an IOException");
+		} catch(IOException e){
+			assertEquals("declared", e.getMessage());
+		}
+		try {
+			proxy.touch();
+			fail("Expected an UndeclaredThrowableException");
+		} catch(UndeclaredThrowableException e){
+			assertEquals("undeclared", e.getCause().getMessage());
+		}
+		
+		// the class is generated once for the same interfaces
+		Object other = ProxyGenerator.newProxyInstance(new Class<?>[]{Service.class}, handler);
+		assertSame(proxy.getClass(), other.getClass());
+	}
+	
+	public void testNotPublic() throws Exception {
+		try {
+			ProxyGenerator.newProxyInstance(new Class<?>[]{Hidden.class}, null);
+			fail("Expected no proxy for a package private interface");
+		} catch(IllegalArgumentException e){
+			// expected
+		}
+	}
+	
+	private Service importService(String generated) throws Exception {
+		server = new TestFramework();
+		server.start();
+		client = new TestFramework(Config.PROP_GENERATED_PROXY, generated);
+		client.start();
+		EndpointDescription endpoint = server.export(Service.class, new ServiceImpl());
+		return client.importService(Service.class, endpoint);
+	}
+	
+	private void assertCalls(Service proxy) throws Exception {
+		assertEquals(5, proxy.add(2, 3));
+		assertTrue(Arrays.equals(new long[]{3, 2, 1}, proxy.reverse(new long[]{1, 2, 3})));
+		proxy.touch();
+		assertEquals("name", proxy.read("name"));
+		try {
+			proxy.read(null);
+			fail("Expected an IOException");
+		} catch(IOException e){
+			assertEquals("no name", e.getMessage());
+		}
+		assertEquals(proxy.hashCode(), proxy.hashCode());
+	}
+}
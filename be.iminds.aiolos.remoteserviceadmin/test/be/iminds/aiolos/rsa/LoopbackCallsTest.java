@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+import be.iminds.aiolos.rsa.network.LoopbackChannel;
+
+/**
+ * Imports of endpoints exported by a framework in the same JVM use a loopback channel.
+ */
+public class LoopbackCallsTest extends TestCase {
+
+	public interface Service {
+		int fill(int[] values);
+	}
+	
+	public static class ServiceImpl implements Service {
+		public int fill(int[] values) {
+			values[0] = 9;
+			return values.length;
+		}
+	}
+	
+	private Map<Field, Object> config;
+	private TestFramework server;
+	private TestFramework client;
+	
+	protected void setUp() throws Exception {
+		config = TestFramework.saveConfig();
+		TestFramework.silenceLog();
+	}
+	
+	protected void tearDown() throws Exception {
+		if(client!=null){
+			client.stop();
+		}
+		if(server!=null){
+			server.stop();
+		}
+		TestFramework.restoreConfig(config);
+	}
+	
+	public void testArgumentsAreCopied() throws Exception {
+		Service proxy = start("true");
+		int[] values = new int[]{1, 2};
+		assertEquals(2, proxy.fill(values));
+		// pass by value, as over a network channel
+		assertEquals(1, values[0]);
+		
+		LoopbackChannel channel = (LoopbackChannel) getChannel();
+		assertTrue(channel.isCopy());
+	}
+	
+	public void testArgumentsByReference() throws Exception {
+		Service proxy = start("false");
+		int[] values = new int[]{1, 2};
+		assertEquals(2, proxy.fill(values));
+		assertEquals(9, values[0]);
+		
+		LoopbackChannel channel = (LoopbackChannel) getChannel();
+		assertFalse(channel.isCopy());
+	}
+	
+	private Service start(String copy) throws Exception {
+		server = new TestFramework(Config.PROP_LOCAL, "true", Config.PROP_LOOPBACK_COPY, copy);
+		server.start();
+		client = new TestFramework(Config.PROP_LOCAL, "true", Config.PROP_LOOPBACK_COPY, copy);
+		client.start();
+		
+		EndpointDescription endpoint = server.export(Service.class, new ServiceImpl());
+		return client.importService(Service.class, endpoint);
+	}
+	
+	private Object getChannel(){
+		synchronized(client.admin.proxies){
+			return client.admin.proxies.values().iterator().next().getNetworkChannel();
+		}
+	}
+}
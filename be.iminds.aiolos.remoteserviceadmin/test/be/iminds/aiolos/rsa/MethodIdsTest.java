@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+public class MethodIdsTest extends TestCase {
+
+	public interface Service {
+		String f(int i);
+		
+		String f(long l);
+		
+		String f(String s);
+		
+		String f(int i, int j);
+	}
+	
+	public static class ServiceImpl implements Service {
+		public String f(int i) {
+			return "int "+i;
+		}
+		
+		public String f(long l) {
+			return "long "+l;
+		}
+		
+		public String f(String s) {
+			return "String "+s;
+		}
+		
+		public String f(int i, int j) {
+			return "int int "+i+" "+j;
+		}
+	}
+	
+	private Map<Field, Object> config;
+	private TestFramework server;
+	private TestFramework client;
+	private EndpointDescription endpoint;
+	
+	protected void setUp() throws Exception {
+		config = TestFramework.saveConfig();
+		TestFramework.silenceLog();
+		server = new TestFramework();
+		server.start();
+		client = new TestFramework();
+		client.start();
+		endpoint = server.export(Service.class, new ServiceImpl());
+	}
+	
+	protected void tearDown() throws Exception {
+		client.stop();
+		server.stop();
+		TestFramework.restoreConfig(config);
+	}
+	
+	public void testMethodTablePublished() {
+		String[] methods = (String[]) endpoint.getProperties().get(Config.ENDPOINT_METHODS);
+		assertNotNull(methods);
+		assertEquals(4, methods.length);
+	}
+	
+	public void testOverloadedMethods() throws Exception {
+		check(client.importService(Service.class, endpoint));
+	}
+	
+	public void testEndpointWithoutMethodTable() throws Exception {
+		// endpoints of older exporters are called by method signature
+		Map<String, Object> properties = new HashMap<String, Object>(endpoint.getProperties());
+		properties.remove(Config.ENDPOINT_METHODS);
+		check(client.importService(Service.class, new EndpointDescription(properties)));
+	}
+	
+	private void check(Service proxy){
+		assertEquals("int 1", proxy.f(1));
+		assertEquals("long 2", proxy.f(2L));
+		assertEquals("String 3", proxy.f("3"));
+		assertEquals("int int 4 5", proxy.f(4, 5));
+	}
+}
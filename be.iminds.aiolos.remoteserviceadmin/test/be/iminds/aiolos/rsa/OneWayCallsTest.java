@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+/**
+ * Void methods listed in aiolos.oneway return as soon as the call is sent.
+ */
+public class OneWayCallsTest extends TestCase {
+
+	public interface Service {
+		void send(String message);
+		
+		void store(String message);
+		
+		String echo(String message);
+	}
+	
+	public static class ServiceImpl implements Service {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch received = new CountDownLatch(1);
+		final CountDownLatch stored = new CountDownLatch(1);
+		
+		public void send(String message) {
+			if(message.equals("fail")){
+				throw new IllegalArgumentException(message);
+			}
+			received.countDown();
+			try {
+				release.await();
+			} catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		public void store(String message) {
+			try {
+				release.await();
+			} catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+			stored.countDown();
+		}
+		
+		public String echo(String message) {
+			return message;
+		}
+	}
+	
+	private Map<Field, Object> config;
+	private TestFramework server;
+	private TestFramework client;
+	private ServiceImpl service;
+	private Service proxy;
+	
+	protected void setUp() throws Exception {
+		config = TestFramework.saveConfig();
+		TestFramework.silenceLog();
+		server = new TestFramework();
+		server.start();
+		client = new TestFramework();
+		client.start();
+		
+		service = new ServiceImpl();
+		EndpointDescription endpoint = server.export(Service.class, service, Config.ENDPOINT_ONEWAY, "send");
+		proxy = client.importService(Service.class, endpoint);
+	}
+	
+	protected void tearDown() throws Exception {
+		service.release.countDown();
+		client.stop();
+		server.stop();
+		TestFramework.restoreConfig(config);
+	}
+	
+	public void testOneWayMethods() throws Exception {
+		Method send = Service.class.getMethod("send", String.class);
+		Method store = Service.class.getMethod("store", String.class);
+		Method echo = Service.class.getMethod("echo", String.class);
+		
+		Set<Method> oneWay = ROSGiEndpoint.getOneWayMethods(Arrays.asList(send, store, echo), 
+				new String[]{"send", "echo"});
+		// only void methods are called one-way
+		assertEquals(1, oneWay.size());
+		assertTrue(oneWay.contains(send));
+		
+		assertTrue(ROSGiEndpoint.getOneWayMethods(Arrays.asList(send, store, echo), null).isEmpty());
+	}
+	
+	public void testReturnsBeforeTheCallEnds() throws Exception {
+		// the service blocks until released, the caller does not wait for it
+		proxy.send("hello");
+		assertTrue(service.received.await(10, TimeUnit.SECONDS));
+		
+		assertEquals("still", proxy.echo("still"));
+	}
+	
+	public void testOtherVoidMethodsWait() throws Exception {
+		Thread release = new Thread(){
+			public void run(){
+				try {
+					Thread.sleep(200);
+				} catch(InterruptedException e){}
+				service.release.countDown();
+			}
+		};
+		release.start();
+		proxy.store("hello");
+		// the call returns after the method completed
+		assertEquals(0, service.stored.getCount());
+		release.join();
+	}
+	
+	public void testFailureIsCounted() throws Exception {
+		ROSGiEndpoint endpoint = server.admin.endpoints.values().iterator().next();
+		
+		proxy.send("fail");
+		long end = System.currentTimeMillis()+10000;
+		while(endpoint.getOneWayFailures()==0 && System.currentTimeMillis() < end){
+			Thread.sleep(10);
+		}
+		assertEquals(1, endpoint.getOneWayFailures());
+		// the caller is not notified
+		ROSGiProxy imported = client.admin.proxies.values().iterator().next();
+		assertEquals(0, imported.getOneWayFailures());
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+import be.iminds.aiolos.rsa.exception.OverloadException;
+
+/**
+ * Calls that cannot be started are answered with an {@link OverloadException}.
+ */
+public class OverloadTest extends TestCase {
+
+	public interface Service {
+		String block() throws InterruptedException;
+		
+		String echo(String message);
+	}
+	
+	public static class ServiceImpl implements Service {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		
+		public String block() throws InterruptedException {
+			started.countDown();
+			release.await(20, TimeUnit.SECONDS);
+			return "released";
+		}
+		
+		public String echo(String message) {
+			return message;
+		}
+	}
+	
+	private Map<Field, Object> config;
+	private TestFramework server;
+	private TestFramework client;
+	private ServiceImpl service;
+	private Service proxy;
+	private ExecutorService executor;
+	
+	protected void setUp() throws Exception {
+		config = TestFramework.saveConfig();
+		TestFramework.silenceLog();
+		executor = Executors.newCachedThreadPool();
+	}
+	
+	private void start(String[] serverProperties, String... endpointProperties) throws Exception {
+		server = new TestFramework(serverProperties);
+		server.start();
+		client = new TestFramework();
+		client.start();
+		
+		service = new ServiceImpl();
+		EndpointDescription endpoint = server.export(Service.class, service, endpointProperties);
+		proxy = client.importService(Service.class, endpoint);
+	}
+	
+	protected void tearDown() throws Exception {
+		if(service!=null){
+			service.release.countDown();
+		}
+		executor.shutdownNow();
+		if(client!=null){
+			client.stop();
+		}
+		if(server!=null){
+			server.stop();
+		}
+		TestFramework.restoreConfig(config);
+	}
+	
+	public void testBoundedExecution() throws Exception {
+		// one thread and no queue for the calls
+		start(new String[]{Config.PROP_EXECUTION, "bounded", Config.PROP_CALL_THREADS, "1", Config.PROP_CALL_QUEUE, "0"});
+		
+		Future<String> blocked = block();
+		try {
+			proxy.echo("rejected");
+			fail("Expected the call to be rejected");
+		} catch(RuntimeException e){
+			assertTrue(causedBy(e, OverloadException.class));
+		}
+		
+		service.release.countDown();
+		assertEquals("released", blocked.get(10, TimeUnit.SECONDS));
+		// the thread is free again
+		assertEquals("accepted", echo("accepted"));
+	}
+	
+	public void testEndpointConcurrency() throws Exception {
+		start(new String[0], Config.ENDPOINT_CONCURRENCY, "1");
+		ROSGiEndpoint endpoint = server.admin.endpoints.values().iterator().next();
+		
+		Future<String> blocked = block();
+		try {
+			proxy.echo("rejected");
+			fail("Expected the call to be rejected");
+		} catch(RuntimeException e){
+			assertTrue(causedBy(e, OverloadException.class));
+		}
+		assertEquals(1, endpoint.getRejectedCalls());
+		
+		service.release.countDown();
+		assertEquals("released", blocked.get(10, TimeUnit.SECONDS));
+		assertEquals("accepted", echo("accepted"));
+	}
+	
+	public void testDefaultConcurrency() throws Exception {
+		start(new String[]{Config.PROP_CONCURRENCY, "1"});
+		
+		Future<String> blocked = block();
+		try {
+			proxy.echo("rejected");
+			fail("Expected the call to be rejected");
+		} catch(RuntimeException e){
+			assertTrue(causedBy(e, OverloadException.class));
+		}
+		service.release.countDown();
+		assertEquals("released", blocked.get(10, TimeUnit.SECONDS));
+	}
+	
+	public void testEndpointOverridesDefault() throws Exception {
+		start(new String[]{Config.PROP_CONCURRENCY, "1"}, Config.ENDPOINT_CONCURRENCY, "2");
+		
+		Future<String> blocked = block();
+		assertEquals("accepted", proxy.echo("accepted"));
+		service.release.countDown();
+		assertEquals("released", blocked.get(10, TimeUnit.SECONDS));
+	}
+	
+	/*
+	 * Start a call that blocks in the service until released
+	 */
+	private Future<String> block() throws Exception {
+		Future<String> blocked = executor.submit(new Callable<String>(){
+			public String call() throws Exception {
+				return proxy.block();
+			}
+		});
+		assertTrue(service.started.await(10, TimeUnit.SECONDS));
+		return blocked;
+	}
+	
+	/*
+	 * The thread that ran the blocked call may only be released just after its reply
+	 */
+	private String echo(String message) throws Exception {
+		long end = System.currentTimeMillis()+10000;
+		while(true){
+			try {
+				return proxy.echo(message);
+			} catch(RuntimeException e){
+				if(!causedBy(e, OverloadException.class) || System.currentTimeMillis() > end){
+					throw e;
+				}
+				Thread.sleep(10);
+			}
+		}
+	}
+	
+	private static boolean causedBy(Throwable t, Class<? extends Throwable> type){
+		for(Throwable cause = t; cause!=null; cause = cause.getCause()){
+			if(type.isInstance(cause)){
+				return true;
+			}
+		}
+		return false;
+	}
+}
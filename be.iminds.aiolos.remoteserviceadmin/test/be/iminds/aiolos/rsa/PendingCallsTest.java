@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.ServiceException;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+public class PendingCallsTest extends TestCase {
+
+	public interface Service {
+		int echo(int i);
+		
+		void block();
+	}
+	
+	public static class ServiceImpl implements Service {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		
+		public int echo(int i) {
+			try {
+				// reply in a different order than the calls are sent
+				Thread.sleep((i * 7) % 20);
+			} catch(InterruptedException e){}
+			return i;
+		}
+		
+		public void block() {
+			blocked.countDown();
+			try {
+				release.await();
+			} catch(InterruptedException e){}
+		}
+	}
+	
+	private Map<Field, Object> config;
+	private TestFramework server;
+	private TestFramework client;
+	private ServiceImpl service;
+	private Service proxy;
+	
+	protected void setUp() throws Exception {
+		config = TestFramework.saveConfig();
+		TestFramework.silenceLog();
+		server = new TestFramework();
+		server.start();
+		client = new TestFramework(Config.PROP_TIMEOUT, "2000");
+		client.start();
+		
+		service = new ServiceImpl();
+		EndpointDescription endpoint = server.export(Service.class, service);
+		proxy = client.importService(Service.class, endpoint);
+	}
+	
+	protected void tearDown() throws Exception {
+		service.release.countDown();
+		client.stop();
+		server.stop();
+		TestFramework.restoreConfig(config);
+	}
+	
+	public void testConcurrentCalls() throws Exception {
+		final AtomicInteger mismatches = new AtomicInteger();
+		Thread[] threads = new Thread[32];
+		for(int t=0;t<threads.length;t++){
+			final int offset = t * 1000;
+			threads[t] = new Thread(){
+				public void run(){
+					for(int i=offset;i<offset+20;i++){
+						if(proxy.echo(i)!=i){
+							mismatches.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for(Thread thread : threads){
+			thread.join();
+		}
+		
+		assertEquals(0, mismatches.get());
+		assertNoPendingCalls();
+	}
+	
+	public void testTimeoutRemovesCall() throws Exception {
+		try {
+			proxy.block();
+			fail("Expected a ServiceException");
+		} catch(ServiceException e){
+			assertTrue(e.getCause().getCause() instanceof TimeoutException);
+		}
+		assertNoPendingCalls();
+	}
+	
+	public void testClosedChannelFailsCalls() throws Exception {
+		final AtomicInteger failed = new AtomicInteger();
+		Thread caller = new Thread(){
+			public void run(){
+				try {
+					proxy.block();
+				} catch(ServiceException e){
+					failed.incrementAndGet();
+				}
+			}
+		};
+		caller.start();
+		assertTrue(service.blocked.await(10, TimeUnit.SECONDS));
+		
+		long start = System.currentTimeMillis();
+		server.stop();
+		caller.join(10000);
+		
+		assertEquals(1, failed.get());
+		// the call fails when the channel closes rather than when it times out
+		assertTrue(System.currentTimeMillis() - start < Config.TIMEOUT);
+		assertNoPendingCalls();
+	}
+	
+	private void assertNoPendingCalls(){
+		assertTrue(client.admin.callbacks.isEmpty());
+		for(Set<ROSGiServiceAdmin.WaitingCallback> pending : client.admin.channelCallbacks.values()){
+			assertTrue(pending.isEmpty());
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.ServiceException;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+public class StreamArgumentsTest extends TestCase {
+
+	public interface Service {
+		long checksum(InputStream in) throws IOException;
+		
+		long checksum(ByteBuffer buffer);
+		
+		long checksum(File file) throws IOException;
+		
+		int head(InputStream in, int length) throws IOException;
+	}
+	
+	public static class ServiceImpl implements Service {
+		public long checksum(InputStream in) throws IOException {
+			try {
+				byte[] buffer = new byte[1000];
+				long sum = 0;
+				int read;
+				while((read = in.read(buffer)) != -1){
+					sum = update(sum, buffer, read);
+				}
+				return sum;
+			} finally {
+				in.close();
+			}
+		}
+		
+		public long checksum(ByteBuffer buffer) {
+			byte[] data = new byte[buffer.remaining()];
+			buffer.get(data);
+			return update(0, data, data.length);
+		}
+		
+		public long checksum(File file) throws IOException {
+			return checksum(new FileInputStream(file));
+		}
+		
+		public int head(InputStream in, int length) throws IOException {
+			int read = 0;
+			while(read < length && in.read() != -1){
+				read++;
+			}
+			return read;
+		}
+	}
+	
+	private Map<Field, Object> config;
+	private TestFramework server;
+	private TestFramework client;
+	private Service proxy;
+	
+	protected void setUp() throws Exception {
+		config = TestFramework.saveConfig();
+		TestFramework.silenceLog();
+		// small chunks and window, so the sender waits for credits
+		server = new TestFramework(Config.PROP_STREAM_CHUNK, "4096", Config.PROP_STREAM_WINDOW, "2");
+		server.start();
+		client = new TestFramework(Config.PROP_STREAM_CHUNK, "4096", Config.PROP_STREAM_WINDOW, "2");
+		client.start();
+		
+		EndpointDescription endpoint = server.export(Service.class, new ServiceImpl());
+		proxy = client.importService(Service.class, endpoint);
+	}
+	
+	protected void tearDown() throws Exception {
+		client.stop();
+		server.stop();
+		TestFramework.restoreConfig(config);
+	}
+	
+	public void testInputStream() throws Exception {
+		byte[] data = data(1000000);
+		assertEquals(update(0, data, data.length), proxy.checksum(new ByteArrayInputStream(data)));
+		
+		// an empty stream
+		assertEquals(0, proxy.checksum(new ByteArrayInputStream(new byte[0])));
+	}
+	
+	public void testByteBuffer() throws Exception {
+		byte[] data = data(100000);
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		assertEquals(update(0, data, data.length), proxy.checksum(buffer));
+		// the buffer of the caller is not consumed
+		assertEquals(data.length, buffer.remaining());
+	}
+	
+	public void testFile() throws Exception {
+		byte[] data = data(50000);
+		File file = File.createTempFile("aiolos-rsa", ".bin");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			try {
+				out.write(data);
+			} finally {
+				out.close();
+			}
+			assertEquals(update(0, data, data.length), proxy.checksum(file));
+		} finally {
+			file.delete();
+		}
+	}
+	
+	public void testPartiallyReadStream() throws Exception {
+		// the rest of the stream is dropped when the call returns
+		assertEquals(10, proxy.head(new ByteArrayInputStream(data(1000000)), 10));
+		
+		byte[] data = data(20000);
+		assertEquals(update(0, data, data.length), proxy.checksum(new ByteArrayInputStream(data)));
+	}
+	
+	public void testFailingStream() throws Exception {
+		InputStream failing = new InputStream(){
+			int read = 0;
+			
+			public int read() throws IOException {
+				if(++read > 10000){
+					throw new IOException("broken source");
+				}
+				return read & 0xFF;
+			}
+		};
+		try {
+			proxy.checksum(failing);
+			fail("Expected the call to fail");
+		} catch(IOException e){
+			// the service reads a failed stream
+		} catch(ServiceException e){
+			// or the call fails at the client
+		}
+		
+		byte[] data = data(20000);
+		assertEquals(update(0, data, data.length), proxy.checksum(new ByteArrayInputStream(data)));
+	}
+	
+	private static byte[] data(int length){
+		byte[] data = new byte[length];
+		for(int i=0;i<length;i++){
+			data[i] = (byte)(i * 31);
+		}
+		return data;
+	}
+	
+	private static long update(long sum, byte[] data, int length){
+		for(int i=0;i<length;i++){
+			sum = sum * 31 + data[i];
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+/**
+ * Iterator and Iterable results are streamed in batches between two frameworks.
+ */
+public class StreamedCallsTest extends TestCase {
+
+	public interface Service {
+		Iterator<Integer> range(int n);
+		
+		Iterable<String> names(int n);
+		
+		Iterator<Integer> failing(int after);
+	}
+	
+	public static class ServiceImpl implements Service {
+		final CountDownLatch closed = new CountDownLatch(1);
+		
+		public Iterator<Integer> range(final int n) {
+			return new Range(n, closed);
+		}
+		
+		public Iterable<String> names(int n) {
+			List<String> names = new ArrayList<String>();
+			for(int i=0;i<n;i++){
+				names.add("name"+i);
+			}
+			return names;
+		}
+		
+		public Iterator<Integer> failing(final int after) {
+			return new Iterator<Integer>(){
+				int next = 0;
+				
+				public boolean hasNext() {
+					return true;
+				}
+				
+				public Integer next() {
+					if(next==after){
+						throw new IllegalStateException("failed after "+after);
+					}
+					return next++;
+				}
+				
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+	
+	static class Range implements Iterator<Integer>, Closeable {
+		private final int n;
+		private final CountDownLatch closed;
+		private int next = 0;
+		
+		Range(int n, CountDownLatch closed){
+			this.n = n;
+			this.closed = closed;
+		}
+		
+		public boolean hasNext() {
+			return next < n;
+		}
+		
+		public Integer next() {
+			if(next >= n){
+				throw new NoSuchElementException();
+			}
+			return next++;
+		}
+		
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		public void close() {
+			closed.countDown();
+		}
+	}
+	
+	private Map<Field, Object> config;
+	private TestFramework server;
+	private TestFramework client;
+	private ServiceImpl service;
+	private Service proxy;
+	
+	protected void setUp() throws Exception {
+		config = TestFramework.saveConfig();
+		TestFramework.silenceLog();
+		// small batches and window, so the server waits for demand
+		server = new TestFramework(Config.PROP_RESULT_BATCH, "10", Config.PROP_RESULT_WINDOW, "2");
+		server.start();
+		client = new TestFramework(Config.PROP_RESULT_BATCH, "10", Config.PROP_RESULT_WINDOW, "2");
+		client.start();
+		
+		service = new ServiceImpl();
+		EndpointDescription endpoint = server.export(Service.class, service);
+		proxy = client.importService(Service.class, endpoint);
+	}
+	
+	protected void tearDown() throws Exception {
+		client.stop();
+		server.stop();
+		TestFramework.restoreConfig(config);
+	}
+	
+	public void testIterator() throws Exception {
+		Iterator<Integer> it = proxy.range(1000);
+		for(int i=0;i<1000;i++){
+			assertTrue(it.hasNext());
+			assertEquals(i, it.next().intValue());
+		}
+		assertFalse(it.hasNext());
+		assertTrue(service.closed.await(10, TimeUnit.SECONDS));
+	}
+	
+	public void testIterable() throws Exception {
+		int count = 0;
+		for(String name : proxy.names(55)){
+			assertEquals("name"+count, name);
+			count++;
+		}
+		assertEquals(55, count);
+	}
+	
+	public void testClosedEarly() throws Exception {
+		Iterator<Integer> it = proxy.range(1000000);
+		assertEquals(0, it.next().intValue());
+		((Closeable)it).close();
+		// the server stops producing and closes the result
+		assertTrue(service.closed.await(10, TimeUnit.SECONDS));
+		
+		assertFalse(proxy.range(0).hasNext());
+	}
+	
+	public void testFailure() throws Exception {
+		Iterator<Integer> it = proxy.failing(25);
+		int count = 0;
+		try {
+			while(it.hasNext()){
+				it.next();
+				count++;
+			}
+			fail("Expected the failure of the iterator");
+		} catch(RuntimeException e){
+			// no items past the failure are received
+			assertTrue(count <= 25);
+		}
+	}
+}
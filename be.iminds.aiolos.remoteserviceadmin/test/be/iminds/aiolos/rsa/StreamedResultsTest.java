@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import junit.framework.TestCase;
+
+import be.iminds.aiolos.rsa.exception.ROSGiException;
+import be.iminds.aiolos.rsa.network.api.MessageFuture;
+import be.iminds.aiolos.rsa.network.api.MessageSender;
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.message.InterruptMessage;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+import be.iminds.aiolos.rsa.network.message.ResultBatchMessage;
+import be.iminds.aiolos.rsa.network.message.ResultDemandMessage;
+import be.iminds.aiolos.rsa.network.message.StreamedResult;
+
+public class StreamedResultsTest extends TestCase {
+
+	private final List<ROSGiMessage> sent = new ArrayList<ROSGiMessage>();
+	
+	private final MessageSender sender = new MessageSender() {
+		public void sendMessage(ROSGiMessage msg, NetworkChannel channel) throws ROSGiException {
+			synchronized(sent){
+				sent.add(msg);
+			}
+		}
+		
+		public ROSGiMessage sendAndWaitMessage(ROSGiMessage msg, NetworkChannel channel) {
+			throw new UnsupportedOperationException();
+		}
+		
+		public MessageFuture sendAsyncMessage(ROSGiMessage msg, NetworkChannel channel) {
+			throw new UnsupportedOperationException();
+		}
+		
+		public ROSGiMessage sendAndWaitMessage(ROSGiMessage msg, NetworkChannel channel, long timeout) {
+			throw new UnsupportedOperationException();
+		}
+		
+		public MessageFuture sendAsyncMessage(ROSGiMessage msg, NetworkChannel channel, long timeout) {
+			throw new UnsupportedOperationException();
+		}
+	};
+	
+	private ScheduledExecutorService timer;
+	private StreamedResults results;
+	private int timeout;
+	
+	protected void setUp(){
+		timeout = Config.TIMEOUT;
+		timer = Executors.newSingleThreadScheduledExecutor();
+		results = new StreamedResults(sender, timer);
+	}
+	
+	protected void tearDown(){
+		timer.shutdownNow();
+		Config.TIMEOUT = timeout;
+	}
+	
+	public void testBatches() throws Throwable {
+		StreamedResult first = (StreamedResult) results.open(new Items(250), 1, null);
+		assertEquals(Config.RESULT_BATCH_SIZE, first.getItems().length);
+		assertFalse(first.isLast());
+		
+		results.received(new ResultDemandMessage(1, 5));
+		assertEquals(2, sent.size());
+		assertEquals(100, ((ResultBatchMessage)sent.get(0)).getItems().length);
+		assertFalse(((ResultBatchMessage)sent.get(0)).isLast());
+		assertEquals(50, ((ResultBatchMessage)sent.get(1)).getItems().length);
+		assertTrue(((ResultBatchMessage)sent.get(1)).isLast());
+	}
+	
+	public void testSingleBatch() throws Throwable {
+		Items items = new Items(10);
+		StreamedResult first = (StreamedResult) results.open(items, 1, null);
+		assertTrue(first.isLast());
+		assertEquals(10, first.getItems().length);
+		assertTrue(items.closed);
+	}
+	
+	public void testIdleResultExpires() throws Throwable {
+		Config.TIMEOUT = 100;
+		Items items = new Items(1000);
+		results.open(items, 1, null);
+		
+		long deadline = System.currentTimeMillis() + 5000;
+		while(!items.closed && System.currentTimeMillis() < deadline){
+			Thread.sleep(10);
+		}
+		assertTrue(items.closed);
+		synchronized(sent){
+			assertEquals(1, sent.size());
+			assertTrue(((ResultBatchMessage)sent.get(0)).isFailed());
+		}
+		
+		// a late demand is ignored
+		results.received(new ResultDemandMessage(1, 1));
+		assertEquals(1, sent.size());
+	}
+	
+	public void testDemandKeepsResultOpen() throws Throwable {
+		Config.TIMEOUT = 200;
+		Items items = new Items(1000);
+		results.open(items, 1, null);
+		
+		for(int i=0;i<4;i++){
+			Thread.sleep(100);
+			results.received(new ResultDemandMessage(1, 1));
+		}
+		assertFalse(items.closed);
+	}
+	
+	public void testClosedIteratorInterrupts() throws Exception {
+		Iterator<?> iterator = (Iterator<?>) results.open(new StreamedResult(new Object[]{1, 2}, false), 7, null, Iterator.class);
+		assertTrue(sent.get(0) instanceof ResultDemandMessage);
+		assertEquals(1, iterator.next());
+		
+		((Closeable)iterator).close();
+		assertTrue(sent.get(1) instanceof InterruptMessage);
+		assertEquals(7, sent.get(1).getXID());
+	}
+	
+	public void testAbandonedIteratorInterrupts() throws Exception {
+		Iterator<?> iterator = (Iterator<?>) results.open(new StreamedResult(new Object[]{1, 2}, false), 7, null, Iterator.class);
+		assertEquals(1, iterator.next());
+		iterator = null;
+		
+		long deadline = System.currentTimeMillis() + 5000;
+		while(sent.size() < 2 && System.currentTimeMillis() < deadline){
+			System.gc();
+			Thread.sleep(10);
+			// the collected iterators are purged when a batch is received
+			results.received(new ResultBatchMessage(8, 1, new Object[0], true));
+		}
+		assertEquals(2, sent.size());
+		assertTrue(sent.get(1) instanceof InterruptMessage);
+		assertEquals(7, sent.get(1).getXID());
+	}
+	
+	public void testFailedBatchEndsIterator() throws Exception {
+		Iterator<?> iterator = (Iterator<?>) results.open(new StreamedResult(new Object[]{1}, false), 7, null, Iterator.class);
+		results.received(new ResultBatchMessage(7, 1, new IllegalStateException("expired")));
+		assertEquals(1, iterator.next());
+		try {
+			iterator.hasNext();
+			fail("Expected the exception of the failed batch");
+		} catch(IllegalStateException e){
+			// expected
+		}
+		assertFalse(iterator.hasNext());
+	}
+	
+	/*
+	 * Closeable iterator over a number of integers
+	 */
+	private static class Items implements Iterator<Object>, Closeable {
+		
+		private final int size;
+		private int next = 0;
+		volatile boolean closed = false;
+		
+		Items(int size){
+			this.size = size;
+		}
+		
+		public boolean hasNext() {
+			return next < size;
+		}
+
+		public Object next() {
+			return next++;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		public void close(){
+			closed = true;
+		}
+	}
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.service.remoteserviceadmin.ExportRegistration;
+import org.osgi.service.remoteserviceadmin.ImportRegistration;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
+
+/**
+ * Runs a ROSGiServiceAdmin without an OSGi framework. The bundle context only offers 
+ * what the admin uses: framework properties, the service objects of exported 
+ * services and the registration of imported proxies.
+ */
+class TestFramework {
+
+	private static final AtomicLong serviceIds = new AtomicLong(1000);
+	
+	private final Map<String, String> properties = new HashMap<String, String>();
+	private final Map<ServiceReference<?>, Object> services = new HashMap<ServiceReference<?>, Object>();
+	private final List<Object> registered = new ArrayList<Object>();
+	private final Map<String, ExportRegistration> exports = new HashMap<String, ExportRegistration>();
+	private final Bundle bundle;
+	final BundleContext context;
+	final ROSGiServiceAdmin admin;
+	
+	/**
+	 * Create a framework with the given property keys and values, 
+	 * channels use TCP on a free port of the loopback interface by default
+	 */
+	TestFramework(String... keyValues){
+		properties.put("org.osgi.framework.uuid", UUID.randomUUID().toString());
+		properties.put(Config.PROP_IP, "127.0.0.1");
+		properties.put(Config.PROP_PORT, "0");
+		properties.put(Config.PROP_LOCAL, "false");
+		for(int i=0;i<keyValues.length;i+=2){
+			properties.put(keyValues[i], keyValues[i+1]);
+		}
+		
+		context = (BundleContext) mock(BundleContext.class, new InvocationHandler(){
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if(name.equals("getProperty")){
+					return properties.get(args[0]);
+				} else if(name.equals("createFilter")){
+					return FrameworkUtil.createFilter((String)args[0]);
+				} else if(name.equals("getService")){
+					synchronized(services){
+						return services.get(args[0]);
+					}
+				} else if(name.equals("ungetService")){
+					return true;
+				} else if(name.equals("registerService")){
+					return register(args[1], (Dictionary<?, ?>)args[2]);
+				} else if(name.equals("getBundle")){
+					return bundle;
+				}
+				return null;
+			}
+		});
+		bundle = (Bundle) mock(Bundle.class, new InvocationHandler(){
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if(name.equals("adapt") && args[0]==BundleWiring.class){
+					return mock(BundleWiring.class, null);
+				} else if(name.equals("getBundleContext")){
+					return context;
+				} else if(name.equals("getSymbolicName")){
+					return "be.iminds.aiolos.rsa.test";
+				}
+				return null;
+			}
+		});
+		admin = new ROSGiServiceAdmin(context);
+	}
+	
+	void start() throws Exception {
+		admin.activate();
+	}
+	
+	void stop(){
+		admin.deactivate();
+	}
+	
+	/**
+	 * Export a service object and return the endpoint description to import it
+	 */
+	<T> EndpointDescription export(Class<T> iface, T service, String... keyValues) throws Exception {
+		return export(new Class<?>[]{iface}, service, keyValues);
+	}
+	
+	/**
+	 * Export a service object under multiple interfaces
+	 */
+	EndpointDescription export(Class<?>[] ifaces, Object service, String... keyValues) throws Exception {
+		String[] names = new String[ifaces.length];
+		for(int i=0;i<ifaces.length;i++){
+			names[i] = ifaces[i].getName();
+		}
+		final Hashtable<String, Object> props = new Hashtable<String, Object>();
+		props.put("service.id", serviceIds.incrementAndGet());
+		props.put("objectClass", names);
+		props.put(RemoteConstants.SERVICE_EXPORTED_INTERFACES, names);
+		for(int i=0;i<keyValues.length;i+=2){
+			props.put(keyValues[i], keyValues[i+1]);
+		}
+		ServiceReference<?> reference = reference(props);
+		synchronized(services){
+			services.put(reference, service);
+		}
+		
+		ExportRegistration registration = admin.exportService(reference, null).iterator().next();
+		if(registration.getException()!=null){
+			throw new Exception("Export failed", registration.getException());
+		}
+		EndpointDescription endpoint = registration.getExportReference().getExportedEndpoint();
+		synchronized(exports){
+			exports.put(endpoint.getId(), registration);
+		}
+		return endpoint;
+	}
+	
+	/**
+	 * Close the export registration of an endpoint
+	 */
+	void unexport(EndpointDescription endpoint){
+		ExportRegistration registration;
+		synchronized(exports){
+			registration = exports.remove(endpoint.getId());
+		}
+		registration.close();
+	}
+	
+	/**
+	 * Import an endpoint and return the registered proxy
+	 */
+	<T> T importService(Class<T> iface, EndpointDescription endpoint) throws Exception {
+		ImportRegistration registration = admin.importService(endpoint);
+		if(registration.getException()!=null){
+			throw new Exception("Import failed", registration.getException());
+		}
+		return proxy(iface, registration.getImportReference().getImportedService());
+	}
+	
+	/**
+	 * The proxy registered for an imported service
+	 */
+	<T> T proxy(Class<T> iface, ServiceReference<?> reference){
+		synchronized(services){
+			return iface.cast(services.get(reference));
+		}
+	}
+	
+	private ServiceRegistration<?> register(Object service, Dictionary<?, ?> dictionary){
+		final Hashtable<String, Object> props = new Hashtable<String, Object>();
+		for(Enumeration<?> keys = dictionary.keys(); keys.hasMoreElements();){
+			Object key = keys.nextElement();
+			props.put(key.toString(), dictionary.get(key));
+		}
+		props.put("service.id", serviceIds.incrementAndGet());
+		final ServiceReference<?> reference = reference(props);
+		synchronized(services){
+			services.put(reference, service);
+			registered.add(service);
+		}
+		return (ServiceRegistration<?>) mock(ServiceRegistration.class, new InvocationHandler(){
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if(name.equals("getReference")){
+					return reference;
+				} else if(name.equals("unregister")){
+					synchronized(services){
+						registered.remove(services.remove(reference));
+					}
+				}
+				return null;
+			}
+		});
+	}
+	
+	List<Object> getRegistered(){
+		synchronized(services){
+			return new ArrayList<Object>(registered);
+		}
+	}
+	
+	private ServiceReference<?> reference(final Hashtable<String, Object> props){
+		return (ServiceReference<?>) mock(ServiceReference.class, new InvocationHandler(){
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if(name.equals("getProperty")){
+					return props.get(args[0]);
+				} else if(name.equals("getPropertyKeys")){
+					return props.keySet().toArray(new String[props.size()]);
+				} else if(name.equals("getBundle")){
+					return bundle;
+				} 
+				return null;
+			}
+		});
+	}
+	
+	/*
+	 * Implement an interface with a handler, Object methods use the identity of the proxy 
+	 * and other methods the handler has no answer for return an empty value
+	 */
+	private static Object mock(final Class<?> iface, final InvocationHandler handler){
+		return Proxy.newProxyInstance(TestFramework.class.getClassLoader(), new Class<?>[]{iface}, 
+				new InvocationHandler(){
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if(name.equals("equals") && method.getParameterTypes().length==1){
+					return proxy==args[0];
+				} else if(name.equals("hashCode") && method.getParameterTypes().length==0){
+					return System.identityHashCode(proxy);
+				} else if(name.equals("toString") && method.getParameterTypes().length==0){
+					return iface.getSimpleName()+"@"+Integer.toHexString(System.identityHashCode(proxy));
+				}
+				Object result = handler==null ? null : handler.invoke(proxy, method, args);
+				if(result!=null){
+					return result;
+				}
+				Class<?> type = method.getReturnType();
+				if(type==boolean.class){
+					return false;
+				} else if(type==int.class){
+					return 0;
+				} else if(type==long.class){
+					return 0L;
+				} else if(type==List.class){
+					return Collections.emptyList();
+				}
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * The static configuration is changed by activating a framework, 
+	 * take a copy to restore it afterwards
+	 */
+	static Map<Field, Object> saveConfig() throws Exception {
+		Map<Field, Object> values = new HashMap<Field, Object>();
+		for(Field field : Config.class.getFields()){
+			if(Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers())){
+				values.put(field, field.get(null));
+			}
+		}
+		return values;
+	}
+	
+	static void restoreConfig(Map<Field, Object> values) throws Exception {
+		for(Map.Entry<Field, Object> value : values.entrySet()){
+			value.getKey().set(null, value.getValue());
+		}
+	}
+	
+	/**
+	 * Log nothing, the logger of the bundle activator is not set outside a framework
+	 */
+	static void silenceLog(){
+		Activator.logger = new Activator().new Logger(){
+			@Override
+			public synchronized void log(int level, String message, Throwable exception){}
+		};
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+import be.iminds.aiolos.rsa.api.ChannelStatistics;
+import be.iminds.aiolos.rsa.api.MethodStatistics;
+
+/**
+ * Both sides count the calls of each method and the traffic of each channel.
+ */
+public class TransportMetricsTest extends TestCase {
+
+	public interface Service {
+		int add(int a, int b);
+		
+		void fail();
+	}
+	
+	public static class ServiceImpl implements Service {
+		public int add(int a, int b) {
+			return a + b;
+		}
+		
+		public void fail() {
+			throw new IllegalStateException("failed");
+		}
+	}
+	
+	private Map<Field, Object> config;
+	private TestFramework server;
+	private TestFramework client;
+	private EndpointDescription endpoint;
+	private Service proxy;
+	
+	protected void setUp() throws Exception {
+		config = TestFramework.saveConfig();
+		TestFramework.silenceLog();
+		server = new TestFramework();
+		server.start();
+		client = new TestFramework();
+		client.start();
+		
+		endpoint = server.export(Service.class, new ServiceImpl());
+		proxy = client.importService(Service.class, endpoint);
+	}
+	
+	protected void tearDown() throws Exception {
+		client.stop();
+		server.stop();
+		TestFramework.restoreConfig(config);
+	}
+	
+	public void testMethodStatistics() throws Exception {
+		for(int i=0;i<10;i++){
+			assertEquals(i+1, proxy.add(i, 1));
+		}
+		for(int i=0;i<2;i++){
+			try {
+				proxy.fail();
+				fail("Expected an exception");
+			} catch(IllegalStateException e){
+				// expected
+			}
+		}
+		
+		MethodStatistics imported = find(client.admin.getMethodStatistics(), "add");
+		assertTrue(imported.isImported());
+		assertEquals(endpoint.getId(), imported.getEndpointId());
+		assertEquals(10, imported.getCalls());
+		assertEquals(0, imported.getFailures());
+		assertEquals(10, imported.getLatencies().getCount());
+		assertEquals(2, find(client.admin.getMethodStatistics(), "fail").getFailures());
+		
+		MethodStatistics exported = find(server.admin.getMethodStatistics(), "add");
+		assertFalse(exported.isImported());
+		assertEquals(endpoint.getId(), exported.getEndpointId());
+		assertEquals(10, exported.getCalls());
+		assertEquals(10, exported.getLatencies().getCount());
+		// the time in the service is part of the time of the caller
+		assertTrue(exported.getLatencies().getTotalNanos() <= imported.getLatencies().getTotalNanos());
+		
+		MethodStatistics failed = find(server.admin.getMethodStatistics(), "fail");
+		assertEquals(2, failed.getCalls());
+		assertEquals(2, failed.getFailures());
+	}
+	
+	public void testChannelStatistics() throws Exception {
+		for(int i=0;i<10;i++){
+			proxy.add(i, 1);
+		}
+		
+		List<ChannelStatistics> channels = client.admin.getChannelStatistics();
+		assertEquals(1, channels.size());
+		ChannelStatistics channel = channels.get(0);
+		assertEquals(endpoint.getId().substring("r-osgi://".length(), endpoint.getId().indexOf('#')), 
+				channel.getRemoteAddress());
+		assertTrue(channel.getMessagesSent() >= 10);
+		assertTrue(channel.getMessagesReceived() >= 10);
+		assertTrue(channel.getBytesSent() > 0);
+		assertTrue(channel.getBytesReceived() > 0);
+		assertEquals(0, channel.getPendingCalls());
+		assertEquals(0, channel.getTimeouts());
+		assertTrue(channel.getRoundTripTimes().getCount() >= 10);
+		
+		// the server received what the client sent
+		List<ChannelStatistics> serverChannels = server.admin.getChannelStatistics();
+		assertEquals(1, serverChannels.size());
+		assertTrue(serverChannels.get(0).getMessagesReceived() >= 10);
+		assertTrue(serverChannels.get(0).getBytesReceived() > 0);
+	}
+	
+	private MethodStatistics find(List<MethodStatistics> statistics, String method){
+		for(MethodStatistics s : statistics){
+			if(s.getMethod().startsWith(method+"(")){
+				return s;
+			}
+		}
+		fail("No statistics for "+method);
+		return null;
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import be.iminds.aiolos.rsa.network.api.ChannelMetrics;
+import be.iminds.aiolos.rsa.network.api.MessageReceiver;
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.message.MessageFrame;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+import be.iminds.aiolos.rsa.network.message.StreamChunkMessage;
+import be.iminds.aiolos.rsa.network.message.StreamCreditMessage;
+import be.iminds.aiolos.rsa.serialization.api.SerializationException;
+
+public class ChannelPoolTest extends TestCase {
+
+	private final List<TestChannel> connections = new ArrayList<TestChannel>();
+	
+	private final ChannelPool.Connector connector = new ChannelPool.Connector() {
+		public NetworkChannel connect(MessageReceiver receiver) throws IOException {
+			TestChannel channel = new TestChannel();
+			connections.add(channel);
+			return channel;
+		}
+	};
+	
+	private final MessageReceiver receiver = new MessageReceiver() {
+		public void receivedMessage(ROSGiMessage msg, NetworkChannel channel) {}
+		public void receivedFrame(MessageFrame frame, NetworkChannel channel) {}
+	};
+	
+	public void testBytesPerConnection() throws Exception {
+		ChannelPool pool = ChannelPool.open("peer", receiver, 1, -1, connector);
+		pool.sendMessage(new StreamCreditMessage(5, 3));
+		
+		MessageFrame frame = connections.get(0).frames.get(0);
+		assertEquals(frame.getLength(), pool.getBytes(0));
+		assertEquals(frame.getLength(), pool.getMetrics().getBytesSent());
+	}
+	
+	public void testLargeMessagesUseFirstConnection() throws Exception {
+		ChannelPool pool = ChannelPool.open("peer", receiver, 3, 1000, connector);
+		pool.sendMessage(new StreamChunkMessage(1L, 1, 0, (byte)0, new byte[2000], 2000));
+		pool.sendMessage(new StreamCreditMessage(5, 3));
+		
+		assertEquals(1, connections.get(0).frames.size());
+		assertEquals(1, connections.get(1).frames.size() + connections.get(2).frames.size());
+		assertTrue(pool.isLargeMessageChannel(0));
+	}
+	
+	public void testLeastLoadedConnection() throws Exception {
+		ChannelPool pool = ChannelPool.open("peer", receiver, 2, -1, connector);
+		connections.get(0).queued = 100;
+		for(int i=0;i<4;i++){
+			pool.sendMessage(new StreamCreditMessage(5, 3));
+		}
+		assertEquals(0, connections.get(0).frames.size());
+		assertEquals(4, connections.get(1).frames.size());
+	}
+	
+	/*
+	 * Version 2 connection that keeps the frames it is asked to send
+	 */
+	private static class TestChannel implements FrameChannel {
+		
+		final List<MessageFrame> frames = new ArrayList<MessageFrame>();
+		long queued = 0;
+		private final ChannelMetrics metrics = new ChannelMetrics(this);
+		
+		public String getRemoteAddress() {
+			return "peer";
+		}
+		
+		public String getLocalAddress() {
+			return "local";
+		}
+		
+		public int getProtocolVersion() {
+			return ROSGiMessage.VERSION_2;
+		}
+		
+		public void sendMessage(ROSGiMessage message) throws SerializationException, IOException {
+			sendFrame(MessageFrame.encode(message));
+		}
+		
+		public void registerClasses(Class<?>[] classes) {}
+		
+		public ChannelMetrics getMetrics() {
+			return metrics;
+		}
+		
+		public void close() {}
+		
+		public void sendFrame(MessageFrame frame) {
+			frames.add(frame);
+		}
+		
+		public long getQueuedBytes() {
+			return queued;
+		}
+	}
+}
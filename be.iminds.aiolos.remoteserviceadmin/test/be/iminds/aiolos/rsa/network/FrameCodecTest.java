@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import be.iminds.aiolos.rsa.Activator;
+import be.iminds.aiolos.rsa.network.api.MessageReceiver;
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.message.MessageFrame;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+import be.iminds.aiolos.rsa.network.message.RemoteCallMessage;
+
+/**
+ * Classes registered on one side of a version 3 channel are announced to the peer 
+ * before they are used.
+ */
+public class FrameCodecTest extends TestCase {
+
+	public static class Point {
+		int x;
+		int y;
+	}
+	
+	private final BlockingQueue<MessageFrame> frames = new LinkedBlockingQueue<MessageFrame>();
+	
+	private final MessageReceiver receiver = new MessageReceiver() {
+		public void receivedMessage(ROSGiMessage msg, NetworkChannel channel) {}
+		
+		public void receivedFrame(MessageFrame frame, NetworkChannel channel) {
+			frames.add(frame);
+		}
+	};
+	
+	private ServerSocket server;
+	private TCPChannel sender;
+	private TCPChannel receiving;
+	
+	protected void setUp() throws Exception {
+		Activator.logger = new Activator().new Logger(){
+			@Override
+			public synchronized void log(int level, String message, Throwable exception){}
+		};
+		server = new ServerSocket(0);
+		Socket socket = new Socket("127.0.0.1", server.getLocalPort());
+		sender = new TCPChannel(socket, receiver, ROSGiMessage.VERSION_3, null);
+		receiving = new TCPChannel(server.accept(), receiver, ROSGiMessage.VERSION_3, null);
+	}
+	
+	protected void tearDown() throws Exception {
+		sender.close();
+		receiving.close();
+		server.close();
+	}
+	
+	public void testRegisteredClassesAreAnnounced() throws Exception {
+		Point p = new Point();
+		p.x = 1;
+		p.y = 2;
+		
+		sender.sendMessage(new RemoteCallMessage(1, (short)0, new Object[]{p}));
+		MessageFrame unregistered = take();
+		
+		sender.registerClasses(new Class<?>[]{Point.class});
+		sender.sendMessage(new RemoteCallMessage(1, (short)0, new Object[]{p}));
+		// the class table is handled by the channel and not passed on
+		MessageFrame registered = take();
+		
+		assertEquals(ROSGiMessage.COMPACT_REMOTE_CALL, registered.getFuncID());
+		assertTrue(registered.getLength() < unregistered.getLength());
+		Point decoded = (Point) ((RemoteCallMessage) registered.decode()).getArgs()[0];
+		assertEquals(1, decoded.x);
+		assertEquals(2, decoded.y);
+	}
+	
+	public void testClassesAreAnnouncedOnce() throws Exception {
+		sender.registerClasses(new Class<?>[]{Point.class});
+		long sent = sender.getMetrics().getMessagesSent();
+		long bytes = sender.getMetrics().getBytesSent();
+		sender.registerClasses(new Class<?>[]{Point.class});
+		assertEquals(sent, sender.getMetrics().getMessagesSent());
+		assertEquals(bytes, sender.getMetrics().getBytesSent());
+	}
+	
+	public void testVersion2HasNoRegistry() throws Exception {
+		Socket socket = new Socket("127.0.0.1", server.getLocalPort());
+		TCPChannel v2 = new TCPChannel(socket, receiver, ROSGiMessage.VERSION_2, null);
+		TCPChannel peer = new TCPChannel(server.accept(), receiver, ROSGiMessage.VERSION_2, null);
+		try {
+			v2.registerClasses(new Class<?>[]{Point.class});
+			Point p = new Point();
+			p.x = 3;
+			v2.sendMessage(new RemoteCallMessage(1, (short)0, new Object[]{p}));
+			assertEquals(3, ((Point)((RemoteCallMessage) take().decode()).getArgs()[0]).x);
+		} finally {
+			v2.close();
+			peer.close();
+		}
+	}
+	
+	private MessageFrame take() throws InterruptedException {
+		MessageFrame frame = frames.poll(10, TimeUnit.SECONDS);
+		assertNotNull("No frame received", frame);
+		return frame;
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import be.iminds.aiolos.rsa.Activator;
+import be.iminds.aiolos.rsa.Config;
+import be.iminds.aiolos.rsa.network.api.MessageReceiver;
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.message.MessageFrame;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+import be.iminds.aiolos.rsa.network.message.RemoteCallMessage;
+import be.iminds.aiolos.rsa.util.URI;
+
+public class HandshakeTest extends TestCase {
+
+	private final BlockingQueue<ROSGiMessage> messages = new LinkedBlockingQueue<ROSGiMessage>();
+	private final BlockingQueue<MessageFrame> frames = new LinkedBlockingQueue<MessageFrame>();
+	
+	private final MessageReceiver receiver = new MessageReceiver() {
+		public void receivedMessage(ROSGiMessage msg, NetworkChannel channel) {
+			// a null message signals a closed channel
+			if(msg!=null){
+				messages.add(msg);
+			}
+		}
+		
+		public void receivedFrame(MessageFrame frame, NetworkChannel channel) {
+			frames.add(frame);
+		}
+	};
+	
+	private int protocolVersion;
+	
+	protected void setUp() throws Exception {
+		protocolVersion = Config.PROTOCOL_VERSION;
+		Activator.logger = new Activator().new Logger(){
+			@Override
+			public synchronized void log(int level, String message, Throwable exception){}
+		};
+	}
+	
+	protected void tearDown() throws Exception {
+		Config.PROTOCOL_VERSION = protocolVersion;
+	}
+	
+	public void testNegotiateLowestVersion() throws Exception {
+		Config.PROTOCOL_VERSION = 10;
+		assertEquals(3, Handshake.negotiate(Handshake.preamble(3)));
+		assertEquals(10, Handshake.negotiate(Handshake.preamble(12)));
+	}
+	
+	public void testInvalidPreamble() throws Exception {
+		byte[] preamble = Handshake.preamble(10);
+		preamble[1] = 'X';
+		try {
+			Handshake.negotiate(preamble);
+			fail("Expected an IOException");
+		} catch(IOException e){
+			// expected
+		}
+		
+		try {
+			Handshake.negotiate(Handshake.preamble(0));
+			fail("Expected an IOException");
+		} catch(IOException e){
+			// expected
+		}
+	}
+	
+	public void testAcceptPreamble() throws Exception {
+		Config.PROTOCOL_VERSION = 10;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(Handshake.preamble(5)));
+		
+		assertEquals(5, Handshake.accept(in, out));
+		assertTrue(Arrays.equals(Handshake.preamble(5), out.toByteArray()));
+	}
+	
+	public void testAcceptVersion1ResetsStream() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// Java serialization stream header of a version 1 peer
+		byte[] stream = new byte[]{(byte)0xAC, (byte)0xED, 0x00, 0x05};
+		BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(stream));
+		
+		assertEquals(ROSGiMessage.VERSION_1, Handshake.accept(in, out));
+		assertEquals(0, out.size());
+		byte[] read = new byte[stream.length];
+		new DataInputStream(in).readFully(read);
+		assertTrue(Arrays.equals(stream, read));
+	}
+	
+	public void testVersion1ClientToCurrentServer() throws Exception {
+		Config.PROTOCOL_VERSION = 10;
+		TCPChannelFactory server = new TCPChannelFactory(receiver, "127.0.0.1", null, 0);
+		server.activate();
+		try {
+			Config.PROTOCOL_VERSION = ROSGiMessage.VERSION_1;
+			NetworkChannel channel = TCPChannel.connect("127.0.0.1", new URI("r-osgi://"+server.getAddress()).getPort(), receiver);
+			try {
+				assertEquals(ROSGiMessage.VERSION_1, ((TCPChannel) channel).getProtocolVersion());
+				channel.sendMessage(new RemoteCallMessage(1, (short)2, new Object[]{"v1"}));
+				
+				// the server detects the missing preamble and speaks version 1
+				RemoteCallMessage call = (RemoteCallMessage) messages.poll(10, TimeUnit.SECONDS);
+				assertNotNull(call);
+				assertEquals(2, call.getMethodId());
+				assertEquals("v1", call.getArgs()[0]);
+				assertTrue(frames.isEmpty());
+			} finally {
+				channel.close();
+			}
+		} finally {
+			server.deactivate();
+		}
+	}
+	
+	public void testFallbackToVersion1() throws Exception {
+		Config.PROTOCOL_VERSION = 10;
+		final ServerSocket server = new ServerSocket(0);
+		final BlockingQueue<Socket> accepted = new LinkedBlockingQueue<Socket>();
+		Thread peer = new Thread(){
+			public void run(){
+				try {
+					// a version 1 peer does not understand the preamble and drops the connection
+					Socket first = server.accept();
+					new DataInputStream(first.getInputStream()).readFully(new byte[Handshake.LENGTH]);
+					first.close();
+					accepted.add(server.accept());
+				} catch(IOException e){}
+			}
+		};
+		peer.start();
+		try {
+			TCPChannel channel = TCPChannel.connect("127.0.0.1", server.getLocalPort(), receiver);
+			try {
+				assertEquals(ROSGiMessage.VERSION_1, channel.getProtocolVersion());
+				Socket second = accepted.poll(10, TimeUnit.SECONDS);
+				assertNotNull(second);
+				second.close();
+			} finally {
+				channel.close();
+			}
+		} finally {
+			server.close();
+			peer.join();
+		}
+	}
+}
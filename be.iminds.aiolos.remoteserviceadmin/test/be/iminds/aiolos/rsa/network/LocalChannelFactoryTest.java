@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import be.iminds.aiolos.rsa.Activator;
+import be.iminds.aiolos.rsa.network.api.MessageReceiver;
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.message.MessageFrame;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+import be.iminds.aiolos.rsa.network.message.StreamCreditMessage;
+import be.iminds.aiolos.rsa.util.URI;
+
+public class LocalChannelFactoryTest extends TestCase {
+
+	private static class Receiver implements MessageReceiver {
+		final BlockingQueue<ROSGiMessage> received = new LinkedBlockingQueue<ROSGiMessage>();
+		volatile NetworkChannel channel;
+		
+		public void receivedMessage(ROSGiMessage msg, NetworkChannel channel) {
+			if(msg!=null){
+				this.channel = channel;
+				received.add(msg);
+			}
+		}
+		
+		public void receivedFrame(MessageFrame frame, NetworkChannel channel) {
+			try {
+				receivedMessage(frame.decode(), channel);
+			} catch(Exception e){
+				throw new RuntimeException(e);
+			}
+		}
+		
+		StreamCreditMessage take() throws InterruptedException {
+			ROSGiMessage msg = received.poll(10, TimeUnit.SECONDS);
+			assertNotNull("Nothing received", msg);
+			return (StreamCreditMessage) msg;
+		}
+	}
+	
+	private final Receiver serverReceiver = new Receiver();
+	private final Receiver clientReceiver = new Receiver();
+	private final String serverId = UUID.randomUUID().toString();
+	private LocalChannelFactory server;
+	private LocalChannelFactory client;
+	private URI uri;
+	
+	protected void setUp() throws Exception {
+		Activator.logger = new Activator().new Logger(){
+			@Override
+			public synchronized void log(int level, String message, Throwable exception){}
+		};
+		String directory = System.getProperty("java.io.tmpdir");
+		server = new LocalChannelFactory(serverReceiver, 
+				new TCPChannelFactory(serverReceiver, "127.0.0.1", null, 0), directory, serverId);
+		server.activate();
+		client = new LocalChannelFactory(clientReceiver, 
+				new TCPChannelFactory(clientReceiver, "127.0.0.1", null, 0), directory, UUID.randomUUID().toString());
+		client.activate();
+		uri = new URI("r-osgi://"+server.getAddress());
+	}
+	
+	protected void tearDown() throws Exception {
+		client.deactivate();
+		server.deactivate();
+	}
+	
+	public void testUnixSocket() throws Exception {
+		if(!UnixSockets.isSupported()){
+			return;
+		}
+		String path = server.getLocalPath();
+		assertTrue(new File(path).exists());
+		
+		client.addRoute(uri.getAddress(), null, path);
+		NetworkChannel channel = client.getChannel(uri);
+		assertTrue(channel instanceof NIOChannel);
+		assertSame(channel, client.getChannel(uri));
+		assertEquals(uri.getAddress(), channel.getRemoteAddress());
+		
+		roundTrip(channel);
+	}
+	
+	public void testLoopback() throws Exception {
+		client.addRoute(uri.getAddress(), serverId, server.getLocalPath());
+		NetworkChannel channel = client.getChannel(uri);
+		assertTrue(channel instanceof LoopbackChannel);
+		
+		roundTrip(channel);
+	}
+	
+	public void testFallbackToDelegate() throws Exception {
+		File missing = new File(System.getProperty("java.io.tmpdir"), "aiolos-rsa-"+UUID.randomUUID()+".sock");
+		client.addRoute(uri.getAddress(), UUID.randomUUID().toString(), missing.getAbsolutePath());
+		NetworkChannel channel = client.getChannel(uri);
+		assertTrue(channel instanceof TCPChannel);
+		
+		roundTrip(channel);
+	}
+	
+	public void testSocketFileRemoved() throws Exception {
+		if(!UnixSockets.isSupported()){
+			return;
+		}
+		String path = server.getLocalPath();
+		server.deactivate();
+		assertFalse(new File(path).exists());
+		assertNull(server.getLocalPath());
+	}
+	
+	private void roundTrip(NetworkChannel channel) throws Exception {
+		channel.sendMessage(new StreamCreditMessage(1, 2));
+		StreamCreditMessage credit = serverReceiver.take();
+		assertEquals(1, credit.getStreamId());
+		assertEquals(2, credit.getCredits());
+		
+		serverReceiver.channel.sendMessage(new StreamCreditMessage(3, 4));
+		assertEquals(3, clientReceiver.take().getStreamId());
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import be.iminds.aiolos.rsa.api.ChannelStatistics;
+import be.iminds.aiolos.rsa.network.api.MessageReceiver;
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.message.MessageFrame;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+import be.iminds.aiolos.rsa.network.message.StreamCreditMessage;
+
+public class LoopbackChannelTest extends TestCase {
+
+	private final AtomicReference<MessageFrame> received = new AtomicReference<MessageFrame>();
+	private final AtomicReference<ROSGiMessage> message = new AtomicReference<ROSGiMessage>();
+	
+	private final MessageReceiver receiver = new MessageReceiver() {
+		public void receivedMessage(ROSGiMessage msg, NetworkChannel channel) {
+			message.set(msg);
+		}
+		
+		public void receivedFrame(MessageFrame frame, NetworkChannel channel) {
+			received.set(frame);
+		}
+	};
+	
+	public void testCopyCountsFrameBytes() throws Exception {
+		LoopbackChannel[] pair = LoopbackChannel.open(receiver, "a", receiver, "b", true);
+		StreamCreditMessage msg = new StreamCreditMessage(5, 3);
+		pair[0].sendMessage(msg);
+		
+		MessageFrame frame = received.get();
+		assertNotNull(frame);
+		assertEquals(MessageFrame.HEADER_LENGTH + 2, frame.getLength());
+		assertEquals(frame.getLength(), pair[0].getMetrics().getBytesSent());
+		assertEquals(1, pair[0].getMetrics().getMessagesSent());
+	}
+	
+	public void testNoCopyHasNoByteCounts() throws Exception {
+		LoopbackChannel[] pair = LoopbackChannel.open(receiver, "a", receiver, "b", false);
+		StreamCreditMessage msg = new StreamCreditMessage(5, 3);
+		pair[0].sendMessage(msg);
+		
+		assertSame(msg, message.get());
+		assertEquals(1, pair[0].getMetrics().getMessagesSent());
+		assertEquals(ChannelStatistics.UNAVAILABLE, pair[0].getMetrics().getBytesSent());
+		assertEquals(ChannelStatistics.UNAVAILABLE, pair[0].getMetrics().getEncodeNanos());
+	}
+}
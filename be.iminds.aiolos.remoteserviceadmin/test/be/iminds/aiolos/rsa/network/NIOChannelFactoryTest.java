@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import be.iminds.aiolos.rsa.Activator;
+import be.iminds.aiolos.rsa.network.api.MessageReceiver;
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.message.MessageFrame;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+import be.iminds.aiolos.rsa.network.message.StreamChunkMessage;
+import be.iminds.aiolos.rsa.network.message.StreamCreditMessage;
+import be.iminds.aiolos.rsa.util.URI;
+
+public class NIOChannelFactoryTest extends TestCase {
+
+	private static class Received {
+		final ROSGiMessage message;
+		final NetworkChannel channel;
+		
+		Received(ROSGiMessage message, NetworkChannel channel){
+			this.message = message;
+			this.channel = channel;
+		}
+	}
+	
+	private static class Receiver implements MessageReceiver {
+		final BlockingQueue<Received> received = new LinkedBlockingQueue<Received>();
+		
+		public void receivedMessage(ROSGiMessage msg, NetworkChannel channel) {
+			received.add(new Received(msg, channel));
+		}
+		
+		public void receivedFrame(MessageFrame frame, NetworkChannel channel) {
+			try {
+				received.add(new Received(frame.decode(), channel));
+			} catch(Exception e){
+				throw new RuntimeException(e);
+			}
+		}
+		
+		Received take() throws InterruptedException {
+			Received r = received.poll(10, TimeUnit.SECONDS);
+			assertNotNull("Nothing received", r);
+			return r;
+		}
+	}
+	
+	private final Receiver serverReceiver = new Receiver();
+	private final Receiver clientReceiver = new Receiver();
+	private NIOChannelFactory server;
+	private URI uri;
+	
+	protected void setUp() throws Exception {
+		Activator.logger = new Activator().new Logger(){
+			@Override
+			public synchronized void log(int level, String message, Throwable exception){}
+		};
+		server = new NIOChannelFactory(serverReceiver, "127.0.0.1", null, 0, 2);
+		server.activate();
+		uri = new URI("r-osgi://"+server.getAddress());
+	}
+	
+	protected void tearDown() throws Exception {
+		server.deactivate();
+	}
+	
+	public void testRoundTrip() throws Exception {
+		NIOChannelFactory client = new NIOChannelFactory(clientReceiver, "127.0.0.1", null, 0, 1);
+		client.activate();
+		try {
+			NetworkChannel channel = client.getChannel(uri);
+			assertSame(channel, client.getChannel(uri));
+			
+			StreamCreditMessage request = new StreamCreditMessage(7, 3);
+			request.setXID(42);
+			channel.sendMessage(request);
+			
+			Received r = serverReceiver.take();
+			StreamCreditMessage credit = (StreamCreditMessage) r.message;
+			assertEquals(42, credit.getXID());
+			assertEquals(7, credit.getStreamId());
+			assertEquals(3, credit.getCredits());
+			
+			r.channel.sendMessage(new StreamCreditMessage(8, 1));
+			assertEquals(8, ((StreamCreditMessage) clientReceiver.take().message).getStreamId());
+		} finally {
+			client.deactivate();
+		}
+	}
+	
+	public void testLargeFrame() throws Exception {
+		NIOChannelFactory client = new NIOChannelFactory(clientReceiver, "127.0.0.1", null, 0, 1);
+		client.activate();
+		try {
+			byte[] data = new byte[1024*1024];
+			for(int i=0;i<data.length;i++){
+				data[i] = (byte) i;
+			}
+			NetworkChannel channel = client.getChannel(uri);
+			channel.sendMessage(new StreamChunkMessage(1, 2, 0, StreamChunkMessage.LAST, data, data.length));
+			channel.sendMessage(new StreamCreditMessage(2, 1));
+			
+			StreamChunkMessage chunk = (StreamChunkMessage) serverReceiver.take().message;
+			assertTrue(chunk.isLast());
+			assertTrue(Arrays.equals(data, Arrays.copyOf(chunk.getData(), data.length)));
+			// the next frame is read after the large one
+			assertTrue(serverReceiver.take().message instanceof StreamCreditMessage);
+		} finally {
+			client.deactivate();
+		}
+	}
+	
+	public void testTCPClient() throws Exception {
+		TCPChannelFactory client = new TCPChannelFactory(clientReceiver, "127.0.0.1", null, 0);
+		client.activate();
+		try {
+			NetworkChannel channel = client.getChannel(uri);
+			channel.sendMessage(new StreamCreditMessage(5, 1));
+			
+			Received r = serverReceiver.take();
+			assertEquals(5, ((StreamCreditMessage) r.message).getStreamId());
+			
+			r.channel.sendMessage(new StreamCreditMessage(6, 1));
+			assertEquals(6, ((StreamCreditMessage) clientReceiver.take().message).getStreamId());
+		} finally {
+			client.deactivate();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import junit.framework.TestCase;
+
+import be.iminds.aiolos.rsa.Activator;
+import be.iminds.aiolos.rsa.Config;
+import be.iminds.aiolos.rsa.Config.SerializationStrategy;
+import be.iminds.aiolos.rsa.network.api.MessageReceiver;
+import be.iminds.aiolos.rsa.network.api.NetworkChannel;
+import be.iminds.aiolos.rsa.network.message.MessageFrame;
+import be.iminds.aiolos.rsa.network.message.ROSGiMessage;
+import be.iminds.aiolos.rsa.network.message.RemoteCallMessage;
+import be.iminds.aiolos.rsa.network.message.StreamCreditMessage;
+import be.iminds.aiolos.rsa.serialization.api.SerializationException;
+
+public class TCPChannelTest extends TestCase {
+
+	private final MessageReceiver receiver = new MessageReceiver() {
+		public void receivedMessage(ROSGiMessage msg, NetworkChannel channel) {}
+		
+		public void receivedFrame(MessageFrame frame, NetworkChannel channel) {}
+	};
+	
+	private SerializationStrategy serialization;
+	private int batchDelay;
+	private ServerSocket server;
+	private Socket peer;
+	private TCPChannel channel;
+	
+	protected void setUp() throws Exception {
+		Activator.logger = new Activator().new Logger(){
+			@Override
+			public synchronized void log(int level, String message, Throwable exception){}
+		};
+		serialization = Config.SERIALIZATION;
+		Config.SERIALIZATION = SerializationStrategy.JAVA;
+		batchDelay = Config.BATCH_DELAY;
+		
+		server = new ServerSocket(0);
+		Socket socket = new Socket("127.0.0.1", server.getLocalPort());
+		peer = server.accept();
+		// the version 1 channel waits for the object stream header of the peer
+		new ObjectOutputStream(peer.getOutputStream()).flush();
+		channel = new TCPChannel(socket, receiver, ROSGiMessage.VERSION_1, null);
+	}
+	
+	protected void tearDown() throws Exception {
+		channel.close();
+		peer.close();
+		server.close();
+		Config.SERIALIZATION = serialization;
+		Config.BATCH_DELAY = batchDelay;
+	}
+	
+	public void testVersion1SerializationErrorFailsOnlyTheCall() throws Exception {
+		try {
+			channel.sendMessage(new RemoteCallMessage(1, (short)1, new Object[]{new Object()}));
+			fail("Expected a SerializationException");
+		} catch(SerializationException e){
+			// expected, thrown on the calling thread
+		}
+		
+		long sent = channel.getMetrics().getBytesSent();
+		channel.sendMessage(new RemoteCallMessage(1, (short)1, new Object[]{"ok"}));
+		assertTrue(channel.getMetrics().getBytesSent() > sent);
+		assertEquals(0, channel.getQueuedBytes());
+	}
+	
+	public void testVersion1DoesNotSendFrames() throws Exception {
+		try {
+			channel.sendFrame(MessageFrame.encode(new StreamCreditMessage(1, 1)));
+			fail("Expected an IOException");
+		} catch(IOException e){
+			// expected
+		}
+	}
+	
+	public void testCoalescedFramesKeepTheirOrder() throws Exception {
+		Config.BATCH_DELAY = 500;
+		Socket socket = new Socket("127.0.0.1", server.getLocalPort());
+		Socket framePeer = server.accept();
+		final TCPChannel frameChannel = new TCPChannel(socket, receiver, ROSGiMessage.VERSION_2, null);
+		try {
+			final int senders = 4;
+			final int messages = 200;
+			Thread[] threads = new Thread[senders];
+			for(int t=0;t<senders;t++){
+				final int stream = t;
+				threads[t] = new Thread(){
+					public void run(){
+						try {
+							for(int i=0;i<messages;i++){
+								frameChannel.sendMessage(new StreamCreditMessage(stream, i));
+							}
+						} catch(Exception e){
+							throw new RuntimeException(e);
+						}
+					}
+				};
+				threads[t].start();
+			}
+			
+			// the frames of each sender arrive in the order they were sent
+			DataInputStream in = new DataInputStream(framePeer.getInputStream());
+			int[] next = new int[senders];
+			long bytes = 0;
+			for(int i=0;i<senders*messages;i++){
+				MessageFrame frame = MessageFrame.read(in);
+				bytes += frame.getLength();
+				StreamCreditMessage credit = (StreamCreditMessage) frame.decode();
+				assertEquals(next[credit.getStreamId()]++, credit.getCredits());
+			}
+			for(Thread thread : threads){
+				thread.join();
+			}
+			
+			assertEquals(bytes, frameChannel.getMetrics().getBytesSent());
+			assertEquals(senders*messages, frameChannel.getMetrics().getMessagesSent());
+			assertEquals(0, frameChannel.getQueuedBytes());
+		} finally {
+			frameChannel.close();
+			framePeer.close();
+		}
+	}
+}
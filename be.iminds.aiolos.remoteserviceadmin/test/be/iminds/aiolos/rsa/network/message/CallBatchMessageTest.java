@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network.message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class CallBatchMessageTest extends TestCase {
+
+	public void testCalls() throws Exception {
+		List<ROSGiMessage> calls = new ArrayList<ROSGiMessage>();
+		for(int i=0;i<3;i++){
+			RemoteCallMessage call = new RemoteCallMessage(12, (short)i, new Object[]{i});
+			call.setXID(i+1);
+			calls.add(call);
+		}
+		RemoteCallMessage signature = new RemoteCallMessage("12", "add(II)I", new Object[]{1, 2});
+		signature.setXID(4);
+		calls.add(signature);
+		
+		CallBatchMessage decoded = (CallBatchMessage) MessageFrame.encode(
+				new CallBatchMessage(ROSGiMessage.CALL_BATCH, calls)).decode();
+		assertEquals(ROSGiMessage.CALL_BATCH, decoded.getFuncID());
+		assertEquals(4, decoded.getMessages().size());
+		for(int i=0;i<3;i++){
+			RemoteCallMessage call = (RemoteCallMessage) decoded.getMessages().get(i);
+			// each call keeps its own xid
+			assertEquals(i+1, call.getXID());
+			assertEquals(i, call.getMethodId());
+			assertTrue(Arrays.equals(new Object[]{i}, call.getArgs()));
+		}
+		assertEquals("add(II)I", ((RemoteCallMessage)decoded.getMessages().get(3)).getMethodSignature());
+	}
+	
+	public void testResults() throws Exception {
+		List<ROSGiMessage> results = new ArrayList<ROSGiMessage>();
+		RemoteCallResultMessage result = new RemoteCallResultMessage("result");
+		result.setXID(7);
+		results.add(result);
+		RemoteCallResultMessage failure = new RemoteCallResultMessage(new IllegalStateException("failed"));
+		failure.setXID(8);
+		results.add(failure);
+		
+		CallBatchMessage decoded = (CallBatchMessage) MessageFrame.encode(
+				new CallBatchMessage(ROSGiMessage.CALL_BATCH_RESULT, results)).decode();
+		assertEquals(ROSGiMessage.CALL_BATCH_RESULT, decoded.getFuncID());
+		assertEquals(2, decoded.getMessages().size());
+		RemoteCallResultMessage first = (RemoteCallResultMessage) decoded.getMessages().get(0);
+		assertEquals(7, first.getXID());
+		assertEquals("result", first.getResult());
+		RemoteCallResultMessage second = (RemoteCallResultMessage) decoded.getMessages().get(1);
+		assertEquals(8, second.getXID());
+		assertTrue(second.getException() instanceof IllegalStateException);
+	}
+	
+	public void testUnexpectedMessage() throws Exception {
+		RemoteCallResultMessage result = new RemoteCallResultMessage("result");
+		// a result is not accepted in a batch of calls
+		MessageFrame frame = MessageFrame.encode(new CallBatchMessage(ROSGiMessage.CALL_BATCH, 
+				Arrays.asList(result)));
+		try {
+			frame.decode();
+			fail("Expected the batch to be rejected");
+		} catch(Exception e){
+			// expected
+		}
+	}
+}
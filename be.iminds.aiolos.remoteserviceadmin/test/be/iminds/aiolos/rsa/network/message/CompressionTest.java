@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import be.iminds.aiolos.rsa.Config;
+
+public class CompressionTest extends TestCase {
+
+	private int maxFrameSize;
+	
+	protected void setUp() throws Exception {
+		maxFrameSize = Config.MAX_FRAME_SIZE;
+	}
+	
+	protected void tearDown() throws Exception {
+		Config.MAX_FRAME_SIZE = maxFrameSize;
+	}
+	
+	public void testBelowThreshold() throws Exception {
+		MessageFrame frame = MessageFrame.encode(chunk(text(100)));
+		assertSame(frame, frame.compress(1024));
+	}
+	
+	public void testRoundTrip() throws Exception {
+		byte[] data = text(65536);
+		MessageFrame frame = MessageFrame.encode(chunk(data));
+		MessageFrame compressed = frame.compress(1024);
+		assertTrue(compressed.isCompressed());
+		assertTrue(compressed.getLength() < frame.getLength() / 4);
+		assertSame(compressed, compressed.compress(1024));
+		
+		// the flag is sent along, so the receiver decompresses regardless of its configuration
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		compressed.writeTo(out);
+		MessageFrame read = MessageFrame.read(new DataInputStream(new ByteArrayInputStream(out.toByteArray())));
+		assertTrue(read.isCompressed());
+		StreamChunkMessage decoded = (StreamChunkMessage) read.decode();
+		assertTrue(Arrays.equals(data, Arrays.copyOf(decoded.getData(), data.length)));
+	}
+	
+	public void testIncompressible() throws Exception {
+		byte[] data = new byte[16384];
+		new Random(1).nextBytes(data);
+		MessageFrame frame = MessageFrame.encode(chunk(data));
+		long uncompressible = Compression.getUncompressibleFrames();
+		
+		assertSame(frame, frame.compress(1024));
+		assertEquals(uncompressible + 1, Compression.getUncompressibleFrames());
+	}
+	
+	public void testTruncated() throws Exception {
+		byte[] compressed = Compression.deflate(text(8192));
+		try {
+			Compression.inflate(Arrays.copyOf(compressed, compressed.length / 2));
+			fail("Expected an IOException");
+		} catch(IOException e){
+			// expected
+		}
+	}
+	
+	public void testUncompressedLengthAboveMaximum() throws Exception {
+		byte[] compressed = Compression.deflate(text(8192));
+		Config.MAX_FRAME_SIZE = 4096;
+		try {
+			Compression.inflate(compressed);
+			fail("Expected an IOException");
+		} catch(IOException e){
+			// expected
+		}
+	}
+	
+	private static StreamChunkMessage chunk(byte[] data){
+		return new StreamChunkMessage(1, 1, 0, StreamChunkMessage.LAST, data, data.length);
+	}
+	
+	private static byte[] text(int length){
+		byte[] data = new byte[length];
+		byte[] words = "remote service admin ".getBytes();
+		for(int i=0;i<length;i++){
+			data[i] = words[i % words.length];
+		}
+		return data;
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import be.iminds.aiolos.rsa.serialization.api.Deserializer;
+import be.iminds.aiolos.rsa.serialization.api.SerializationException;
+import be.iminds.aiolos.rsa.serialization.api.Serializer;
+import be.iminds.aiolos.rsa.serialization.kryo.KryoFactory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Measures the bytes, allocations and time per message of encoding and decoding 
+ * message frames, compared with boxing every primitive through Kryo and a stream 
+ * buffer per frame as the frames were encoded before.
+ * 
+ * Not a unit test, run it with the rsa and Kryo classes on the classpath:
+ * java be.iminds.aiolos.rsa.network.message.EncodingBenchmark [iterations]
+ * Allocations are measured with com.sun.management.ThreadMXBean when the VM supports it.
+ */
+public class EncodingBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		
+		ROSGiMessage[] messages = new ROSGiMessage[]{
+			new RemoteCallMessage(12, (short)3, new Object[]{42, "key"}),
+			new RemoteCallResultMessage("value")
+		};
+		for(int i=0;i<messages.length;i++){
+			messages[i].setXID(1000 + i);
+		}
+		
+		Kryo kryo = KryoFactory.createKryo();
+		for(int pass=0;pass<2;pass++){
+			// the first pass warms up the JIT
+			boolean print = pass == 1;
+			run("frames", messages, iterations, print, new Codec(){
+				public int roundTrip(ROSGiMessage msg) throws Exception {
+					MessageFrame frame = MessageFrame.encode(msg);
+					frame.decode();
+					return frame.getLength() - MessageFrame.HEADER_LENGTH;
+				}
+			});
+			run("boxed", messages, iterations, print, new BoxedCodec(kryo));
+		}
+	}
+	
+	private static void run(String name, ROSGiMessage[] messages, int iterations, boolean print, Codec codec) throws Exception {
+		int bytes = 0;
+		for(ROSGiMessage msg : messages){
+			bytes += codec.roundTrip(msg);
+		}
+		
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		for(int i=0;i<iterations;i++){
+			codec.roundTrip(messages[i % messages.length]);
+		}
+		long nanos = System.nanoTime() - start;
+		allocated = allocatedBytes() - allocated;
+		
+		if(print){
+			System.out.println(name+": "+(bytes / messages.length)+" body bytes, "
+					+(allocated < 0 ? "unknown" : String.valueOf(allocated / iterations))+" bytes allocated, "
+					+(nanos / iterations)+" ns per message");
+		}
+	}
+	
+	private static long allocatedBytes(){
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean){
+			return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+	
+	interface Codec {
+		int roundTrip(ROSGiMessage msg) throws Exception;
+	}
+	
+	/*
+	 * Primitives are boxed and written with the Kryo serializers of their wrapper types,
+	 * each frame allocates a stream and a 4KB Kryo buffer in both directions
+	 */
+	private static final class BoxedCodec implements Codec {
+		
+		private final Kryo kryo;
+		
+		BoxedCodec(Kryo kryo){
+			this.kryo = kryo;
+		}
+		
+		public int roundTrip(ROSGiMessage msg) throws Exception {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+			final Output output = new Output(buffer);
+			msg.writeBody(new Serializer(){
+				public void writeObject(Object o) { kryo.writeClassAndObject(output, o); kryo.reset(); }
+				public void writeString(String s) { kryo.writeObject(output, s); }
+				public void writeInt(int i) { kryo.writeObject(output, i); }
+				public void writeShort(short s) { kryo.writeObject(output, s); }
+				public void writeLong(long l) { kryo.writeObject(output, l); }
+				public void writeDouble(double d) { kryo.writeObject(output, d); }
+				public void writeFloat(float f) { kryo.writeObject(output, f); }
+				public void writeByte(byte b) { kryo.writeObject(output, b); }
+				public void writeBoolean(boolean b) { kryo.writeObject(output, b); }
+				public void writeBytes(byte[] b, int off, int len) { output.writeBytes(b, off, len); }
+				public void flush() { output.flush(); }
+			});
+			output.flush();
+			byte[] body = buffer.toByteArray();
+			
+			final Input input = new Input(new ByteArrayInputStream(body));
+			ROSGiMessage.parse(msg.getFuncID(), msg.getXID(), new Deserializer(){
+				public Object readObject() { Object o = kryo.readClassAndObject(input); kryo.reset(); return o; }
+				public String readString() { return kryo.readObject(input, String.class); }
+				public int readInt() { return kryo.readObject(input, Integer.class); }
+				public short readShort() { return kryo.readObject(input, Short.class); }
+				public long readLong() { return kryo.readObject(input, Long.class); }
+				public double readDouble() { return kryo.readObject(input, Double.class); }
+				public float readFloat() { return kryo.readObject(input, Float.class); }
+				public byte readByte() { return kryo.readObject(input, Byte.class); }
+				public boolean readBoolean() { return kryo.readObject(input, Boolean.class); }
+				public void readBytes(byte[] b, int off, int len) { input.readBytes(b, off, len); }
+			});
+			return body.length;
+		}
+	}
+}
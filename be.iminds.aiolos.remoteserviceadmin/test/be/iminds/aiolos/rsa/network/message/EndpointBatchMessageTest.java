@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network.message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+public class EndpointBatchMessageTest extends TestCase {
+
+	public void testRequests() throws Exception {
+		List<EndpointRequestMessage> requests = new ArrayList<EndpointRequestMessage>();
+		for(int i=0;i<3;i++){
+			requests.add(new EndpointRequestMessage("r-osgi://127.0.0.1:9278#"+i, Arrays.asList("a.Service"+i)));
+		}
+		
+		EndpointBatchMessage decoded = (EndpointBatchMessage) MessageFrame.encode(
+				new EndpointBatchMessage(ROSGiMessage.ENDPOINT_BATCH_REQUEST, requests)).decode();
+		assertEquals(ROSGiMessage.ENDPOINT_BATCH_REQUEST, decoded.getFuncID());
+		assertEquals(3, decoded.getMessages().size());
+		for(int i=0;i<3;i++){
+			EndpointRequestMessage request = (EndpointRequestMessage) decoded.getMessages().get(i);
+			assertEquals("r-osgi://127.0.0.1:9278#"+i, request.getEndpointId());
+			assertEquals(Arrays.asList("a.Service"+i), request.getInterfaces());
+		}
+	}
+	
+	public void testDescriptions() throws Exception {
+		List<EndpointDescriptionMessage> descriptions = new ArrayList<EndpointDescriptionMessage>();
+		descriptions.add(new EndpointDescriptionMessage(description(1)));
+		// an invalid endpoint keeps its place in the batch
+		descriptions.add(new EndpointDescriptionMessage((EndpointDescription)null));
+		descriptions.add(new EndpointDescriptionMessage(description(3)));
+		
+		EndpointBatchMessage decoded = (EndpointBatchMessage) MessageFrame.encode(
+				new EndpointBatchMessage(ROSGiMessage.ENDPOINT_BATCH_DESCRIPTION, descriptions)).decode();
+		assertEquals(ROSGiMessage.ENDPOINT_BATCH_DESCRIPTION, decoded.getFuncID());
+		assertEquals(3, decoded.getMessages().size());
+		assertEquals(description(1), ((EndpointDescriptionMessage)decoded.getMessages().get(0)).getEndpointDescription());
+		assertNull(((EndpointDescriptionMessage)decoded.getMessages().get(1)).getEndpointDescription());
+		assertEquals(description(3), ((EndpointDescriptionMessage)decoded.getMessages().get(2)).getEndpointDescription());
+	}
+	
+	public void testUnexpectedMessage() throws Exception {
+		MessageFrame frame = MessageFrame.encode(new EndpointBatchMessage(ROSGiMessage.ENDPOINT_BATCH_REQUEST, 
+				Arrays.asList(new EndpointDescriptionMessage(description(1)))));
+		try {
+			frame.decode();
+			fail("Expected the batch to be rejected");
+		} catch(Exception e){
+			// expected
+		}
+	}
+	
+	private EndpointDescription description(long serviceId){
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put("endpoint.id", "r-osgi://127.0.0.1:9278#"+serviceId);
+		properties.put("endpoint.service.id", serviceId);
+		properties.put("endpoint.framework.uuid", "framework");
+		properties.put("objectClass", new String[]{"a.Service"});
+		properties.put("service.imported.configs", new String[]{"r-osgi"});
+		return new EndpointDescription(properties);
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import be.iminds.aiolos.rsa.Config;
+
+public class MessageFrameTest extends TestCase {
+
+	public void testLengthOfKnownFrame() throws Exception {
+		// a credit message has a body of two variable length ints, one byte each for small values
+		StreamCreditMessage msg = new StreamCreditMessage(5, 3);
+		msg.setXID(42);
+		MessageFrame frame = MessageFrame.encode(msg);
+		
+		assertEquals(MessageFrame.HEADER_LENGTH + 2, frame.getLength());
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		frame.writeTo(out);
+		assertEquals(frame.getLength(), out.size());
+		assertEquals(frame.getLength(), frame.toByteBuffer().remaining());
+	}
+	
+	public void testReadFromStream() throws Exception {
+		StreamCreditMessage msg = new StreamCreditMessage(5, 3);
+		msg.setXID(42);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MessageFrame.encode(msg).writeTo(out);
+		
+		MessageFrame frame = MessageFrame.read(new DataInputStream(new ByteArrayInputStream(out.toByteArray())));
+		assertEquals(42, frame.getXID());
+		StreamCreditMessage decoded = (StreamCreditMessage) frame.decode();
+		assertEquals(5, decoded.getStreamId());
+		assertEquals(3, decoded.getCredits());
+	}
+	
+	public void testReadFromPartialBuffer() throws Exception {
+		StreamCreditMessage msg = new StreamCreditMessage(5, 3);
+		ByteBuffer encoded = MessageFrame.encode(msg).toByteBuffer();
+		
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.put(encoded.array(), encoded.position(), 4).flip();
+		assertEquals(-1, MessageFrame.bodyLength(buffer));
+		assertNull(MessageFrame.read(buffer));
+		
+		buffer.compact();
+		buffer.put(encoded.array(), encoded.position() + 4, encoded.remaining() - 4).flip();
+		assertEquals(2, MessageFrame.bodyLength(buffer));
+		assertNotNull(MessageFrame.read(buffer));
+		assertFalse(buffer.hasRemaining());
+	}
+	
+	public void testRejectsFrameAboveMaximum() throws Exception {
+		ByteBuffer header = ByteBuffer.allocate(MessageFrame.HEADER_LENGTH);
+		header.put((byte)2).put((byte)1).putInt(1).putInt(Config.MAX_FRAME_SIZE + 1).flip();
+		
+		try {
+			MessageFrame.bodyLength(header);
+			fail("Expected the frame to be rejected");
+		} catch(IOException e){
+			// expected
+		}
+		try {
+			MessageFrame.read(new DataInputStream(new ByteArrayInputStream(header.array())));
+			fail("Expected the frame to be rejected");
+		} catch(IOException e){
+			// expected, before the body is read
+		}
+	}
+	
+	public void testMaximumIsConfigurable() throws Exception {
+		int max = Config.MAX_FRAME_SIZE;
+		Config.MAX_FRAME_SIZE = 1;
+		try {
+			ByteBuffer buffer = MessageFrame.encode(new StreamCreditMessage(5, 3)).toByteBuffer();
+			MessageFrame.read(buffer);
+			fail("Expected the frame to be rejected");
+		} catch(IOException e){
+			// expected
+		} finally {
+			Config.MAX_FRAME_SIZE = max;
+		}
+	}
+}
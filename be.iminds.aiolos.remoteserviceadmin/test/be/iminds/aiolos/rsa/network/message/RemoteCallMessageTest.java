@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.network.message;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class RemoteCallMessageTest extends TestCase {
+
+	public void testSignatureCall() throws Exception {
+		RemoteCallMessage call = new RemoteCallMessage("12", "add(II)I", new Object[]{1, 2});
+		call.setXID(5);
+		
+		RemoteCallMessage decoded = (RemoteCallMessage) MessageFrame.encode(call).decode();
+		assertEquals(ROSGiMessage.REMOTE_CALL, decoded.getFuncID());
+		assertEquals(5, decoded.getXID());
+		assertEquals("12", decoded.getServiceId());
+		assertEquals("add(II)I", decoded.getMethodSignature());
+		assertEquals(-1, decoded.getMethodId());
+		assertTrue(Arrays.equals(new Object[]{1, 2}, decoded.getArgs()));
+	}
+	
+	public void testCompactCall() throws Exception {
+		RemoteCallMessage call = new RemoteCallMessage(12, (short)3, new Object[]{1, 2});
+		
+		RemoteCallMessage decoded = (RemoteCallMessage) MessageFrame.encode(call).decode();
+		assertEquals(ROSGiMessage.COMPACT_REMOTE_CALL, decoded.getFuncID());
+		assertEquals("12", decoded.getServiceId());
+		assertEquals(3, decoded.getMethodId());
+		assertNull(decoded.getMethodSignature());
+		assertTrue(Arrays.equals(new Object[]{1, 2}, decoded.getArgs()));
+	}
+	
+	public void testCompactCallIsSmaller() throws Exception {
+		MessageFrame signature = MessageFrame.encode(new RemoteCallMessage("12", "add(II)I", new Object[]{1, 2}));
+		MessageFrame compact = MessageFrame.encode(new RemoteCallMessage(12, (short)3, new Object[]{1, 2}));
+		assertTrue(compact.getLength() < signature.getLength());
+	}
+	
+	public void testNoArguments() throws Exception {
+		RemoteCallMessage decoded = (RemoteCallMessage) MessageFrame.encode(
+				new RemoteCallMessage(12, (short)0, null)).decode();
+		assertEquals(0, decoded.getArgs().length);
+	}
+	
+	public void testTimedCall() throws Exception {
+		RemoteCallMessage call = new RemoteCallMessage("12", "add(II)I", new Object[]{1, 2});
+		assertNull(call.getDeadline());
+		call.setTimeout(5000);
+		assertEquals(ROSGiMessage.TIMED_REMOTE_CALL, call.getFuncID());
+		
+		RemoteCallMessage compact = new RemoteCallMessage(12, (short)3, new Object[]{1, 2});
+		compact.setTimeout(5000);
+		assertEquals(ROSGiMessage.TIMED_COMPACT_REMOTE_CALL, compact.getFuncID());
+		
+		RemoteCallMessage decoded = (RemoteCallMessage) MessageFrame.encode(compact).decode();
+		assertEquals(ROSGiMessage.TIMED_COMPACT_REMOTE_CALL, decoded.getFuncID());
+		assertEquals(5000, decoded.getTimeout());
+		assertEquals(3, decoded.getMethodId());
+		assertTrue(Arrays.equals(new Object[]{1, 2}, decoded.getArgs()));
+	}
+	
+	public void testDeadline() throws Exception {
+		RemoteCallMessage call = new RemoteCallMessage(12, (short)3, null);
+		call.setTimeout(1000);
+		// the deadline counts from the time the call is received
+		long received = System.nanoTime() - 2000000000L;
+		call.received(received);
+		assertEquals(received + 1000000000L, call.getDeadline().longValue());
+		assertTrue(call.isExpired());
+		
+		call.received(System.nanoTime());
+		assertFalse(call.isExpired());
+	}
+	
+	public void testNoTimeout() throws Exception {
+		RemoteCallMessage decoded = (RemoteCallMessage) MessageFrame.encode(
+				new RemoteCallMessage(12, (short)3, null)).decode();
+		assertEquals(-1, decoded.getTimeout());
+		assertNull(decoded.getDeadline());
+		assertFalse(decoded.isExpired());
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.serialization.kryo;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+
+public class KryoClassRegistryTest extends TestCase {
+
+	public void testSelectSkipsInterfacesAndKnownClasses() {
+		KryoClassRegistry registry = new KryoClassRegistry();
+		List<Class<?>> selected = Arrays.asList(registry.select(new Class<?>[]{Point.class, Serializable.class, int.class}));
+		// the common classes are selected the first time
+		assertTrue(selected.contains(ArrayList.class));
+		assertTrue(selected.contains(Point.class));
+		assertFalse(selected.contains(Serializable.class));
+		assertFalse(selected.contains(int.class));
+		
+		assertFalse(registry.isKnown(new Class<?>[]{Point.class}));
+	}
+	
+	public void testPooledKryoRegistersAddedClasses() throws IOException {
+		KryoClassRegistry registry = new KryoClassRegistry();
+		registry.register(registry.nextId(), new Class<?>[]{Point.class});
+		assertTrue(registry.isKnown(new Class<?>[]{Point.class}));
+		
+		Kryo kryo = registry.acquireKryo();
+		assertEquals(KryoClassRegistry.FIRST_ID, kryo.getRegistration(Point.class).getId());
+		registry.releaseKryo(kryo);
+		assertSame(kryo, registry.acquireKryo());
+		registry.releaseKryo(kryo);
+		
+		registry.register(registry.nextId(), new Class<?>[]{Line.class});
+		Kryo pooled = registry.acquireKryo();
+		assertEquals(KryoClassRegistry.FIRST_ID, pooled.getRegistration(Point.class).getId());
+		assertEquals(KryoClassRegistry.FIRST_ID + 1, pooled.getRegistration(Line.class).getId());
+		registry.releaseKryo(pooled);
+	}
+	
+	public void testClassWrittenBeforeRegistration() throws IOException {
+		KryoClassRegistry registry = new KryoClassRegistry();
+		Kryo kryo = registry.acquireKryo();
+		Output unregistered = new Output(256);
+		kryo.writeClassAndObject(unregistered, new Point());
+		registry.releaseKryo(kryo);
+		
+		registry.register(registry.nextId(), new Class<?>[]{Point.class});
+		kryo = registry.acquireKryo();
+		Output registered = new Output(256);
+		kryo.writeClassAndObject(registered, new Point());
+		registry.releaseKryo(kryo);
+		
+		// the class is written as its id rather than its name
+		assertTrue(registered.position() < unregistered.position() - Point.class.getName().length());
+	}
+	
+	public void testReceiverKeepsIdsOfUnknownClasses() throws IOException {
+		KryoClassRegistry registry = new KryoClassRegistry();
+		registry.register(KryoClassRegistry.FIRST_ID, new String[]{"org.example.Missing", Point.class.getName()});
+		assertEquals(2, registry.size());
+		assertNull(registry.getClass(KryoClassRegistry.FIRST_ID));
+		assertEquals(Point.class, registry.getClass(KryoClassRegistry.FIRST_ID + 1));
+	}
+	
+	public void testRejectsAnnouncementOutOfOrder() {
+		KryoClassRegistry registry = new KryoClassRegistry();
+		try {
+			registry.register(KryoClassRegistry.FIRST_ID + 1, new String[]{Point.class.getName()});
+			fail("Expected an IOException");
+		} catch(IOException e){
+			// expected
+		}
+	}
+	
+	public static class Point {
+		int x;
+		int y;
+	}
+	
+	public static class Line {
+		Point from;
+		Point to;
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.serialization.kryo;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * The primitives written without boxing must have the same bytes as the 
+ * default Kryo serializers of their wrapper types, which version 1 peers use.
+ */
+public class KryoSerializerTest extends TestCase {
+
+	private final Kryo kryo = KryoFactory.createKryo();
+	
+	public void testSameBytesAsWrapperSerializers() throws Exception {
+		Output direct = new Output(256, -1);
+		KryoSerializer serializer = new KryoSerializer(kryo, direct);
+		serializer.writeInt(-1);
+		serializer.writeInt(Integer.MAX_VALUE);
+		serializer.writeShort((short)-300);
+		serializer.writeLong(Long.MIN_VALUE);
+		serializer.writeLong(42L);
+		serializer.writeByte((byte)7);
+		serializer.writeBoolean(true);
+		serializer.writeFloat(1.5f);
+		serializer.writeDouble(-2.25d);
+		
+		Output boxed = new Output(256, -1);
+		kryo.writeObject(boxed, Integer.valueOf(-1));
+		kryo.writeObject(boxed, Integer.valueOf(Integer.MAX_VALUE));
+		kryo.writeObject(boxed, Short.valueOf((short)-300));
+		kryo.writeObject(boxed, Long.valueOf(Long.MIN_VALUE));
+		kryo.writeObject(boxed, Long.valueOf(42L));
+		kryo.writeObject(boxed, Byte.valueOf((byte)7));
+		kryo.writeObject(boxed, Boolean.TRUE);
+		kryo.writeObject(boxed, Float.valueOf(1.5f));
+		kryo.writeObject(boxed, Double.valueOf(-2.25d));
+		
+		assertTrue(Arrays.equals(boxed.toBytes(), direct.toBytes()));
+	}
+	
+	public void testReadsWrapperSerializers() throws Exception {
+		Output boxed = new Output(256, -1);
+		kryo.writeObject(boxed, Integer.valueOf(-123456));
+		kryo.writeObject(boxed, Short.valueOf((short)12));
+		kryo.writeObject(boxed, Long.valueOf(1L << 40));
+		kryo.writeObject(boxed, Byte.valueOf((byte)-1));
+		kryo.writeObject(boxed, Boolean.FALSE);
+		kryo.writeObject(boxed, Float.valueOf(0.25f));
+		kryo.writeObject(boxed, Double.valueOf(3.5d));
+		kryo.writeObject(boxed, "text");
+		
+		KryoDeserializer deserializer = new KryoDeserializer(kryo, new Input(boxed.toBytes()));
+		assertEquals(-123456, deserializer.readInt());
+		assertEquals(12, deserializer.readShort());
+		assertEquals(1L << 40, deserializer.readLong());
+		assertEquals(-1, deserializer.readByte());
+		assertFalse(deserializer.readBoolean());
+		assertEquals(0.25f, deserializer.readFloat());
+		assertEquals(3.5d, deserializer.readDouble());
+		assertEquals("text", deserializer.readString());
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.util;
+
+import junit.framework.TestCase;
+import be.iminds.aiolos.rsa.api.LatencyHistogram;
+
+public class HistogramTest extends TestCase {
+
+	public void testBuckets() throws Exception {
+		assertEquals(0, LatencyHistogram.getBucket(0));
+		assertEquals(0, LatencyHistogram.getBucket(999));
+		assertEquals(1, LatencyHistogram.getBucket(1000));
+		assertEquals(2, LatencyHistogram.getBucket(2000));
+		assertEquals(2, LatencyHistogram.getBucket(3999));
+		assertEquals(3, LatencyHistogram.getBucket(4000));
+		assertEquals(LatencyHistogram.BUCKETS-1, LatencyHistogram.getBucket(Long.MAX_VALUE));
+		
+		// every latency is below the limit of its bucket
+		long[] latencies = {0, 999, 1000, 1999, 2000, 123456, 987654321L};
+		for(long nanos : latencies){
+			int bucket = LatencyHistogram.getBucket(nanos);
+			assertTrue(nanos < LatencyHistogram.getBucketLimit(bucket));
+			if(bucket > 0){
+				assertTrue(nanos >= LatencyHistogram.getBucketLimit(bucket-1));
+			}
+		}
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.getBucketLimit(LatencyHistogram.BUCKETS-1));
+	}
+	
+	public void testRecord() throws Exception {
+		Histogram histogram = new Histogram();
+		for(int i=1;i<=100;i++){
+			histogram.record(i*1000L);
+		}
+		histogram.record(-5);
+		
+		LatencyHistogram snapshot = histogram.snapshot();
+		assertEquals(101, snapshot.getCount());
+		assertEquals(5050000L, snapshot.getTotalNanos());
+		assertEquals(100000L, snapshot.getMaxNanos());
+		assertEquals(50000L, snapshot.getMeanNanos());
+		// a negative latency is counted as 0
+		assertEquals(1, snapshot.getBucketCount(0));
+		
+		long median = snapshot.getPercentileNanos(50);
+		assertTrue(median >= 50000L && median <= 100000L);
+		assertEquals(100000L, snapshot.getPercentileNanos(100));
+		assertTrue(snapshot.getPercentileNanos(99) <= snapshot.getMaxNanos());
+	}
+	
+	public void testSnapshot() throws Exception {
+		Histogram histogram = new Histogram();
+		histogram.record(1000);
+		LatencyHistogram snapshot = histogram.snapshot();
+		histogram.record(2000);
+		// a snapshot does not change afterwards
+		assertEquals(1, snapshot.getCount());
+		assertEquals(2, histogram.snapshot().getCount());
+	}
+	
+	public void testEmpty() throws Exception {
+		LatencyHistogram snapshot = new Histogram().snapshot();
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getMeanNanos());
+		assertEquals(0, snapshot.getPercentileNanos(99));
+		
+		try {
+			new LatencyHistogram(new long[4], 0, 0);
+			fail("Expected the buckets to be rejected");
+		} catch(IllegalArgumentException e){
+			// expected
+		}
+	}
+}
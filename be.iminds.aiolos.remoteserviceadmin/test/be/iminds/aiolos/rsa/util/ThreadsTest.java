@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.rsa.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import be.iminds.aiolos.rsa.Config;
+import be.iminds.aiolos.rsa.Config.ThreadStrategy;
+
+public class ThreadsTest extends TestCase {
+
+	private ThreadStrategy threads;
+	
+	protected void setUp() throws Exception {
+		threads = Config.THREADS;
+	}
+	
+	protected void tearDown() throws Exception {
+		Config.THREADS = threads;
+	}
+	
+	public void testPlatformThreads() throws Exception {
+		Config.THREADS = ThreadStrategy.PLATFORM;
+		assertNull(Threads.virtualThreadFactory());
+		assertFalse(Threads.isVirtual());
+		
+		Thread thread = Threads.newThread(new Runnable(){
+			public void run(){}
+		}, "R-OSGi test");
+		assertEquals("R-OSGi test", thread.getName());
+		// platform threads do not keep the JVM alive
+		assertTrue(thread.isDaemon());
+		assertFalse(thread.isAlive());
+	}
+	
+	public void testVirtualThreads() throws Exception {
+		Config.THREADS = ThreadStrategy.VIRTUAL;
+		boolean supported = true;
+		try {
+			Thread.class.getMethod("ofVirtual");
+		} catch(NoSuchMethodException e){
+			supported = false;
+		}
+		// falls back to platform threads on older JVMs
+		assertEquals(supported, Threads.isVirtual());
+		assertEquals(supported, Threads.virtualThreadFactory()!=null);
+		assertNotNull(Threads.threadFactory());
+		
+		Thread thread = Threads.newThread(new Runnable(){
+			public void run(){}
+		}, "R-OSGi test");
+		assertEquals("R-OSGi test", thread.getName());
+		assertTrue(thread.isDaemon());
+	}
+	
+	public void testCachedThreadPool() throws Exception {
+		for(ThreadStrategy strategy : ThreadStrategy.values()){
+			Config.THREADS = strategy;
+			ExecutorService executor = Threads.newCachedThreadPool();
+			try {
+				assertEquals("done", executor.submit(new Callable<String>(){
+					public String call(){
+						return "done";
+					}
+				}).get(10, TimeUnit.SECONDS));
+			} finally {
+				executor.shutdown();
+			}
+			assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		}
+	}
+}
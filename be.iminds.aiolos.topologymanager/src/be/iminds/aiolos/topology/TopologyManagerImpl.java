@@ -40,6 +40,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import org.osgi.framework.BundleContext;
@@ -61,6 +62,7 @@ import org.osgi.service.repository.Repository;
 
 import be.iminds.aiolos.deployment.api.DeploymentManager;
 import be.iminds.aiolos.info.NodeInfo;
+import be.iminds.aiolos.rsa.api.BulkImport;
 import be.iminds.aiolos.topology.api.TopologyManager;
 
 /**
@@ -98,12 +100,28 @@ public class TopologyManagerImpl implements TopologyManager, RemoteServiceAdminL
 	private final Map<String, Map<Long, List<Filter>>> whishlist =  Collections.synchronizedMap(new HashMap<String, Map<Long, List<Filter>>>());
 	
 	// Executor to for asynchronous tasks (i.e. notifications)
-	private final ExecutorService executorPool = Executors.newCachedThreadPool();
+	private final ExecutorService executorPool;
 	
 	private final BundleContext context;
 	
 	public TopologyManagerImpl(BundleContext context){
 		this.context = context;
+		this.executorPool = createExecutor(context.getProperty("aiolos.threads"));
+	}
+	
+	// a virtual thread per task when aiolos.threads=virtual and the JVM supports it (Java 21 or later),
+	// created through reflection so older JVMs still use the cached pool
+	private static ExecutorService createExecutor(String threads){
+		if("virtual".equals(threads)){
+			try {
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				ThreadFactory factory = (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+				return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+			} catch(Exception e){
+				Activator.logger.log(LogService.LOG_WARNING, "Virtual threads are not supported, using platform threads");
+			}
+		}
+		return Executors.newCachedThreadPool();
 	}
 	
 	// Notify other TopologyManagers when an endpoint is created/removed
@@ -247,6 +265,8 @@ public class TopologyManagerImpl implements TopologyManager, RemoteServiceAdminL
 				} else {
 				
 					// only import if on whishlist
+					// the import itself is done outside the lock, it waits for the remote node
+					boolean wanted = false;
 					synchronized (whishlist) {
 						for(Entry<String, Map<Long, List<Filter>>> whish : whishlist.entrySet()){
 							// check interface
@@ -272,9 +292,13 @@ public class TopologyManagerImpl implements TopologyManager, RemoteServiceAdminL
 							if(!match)
 								continue;
 							
-							importEndpoint(endpointDescription);
+							wanted = true;
+							break;
 						}
 					}
+					if(wanted){
+						importEndpoint(endpointDescription);
+					}
 				}
 			}
 		};
@@ -371,10 +395,72 @@ public class TopologyManagerImpl implements TopologyManager, RemoteServiceAdminL
 	}
 	
 	private void importEndpoint(EndpointDescription endpointDescription){
+		if(!reserveImport(endpointDescription)){
+			return;
+		}
+		
+		List<RemoteServiceAdmin> admins;
+		synchronized(remoteServiceAdmins){
+			admins = new ArrayList<RemoteServiceAdmin>(remoteServiceAdmins.keySet());
+		}
+		// TODO should the remoteServiceAdmins be filtered depending on endpointDescription?
+		for(RemoteServiceAdmin rsa : admins){
+			importEndpoint(rsa, endpointDescription, null);
+		}
+	}
+	
+	/*
+	 * Import multiple endpoints at once, the admins that support this 
+	 * check all endpoints of a remote node with one request
+	 */
+	private void importEndpoints(List<EndpointDescription> endpointDescriptions){
+		List<EndpointDescription> toImport = new ArrayList<EndpointDescription>();
+		for(EndpointDescription endpointDescription : endpointDescriptions){
+			if(reserveImport(endpointDescription)){
+				toImport.add(endpointDescription);
+			}
+		}
+		if(toImport.isEmpty()){
+			return;
+		}
+		
+		List<RemoteServiceAdmin> admins;
+		synchronized(remoteServiceAdmins){
+			admins = new ArrayList<RemoteServiceAdmin>(remoteServiceAdmins.keySet());
+		}
+		for(RemoteServiceAdmin rsa : admins){
+			List<ImportRegistration> irs = toImport.size() > 1 ? importServices(rsa, toImport) : null;
+			for(int i=0;i<toImport.size();i++){
+				importEndpoint(rsa, toImport.get(i), irs==null ? null : irs.get(i));
+			}
+		}
+	}
+	
+	// the AIOLOS Remote Service Admin can import multiple endpoints at once, other admins
+	// import them one by one, as do all admins when the rsa api package is not available
+	private static List<ImportRegistration> importServices(RemoteServiceAdmin rsa, List<EndpointDescription> endpointDescriptions){
+		try {
+			if(!(rsa instanceof BulkImport)){
+				return null;
+			}
+			return ((BulkImport)rsa).importServices(endpointDescriptions);
+		} catch(NoClassDefFoundError e){
+			return null;
+		} catch(RuntimeException e){
+			Activator.logger.log(LogService.LOG_WARNING, "Failed to import endpoints at once, importing them one by one", e);
+			return null;
+		}
+	}
+	
+	/*
+	 * Mark the endpoint as being imported, returns false when it is already imported 
+	 * or when it should not be imported
+	 */
+	private boolean reserveImport(EndpointDescription endpointDescription){
 		synchronized(importedEndpoints){
 			if(importedEndpoints.containsKey(endpointDescription)){
 				// already imported
-				return;
+				return false;
 			}
 			// already add endpointdescription to the map to make sure it will not be
 			// imported again while it is already busy importing it
@@ -387,70 +473,71 @@ public class TopologyManagerImpl implements TopologyManager, RemoteServiceAdminL
 			try {
 				ServiceReference[] refs = context.getServiceReferences(Repository.class.getName(), "(service.pid="+repo+")");
 				if(refs!=null){
-					return; // locally available
+					return false; // locally available
 				}
 			}catch(InvalidSyntaxException e){}
 		}
 		
 		Activator.logger.log(LogService.LOG_DEBUG, "TopologyManager importing endpoint "+endpointDescription.getId()+" "+endpointDescription.getInterfaces().get(0));
-		
-		synchronized(remoteServiceAdmins){
-			// TODO should the remoteServiceAdmins be filtered depending on endpointDescription?
-			for(RemoteServiceAdmin rsa : remoteServiceAdmins.keySet()){
-				// When import-package dependencies are missing, try to fetch them from the remote instance
-				ClassNotFoundException cnfe;
-				do {
-					cnfe = null;
+		return true;
+	}
+	
+	/*
+	 * Import the endpoint with the given admin, or handle the registration of an import that is already done
+	 */
+	private void importEndpoint(RemoteServiceAdmin rsa, EndpointDescription endpointDescription, ImportRegistration imported){
+		// When import-package dependencies are missing, try to fetch them from the remote instance
+		ClassNotFoundException cnfe;
+		do {
+			cnfe = null;
+			
+			ImportRegistration ir = imported!=null ? imported : rsa.importService(endpointDescription);
+			imported = null;
+			if(ir.getException()!=null){
+				try {
 					
-					ImportRegistration ir = rsa.importService(endpointDescription);
-					if(ir.getException()!=null){
-						try {
-							
-							// try to fetch dependencies in case of classnotfound exceptions?
-							if(!(ir.getException().getCause() instanceof ClassNotFoundException)){
-								ir.getException().printStackTrace();
-								throw new Exception("Import failed due to other exception than ClassNotFoundException");
-							}
-								
-							// ClassNotFoundException, try to fetch required bundles
-							cnfe = (ClassNotFoundException)ir.getException().getCause();
-							String className = cnfe.getMessage().substring(0, cnfe.getMessage().indexOf(" "));
-							String packageName = className.substring(0, className.lastIndexOf("."));
-		
-							// Fetch the local DeploymentManager 
-							Collection<ServiceReference<DeploymentManager>> refs = context.getServiceReferences(DeploymentManager.class, 
-									"(!(endpoint.framework.uuid=*))");
-							if(refs.isEmpty()){
-								// Could be that no DeploymentManager is available ...
-								throw new Exception("Cannot fetch dependency - no reference to local DeploymentManager found");
-							}
-							ServiceReference<DeploymentManager> ref = refs.iterator().next();	
-							DeploymentManager deploymentManager = context.getService(ref);
-
-							String version = endpointDescription.getPackageVersion(packageName).toString();
-							if(version.equals("0.0.0"))
-								deploymentManager.installPackage(packageName);
-							else
-								deploymentManager.installPackage(packageName, version);
-							context.ungetService(ref);
-						}catch(Exception e){
-							Activator.logger.log(LogService.LOG_WARNING, "Failed to import endpoint "+endpointDescription.getId()+": "+e.getMessage());
-							// error resolving dependency, let it fail
-							cnfe = null;
-							ir.close();
-						}
-					} else {
-						synchronized(importedEndpoints){
-							// key should already be added to the map with null registration
-							EndpointDescription importedEndpoint = ir.getImportReference().getImportedEndpoint();
-							if(importedEndpoints.containsKey(importedEndpoint))
-								importedEndpoints.put(importedEndpoint, ir);
-						}
+					// try to fetch dependencies in case of classnotfound exceptions?
+					if(!(ir.getException().getCause() instanceof ClassNotFoundException)){
+						ir.getException().printStackTrace();
+						throw new Exception("Import failed due to other exception than ClassNotFoundException");
 					}
-				} while(cnfe != null);
+						
+					// ClassNotFoundException, try to fetch required bundles
+					cnfe = (ClassNotFoundException)ir.getException().getCause();
+					String className = cnfe.getMessage().substring(0, cnfe.getMessage().indexOf(" "));
+					String packageName = className.substring(0, className.lastIndexOf("."));
+	
+					// Fetch the local DeploymentManager 
+					Collection<ServiceReference<DeploymentManager>> refs = context.getServiceReferences(DeploymentManager.class, 
+							"(!(endpoint.framework.uuid=*))");
+					if(refs.isEmpty()){
+						// Could be that no DeploymentManager is available ...
+						throw new Exception("Cannot fetch dependency - no reference to local DeploymentManager found");
+					}
+					ServiceReference<DeploymentManager> ref = refs.iterator().next();	
+					DeploymentManager deploymentManager = context.getService(ref);
 
+					String version = endpointDescription.getPackageVersion(packageName).toString();
+					if(version.equals("0.0.0"))
+						deploymentManager.installPackage(packageName);
+					else
+						deploymentManager.installPackage(packageName, version);
+					context.ungetService(ref);
+				}catch(Exception e){
+					Activator.logger.log(LogService.LOG_WARNING, "Failed to import endpoint "+endpointDescription.getId()+": "+e.getMessage());
+					// error resolving dependency, let it fail
+					cnfe = null;
+					ir.close();
+				}
+			} else {
+				synchronized(importedEndpoints){
+					// key should already be added to the map with null registration
+					EndpointDescription importedEndpoint = ir.getImportReference().getImportedEndpoint();
+					if(importedEndpoints.containsKey(importedEndpoint))
+						importedEndpoints.put(importedEndpoint, ir);
+				}
 			}
-		}
+		} while(cnfe != null);
 	}
 	
 	private void unimportEndpoint(EndpointDescription endpointDescription){
@@ -528,9 +615,7 @@ public class TopologyManagerImpl implements TopologyManager, RemoteServiceAdminL
 		Runnable imports = new Runnable(){
 			public void run(){
 				List<EndpointDescription> matchingEndpoints = find(service, filter);
-				for(EndpointDescription endpoint : matchingEndpoints){
-					importEndpoint(endpoint);
-				}
+				importEndpoints(matchingEndpoints);
 			}
 		};
 		executorPool.execute(imports);
@@ -544,6 +629,7 @@ public class TopologyManagerImpl implements TopologyManager, RemoteServiceAdminL
 			// remove services requested by this bundle from whishlist
 			Runnable unimports = new Runnable(){
 				public void run(){
+					List<String> unwanted = new ArrayList<String>();
 					synchronized(whishlist){
 						Iterator<Entry<String, Map<Long, List<Filter>>>> it = whishlist.entrySet().iterator();
 						while(it.hasNext()){
@@ -553,11 +639,14 @@ public class TopologyManagerImpl implements TopologyManager, RemoteServiceAdminL
 							filterMap.remove(bundleId);
 							if(filterMap.size()==0){
 								// unimport this service and remove from whishlist
-								unimportEndpoint(item.getKey());
+								unwanted.add(item.getKey());
 								it.remove();
 							}
 						}
 					}
+					for(String service : unwanted){
+						unimportEndpoint(service);
+					}
 				}
 			};
 			executorPool.execute(unimports);
@@ -570,44 +659,47 @@ public class TopologyManagerImpl implements TopologyManager, RemoteServiceAdminL
 	public NodeInfo connect(String ip, int port) {
 		NodeInfo node = null;
 		
+		// the admins are connected to outside the lock
+		List<Entry<RemoteServiceAdmin, List<String>>> admins;
 		synchronized(remoteServiceAdmins){
-			for(Entry<RemoteServiceAdmin, List<String>> entry : remoteServiceAdmins.entrySet()){
-				RemoteServiceAdmin rsa = entry.getKey();
-				List<String> configs = entry.getValue();
-				
-				EndpointDescription endpointDescription = null;
-				
-				// for now only aiolos r-osgi is supported
-				if(configs.contains("be.iminds.aiolos.r-osgi")){
-					String protocol = "r-osgi";	
-					String uri = protocol+"://"+ip+":"+port;
-					
-					Map<String, Object> properties = new HashMap<String, Object>();
-					properties.put("endpoint.id", uri);
-					properties.put("service.imported.configs", "be.iminds.aiolos.r-osgi");
-					properties.put("objectClass", new String[]{EndpointListener.class.getName()});
-					endpointDescription = new EndpointDescription(properties);
-				}
-				
-				if(endpointDescription==null)
-					continue;
-				
-				ImportRegistration ir = rsa.importService(endpointDescription);
-				if(ir.getException()!=null)
-					continue;
-				
-				EndpointDescription importedEndpoint = ir.getImportReference().getImportedEndpoint();
-				importedEndpoints.put(importedEndpoint, ir);
-				
-				String nodeId = importedEndpoint.getFrameworkUUID();
-				ServiceReference importedRef = ir.getImportReference().getImportedService();
-				String name = (String) importedRef.getProperty("node.name");
-				String arch = (String) importedRef.getProperty("node.arch");
-				String os = (String) importedRef.getProperty("node.os");
+			admins = new ArrayList<Entry<RemoteServiceAdmin, List<String>>>(remoteServiceAdmins.entrySet());
+		}
+		for(Entry<RemoteServiceAdmin, List<String>> entry : admins){
+			RemoteServiceAdmin rsa = entry.getKey();
+			List<String> configs = entry.getValue();
+			
+			EndpointDescription endpointDescription = null;
+			
+			// for now only aiolos r-osgi is supported
+			if(configs.contains("be.iminds.aiolos.r-osgi")){
+				String protocol = "r-osgi";	
+				String uri = protocol+"://"+ip+":"+port;
 				
-				node = new NodeInfo(nodeId, ip, port, -1, name, arch, os);
-				break;
+				Map<String, Object> properties = new HashMap<String, Object>();
+				properties.put("endpoint.id", uri);
+				properties.put("service.imported.configs", "be.iminds.aiolos.r-osgi");
+				properties.put("objectClass", new String[]{EndpointListener.class.getName()});
+				endpointDescription = new EndpointDescription(properties);
 			}
+			
+			if(endpointDescription==null)
+				continue;
+			
+			ImportRegistration ir = rsa.importService(endpointDescription);
+			if(ir.getException()!=null)
+				continue;
+			
+			EndpointDescription importedEndpoint = ir.getImportReference().getImportedEndpoint();
+			importedEndpoints.put(importedEndpoint, ir);
+			
+			String nodeId = importedEndpoint.getFrameworkUUID();
+			ServiceReference importedRef = ir.getImportReference().getImportedService();
+			String name = (String) importedRef.getProperty("node.name");
+			String arch = (String) importedRef.getProperty("node.arch");
+			String os = (String) importedRef.getProperty("node.os");
+			
+			node = new NodeInfo(nodeId, ip, port, -1, name, arch, os);
+			break;
 		}
 
 		return node;
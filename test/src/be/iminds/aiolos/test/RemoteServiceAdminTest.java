@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2014, Tim Verbelen
+ * Internet Based Communication Networks and Services research group (IBCN),
+ * Department of Information Technology (INTEC), Ghent University - iMinds.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *    - Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    - Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    - Neither the name of Ghent University - iMinds, nor the names of its 
+ *      contributors may be used to endorse or promote products derived from 
+ *      this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package be.iminds.aiolos.test;
+
+import static org.knowhowlab.osgi.testing.assertions.ServiceAssert.assertServiceAvailable;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.service.remoteserviceadmin.ExportReference;
+import org.osgi.service.remoteserviceadmin.ImportRegistration;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
+import org.osgi.service.remoteserviceadmin.RemoteServiceAdmin;
+
+import be.iminds.aiolos.rsa.api.BulkImport;
+import be.iminds.aiolos.rsa.api.MethodStatistics;
+import be.iminds.aiolos.rsa.api.TransportMetrics;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Talks to the remote service admin over its TCP port, as a peer of the 
+ * latest protocol version, of an older version and as an R-OSGi version 1 peer 
+ * that does not negotiate.
+ */
+public class RemoteServiceAdminTest extends TestCase {
+
+	// default rsa.protocol.version
+	private static final int LATEST_VERSION = 10;
+	private static final byte[] MAGIC = new byte[]{'R', 'O', 'S', 'G'};
+	
+	private static final byte ENDPOINT_REQUEST = 15;
+	private static final byte ENDPOINT_DESCRIPTION = 16;
+	
+	private final BundleContext context = FrameworkUtil.getBundle(this.getClass()).getBundleContext();  
+	
+	private RemoteServiceAdmin rsa;
+	private List<ServiceRegistration> registrations = new ArrayList<ServiceRegistration>();
+	
+	public void setUp(){
+		assertServiceAvailable(RemoteServiceAdmin.class);
+		
+		ServiceReference ref = context.getServiceReference(RemoteServiceAdmin.class.getName());
+		assertNotNull(ref);
+		rsa = (RemoteServiceAdmin)context.getService(ref);
+		assertNotNull(rsa);
+	}
+	
+	public void tearDown(){
+		for(ServiceRegistration registration : registrations){
+			registration.unregister();
+		}
+	}
+	
+	public void testNegotiateLatestVersion() throws Exception {
+		EndpointDescription endpoint = export("hello");
+		
+		Socket socket = connect(endpoint);
+		try {
+			// a newer peer gets the latest version this side supports
+			assertEquals(LATEST_VERSION, negotiate(socket, 100));
+		} finally {
+			socket.close();
+		}
+	}
+	
+	public void testNegotiateOlderVersions() throws Exception {
+		EndpointDescription endpoint = export("hello");
+		
+		for(int version=2;version<=LATEST_VERSION;version++){
+			Socket socket = connect(endpoint);
+			try {
+				assertEquals(version, negotiate(socket, version));
+			} finally {
+				socket.close();
+			}
+		}
+	}
+	
+	public void testVersion1Peer() throws Exception {
+		EndpointDescription endpoint = export("hello");
+		String iface = Callable.class.getName();
+		
+		Socket socket = connect(endpoint);
+		try {
+			// a version 1 peer starts with a message instead of a preamble
+			Kryo kryo = new Kryo();
+			Output out = new Output(socket.getOutputStream());
+			out.writeByte(1);
+			out.writeByte(ENDPOINT_REQUEST);
+			out.writeInt(42, false);
+			kryo.writeObject(out, endpoint.getId());
+			out.writeShort(1);
+			kryo.writeObject(out, iface);
+			out.flush();
+			kryo.reset();
+			
+			// the reply is a version 1 message as well
+			Input in = new Input(socket.getInputStream());
+			assertEquals(1, in.readByte());
+			assertEquals(ENDPOINT_DESCRIPTION, in.readByte());
+			assertEquals(42, in.readInt(false));
+			assertEquals(endpoint.getId(), kryo.readObject(in, String.class));
+			assertEquals(endpoint.getServiceId(), in.readLong(false));
+			assertEquals(endpoint.getFrameworkUUID(), kryo.readObject(in, String.class));
+			assertEquals(1, in.readShort());
+			assertEquals(iface, kryo.readObject(in, String.class));
+		} finally {
+			socket.close();
+		}
+	}
+	
+	public void testImportExportedService() throws Exception {
+		EndpointDescription endpoint = export("hello");
+		
+		// the proxy uses the latest version over the channel to this framework
+		ImportRegistration registration = rsa.importService(endpoint);
+		assertNull(registration.getException());
+		try {
+			Callable<?> proxy = (Callable<?>)context.getService(registration.getImportReference().getImportedService());
+			for(int i=0;i<10;i++){
+				assertEquals("hello", proxy.call());
+			}
+		} finally {
+			registration.close();
+		}
+	}
+	
+	public void testBulkImport() throws Exception {
+		assertTrue(rsa instanceof BulkImport);
+		
+		List<EndpointDescription> endpoints = new ArrayList<EndpointDescription>();
+		for(int i=0;i<5;i++){
+			endpoints.add(export("hello "+i));
+		}
+		
+		List<ImportRegistration> imports = ((BulkImport)rsa).importServices(endpoints);
+		try {
+			assertEquals(5, imports.size());
+			for(int i=0;i<5;i++){
+				ImportRegistration registration = imports.get(i);
+				assertNull(registration.getException());
+				assertEquals(endpoints.get(i).getId(), registration.getImportReference().getImportedEndpoint().getId());
+				Callable<?> proxy = (Callable<?>)context.getService(registration.getImportReference().getImportedService());
+				assertEquals("hello "+i, proxy.call());
+			}
+		} finally {
+			for(ImportRegistration registration : imports){
+				registration.close();
+			}
+		}
+	}
+	
+	public void testTransportMetrics() throws Exception {
+		assertServiceAvailable(TransportMetrics.class);
+		ServiceReference ref = context.getServiceReference(TransportMetrics.class.getName());
+		TransportMetrics metrics = (TransportMetrics)context.getService(ref);
+		
+		EndpointDescription endpoint = export("hello");
+		ImportRegistration registration = rsa.importService(endpoint);
+		assertNull(registration.getException());
+		try {
+			Callable<?> proxy = (Callable<?>)context.getService(registration.getImportReference().getImportedService());
+			for(int i=0;i<10;i++){
+				assertEquals("hello", proxy.call());
+			}
+			
+			// both the proxy and the endpoint count the calls
+			int imported = 0;
+			int exported = 0;
+			for(MethodStatistics statistics : metrics.getMethodStatistics()){
+				if(statistics.getEndpointId().equals(endpoint.getId()) && statistics.getMethod().startsWith("call(")){
+					assertEquals(10, statistics.getCalls());
+					assertEquals(10, statistics.getLatencies().getCount());
+					if(statistics.isImported()){
+						imported++;
+					} else {
+						exported++;
+					}
+				}
+			}
+			assertEquals(1, imported);
+			assertEquals(1, exported);
+			assertFalse(metrics.getChannelStatistics().isEmpty());
+		} finally {
+			registration.close();
+		}
+	}
+	
+	/*
+	 * Register a service that is exported by the remote service admin
+	 */
+	private EndpointDescription export(final String result){
+		Hashtable<String, Object> properties = new Hashtable<String, Object>();
+		properties.put(RemoteConstants.SERVICE_EXPORTED_INTERFACES, new String[]{Callable.class.getName()});
+		ServiceRegistration registration = context.registerService(Callable.class.getName(), new Callable<String>(){
+			public String call(){
+				return result;
+			}
+		}, properties);
+		registrations.add(registration);
+		
+		for(ExportReference export : rsa.getExportedServices()){
+			if(export.getExportedService().equals(registration.getReference())){
+				return export.getExportedEndpoint();
+			}
+		}
+		fail("Service is not exported");
+		return null;
+	}
+	
+	/*
+	 * Connect to the address of an r-osgi://host:port#id endpoint
+	 */
+	private Socket connect(EndpointDescription endpoint) throws IOException {
+		String id = endpoint.getId();
+		String address = id.substring(id.indexOf("://")+3, id.indexOf('#'));
+		int colon = address.lastIndexOf(':');
+		Socket socket = new Socket(address.substring(0, colon), Integer.parseInt(address.substring(colon+1)));
+		socket.setSoTimeout(5000);
+		return socket;
+	}
+	
+	/*
+	 * Send the preamble of a version and return the version of the reply
+	 */
+	private int negotiate(Socket socket, int version) throws IOException {
+		OutputStream out = socket.getOutputStream();
+		out.write(MAGIC);
+		out.write(version);
+		out.flush();
+		
+		byte[] reply = new byte[MAGIC.length+1];
+		new DataInputStream(socket.getInputStream()).readFully(reply);
+		assertEquals(Arrays.toString(MAGIC), Arrays.toString(Arrays.copyOf(reply, MAGIC.length)));
+		return reply[MAGIC.length];
+	}
+}